@@ -0,0 +1,455 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2025 Autumn Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Autumn Lamonte ♥
+ * @version 1
+ */
+package jexer.benchmarks;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jexer.backend.ECMA48Backend;
+import jexer.backend.Screen;
+import jexer.bits.Cell;
+import jexer.bits.CellAttributes;
+import jexer.bits.Color;
+
+/**
+ * ECMA48FlushBenchmark measures the cost of pushing one frame of screen
+ * changes through ECMA48Terminal.flushPhysical() into an in-memory stream.
+ * Each benchmark method makes one frame's worth of changes to the logical
+ * screen and then flushes it.
+ *
+ * <p>The reported time is ns/frame.  The "bytes" and "frames" counters are
+ * totals for the same run, so bytes/frame is their ratio.  Run with "-prof
+ * gc" to see the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class ECMA48FlushBenchmark {
+
+    // ------------------------------------------------------------------------
+    // Constants --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Number of rows used by imageRows().
+     */
+    private static final int IMAGE_ROWS = 4;
+
+    /**
+     * Number of distinct image frames cycled through by imageRows().
+     */
+    private static final int IMAGE_FRAMES = 8;
+
+    /**
+     * Number of distinct lines of text cycled through by scrollingText().
+     */
+    private static final int TEXT_LINES = 256;
+
+    // ------------------------------------------------------------------------
+    // Variables --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Screen size as COLUMNSxROWS.
+     */
+    @Param({"80x24", "300x90"})
+    public String size;
+
+    /**
+     * Value for jexer.ECMA48.outputEncoder.
+     */
+    @Param({"bytes", "legacy"})
+    public String outputEncoder;
+
+    /**
+     * Value for jexer.screenStorage.
+     */
+    @Param({"cells", "packed"})
+    public String screenStorage;
+
+    /**
+     * The backend under test.
+     */
+    private ECMA48Backend backend;
+
+    /**
+     * The backend's screen.
+     */
+    private Screen screen;
+
+    /**
+     * Where the terminal output goes.
+     */
+    private CountingOutputStream output;
+
+    /**
+     * The other end of the terminal's input, which is never written and
+     * is closed on teardown.
+     */
+    private PipedOutputStream inputSource;
+
+    /**
+     * Screen width.
+     */
+    private int width;
+
+    /**
+     * Screen height.
+     */
+    private int height;
+
+    /**
+     * The frame number, used to vary the content.
+     */
+    private int frame = 0;
+
+    /**
+     * Attributes reused for drawing.
+     */
+    private CellAttributes attr = new CellAttributes();
+
+    /**
+     * Attributes for the window border in scrollingText().
+     */
+    private CellAttributes border = new CellAttributes();
+
+    /**
+     * Lines of text for scrollingText().
+     */
+    private String [] textLines;
+
+    /**
+     * Image cells for imageRows(), indexed by [frame][column].
+     */
+    private Cell [][] imageCells;
+
+    /**
+     * Output counters.  JMH sums these over the run.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class FrameCounters {
+
+        /**
+         * Bytes written to the terminal.
+         */
+        public long bytes;
+
+        /**
+         * Frames flushed.
+         */
+        public long frames;
+
+        /**
+         * Reset the counters at the start of each iteration.
+         */
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            frames = 0;
+        }
+    }
+
+    /**
+     * An OutputStream that discards everything but counts the bytes.
+     */
+    private static class CountingOutputStream extends OutputStream {
+
+        /**
+         * Bytes written since the last call to getAndReset().
+         */
+        private long count = 0;
+
+        /**
+         * Discard one byte.
+         *
+         * @param b the byte
+         */
+        @Override
+        public void write(final int b) {
+            count++;
+        }
+
+        /**
+         * Discard bytes.
+         *
+         * @param b the bytes
+         * @param off the start offset in b
+         * @param len the number of bytes
+         */
+        @Override
+        public void write(final byte [] b, final int off, final int len) {
+            count += len;
+        }
+
+        /**
+         * Get the number of bytes written and reset to zero.
+         *
+         * @return the number of bytes
+         */
+        public long getAndReset() {
+            long result = count;
+            count = 0;
+            return result;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Setup ------------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Create the terminal and draw the first frame.
+     *
+     * @throws IOException if the terminal cannot be created
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        System.setProperty("jexer.ECMA48.outputEncoder", outputEncoder);
+        System.setProperty("jexer.screenStorage", screenStorage);
+        // Do not wait on a DA response to pick the image protocol: use
+        // sixel.
+        System.setProperty("jexer.ECMA48.jexerImages", "false");
+
+        String [] dimensions = size.split("x");
+        width = Integer.parseInt(dimensions[0]);
+        height = Integer.parseInt(dimensions[1]);
+
+        // The reader thread blocks in read() until teardown.  An empty
+        // stream would be at EOF at once, and the backend would post a
+        // disconnect while the benchmark runs.
+        inputSource = new PipedOutputStream();
+        PipedInputStream input = new PipedInputStream(inputSource);
+        output = new CountingOutputStream();
+        backend = new ECMA48Backend(this, input, output);
+        screen = backend.getScreen();
+        screen.setDimensions(width, height);
+
+        border.setForeColor(Color.WHITE);
+        border.setBackColor(Color.BLUE);
+        border.setBold(true);
+        textLines = new String[TEXT_LINES];
+        for (int i = 0; i < TEXT_LINES; i++) {
+            textLines[i] = String.format("%08d: the quick brown fox " +
+                "jumps over the lazy dog %d", i, i * 31);
+        }
+        makeImages();
+
+        // The first frame is a full clear.
+        screen.putAll(' ', attr);
+        backend.flushScreen();
+        output.getAndReset();
+    }
+
+    /**
+     * Shut down the terminal, and end its input.
+     */
+    @TearDown(Level.Trial)
+    public void teardown() {
+        backend.shutdown();
+        try {
+            inputSource.close();
+        } catch (IOException e) {
+            // SQUASH
+        }
+    }
+
+    /**
+     * Create the images used by imageRows().
+     */
+    private void makeImages() {
+        int textWidth = screen.getTextWidth();
+        int textHeight = screen.getTextHeight();
+        int columns = Math.min(width, 40);
+
+        imageCells = new Cell[IMAGE_FRAMES][columns];
+        for (int i = 0; i < IMAGE_FRAMES; i++) {
+            for (int x = 0; x < columns; x++) {
+                BufferedImage image = new BufferedImage(textWidth, textHeight,
+                    BufferedImage.TYPE_INT_ARGB);
+                Graphics2D gr = image.createGraphics();
+                for (int y = 0; y < textHeight; y++) {
+                    int red = (x * 255) / columns;
+                    int green = (y * 255) / textHeight;
+                    int blue = (i * 255) / IMAGE_FRAMES;
+                    gr.setColor(new java.awt.Color(red, green, blue));
+                    gr.drawLine(0, y, textWidth - 1, y);
+                }
+                gr.dispose();
+                Cell cell = new Cell();
+                cell.setImage(image, (i * columns) + x + 1);
+                imageCells[i][x] = cell;
+            }
+        }
+    }
+
+    /**
+     * Flush the screen and count the output.
+     *
+     * @param counters the counters to update
+     */
+    private void flush(final FrameCounters counters) {
+        backend.flushScreen();
+        counters.bytes += output.getAndReset();
+        counters.frames++;
+        frame++;
+    }
+
+    // ------------------------------------------------------------------------
+    // Benchmarks -------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Nothing changes between frames.
+     *
+     * @param counters the output counters
+     */
+    @Benchmark
+    public void idle(final FrameCounters counters) {
+        flush(counters);
+    }
+
+    /**
+     * Only the cursor moves.
+     *
+     * @param counters the output counters
+     */
+    @Benchmark
+    public void cursorMove(final FrameCounters counters) {
+        screen.putCursor(true, frame % width, (frame / width) % height);
+        flush(counters);
+    }
+
+    /**
+     * Every cell changes character and color.
+     *
+     * @param counters the output counters
+     */
+    @Benchmark
+    public void fullRepaint(final FrameCounters counters) {
+        if ((frame % 2) == 0) {
+            attr.setForeColor(Color.YELLOW);
+            attr.setBackColor(Color.BLUE);
+            screen.putAll('#', attr);
+        } else {
+            attr.setForeColor(Color.WHITE);
+            attr.setBackColor(Color.BLACK);
+            screen.putAll('.', attr);
+        }
+        flush(counters);
+    }
+
+    /**
+     * A bordered window in the middle of the screen scrolls its text up by
+     * one line, like a terminal window tailing a log.
+     *
+     * @param counters the output counters
+     */
+    @Benchmark
+    public void scrollingText(final FrameCounters counters) {
+        int left = 2;
+        int top = 1;
+        int right = width - 2;
+        int bottom = height - 1;
+
+        attr.setForeColor(Color.WHITE);
+        attr.setBackColor(Color.BLUE);
+        screen.drawBox(left, top, right, bottom, border, attr);
+
+        int lines = bottom - top - 2;
+        for (int i = 0; i < lines; i++) {
+            screen.putStringXY(left + 1, top + 1 + i,
+                textLines[(frame + i) % TEXT_LINES], attr);
+        }
+        flush(counters);
+    }
+
+    /**
+     * Every cell has a different 24-bit background color, and the gradient
+     * shifts each frame.
+     *
+     * @param counters the output counters
+     */
+    @Benchmark
+    public void rgbGradient(final FrameCounters counters) {
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = ((x + frame) * 255 / width) & 0xFF;
+                int green = (y * 255 / height) & 0xFF;
+                int blue = (frame * 8) & 0xFF;
+                attr.setForeColorRGB(0xFFFFFF ^ ((red << 16) | (green << 8)
+                        | blue));
+                attr.setBackColorRGB((red << 16) | (green << 8) | blue);
+                screen.putCharXY(x, y, ' ' + ((x + y + frame) % 94), attr);
+            }
+        }
+        flush(counters);
+    }
+
+    /**
+     * Several rows of image cells change each frame, cycling through a
+     * fixed set of images so that the image cache is exercised.
+     *
+     * @param counters the output counters
+     */
+    @Benchmark
+    public void imageRows(final FrameCounters counters) {
+        Cell [] cells = imageCells[frame % IMAGE_FRAMES];
+        for (int y = 0; (y < IMAGE_ROWS) && (y < height); y++) {
+            for (int x = 0; x < cells.length; x++) {
+                screen.putCharXY(x, y + 1, cells[x]);
+            }
+        }
+        flush(counters);
+    }
+
+}
@@ -28,6 +28,7 @@
  */
 package jexer;
 
+import java.awt.Rectangle;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
@@ -37,21 +38,24 @@ import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.text.MessageFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.TreeSet;
 
 import jexer.bits.Cell;
 import jexer.bits.CellAttributes;
 import jexer.bits.Clipboard;
 import jexer.bits.ColorTheme;
 import jexer.bits.StringUtils;
+import jexer.bits.ThreadUtils;
 import jexer.effect.Effect;
 import jexer.effect.WindowBurnInEffect;
 import jexer.effect.WindowBurnOutEffect;
@@ -65,6 +69,7 @@ import jexer.event.TMouseEvent;
 import jexer.event.TResizeEvent;
 import jexer.backend.Backend;
 import jexer.backend.ECMA48Backend;
+import jexer.backend.ECMA48Terminal;
 import jexer.backend.MultiBackend;
 import jexer.backend.Screen;
 import jexer.backend.SwingBackend;
@@ -165,6 +170,12 @@ public class TApplication implements Runnable {
      */
     private volatile WidgetEventHandler secondaryEventHandler;
 
+    /**
+     * The threads started by this application, which run() waits for
+     * before it returns.
+     */
+    private final List<Thread> threads = new ArrayList<Thread>();
+
     /**
      * The screen handler thread.
      */
@@ -235,7 +246,7 @@ public class TApplication implements Runnable {
      * Event queue that will be drained by either primary or secondary
      * Thread.
      */
-    private List<TInputEvent> drainEventQueue;
+    private Deque<TInputEvent> drainEventQueue;
 
     /**
      * Top-level menus in this application.
@@ -273,9 +284,31 @@ public class TApplication implements Runnable {
     private List<TWindow> windows;
 
     /**
-     * Timers that are being ticked.
+     * Timers that are being ticked, soonest deadline first.
+     */
+    private TreeSet<TTimer> timers;
+
+    /**
+     * The timers being ticked by this pass of doIdle().
+     */
+    private List<TTimer> dueTimers = new ArrayList<TTimer>();
+
+    /**
+     * The sequence number given to the next timer scheduled.
      */
-    private List<TTimer> timers;
+    private long timerSequence = 0;
+
+    /**
+     * Timers due within this many milliseconds of each other are ticked
+     * together, saving a wakeup.
+     */
+    private long timerSlack = 2;
+
+    /**
+     * The number of timer ticks that ran later than their deadline plus
+     * timerSlack.
+     */
+    private long lateTimerTicks = 0;
 
     /**
      * When true, the application has been started.
@@ -292,6 +325,53 @@ public class TApplication implements Runnable {
      */
     private volatile boolean repaint = true;
 
+    /**
+     * When true, a keystroke was handled and the next frame should go out
+     * immediately rather than wait for the frame-rate governor.
+     */
+    private volatile boolean latencyFrame = false;
+
+    /**
+     * The minimum number of millis between frames.  0 means no limit.
+     */
+    private long minFrameInterval = 1000 / 60;
+
+    /**
+     * The output budget in bytes per second for ECMA48 screens.  0 means no
+     * limit.
+     */
+    private int maxBytesPerSecond = 0;
+
+    /**
+     * If true, keystrokes and invalidate() redraw only the windows that
+     * overlap the damaged part of the screen.
+     */
+    private boolean partialRepaint = true;
+
+    /**
+     * The part of the screen to redraw on the next update when repaint is
+     * false.  Empty if nothing has been invalidated.
+     */
+    private final Rectangle damage = new Rectangle();
+
+    /**
+     * If true, each window draws to its own offscreen buffer, which is
+     * redrawn only when the window changes and is otherwise just copied to
+     * the screen.
+     */
+    private boolean windowBuffers = false;
+
+    /**
+     * If true, every window's offscreen buffer must be redrawn, because
+     * something might have changed that no window was told about.
+     */
+    private volatile boolean windowsDirty = true;
+
+    /**
+     * The timer that drives desktop/window effects.
+     */
+    private TTimer animationTimer;
+
     /**
      * Y coordinate of the top edge of the desktop.  For now this is a
      * constant.  Someday it would be nice to have a multi-line menu or
@@ -561,12 +641,35 @@ public class TApplication implements Runnable {
                         if (application.drainEventQueue.size() == 0) {
                             break;
                         }
-                        event = application.drainEventQueue.remove(0);
+                        event = application.drainEventQueue.pollFirst();
+
+                        // Only the last of a run of mouse motions matters,
+                        // skip the ones the pointer has already left.
+                        while (isRedundantMotion(event,
+                                application.drainEventQueue.peekFirst())) {
+
+                            event = application.drainEventQueue.pollFirst();
+                        }
                     }
 
                     // We will have an event to process, so repaint the
-                    // screen at the end.
-                    application.repaint = true;
+                    // screen at the end.  A keystroke that leaves the
+                    // windows and menus where they were only needs the
+                    // active window redrawn.
+                    boolean keypress = (event instanceof TKeypressEvent)
+                        && application.partialRepaint;
+                    long layout = 0;
+                    if (keypress) {
+                        layout = application.getLayoutHash();
+                    } else {
+                        application.repaint = true;
+                    }
+
+                    if (event instanceof TKeypressEvent) {
+                        // Echo keystrokes without waiting for the
+                        // frame-rate governor.
+                        application.latencyFrame = true;
+                    }
 
                     if ((event instanceof TMouseEvent)
                         || (event instanceof TKeypressEvent)
@@ -574,11 +677,24 @@ public class TApplication implements Runnable {
                         lastUserInputTime = event.getTime().getTime();
                     }
 
+                    // Keyboard and mouse can only change the active window,
+                    // and the one activated in its place.  Menu and command
+                    // events can reach any window.
+                    if (!(event instanceof TMouseEvent)
+                        && !(event instanceof TKeypressEvent)
+                    ) {
+                        application.windowsDirty = true;
+                    }
+                    application.markActiveWindowDirty();
                     if (primary) {
                         primaryHandleEvent(event);
                     } else {
                         secondaryHandleEvent(event);
                     }
+                    application.markActiveWindowDirty();
+                    if (keypress) {
+                        application.invalidateKeypress(layout);
+                    }
                     if ((!primary)
                         && (application.secondaryEventReceiver == null)
                     ) {
@@ -614,6 +730,12 @@ public class TApplication implements Runnable {
      * ScreenHandler pushes screen updates to the physical device.
      */
     private class ScreenHandler implements Runnable {
+        /**
+         * The largest multiple of the frame interval that the bandwidth
+         * backoff can reach.
+         */
+        private static final int MAX_BACKOFF = 8;
+
         /**
          * The main application.
          */
@@ -632,12 +754,35 @@ public class TApplication implements Runnable {
         /**
          * The last time a frame was rendered.
          */
-        private long lastFlushTime = 0;
+        private volatile long lastFlushTime = 0;
 
         /**
          * How long it took to render the last time in millis.
          */
-        private long lastFrameTime = 0;
+        private volatile long lastFrameTime = 0;
+
+        /**
+         * The earliest time the next paced frame may be flushed.
+         */
+        private volatile long nextFrameTime = 0;
+
+        /**
+         * The current multiple of the frame interval, raised when the
+         * output exceeds maxBytesPerSecond and lowered when it falls well
+         * under.
+         */
+        private int backoff = 1;
+
+        /**
+         * If true, a dirty request has been taken off the queue but not yet
+         * flushed.
+         */
+        private boolean framePending = false;
+
+        /**
+         * If true, flush the pending frame without pacing.
+         */
+        private volatile boolean latencyRequested = false;
 
         /**
          * Public constructor.
@@ -681,6 +826,7 @@ public class TApplication implements Runnable {
                             while (dirtyQueue.size() > 0) {
                                 dirtyQueue.remove(dirtyQueue.size() - 1);
                             }
+                            framePending = true;
                             break;
                         }
                     }
@@ -695,12 +841,22 @@ public class TApplication implements Runnable {
                     }
                 } // while (!application.quit)
 
+                // Hold the frame until the governor allows it.  Any dirty
+                // requests that arrive in the meantime are folded into
+                // this frame.
+                waitForFrame();
+
                  // Flush the screen contents
                 if (DEBUG_THREADS) {
                     System.err.printf("%d %s backend.flushScreen()\n",
                         System.currentTimeMillis(), Thread.currentThread());
                 }
                 synchronized (getScreen()) {
+                    synchronized (dirtyQueue) {
+                        dirtyQueue.clear();
+                        framePending = false;
+                        latencyRequested = false;
+                    }
                     long before = System.currentTimeMillis();
                     backend.flushScreen();
                     long now = System.currentTimeMillis();
@@ -710,8 +866,15 @@ public class TApplication implements Runnable {
                     } else {
                         framesPerSecond = frameCount;
                         frameCount = 0;
+                        updateBackoff();
                     }
                     lastFlushTime = now;
+                    if (minFrameInterval > 0) {
+                        nextFrameTime = before + backoff
+                            * Math.max(minFrameInterval, 2 * lastFrameTime);
+                    } else {
+                        nextFrameTime = 0;
+                    }
                 }
             } // while (true) (main runnable loop)
 
@@ -719,6 +882,79 @@ public class TApplication implements Runnable {
             backend.shutdown();
         }
 
+        /**
+         * Wait until the next frame is due.  A latency frame only waits
+         * until the time the last frame took to render has passed again.
+         */
+        private void waitForFrame() {
+            while (!application.quit) {
+                long now = System.currentTimeMillis();
+                long delay;
+                if (latencyRequested) {
+                    delay = lastFlushTime + lastFrameTime - now;
+                } else {
+                    delay = nextFrameTime - now;
+                }
+                if (delay <= 0) {
+                    return;
+                }
+                try {
+                    synchronized (this) {
+                        this.wait(delay);
+                    }
+                } catch (InterruptedException e) {
+                    // SQUASH
+                }
+            }
+        }
+
+        /**
+         * Adjust the bandwidth backoff from the bytes written over the last
+         * second.  Called once per second.
+         */
+        private void updateBackoff() {
+            if ((maxBytesPerSecond <= 0)
+                || !(getScreen() instanceof ECMA48Terminal)
+            ) {
+                backoff = 1;
+                return;
+            }
+            int bytes = ((ECMA48Terminal) getScreen()).getBytesPerSecond();
+            if (bytes > maxBytesPerSecond) {
+                backoff = Math.min(backoff * 2, MAX_BACKOFF);
+            } else if ((bytes < maxBytesPerSecond / 2) && (backoff > 1)) {
+                backoff = backoff / 2;
+            }
+        }
+
+        /**
+         * Get the number of millis until the next paced frame is due.
+         *
+         * @param now the current time in millis
+         * @return the number of millis to wait, or 0 if a frame can go out
+         * now
+         */
+        public long getFrameDelay(final long now) {
+            return Math.max(0, nextFrameTime - now);
+        }
+
+        /**
+         * Flush the pending frame, if there is one, without waiting for the
+         * frame-rate governor.
+         */
+        public void requestLatencyFrame() {
+            synchronized (dirtyQueue) {
+                if ((dirtyQueue.size() == 0) && !framePending) {
+                    // Nothing was drawn, so there is nothing to hurry.
+                    return;
+                }
+                latencyRequested = true;
+            }
+            synchronized (this) {
+                notify();
+            }
+        }
+
         /**
          * Set the dirty flag.
          */
@@ -925,15 +1161,54 @@ public class TApplication implements Runnable {
             translucence = false;
         }
 
+        // Frame-rate governor options
+        try {
+            int maxFps = Integer.parseInt(System.getProperty(
+                "jexer.maxFramesPerSecond", "60"));
+            if (maxFps <= 0) {
+                minFrameInterval = 0;
+            } else {
+                minFrameInterval = Math.max(1, 1000 / maxFps);
+            }
+        } catch (NumberFormatException e) {
+            // SQUASH
+        }
+        try {
+            maxBytesPerSecond = Math.max(0, Integer.parseInt(
+                System.getProperty("jexer.maxBytesPerSecond", "0")));
+        } catch (NumberFormatException e) {
+            // SQUASH
+        }
+
+        // Damage-region repaint option
+        if (System.getProperty("jexer.partialRepaint",
+                "true").equals("false")) {
+            partialRepaint = false;
+        }
+
+        // Timer coalescing option
+        try {
+            timerSlack = Math.max(0, Long.parseLong(
+                System.getProperty("jexer.timerSlack", "2")));
+        } catch (NumberFormatException e) {
+            // SQUASH
+        }
+
+        // Offscreen window buffers option
+        if (System.getProperty("jexer.windowBuffers",
+                "false").equals("true")) {
+            windowBuffers = true;
+        }
+
         theme           = new ColorTheme();
         desktopTop      = (hideMenuBar ? 0 : 1);
         desktopBottom   = getScreen().getHeight() - 1 + (hideStatusBar ? 1 : 0);
         fillEventQueue  = new LinkedList<TInputEvent>();
-        drainEventQueue = new LinkedList<TInputEvent>();
+        drainEventQueue = new ArrayDeque<TInputEvent>();
         windows         = new LinkedList<TWindow>();
         menus           = new ArrayList<TMenu>();
         subMenus        = new ArrayList<TMenu>();
-        timers          = new LinkedList<TTimer>();
+        timers          = new TreeSet<TTimer>();
         accelerators    = new HashMap<TKeypress, TMenuItem>();
         menuItems       = new LinkedList<TMenuItem>();
         desktop         = new TDesktop(this);
@@ -972,16 +1247,24 @@ public class TApplication implements Runnable {
                 );
             }
         } else {
-            // Animations always check every 1/32 of a second.
+            // Animations always check every 1/32 of a second, but only
+            // repaint while an effect is running.
             final int ANIMATION_FPS = 32;
-            TTimer animationTimer = addTimer(1000 / ANIMATION_FPS, true,
+            animationTimer = addTimer(1000 / ANIMATION_FPS, true,
                 new TAction() {
                     public void DO() {
+                        boolean animating = false;
+                        synchronized (effects) {
+                            animating = (effects.size() > 0);
+                        }
                         runEffects();
-                        doRepaint();
+                        if (animating || !partialRepaint) {
+                            doRepaint();
+                        }
                     }
                 }
             );
+            animationTimer.setRepaint(false);
         }
 
         // Load the help system
@@ -1019,11 +1302,11 @@ public class TApplication implements Runnable {
 
         // Start the screen updater thread
         screenHandler = new ScreenHandler(this);
-        (new Thread(screenHandler)).start();
+        startThread(screenHandler, "TApplication screen");
 
         // Start the main consumer thread
         primaryEventHandler = new WidgetEventHandler(this, true);
-        (new Thread(primaryEventHandler)).start();
+        startThread(primaryEventHandler, "TApplication primary");
 
         started = true;
 
@@ -1075,6 +1358,13 @@ public class TApplication implements Runnable {
                         break;
                     }
                     event = fillEventQueue.remove(0);
+                    if ((event instanceof TResizeEvent)
+                        && (fillEventQueue.size() > 0)
+                        && (fillEventQueue.get(0) instanceof TResizeEvent)
+                    ) {
+                        // The next resize replaces this one.
+                        continue;
+                    }
                 }
                 metaHandleEvent(event);
             }
@@ -1097,6 +1387,17 @@ public class TApplication implements Runnable {
                 primaryEventHandler.notify();
             }
         }
+        synchronized (screenHandler) {
+            screenHandler.notify();
+        }
+
+        // Wait for them to finish, so that nothing is still drawing or
+        // writing to the backend when run() returns.
+        List<Thread> started;
+        synchronized (threads) {
+            started = new ArrayList<Thread>(threads);
+        }
+        ThreadUtils.join(started, 2000);
 
         // Close all the windows.  This gives them an opportunity to release
         // resources.
@@ -1424,12 +1725,32 @@ public class TApplication implements Runnable {
             runEffects();
         }
 
+        // Keystrokes are drawn right away.  Anything else waits until the
+        // frame-rate governor allows the next frame, so that a burst of
+        // mouse motion or terminal output is drawn once.  repaint stays
+        // set and getSleepTime() wakes us when the frame is due.
+        boolean latency = latencyFrame;
+        latencyFrame = false;
+        if (!latency && (screenHandler != null)
+            && (screenHandler.getFrameDelay(System.currentTimeMillis()) > 0)
+        ) {
+            if (DEBUG_THREADS) {
+                System.err.printf(System.currentTimeMillis() + " " +
+                    Thread.currentThread() + " finishEventProcessing() " +
+                    "frame deferred\n");
+            }
+            return;
+        }
+
         // Update the screen
         synchronized (getScreen()) {
             drawAll();
         }
 
         // Wake up the screen repainter
+        if (latency && (screenHandler != null)) {
+            screenHandler.requestLatencyFrame();
+        }
         wakeScreenHandler();
 
         if (DEBUG_THREADS) {
@@ -1438,6 +1759,37 @@ public class TApplication implements Runnable {
         }
     }
 
+    /**
+     * See if a mouse motion event is made obsolete by the event queued
+     * right after it: another motion from the same backend, with the same
+     * buttons and modifiers held.
+     *
+     * @param event the event about to be dispatched
+     * @param next the event after it, or null
+     * @return true if event can be dropped in favor of next
+     */
+    private static boolean isRedundantMotion(final TInputEvent event,
+        final TInputEvent next) {
+
+        if (!(event instanceof TMouseEvent) || !(next instanceof TMouseEvent)) {
+            return false;
+        }
+        TMouseEvent mouse = (TMouseEvent) event;
+        TMouseEvent nextMouse = (TMouseEvent) next;
+        if ((mouse.getType() != TMouseEvent.Type.MOUSE_MOTION)
+            || (nextMouse.getType() != TMouseEvent.Type.MOUSE_MOTION)
+        ) {
+            return false;
+        }
+        return ((mouse.getBackend() == nextMouse.getBackend())
+            && (mouse.isMouse1() == nextMouse.isMouse1())
+            && (mouse.isMouse2() == nextMouse.isMouse2())
+            && (mouse.isMouse3() == nextMouse.isMouse3())
+            && (mouse.isAlt() == nextMouse.isAlt())
+            && (mouse.isCtrl() == nextMouse.isCtrl())
+            && (mouse.isShift() == nextMouse.isShift()));
+    }
+
     /**
      * Peek at certain application-level events, add to eventQueue, and wake
      * up the consuming Thread.
@@ -1855,7 +2207,28 @@ public class TApplication implements Runnable {
         secondaryEventReceiver = widget;
         secondaryEventHandler = new WidgetEventHandler(this, false);
 
-        (new Thread(secondaryEventHandler)).start();
+        startThread(secondaryEventHandler, "TApplication secondary");
+    }
+
+    /**
+     * Start a thread that run() will wait for before it returns.
+     *
+     * @param runnable the code for the thread to run
+     * @param name the thread name
+     */
+    private void startThread(final Runnable runnable, final String name) {
+        Thread thread = ThreadUtils.newThread(runnable, name);
+        synchronized (threads) {
+            // Forget the ones that are already done, secondary threads
+            // come and go with each modal dialog.
+            for (int i = threads.size() - 1; i >= 0; i--) {
+                if (!threads.get(i).isAlive()) {
+                    threads.remove(i);
+                }
+            }
+            threads.add(thread);
+            thread.start();
+        }
     }
 
     /**
@@ -1929,23 +2302,44 @@ public class TApplication implements Runnable {
                     Thread.currentThread() + " doIdle() 2\n");
             }
 
-            // Run any timers that have timed out
-            Date now = new Date();
-            List<TTimer> keepTimers = new LinkedList<TTimer>();
-            for (TTimer timer: timers) {
-                if (timer.getNextTick().getTime() <= now.getTime()) {
-                    // Something might change, so repaint the screen.
+            // Take every timer that is due now, or within timerSlack of
+            // now.  Timers added or re-scheduled by these ticks wait for
+            // the next pass.
+            long now = System.nanoTime();
+            long horizon = now + timerSlack * 1000000L;
+            while (!timers.isEmpty()
+                && (timers.first().getDeadline() - horizon <= 0)
+            ) {
+                dueTimers.add(timers.pollFirst());
+            }
+
+            // Run them
+            for (TTimer timer: dueTimers) {
+                if (timer.cancelled) {
+                    // Removed by an earlier tick.
+                    continue;
+                }
+                long late = (now - timer.getDeadline()) / 1000000L;
+                if (late > timerSlack) {
+                    lateTimerTicks++;
+                    onTimerLate(timer, late);
+                }
+
+                // Something might change, so repaint the screen, unless
+                // the timer asks for its own repaints.
+                if (timer.repaint || !partialRepaint) {
                     repaint = true;
-                    timer.tick();
-                    if (timer.recurring) {
-                        keepTimers.add(timer);
-                    }
+                    windowsDirty = true;
+                }
+                timer.tick();
+                if (timer.recurring && !timer.cancelled) {
+                    timer.sequence = timerSequence++;
+                    timers.add(timer);
                 } else {
-                    keepTimers.add(timer);
+                    timer.cancelled = true;
                 }
             }
-            timers.clear();
-            timers.addAll(keepTimers);
+            dueTimers.clear();
         }
 
         if (DEBUG_THREADS) {
@@ -1971,7 +2365,10 @@ public class TApplication implements Runnable {
         for (Runnable invoke: invokes) {
             invoke.run();
         }
-        doRepaint();
+        if ((invokes.size() > 0) || !partialRepaint) {
+            // The invokeLaters might have changed anything.
+            doRepaint();
+        }
 
         if (DEBUG_THREADS) {
             System.err.printf(System.currentTimeMillis() + " " +
@@ -2171,6 +2568,61 @@ public class TApplication implements Runnable {
      */
     public void doRepaint() {
         repaint = true;
+        windowsDirty = true;
+        requestRedraw();
+    }
+
+    /**
+     * Redraw part of the screen on the next update.  Only the desktop and
+     * windows that overlap the rectangle are drawn, and only inside it.
+     * Widgets that change outside of input event handling should call this
+     * (via TWidget.invalidate()) or doRepaint().
+     *
+     * @param x left column of the rectangle.  0 is the left-most column.
+     * @param y top row of the rectangle.  0 is the top-most row.
+     * @param width number of columns in the rectangle
+     * @param height number of rows in the rectangle
+     */
+    public void invalidate(final int x, final int y, final int width,
+        final int height) {
+
+        if ((width <= 0) || (height <= 0)) {
+            return;
+        }
+        if (!partialRepaint) {
+            doRepaint();
+            return;
+        }
+        synchronized (damage) {
+            if (damage.isEmpty()) {
+                damage.setBounds(x, y, width, height);
+            } else {
+                damage.add(new Rectangle(x, y, width, height));
+            }
+        }
+        requestRedraw();
+    }
+
+    /**
+     * See if anything needs to be drawn on the next update.
+     *
+     * @return true if the screen needs a full repaint or has an invalidated
+     * rectangle
+     */
+    private boolean isRedrawPending() {
+        if (repaint) {
+            return true;
+        }
+        synchronized (damage) {
+            return !damage.isEmpty();
+        }
+    }
+
+    /**
+     * Wake the event handler to draw the screen, unless input or the
+     * frame time will do that soon anyway.
+     */
+    private void requestRedraw() {
         boolean wakeAndReturn = false;
         synchronized (drainEventQueue) {
             if (fillEventQueue.size() > 0) {
@@ -2728,6 +3180,128 @@ public class TApplication implements Runnable {
             windowWidth, 1, 0x000000, shadowAlpha);
     }
 
+    /**
+     * Compute a hash of everything outside the windows' contents that a
+     * keystroke could change: the window stack and geometry, the menus, and
+     * the mouse and selection state.
+     *
+     * @return the hash
+     */
+    private long getLayoutHash() {
+        long hash = windows.size();
+        for (TWindow window: windows) {
+            hash = hash * 31 + System.identityHashCode(window);
+            hash = hash * 31 + window.getX();
+            hash = hash * 31 + window.getY();
+            hash = hash * 31 + window.getWidth();
+            hash = hash * 31 + window.getHeight();
+            hash = hash * 31 + window.getZ();
+            hash = hash * 31 + window.getAlpha();
+            hash = hash * 31 + (window.isShown() ? 1 : 0);
+            hash = hash * 31 + (window.isActive() ? 1 : 0);
+        }
+        hash = hash * 31 + System.identityHashCode(desktop);
+        hash = hash * 31 + System.identityHashCode(activeMenu);
+        for (TMenu menu: menus) {
+            hash = hash * 31 + (menu.isActive() ? 1 : 0);
+        }
+        hash = hash * 31 + subMenus.size();
+        hash = hash * 31 + (typingHidMouse ? 1 : 0);
+        hash = hash * 31 + (inScreenSelection ? 1 : 0);
+        hash = hash * 31 + desktopTop;
+        hash = hash * 31 + desktopBottom;
+        return hash;
+    }
+
+    /**
+     * Mark the active window's offscreen buffer as needing to be redrawn.
+     */
+    private void markActiveWindowDirty() {
+        TWindow activeWindow = getActiveWindow();
+        if (activeWindow != null) {
+            activeWindow.bufferDirty = true;
+        }
+    }
+
+    /**
+     * Called after a keystroke has been dispatched.  If the layout did not
+     * change, only the active window is redrawn, otherwise the whole
+     * screen.
+     *
+     * @param layout the value of getLayoutHash() before the keystroke
+     */
+    private void invalidateKeypress(final long layout) {
+        TWindow activeWindow = getActiveWindow();
+        if ((activeWindow == null) || (layout != getLayoutHash())) {
+            repaint = true;
+            return;
+        }
+        // Include the shadow.
+        invalidate(activeWindow.getX(), activeWindow.getY(),
+            activeWindow.getWidth() + 2, activeWindow.getHeight() + 1);
+    }
+
+    /**
+     * See if the screen can be updated by drawing only the damaged
+     * rectangle.  Menus, selections, effects, and the pixel overlay are
+     * drawn over the whole screen, so they need a full repaint.
+     *
+     * @return true if a partial redraw is safe
+     */
+    private boolean canDrawDamage() {
+        if ((activeMenu != null) || (subMenus.size() > 0)
+            || inScreenSelection
+            || (customMousePointer != null)
+            || (customWidgetMousePointer != null)
+            || (overlay.getItems().size() > 0)
+        ) {
+            return false;
+        }
+        for (TMenu menu: menus) {
+            if (menu.isActive()) {
+                return false;
+            }
+        }
+        synchronized (effects) {
+            if (effects.size() > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy a window's offscreen buffer to the screen, redrawing the buffer
+     * first if the window has changed, and add the window's shadow.
+     *
+     * @param screen the screen to draw on
+     * @param window the window to draw
+     */
+    private void drawBufferedWindow(final Screen screen,
+        final TWindow window) {
+
+        int windowX = window.getX();
+        int windowY = window.getY();
+        int windowWidth = window.getWidth();
+        int windowHeight = window.getHeight();
+        Screen buffer = window.drawBuffer(false);
+        screen.resetClipping();
+        screen.blendScreen(buffer, windowX, windowY, windowWidth,
+            windowHeight, (translucence ? window.getAlpha() : 255), true);
+
+        if (translucence) {
+            final int shadowOpacity = 30;
+            final int shadowAlpha = shadowOpacity * window.getAlpha() / 100;
+            screen.blendRectangle(windowX + windowWidth, windowY + 1,
+                2, windowHeight - 1, 0x000000, shadowAlpha);
+            screen.blendRectangle(windowX + 2, windowY + windowHeight,
+                windowWidth, 1, 0x000000, shadowAlpha);
+        } else {
+            screen.drawBoxShadow(windowX, windowY, windowX + windowWidth,
+                windowY + windowHeight);
+        }
+    }
+
     /**
      * Draw everything.
      */
@@ -2739,8 +3313,24 @@ public class TApplication implements Runnable {
                 System.currentTimeMillis(), Thread.currentThread());
         }
 
+        // Take the damaged rectangle for this frame.
+        Rectangle dirty = null;
+        synchronized (damage) {
+            if (!damage.isEmpty()) {
+                dirty = damage.intersection(new Rectangle(0, 0,
+                        getScreen().getWidth(), getScreen().getHeight()));
+                damage.setBounds(0, 0, 0, 0);
+            }
+        }
+        if ((dirty != null) && dirty.isEmpty()) {
+            dirty = null;
+        }
+        if (!repaint && (dirty != null) && !canDrawDamage()) {
+            repaint = true;
+        }
+
         // I don't think this does anything useful anymore...
-        if (!repaint && (customMousePointer == null)
+        if (!repaint && (dirty == null) && (customMousePointer == null)
             && (customWidgetMousePointer == null)
         ) {
             if (DEBUG_THREADS) {
@@ -2822,6 +3412,18 @@ public class TApplication implements Runnable {
         // If true, the cursor is not visible
         boolean cursor = false;
 
+        if (!repaint) {
+            // Only the damaged rectangle is drawn, the rest of the screen
+            // keeps last frame.  Put back the cell under the text mouse
+            // first so that it is not inverted twice.
+            getScreen().resetClipping();
+            oldDrawnMouseCell.restoreImage();
+            getScreen().putCharXY(oldDrawnMouseX, oldDrawnMouseY,
+                oldDrawnMouseCell);
+            getScreen().setDamageClip(dirty.x, dirty.y, dirty.width,
+                dirty.height);
+        }
+
         // Start with a clean screen
         getScreen().clear();
 
@@ -2830,6 +3432,13 @@ public class TApplication implements Runnable {
             desktop.drawChildren();
         }
 
+        if (windowsDirty) {
+            windowsDirty = false;
+            for (TWindow window: windows) {
+                window.bufferDirty = true;
+            }
+        }
+
         // Draw each window in reverse Z order
         List<TWindow> sorted = new ArrayList<TWindow>(windows);
         Collections.sort(sorted);
@@ -2840,13 +3449,23 @@ public class TApplication implements Runnable {
         Collections.reverse(sorted);
         for (TWindow window: sorted) {
             if (window.isShown()) {
-                if (translucence) {
+                if (!repaint && !dirty.intersects(window.getX(),
+                        window.getY(), window.getWidth() + 2,
+                        window.getHeight() + 1)
+                ) {
+                    // Not damaged, including its shadow.
+                    continue;
+                }
+                if (windowBuffers) {
+                    drawBufferedWindow(getScreen(), window);
+                } else if (translucence) {
                     drawTranslucentWindow(getScreen(), window);
                 } else {
                     window.drawChildren();
                 }
             }
         }
+        getScreen().resetDamageClip();
 
         if (hideMenuBar == false) {
             // Draw the blank menubar line - reset the screen clipping first
@@ -4345,6 +4964,10 @@ public class TApplication implements Runnable {
         editMenu.addDefaultItem(TMenu.MID_COPY, false);
         editMenu.addDefaultItem(TMenu.MID_PASTE, false);
         editMenu.addDefaultItem(TMenu.MID_CLEAR, false);
+        editMenu.addSeparator();
+        editMenu.addDefaultItem(TMenu.MID_FIND, false);
+        editMenu.addDefaultItem(TMenu.MID_REPLACE, false);
+        editMenu.addDefaultItem(TMenu.MID_SEARCH_AGAIN, false);
         TStatusBar statusBar = editMenu.newStatusBar(i18n.
             getString("editMenuStatus"));
         statusBar.addShortcutKeypress(kbF1, cmHelp, i18n.getString("Help"));
@@ -4463,24 +5086,33 @@ public class TApplication implements Runnable {
      * @return number of milliseconds between now and the next timer event
      */
     private long getSleepTime(final long timeout) {
-        Date now = new Date();
-        long nowTime = now.getTime();
+        long nowTime = System.currentTimeMillis();
         long sleepTime = timeout;
 
         synchronized (timers) {
-            for (TTimer timer: timers) {
-                long nextTickTime = timer.getNextTick().getTime();
-                if (nextTickTime < nowTime) {
+            if (!timers.isEmpty()) {
+                long timeDifference = timers.first().getDeadline()
+                    - System.nanoTime();
+                if (timeDifference <= 0) {
                     return 0;
                 }
-
-                long timeDifference = nextTickTime - nowTime;
+                // Round up, waking before the deadline is a wasted pass.
+                timeDifference = (timeDifference + 999999L) / 1000000L;
                 if (timeDifference < sleepTime) {
                     sleepTime = timeDifference;
                 }
             }
         }
 
+        if ((screenHandler != null) && isRedrawPending()) {
+            // A frame was deferred by the frame-rate governor, wake up when
+            // it is due.
+            long frameDelay = screenHandler.getFrameDelay(nowTime);
+            if (frameDelay < sleepTime) {
+                sleepTime = frameDelay;
+            }
+        }
+
         assert (sleepTime >= 0);
         assert (sleepTime <= timeout);
         return sleepTime;
@@ -4499,6 +5131,7 @@ public class TApplication implements Runnable {
 
         TTimer timer = new TTimer(duration, recurring, action);
         synchronized (timers) {
+            timer.sequence = timerSequence++;
             timers.add(timer);
         }
         return timer;
@@ -4512,9 +5145,36 @@ public class TApplication implements Runnable {
     public final void removeTimer(final TTimer timer) {
         synchronized (timers) {
             timers.remove(timer);
+            timer.cancelled = true;
         }
     }
 
+    /**
+     * Get the number of timer ticks that ran later than their deadline by
+     * more than jexer.timerSlack milliseconds, usually because drawing or
+     * event handling kept the event thread busy.
+     *
+     * @return the number of late ticks since the application started
+     */
+    public final long getLateTimerTicks() {
+        synchronized (timers) {
+            return lateTimerTicks;
+        }
+    }
+
+    /**
+     * Method that TApplication subclasses can override to collect metrics
+     * on late timers.  Called on the event thread just before the late
+     * timer is ticked.
+     *
+     * @param timer the timer
+     * @param millis how many milliseconds after its deadline the timer is
+     * being ticked
+     */
+    protected void onTimerLate(final TTimer timer, final long millis) {
+        // Default: do nothing
+    }
+
     // ------------------------------------------------------------------------
     // Other TWindow constructors ---------------------------------------------
     // ------------------------------------------------------------------------
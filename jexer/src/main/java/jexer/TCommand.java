@@ -135,6 +135,11 @@ public class TCommand {
      */
     public static final int SAVE                = 30;
 
+    /**
+     * Edit the file being viewed.
+     */
+    public static final int EDIT                = 31;
+
     /**
      * Backend disconnected.
      */
@@ -236,6 +241,11 @@ public class TCommand {
      */
     public static final TCommand cmSave         = new TCommand(SAVE);
 
+    /**
+     * Edit the file being viewed.
+     */
+    public static final TCommand cmEdit         = new TCommand(EDIT);
+
     /**
      * Enter first menu.
      */
@@ -29,8 +29,6 @@
 package jexer;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 import jexer.bits.CellAttributes;
 import jexer.bits.StringUtils;
@@ -40,6 +38,8 @@ import jexer.event.TMouseEvent;
 import jexer.event.TResizeEvent;
 import jexer.teditor.Document;
 import jexer.teditor.Line;
+import jexer.teditor.Search;
+import jexer.teditor.UndoJournal;
 import jexer.teditor.Word;
 import static jexer.TCommand.*;
 import static jexer.TKeypress.*;
@@ -59,6 +59,17 @@ public class TEditorWidget extends TWidget implements EditMenuUser {
      */
     private static final int wheelScrollSize = 3;
 
+    /**
+     * The longest a search runs before letting the screen update, in
+     * millis.
+     */
+    private static final long SEARCH_SLICE_MILLIS = 20;
+
+    /**
+     * The number of characters a search reads between looks at the clock.
+     */
+    private static final int SEARCH_STEP_CHARS = 64 * 1024;
+
     // ------------------------------------------------------------------------
     // Variables --------------------------------------------------------------
     // ------------------------------------------------------------------------
@@ -109,19 +120,16 @@ public class TEditorWidget extends TWidget implements EditMenuUser {
     private int selectionLine1;
 
     /**
-     * The list of undo/redo states.
-     */
-    private List<SavedState> undoList = new ArrayList<SavedState>();
-
-    /**
-     * The position in undoList for undo/redo.
+     * The edits that can be undone and redone.
      */
-    private int undoListI = 0;
+    private UndoJournal undoJournal = new UndoJournal(1000,
+        UndoJournal.DEFAULT_MAX_CHARS);
 
     /**
-     * The maximum size of the undo list.
+     * If true, edits are part of the undo unit already begun, e.g. while
+     * pasting.
      */
-    private int undoLevel = 50;
+    private boolean undoGrouped = false;
 
     /**
      * An optional margin to display, or 0 for no margin.
@@ -134,25 +142,26 @@ public class TEditorWidget extends TWidget implements EditMenuUser {
     private boolean autoWrap = false;
 
     /**
-     * The saved state for an undo/redo operation.
+     * The search whose matches are highlighted, or null.
      */
-    private class SavedState {
-        /**
-         * The Document state.
-         */
-        public Document document;
+    private Search search = null;
 
-        /**
-         * The topmost line number in the visible area.  0-based.
-         */
-        public int topLine = 0;
+    /**
+     * The position in the text a new search starts from, or -1 to start
+     * from the cursor.  This stays put while the search is being typed, so
+     * that each longer pattern is looked for from the same place.
+     */
+    private int searchOrigin = -1;
 
-        /**
-         * The leftmost column number in the visible area.  0-based.
-         */
-        public int leftColumn = 0;
+    /**
+     * The action to call when a find finishes.
+     */
+    private TAction searchAction = null;
 
-    }
+    /**
+     * The timer that runs the slices of a find after the first, or null.
+     */
+    private TTimer searchTimer = null;
 
     // ------------------------------------------------------------------------
     // Constructors -----------------------------------------------------------
@@ -180,6 +189,7 @@ public class TEditorWidget extends TWidget implements EditMenuUser {
 
         defaultColor = getTheme().getColor("teditor");
         document = new Document(text, defaultColor);
+        document.setUndoJournal(undoJournal);
     }
 
     // ------------------------------------------------------------------------
@@ -213,6 +223,8 @@ public class TEditorWidget extends TWidget implements EditMenuUser {
         }
 
         if (mouse.isMouse1()) {
+            stopSearch();
+
             // Selection.
             int newLine = topLine + mouse.getY();
             int newX = leftColumn + mouse.getX();
@@ -374,6 +386,8 @@ public class TEditorWidget extends TWidget implements EditMenuUser {
      */
     @Override
     public void onKeypress(final TKeypressEvent keypress) {
+        stopSearch();
+
         if (keypress.getKey().isShift()) {
             if (keypress.equals(kbShiftLeft)
                 || keypress.equals(kbShiftRight)
@@ -532,7 +546,7 @@ public class TEditorWidget extends TWidget implements EditMenuUser {
         ) {
             // Plain old keystroke, process it
             deleteSelection();
-            saveUndo();
+            saveTypingUndo(keypress.getKey().getChar());
             document.addChar(keypress.getKey().getChar());
             alignCursor();
         } else {
@@ -595,32 +609,15 @@ public class TEditorWidget extends TWidget implements EditMenuUser {
         }
 
         if (command.equals(cmPaste)) {
-            // Delete selected text, then paste text from clipboard.
-            deleteSelection();
-
-            String text = getClipboard().pasteText();
-            if (text != null) {
-                for (int i = 0; i < text.length(); ) {
-                    int ch = text.codePointAt(i);
-                    switch (ch) {
-                    case '\n':
-                        onKeypress(new TKeypressEvent(command.getBackend(),
-                                kbEnter));
-                        break;
-                    case '\t':
-                        onKeypress(new TKeypressEvent(command.getBackend(),
-                                kbTab));
-                        break;
-                    default:
-                        if ((ch >= 0x20) && (ch != 0x7F)) {
-                            onKeypress(new TKeypressEvent(command.getBackend(),
-                                    false, 0, ch, false, false, false));
-                        }
-                        break;
-                    }
-
-                    i += Character.charCount(ch);
-                }
+            // Delete selected text, then paste text from clipboard.  The
+            // whole paste is undone as one.
+            saveUndo();
+            undoGrouped = true;
+            try {
+                deleteSelection();
+                pasteText(command, getClipboard().pasteText());
+            } finally {
+                undoGrouped = false;
             }
             return;
         }
@@ -644,6 +641,7 @@ public class TEditorWidget extends TWidget implements EditMenuUser {
     public void draw() {
         CellAttributes selectedColor = getTheme().getColor("teditor.selected");
         CellAttributes marginColor = getTheme().getColor("teditor.margin");
+        CellAttributes matchColor = getTheme().getColor("teditor.match");
 
         boolean drawSelection = true;
 
@@ -686,6 +684,16 @@ public class TEditorWidget extends TWidget implements EditMenuUser {
                     }
                 }
 
+                // Highlight search matches, only ever on the visible lines
+                if (search != null) {
+                    int [] matches = search.findColumns(line.getRawString());
+                    for (int j = 0; j < matches.length; j += 2) {
+                        for (x = matches[j]; x < matches[j + 1]; x++) {
+                            putAttrXY(x - leftColumn, i, matchColor);
+                        }
+                    }
+                }
+
                 // Highlight selected region
                 if (inSelection && drawSelection) {
                     if (startRow == endRow) {
@@ -749,7 +757,7 @@ public class TEditorWidget extends TWidget implements EditMenuUser {
      * @param undoLevel the maximum number of undo operations
      */
     public void setUndoLevel(final int undoLevel) {
-        this.undoLevel = undoLevel;
+        undoJournal.setMaxUnits(undoLevel);
     }
 
     /**
@@ -1022,6 +1030,7 @@ public class TEditorWidget extends TWidget implements EditMenuUser {
      */
     public void wrapText() {
         if (margin > 0) {
+            saveUndo();
             document.wrapText(margin);
             alignDocument(true);
         }
@@ -1117,6 +1126,37 @@ public class TEditorWidget extends TWidget implements EditMenuUser {
         alignTopLine(true);
     }
 
+    /**
+     * Paste text as though it was typed.
+     *
+     * @param command the paste command event
+     * @param text the text to paste, or null
+     */
+    private void pasteText(final TCommandEvent command, final String text) {
+        if (text == null) {
+            return;
+        }
+        for (int i = 0; i < text.length(); ) {
+            int ch = text.codePointAt(i);
+            switch (ch) {
+            case '\n':
+                onKeypress(new TKeypressEvent(command.getBackend(), kbEnter));
+                break;
+            case '\t':
+                onKeypress(new TKeypressEvent(command.getBackend(), kbTab));
+                break;
+            default:
+                if ((ch >= 0x20) && (ch != 0x7F)) {
+                    onKeypress(new TKeypressEvent(command.getBackend(),
+                            false, 0, ch, false, false, false));
+                }
+                break;
+            }
+
+            i += Character.charCount(ch);
+        }
+    }
+
     /**
      * Copy text within the selection bounds to clipboard.
      */
@@ -1420,7 +1460,10 @@ public class TEditorWidget extends TWidget implements EditMenuUser {
      * @param text the new contents
      */
     public void setText(final String text) {
+        stopSearch();
         document = new Document(text, defaultColor);
+        undoJournal.clear();
+        document.setUndoJournal(undoJournal);
         unsetSelection();
         topLine = 0;
         leftColumn = 0;
@@ -1467,35 +1510,41 @@ public class TEditorWidget extends TWidget implements EditMenuUser {
     }
 
     /**
-     * Save undo state.
+     * Begin a new undo unit for an edit that is about to be made.  Every
+     * edit comes through here or saveTypingUndo(), so this also cancels a
+     * find that is reading the text as it was.
      */
     private void saveUndo() {
-        SavedState state = new SavedState();
-        state.document = document.dup();
-        state.topLine = topLine;
-        state.leftColumn = leftColumn;
-        if (undoLevel > 0) {
-            while (undoList.size() > undoLevel) {
-                undoList.remove(0);
-            }
+        stopSearch();
+        if (!undoGrouped) {
+            undoJournal.begin(document, topLine, leftColumn);
+        }
+    }
+
+    /**
+     * Begin an undo unit for typing a character, or continue the one for
+     * the word being typed.
+     *
+     * @param ch the character about to be typed
+     */
+    private void saveTypingUndo(final int ch) {
+        stopSearch();
+        if (!undoGrouped) {
+            undoJournal.beginTyping(document, topLine, leftColumn, ch);
         }
-        undoList.add(state);
-        undoListI = undoList.size() - 1;
     }
 
     /**
      * Undo an edit.
      */
     public void undo() {
+        stopSearch();
         inSelection = false;
-        if ((undoListI >= 0) && (undoListI < undoList.size())) {
-            SavedState state = undoList.get(undoListI);
-            document = state.document.dup();
-            topLine = state.topLine;
-            leftColumn = state.leftColumn;
-            undoListI--;
-            setCursorY(document.getLineNumber() - topLine);
-            alignCursor();
+        UndoJournal.Unit unit = undoJournal.undo(document);
+        if (unit != null) {
+            topLine = unit.getTopLine();
+            leftColumn = unit.getLeftColumn();
+            alignTopLine(false);
         }
     }
 
@@ -1503,15 +1552,13 @@ public class TEditorWidget extends TWidget implements EditMenuUser {
      * Redo an edit.
      */
     public void redo() {
+        stopSearch();
         inSelection = false;
-        if ((undoListI >= 0) && (undoListI < undoList.size())) {
-            SavedState state = undoList.get(undoListI);
-            document = state.document.dup();
-            topLine = state.topLine;
-            leftColumn = state.leftColumn;
-            undoListI++;
-            setCursorY(document.getLineNumber() - topLine);
-            alignCursor();
+        UndoJournal.Unit unit = undoJournal.redo(document);
+        if (unit != null) {
+            topLine = unit.getTopLine();
+            leftColumn = unit.getLeftColumn();
+            alignTopLine(false);
         }
     }
 
@@ -1520,6 +1567,7 @@ public class TEditorWidget extends TWidget implements EditMenuUser {
      * lines from the document.
      */
     public void cleanWhitespace() {
+        saveUndo();
         document.cleanWhitespace();
         setCursorY(document.getLineNumber() - topLine);
         alignCursor();
@@ -1534,4 +1582,156 @@ public class TEditorWidget extends TWidget implements EditMenuUser {
         document.setHighlighting(enabled);
     }
 
+    /**
+     * Get the search whose matches are highlighted.
+     *
+     * @return the search, or null if there is none
+     */
+    public Search getSearch() {
+        return search;
+    }
+
+    /**
+     * Set the search to highlight, and find its first match.  The find
+     * starts from where the previous search found its match, or from the
+     * cursor, so that the pattern can be searched for as it is typed.  It
+     * runs a slice at a time between screen updates, and is cancelled by
+     * the next call, a keystroke, or a mouse click.  The match found is
+     * selected.
+     *
+     * @param search the search, or null to stop searching
+     */
+    public void setSearch(final Search search) {
+        int origin = searchOrigin;
+        stopSearch();
+        this.search = search;
+        if (search == null) {
+            return;
+        }
+        if (origin < 0) {
+            origin = document.getPosition();
+        }
+        searchOrigin = origin;
+        search.start(document, origin);
+        runSearch();
+    }
+
+    /**
+     * Set the action to call when a find finishes, whether or not it found
+     * a match.  It is not called for a find that was cancelled.
+     *
+     * @param action the action, or null for none
+     */
+    public void setSearchAction(final TAction action) {
+        searchAction = action;
+    }
+
+    /**
+     * Find the next match of the search after the cursor, going on from the
+     * top of the document if need be.
+     */
+    public void findNext() {
+        if ((search == null) || search.isEmpty()) {
+            return;
+        }
+        stopSearch();
+        search.start(document, document.getPosition());
+        runSearch();
+    }
+
+    /**
+     * Replace every match of the search.  All of the replacements are
+     * undone as one.
+     *
+     * @param replacement the replacement text.  For a regular expression,
+     * $n and ${name} stand for groups of the match.
+     * @return the number of matches replaced
+     * @throws IllegalArgumentException if the replacement names a group
+     * that does not exist
+     */
+    public int replaceAll(final String replacement) {
+        if (search == null) {
+            return 0;
+        }
+        stopSearch();
+        inSelection = false;
+        saveUndo();
+        int count = document.replaceAll(search, replacement);
+        if (count > 0) {
+            alignTopLine(false);
+        }
+        return count;
+    }
+
+    /**
+     * Cancel a find that is running, and forget where it started.
+     */
+    private void stopSearch() {
+        if (search != null) {
+            search.cancel();
+        }
+        if (searchTimer != null) {
+            getApplication().removeTimer(searchTimer);
+            searchTimer = null;
+        }
+        searchOrigin = -1;
+    }
+
+    /**
+     * Run the find for one slice of time, and either show the match or
+     * leave the next slice to searchTimer.
+     */
+    private void runSearch() {
+        long deadline = System.currentTimeMillis() + SEARCH_SLICE_MILLIS;
+        while (!search.step(SEARCH_STEP_CHARS)) {
+            if (System.currentTimeMillis() >= deadline) {
+                if (searchTimer == null) {
+                    // Nothing on screen changes until the find is done, so
+                    // the slices do not repaint it.
+                    searchTimer = getApplication().addTimer(0, true,
+                        new TAction() {
+                            public void DO() {
+                                runSearch();
+                            }
+                        }
+                    );
+                    searchTimer.setRepaint(false);
+                }
+                return;
+            }
+        }
+        if (searchTimer != null) {
+            getApplication().removeTimer(searchTimer);
+            searchTimer = null;
+        }
+        if (search.isFound()) {
+            showMatch();
+        }
+        if (searchAction != null) {
+            searchAction.DO(this);
+        }
+        // The match, and whatever searchAction updated, are in this
+        // window.
+        getWindow().invalidate();
+    }
+
+    /**
+     * Select the match found, put the cursor after it, and scroll it into
+     * view.
+     */
+    private void showMatch() {
+        int line = search.getMatchLine();
+        searchOrigin = search.getMatchStart();
+        document.setLineNumber(line);
+        document.setCursor(search.getMatchEndColumn());
+        setSelection(line, search.getMatchColumn(), line,
+            search.getMatchEndColumn() - 1);
+        if ((line < topLine) || (line > topLine + getHeight() - 1)) {
+            // Put the match in the middle.
+            topLine = Math.max(0, line - getHeight() / 2);
+        }
+        setCursorY(line - topLine);
+        alignCursor();
+    }
+
 }
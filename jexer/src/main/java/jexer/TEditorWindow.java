@@ -33,6 +33,7 @@ import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.ResourceBundle;
 import java.util.Scanner;
+import java.util.regex.PatternSyntaxException;
 
 import jexer.TApplication;
 import jexer.TEditorWidget;
@@ -48,14 +49,44 @@ import jexer.event.TMenuEvent;
 import jexer.event.TMouseEvent;
 import jexer.event.TResizeEvent;
 import jexer.menu.TMenu;
+import jexer.teditor.MappedFile;
+import jexer.teditor.Search;
 import static jexer.TCommand.*;
 import static jexer.TKeypress.*;
 
 /**
- * TEditorWindow is a basic text file editor.
+ * TEditorWindow is a basic text file editor.  Files too large to edit
+ * comfortably are opened instead in a read-only viewer, which can be
+ * promoted to the editor if the file is small enough.
  */
 public class TEditorWindow extends TScrollableWindow {
 
+    // ------------------------------------------------------------------------
+    // Constants --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Files of at least this many bytes open in the read-only viewer by
+     * default.
+     */
+    private static final long DEFAULT_VIEW_FILE_SIZE = 16L * 1024 * 1024;
+
+    /**
+     * Files of at most this many bytes can be promoted from the viewer to
+     * the editor by default.
+     */
+    private static final long DEFAULT_EDIT_FILE_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Milliseconds between checks on the viewer's indexer.
+     */
+    private static final long INDEX_PROGRESS_MILLIS = 250;
+
+    /**
+     * Columns kept at the end of the find bar for its status message.
+     */
+    private static final int FIND_STATUS_WIDTH = 16;
+
     // ------------------------------------------------------------------------
     // Variables --------------------------------------------------------------
     // ------------------------------------------------------------------------
@@ -70,6 +101,58 @@ public class TEditorWindow extends TScrollableWindow {
      */
     private TEditorWidget editField;
 
+    /**
+     * The read-only viewer used in place of editField for large files.
+     * Only one of viewer and editField is non-null.
+     */
+    private TFileViewerWidget viewer;
+
+    /**
+     * The file shown by the viewer.
+     */
+    private MappedFile mappedFile;
+
+    /**
+     * Progress of the viewer's indexer, shown until it finishes.
+     */
+    private TProgressBar indexProgress;
+
+    /**
+     * Timer to update indexProgress.
+     */
+    private TTimer indexTimer;
+
+    /**
+     * The label of the find bar, or null if the find bar is closed.
+     */
+    private TLabel findLabel;
+
+    /**
+     * The text to find.
+     */
+    private TField findField;
+
+    /**
+     * If checked, the text to find is a regular expression.
+     */
+    private TCheckBox findRegex;
+
+    /**
+     * If checked, letter case must match.
+     */
+    private TCheckBox findMatchCase;
+
+    /**
+     * The result of the last find or replace.
+     */
+    private TLabel findStatus;
+
+    /**
+     * The search when the find bar was last closed, to fill it in when it
+     * is opened again.
+     */
+    private Search lastSearch;
+
     /**
      * The fully-qualified name of the file being edited.
      */
@@ -145,7 +228,16 @@ public class TEditorWindow extends TScrollableWindow {
         i18n = ResourceBundle.getBundle(TEditorWindow.class.getName(),
             getLocale());
 
-        filename = file.getName();
+        filename = file.getPath();
+        if (file.length() >= getSizeProperty("jexer.TEditor.viewFileSize",
+                DEFAULT_VIEW_FILE_SIZE)) {
+
+            mappedFile = new MappedFile(file);
+            viewer = new TFileViewerWidget(this, mappedFile, 0, 0,
+                getWidth() - 2, getHeight() - 2);
+            setupAfterViewer();
+            return;
+        }
         String contents = readFileData(file);
         editField = addEditor(contents, 0, 0, getWidth() - 2, getHeight() - 2);
         setupAfterEditor();
@@ -173,8 +265,13 @@ public class TEditorWindow extends TScrollableWindow {
      */
     public void onFocus() {
         super.onFocus();
-        getApplication().enableMenuItem(TMenu.MID_UNDO);
-        getApplication().enableMenuItem(TMenu.MID_REDO);
+        if (editField != null) {
+            getApplication().enableMenuItem(TMenu.MID_UNDO);
+            getApplication().enableMenuItem(TMenu.MID_REDO);
+            getApplication().enableMenuItem(TMenu.MID_FIND);
+            getApplication().enableMenuItem(TMenu.MID_REPLACE);
+            getApplication().enableMenuItem(TMenu.MID_SEARCH_AGAIN);
+        }
     }
 
     /**
@@ -185,6 +282,9 @@ public class TEditorWindow extends TScrollableWindow {
         super.onUnfocus();
         getApplication().disableMenuItem(TMenu.MID_UNDO);
         getApplication().disableMenuItem(TMenu.MID_REDO);
+        getApplication().disableMenuItem(TMenu.MID_FIND);
+        getApplication().disableMenuItem(TMenu.MID_REPLACE);
+        getApplication().disableMenuItem(TMenu.MID_SEARCH_AGAIN);
     }
 
     /**
@@ -203,14 +303,11 @@ public class TEditorWindow extends TScrollableWindow {
 
         if (mouseOnEditor(mouse)) {
             // The editor might have changed, update the scollbars.
-            setBottomValue(editField.getMaximumRowNumber());
-            setVerticalValue(editField.getVisibleRowNumber());
-            setRightValue(editField.getMaximumColumnNumber());
-            setHorizontalValue(editField.getEditingColumnNumber());
+            updateScrollers();
         } else {
             if (mouse.isMouseWheelUp() || mouse.isMouseWheelDown()) {
                 // Vertical scrollbar actions
-                editField.setVisibleRowNumber(getVerticalValue());
+                scrollToRow(getVerticalValue());
             }
         }
     }
@@ -231,12 +328,11 @@ public class TEditorWindow extends TScrollableWindow {
 
         if (mouse.isMouse1() && mouseOnVerticalScroller(mouse)) {
             // Clicked on vertical scrollbar
-            editField.setVisibleRowNumber(getVerticalValue());
+            scrollToRow(getVerticalValue());
         }
         if (mouse.isMouse1() && mouseOnHorizontalScroller(mouse)) {
             // Clicked on horizontal scrollbar
-            editField.setVisibleColumnNumber(getHorizontalValue());
-            setHorizontalValue(editField.getVisibleColumnNumber());
+            scrollToColumn(getHorizontalValue());
         }
     }
 
@@ -256,19 +352,15 @@ public class TEditorWindow extends TScrollableWindow {
 
         if (mouseOnEditor(mouse) && mouse.isMouse1()) {
             // The editor might have changed, update the scollbars.
-            setBottomValue(editField.getMaximumRowNumber());
-            setVerticalValue(editField.getVisibleRowNumber());
-            setRightValue(editField.getMaximumColumnNumber());
-            setHorizontalValue(editField.getEditingColumnNumber());
+            updateScrollers();
         } else {
             if (mouse.isMouse1() && mouseOnVerticalScroller(mouse)) {
                 // Clicked/dragged on vertical scrollbar
-                editField.setVisibleRowNumber(getVerticalValue());
+                scrollToRow(getVerticalValue());
             }
             if (mouse.isMouse1() && mouseOnHorizontalScroller(mouse)) {
                 // Clicked/dragged on horizontal scrollbar
-                editField.setVisibleColumnNumber(getHorizontalValue());
-                setHorizontalValue(editField.getVisibleColumnNumber());
+                scrollToColumn(getHorizontalValue());
             }
         }
 
@@ -285,14 +377,30 @@ public class TEditorWindow extends TScrollableWindow {
             typingHidMouse = true;
         }
 
+        if (editField != null) {
+            if (keypress.equals(kbCtrlF)) {
+                openFindBar();
+                return;
+            }
+            if (keypress.equals(kbCtrlL)) {
+                findNext();
+                return;
+            }
+            if (keypress.equals(kbCtrlR)) {
+                replaceAll();
+                return;
+            }
+            if (keypress.equals(kbEsc) && (findField != null)) {
+                closeFindBar();
+                return;
+            }
+        }
+
         // Use TWidget's code to pass the event to the children.
         super.onKeypress(keypress);
 
         // The editor might have changed, update the scollbars.
-        setBottomValue(editField.getMaximumRowNumber());
-        setVerticalValue(editField.getVisibleRowNumber());
-        setRightValue(editField.getMaximumColumnNumber());
-        setHorizontalValue(editField.getEditingColumnNumber());
+        updateScrollers();
     }
 
     /**
@@ -307,10 +415,27 @@ public class TEditorWindow extends TScrollableWindow {
             TResizeEvent editSize = new TResizeEvent(event.getBackend(),
                 TResizeEvent.Type.WIDGET, event.getWidth() - 2,
                 event.getHeight() - 2);
-            editField.onResize(editSize);
+            if (findField != null) {
+                // Leave the bottom row to the find bar.
+                editField.onResize(new TResizeEvent(event.getBackend(),
+                        TResizeEvent.Type.WIDGET, event.getWidth() - 2,
+                        event.getHeight() - 3));
+            } else if (editField != null) {
+                editField.onResize(editSize);
+            } else {
+                viewer.onResize(editSize);
+                if (indexProgress != null) {
+                    viewer.setHeight(editSize.getHeight() - 1);
+                    indexProgress.setY(editSize.getHeight() - 1);
+                    indexProgress.setWidth(editSize.getWidth());
+                }
+            }
 
             // Have TScrollableWindow handle the scrollbars
             super.onResize(event);
+            if (findField != null) {
+                layoutFindBar();
+            }
             return;
         }
 
@@ -332,8 +457,7 @@ public class TEditorWindow extends TScrollableWindow {
                 String filename = fileOpenBox(".");
                 if (filename != null) {
                     try {
-                        String contents = readFileData(filename);
-                        new TEditorWindow(getApplication(), filename, contents);
+                        new TEditorWindow(getApplication(), new File(filename));
                     } catch (IOException e) {
                         messageBox(i18n.getString("errorDialogTitle"),
                             MessageFormat.format(i18n.
@@ -348,8 +472,15 @@ public class TEditorWindow extends TScrollableWindow {
             return;
         }
 
+        if (command.equals(cmEdit)) {
+            if (viewer != null) {
+                promoteToEditor();
+            }
+            return;
+        }
+
         if (command.equals(cmSave)) {
-            if (filename.length() > 0) {
+            if ((filename.length() > 0) && (editField != null)) {
                 try {
                     editField.saveToFilename(filename);
                 } catch (IOException e) {
@@ -372,6 +503,12 @@ public class TEditorWindow extends TScrollableWindow {
      */
     @Override
     public void onMenu(final TMenuEvent menu) {
+        if (editField == null) {
+            // The viewer has nothing to undo.
+            super.onMenu(menu);
+            return;
+        }
+
         switch (menu.getId()) {
         case TMenu.MID_UNDO:
             editField.undo();
@@ -381,6 +518,18 @@ public class TEditorWindow extends TScrollableWindow {
             editField.redo();
             return;
 
+        case TMenu.MID_FIND:
+            openFindBar();
+            return;
+
+        case TMenu.MID_REPLACE:
+            replaceAll();
+            return;
+
+        case TMenu.MID_SEARCH_AGAIN:
+            findNext();
+            return;
+
         default:
             break;
         }
@@ -402,13 +551,20 @@ public class TEditorWindow extends TScrollableWindow {
 
         // Add the row:col on the bottom row
         CellAttributes borderColor = getBorder();
-        String location = String.format(" %d:%d ",
-            editField.getEditingRowNumber(),
-            editField.getEditingColumnNumber());
+        String location;
+        if (editField != null) {
+            location = String.format(" %d:%d ",
+                editField.getEditingRowNumber(),
+                editField.getEditingColumnNumber());
+        } else {
+            location = String.format(" %d:%d ",
+                viewer.getVisibleRowNumber(),
+                viewer.getVisibleColumnNumber());
+        }
         int colon = location.indexOf(':');
         putStringXY(10 - colon, getHeight() - 1, location, borderColor);
 
-        if (editField.isDirty()) {
+        if ((editField != null) && editField.isDirty()) {
             putCharXY(2, getHeight() - 1, GraphicsChars.OCTOSTAR, borderColor);
         }
     }
@@ -425,6 +581,19 @@ public class TEditorWindow extends TScrollableWindow {
         return (super.hasHiddenMouse() || typingHidMouse);
     }
 
+    /**
+     * Stop indexing and release the viewer's file when the window closes.
+     */
+    @Override
+    public void onClose() {
+        super.onClose();
+        closeViewer();
+        if (editField != null) {
+            // Stop any find still running.
+            editField.setSearch(null);
+        }
+    }
+
     // ------------------------------------------------------------------------
     // TEditorWindow ----------------------------------------------------------
     // ------------------------------------------------------------------------
@@ -433,13 +602,10 @@ public class TEditorWindow extends TScrollableWindow {
      * Setup other fields after the editor is created.
      */
     private void setupAfterEditor() {
-        hScroller = new THScroller(this, 17, getHeight() - 2, getWidth() - 20);
-        vScroller = new TVScroller(this, getWidth() - 2, 0, getHeight() - 2);
-        setMinimumWindowWidth(25);
-        setMinimumWindowHeight(10);
-        setTopValue(1);
+        if (hScroller == null) {
+            setupScrollers();
+        }
         setBottomValue(editField.getMaximumRowNumber());
-        setLeftValue(1);
         setRightValue(editField.getMaximumColumnNumber());
 
         statusBar = newStatusBar(i18n.getString("statusBar"));
@@ -452,24 +618,410 @@ public class TEditorWindow extends TScrollableWindow {
         statusBar.addShortcutKeypress(kbShiftF10, cmMenu,
             i18n.getString("statusBarMenu"));
 
+        String marginString = System.getProperty("jexer.TEditor.margin");
+        if (marginString != null) {
+            try {
+                int margin = Integer.parseInt(marginString);
+                editField.setMargin(margin);
+            } catch (NumberFormatException e) {
+                // SQUASH
+            }
+        }
+        editField.setAutoWrap(System.getProperty("jexer.TEditor.autoWrap",
+                "false").equals("true"));
+        editField.setSearchAction(new TAction() {
+            public void DO() {
+                showFindResult();
+            }
+        });
+    }
+
+    /**
+     * Setup other fields after the viewer is created.
+     */
+    private void setupAfterViewer() {
+        setupScrollers();
+        setBottomValue(viewer.getMaximumRowNumber());
+        setRightValue(viewer.getMaximumColumnNumber());
+
+        statusBar = newStatusBar(i18n.getString("statusBarViewer"));
+        statusBar.addShortcutKeypress(kbF1, cmHelp,
+            i18n.getString("statusBarHelp"));
+        statusBar.addShortcutKeypress(kbF3, cmOpen,
+            i18n.getString("statusBarOpen"));
+        statusBar.addShortcutKeypress(kbF4, cmEdit,
+            i18n.getString("statusBarEdit"));
+        statusBar.addShortcutKeypress(kbShiftF10, cmMenu,
+            i18n.getString("statusBarMenu"));
+
+        // Show the indexer's progress on the bottom row until it is done.
+        // The viewer is the active child and so is drawn last: keep it off
+        // that row.
+        viewer.setHeight(getHeight() - 3);
+        indexProgress = new TProgressBar(this, 0, getHeight() - 3,
+            getWidth() - 2, 0);
+        indexTimer = getApplication().addTimer(INDEX_PROGRESS_MILLIS, true,
+            new TAction() {
+                public void DO() {
+                    updateIndexProgress();
+                }
+            }
+        );
+    }
+
+    /**
+     * Setup the scrollbars and the options shared by the editor and the
+     * viewer.
+     */
+    private void setupScrollers() {
+        hScroller = new THScroller(this, 17, getHeight() - 2, getWidth() - 20);
+        vScroller = new TVScroller(this, getWidth() - 2, 0, getHeight() - 2);
+        setMinimumWindowWidth(25);
+        setMinimumWindowHeight(10);
+        setTopValue(1);
+        setLeftValue(1);
+
         // Hide mouse when typing option
         if (System.getProperty("jexer.TEditor.hideMouseWhenTyping",
                 "true").equals("false")) {
 
             hideMouseWhenTyping = false;
         }
+    }
 
-        String marginString = System.getProperty("jexer.TEditor.margin");
-        if (marginString != null) {
+    /**
+     * Called by indexTimer: pick up the lines indexed so far, and drop the
+     * progress bar once the indexer is done.
+     */
+    private void updateIndexProgress() {
+        if (mappedFile == null) {
+            return;
+        }
+        updateScrollers();
+        if (indexProgress != null) {
+            indexProgress.setValue(mappedFile.getIndexedPercent());
+        }
+        if (mappedFile.isIndexed()) {
+            getApplication().removeTimer(indexTimer);
+            indexTimer = null;
+            if (indexProgress != null) {
+                remove(indexProgress);
+                indexProgress = null;
+                viewer.setHeight(getHeight() - 2);
+            }
+            if (mappedFile.getError() != null) {
+                // This is a timer tick: a modal box here would wait for
+                // events while the application holds its timers lock.
+                final String message = MessageFormat.format(i18n.
+                    getString("errorReadingFile"),
+                    mappedFile.getError().getMessage());
+                getApplication().invokeLater(new Runnable() {
+                    public void run() {
+                        messageBox(i18n.getString("errorDialogTitle"),
+                            message);
+                    }
+                });
+            }
+        }
+        getApplication().doRepaint();
+    }
+
+    /**
+     * Replace the viewer with an editor holding the whole file, if the
+     * file is small enough.
+     */
+    private void promoteToEditor() {
+        long size = mappedFile.getSize();
+        if (size > getSizeProperty("jexer.TEditor.editFileSize",
+                DEFAULT_EDIT_FILE_SIZE)) {
+
+            messageBox(i18n.getString("errorDialogTitle"),
+                MessageFormat.format(i18n.getString("errorFileTooLarge"),
+                    size));
+            return;
+        }
+
+        // Decode the mapping rather than re-reading the file, so that the
+        // editor shows exactly what the viewer did.
+        String contents = mappedFile.getText();
+        int row = viewer.getVisibleRowNumber();
+        closeViewer();
+
+        editField = addEditor(contents, 0, 0, getWidth() - 2, getHeight() - 2);
+        activate(editField);
+        setupAfterEditor();
+        editField.setVisibleRowNumber(row);
+        editField.setEditingRowNumber(row);
+        updateScrollers();
+        getApplication().enableMenuItem(TMenu.MID_UNDO);
+        getApplication().enableMenuItem(TMenu.MID_REDO);
+        getApplication().enableMenuItem(TMenu.MID_FIND);
+        getApplication().enableMenuItem(TMenu.MID_REPLACE);
+        getApplication().enableMenuItem(TMenu.MID_SEARCH_AGAIN);
+    }
+
+    /**
+     * Remove the viewer, if there is one, and release its file.
+     */
+    private void closeViewer() {
+        if (indexTimer != null) {
+            getApplication().removeTimer(indexTimer);
+            indexTimer = null;
+        }
+        // On close, TWindow.onClose() has already removed the children.
+        if (indexProgress != null) {
+            if (hasChild(indexProgress)) {
+                remove(indexProgress);
+            }
+            indexProgress = null;
+        }
+        if (viewer != null) {
+            if (hasChild(viewer)) {
+                remove(viewer);
+            }
+            viewer = null;
+        }
+        if (mappedFile != null) {
+            mappedFile.close();
+            mappedFile = null;
+        }
+    }
+
+    /**
+     * Open the find bar on the bottom row, or move to it if it is open.
+     * The editor is searched as the text is typed.
+     */
+    private void openFindBar() {
+        if (editField == null) {
+            return;
+        }
+        if (findField != null) {
+            activate(findField);
+            return;
+        }
+
+        String text = "";
+        boolean regex = false;
+        boolean matchCase = false;
+        if (lastSearch != null) {
+            text = lastSearch.getPattern();
+            regex = lastSearch.isRegex();
+            matchCase = lastSearch.isMatchCase();
+        }
+        TAction update = new TAction() {
+            public void DO() {
+                updateSearch();
+            }
+        };
+        int y = getHeight() - 3;
+        findLabel = new TLabel(this, i18n.getString("findLabel"), 0, y);
+        findField = new TField(this, 0, y, 1, false, text,
+            new TAction() {
+                public void DO() {
+                    findNext();
+                }
+            }, update);
+        findRegex = new TCheckBox(this, 0, y, i18n.getString("findRegex"),
+            regex, update);
+        findMatchCase = new TCheckBox(this, 0, y,
+            i18n.getString("findMatchCase"), matchCase, update);
+        findStatus = new TLabel(this, "", 0, y);
+        editField.onResize(new TResizeEvent(getApplication().getBackend(),
+                TResizeEvent.Type.WIDGET, getWidth() - 2, getHeight() - 3));
+        layoutFindBar();
+        activate(findField);
+        if (text.length() > 0) {
+            updateSearch();
+        }
+    }
+
+    /**
+     * Close the find bar and stop highlighting matches.
+     */
+    private void closeFindBar() {
+        lastSearch = editField.getSearch();
+        editField.setSearch(null);
+        remove(findLabel);
+        remove(findField);
+        remove(findRegex);
+        remove(findMatchCase);
+        remove(findStatus);
+        findLabel = null;
+        findField = null;
+        findRegex = null;
+        findMatchCase = null;
+        findStatus = null;
+        editField.onResize(new TResizeEvent(getApplication().getBackend(),
+                TResizeEvent.Type.WIDGET, getWidth() - 2, getHeight() - 2));
+        activate(editField);
+    }
+
+    /**
+     * Place the find bar's widgets along the bottom row.
+     */
+    private void layoutFindBar() {
+        int y = getHeight() - 3;
+        int x = findLabel.getWidth() + 1;
+        int fieldWidth = getWidth() - 2 - x - findRegex.getWidth()
+            - findMatchCase.getWidth() - 3 - FIND_STATUS_WIDTH;
+
+        findLabel.setY(y);
+        findField.setX(x);
+        findField.setY(y);
+        findField.setWidth(Math.max(fieldWidth, 1));
+        x += findField.getWidth() + 1;
+        findRegex.setX(x);
+        findRegex.setY(y);
+        x += findRegex.getWidth() + 1;
+        findMatchCase.setX(x);
+        findMatchCase.setY(y);
+        x += findMatchCase.getWidth() + 1;
+        findStatus.setX(x);
+        findStatus.setY(y);
+    }
+
+    /**
+     * Search for the text in the find bar, as it is typed.  While the text
+     * is not a valid regular expression, the last one stays highlighted.
+     */
+    private void updateSearch() {
+        Search search = null;
+        try {
+            search = new Search(findField.getText(), findRegex.isChecked(),
+                findMatchCase.isChecked());
+        } catch (PatternSyntaxException e) {
+            findStatus.setLabel(i18n.getString("findBadPattern"));
+            return;
+        }
+        findStatus.setLabel("");
+        editField.setSearch(search);
+        updateScrollers();
+    }
+
+    /**
+     * Find the next match, or open the find bar if there is nothing to
+     * find yet.
+     */
+    private void findNext() {
+        if (editField == null) {
+            return;
+        }
+        if (editField.getSearch() == null) {
+            openFindBar();
+            return;
+        }
+        findStatus.setLabel("");
+        editField.findNext();
+        updateScrollers();
+    }
+
+    /**
+     * Ask for the replacement text, and replace every match.
+     */
+    private void replaceAll() {
+        if (editField == null) {
+            return;
+        }
+        Search search = editField.getSearch();
+        if ((search == null) || search.isEmpty()) {
+            openFindBar();
+            return;
+        }
+
+        TInputBox inputBox = inputBox(i18n.getString("replaceInputTitle"),
+            MessageFormat.format(i18n.getString("replaceInputCaption"),
+                search.getPattern()), "", TMessageBox.Type.OKCANCEL);
+        if (!inputBox.isOk()) {
+            return;
+        }
+        try {
+            int count = editField.replaceAll(inputBox.getText());
+            findStatus.setLabel(MessageFormat.format(i18n.
+                    getString("replaceCount"), count));
+        } catch (IllegalArgumentException e) {
+            messageBox(i18n.getString("errorDialogTitle"),
+                MessageFormat.format(i18n.getString("errorReplacing"),
+                    e.getMessage()));
+        }
+        updateScrollers();
+    }
+
+    /**
+     * Called by the editor when a find finishes: say if nothing was found,
+     * and follow the match with the scrollbars.
+     */
+    private void showFindResult() {
+        Search search = editField.getSearch();
+        if ((findStatus != null) && !search.isEmpty() && !search.isFound()) {
+            findStatus.setLabel(i18n.getString("findNotFound"));
+        }
+        updateScrollers();
+    }
+
+    /**
+     * Update the scrollbars from the editor or viewer.
+     */
+    private void updateScrollers() {
+        if (editField != null) {
+            setBottomValue(editField.getMaximumRowNumber());
+            setVerticalValue(editField.getVisibleRowNumber());
+            setRightValue(editField.getMaximumColumnNumber());
+            setHorizontalValue(editField.getEditingColumnNumber());
+        } else if (viewer != null) {
+            setBottomValue(viewer.getMaximumRowNumber());
+            setVerticalValue(viewer.getVisibleRowNumber());
+            setRightValue(viewer.getMaximumColumnNumber());
+            setHorizontalValue(viewer.getVisibleColumnNumber());
+        }
+    }
+
+    /**
+     * Scroll the editor or viewer to a row.
+     *
+     * @param row the new visible row number.  Row 1 is the first row.
+     */
+    private void scrollToRow(final int row) {
+        if (editField != null) {
+            editField.setVisibleRowNumber(row);
+        } else if (viewer != null) {
+            viewer.setVisibleRowNumber(row);
+        }
+    }
+
+    /**
+     * Scroll the editor or viewer to a column, and update the horizontal
+     * scrollbar to match.
+     *
+     * @param column the new visible column number.  Column 1 is the first
+     * column.
+     */
+    private void scrollToColumn(final int column) {
+        if (editField != null) {
+            editField.setVisibleColumnNumber(column);
+            setHorizontalValue(editField.getVisibleColumnNumber());
+        } else if (viewer != null) {
+            viewer.setVisibleColumnNumber(column);
+            setHorizontalValue(viewer.getVisibleColumnNumber());
+        }
+    }
+
+    /**
+     * Read a file size limit from a system property.
+     *
+     * @param name the property name
+     * @param defaultValue the value if the property is unset or invalid
+     * @return the limit in bytes
+     */
+    private long getSizeProperty(final String name, final long defaultValue) {
+        String value = System.getProperty(name);
+        if (value != null) {
             try {
-                int margin = Integer.parseInt(marginString);
-                editField.setMargin(margin);
+                return Long.parseLong(value);
             } catch (NumberFormatException e) {
                 // SQUASH
             }
         }
-        editField.setAutoWrap(System.getProperty("jexer.TEditor.autoWrap",
-                "false").equals("true"));
+        return defaultValue;
     }
 
     /**
@@ -0,0 +1,308 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2025 Autumn Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Autumn Lamonte ♥
+ * @version 1
+ */
+package jexer;
+
+import jexer.bits.CellAttributes;
+import jexer.bits.StringUtils;
+import jexer.event.TKeypressEvent;
+import jexer.event.TMouseEvent;
+import jexer.event.TResizeEvent;
+import jexer.teditor.MappedFile;
+import static jexer.TKeypress.*;
+
+/**
+ * TFileViewerWidget displays a MappedFile read-only.  Only the lines in
+ * the visible area are ever decoded, so it can show files far larger
+ * than the heap, and it can be scrolled while the file is still being
+ * indexed.  Like TEditorWidget, it is unaware of scrolling behavior, but
+ * can respond to mouse and keyboard events.
+ */
+public class TFileViewerWidget extends TWidget {
+
+    // ------------------------------------------------------------------------
+    // Constants --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of lines to scroll on mouse wheel up/down.
+     */
+    private static final int wheelScrollSize = 3;
+
+    // ------------------------------------------------------------------------
+    // Variables --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The file being viewed.
+     */
+    private MappedFile file;
+
+    /**
+     * The color for the text.
+     */
+    private CellAttributes defaultColor = null;
+
+    /**
+     * The topmost line number in the visible area.  0-based.
+     */
+    private int topLine = 0;
+
+    /**
+     * The leftmost column number in the visible area.  0-based.
+     */
+    private int leftColumn = 0;
+
+    /**
+     * The width of the longest line drawn so far.
+     */
+    private int lineLengthMax = 0;
+
+    // ------------------------------------------------------------------------
+    // Constructors -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Public constructor.
+     *
+     * @param parent parent widget
+     * @param file the file to display
+     * @param x column relative to parent
+     * @param y row relative to parent
+     * @param width width of text area
+     * @param height height of text area
+     */
+    @SuppressWarnings("this-escape")
+    public TFileViewerWidget(final TWidget parent, final MappedFile file,
+        final int x, final int y, final int width, final int height) {
+
+        // Set parent and window
+        super(parent, x, y, width, height);
+
+        this.file = file;
+        setCursorVisible(false);
+        defaultColor = getTheme().getColor("teditor");
+    }
+
+    // ------------------------------------------------------------------------
+    // Event handlers ---------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Handle mouse press events.
+     *
+     * @param mouse mouse button press event
+     */
+    @Override
+    public void onMouseDown(final TMouseEvent mouse) {
+        if (mouse.isMouseWheelUp()) {
+            setTopLine(topLine - wheelScrollSize);
+            return;
+        }
+        if (mouse.isMouseWheelDown()) {
+            setTopLine(topLine + wheelScrollSize);
+            return;
+        }
+
+        // Pass to children
+        super.onMouseDown(mouse);
+    }
+
+    /**
+     * Handle keystrokes.
+     *
+     * @param keypress keystroke event
+     */
+    @Override
+    public void onKeypress(final TKeypressEvent keypress) {
+        if (keypress.equals(kbUp)) {
+            setTopLine(topLine - 1);
+        } else if (keypress.equals(kbDown)) {
+            setTopLine(topLine + 1);
+        } else if (keypress.equals(kbPgUp)) {
+            setTopLine(topLine - (getHeight() - 1));
+        } else if (keypress.equals(kbPgDn)) {
+            setTopLine(topLine + (getHeight() - 1));
+        } else if (keypress.equals(kbCtrlHome)) {
+            setTopLine(0);
+            leftColumn = 0;
+        } else if (keypress.equals(kbCtrlEnd)) {
+            setTopLine(file.getLineCount());
+        } else if (keypress.equals(kbLeft)) {
+            if (leftColumn > 0) {
+                leftColumn--;
+            }
+        } else if (keypress.equals(kbRight)) {
+            leftColumn++;
+        } else if (keypress.equals(kbHome)) {
+            leftColumn = 0;
+        } else if (keypress.equals(kbEnd)) {
+            leftColumn = Math.max(0, lineLengthMax - getWidth());
+        } else {
+            // Pass other keys (tab etc.) on
+            super.onKeypress(keypress);
+        }
+    }
+
+    /**
+     * Method that subclasses can override to handle window/screen resize
+     * events.
+     *
+     * @param resize resize event
+     */
+    @Override
+    public void onResize(final TResizeEvent resize) {
+        if (resize.getType() == TResizeEvent.Type.WIDGET) {
+            setWidth(resize.getWidth());
+            setHeight(resize.getHeight());
+        } else {
+            // Let superclass handle it
+            super.onResize(resize);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // TWidget ----------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Draw the visible lines.
+     */
+    @Override
+    public void draw() {
+        int lineCount = file.getLineCount();
+        for (int i = 0; i < getHeight(); i++) {
+            // Background line
+            getScreen().hLineXY(0, i, getWidth(), ' ', defaultColor);
+
+            if (topLine + i >= lineCount) {
+                continue;
+            }
+            String line = file.getLine(topLine + i);
+            int x = 0;
+            for (int j = 0; j < line.length();) {
+                int ch = line.codePointAt(j);
+                j += Character.charCount(ch);
+                if (x - leftColumn >= getWidth()) {
+                    break;
+                }
+                if (x >= leftColumn) {
+                    putCharXY(x - leftColumn, i, ch, defaultColor);
+                }
+                x += StringUtils.width(ch);
+            }
+            lineLengthMax = Math.max(lineLengthMax, StringUtils.width(line));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // TFileViewerWidget ------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Get the file being displayed.
+     *
+     * @return the file
+     */
+    public MappedFile getFile() {
+        return file;
+    }
+
+    /**
+     * Set the top visible line, keeping it within the lines indexed so
+     * far.
+     *
+     * @param line the new top line.  0-based.
+     */
+    private void setTopLine(final int line) {
+        topLine = Math.max(0, Math.min(line,
+                file.getLineCount() - getHeight()));
+    }
+
+    /**
+     * Get the current visible top row number.  1-based.
+     *
+     * @return the visible top row number.  Row 1 is the first row.
+     */
+    public int getVisibleRowNumber() {
+        return topLine + 1;
+    }
+
+    /**
+     * Set the current visible row number.  1-based.
+     *
+     * @param row the new visible row number.  Row 1 is the first row.
+     */
+    public void setVisibleRowNumber(final int row) {
+        if (row > 0) {
+            setTopLine(row - 1);
+        }
+    }
+
+    /**
+     * Get the current visible column number.  1-based.
+     *
+     * @return the visible column number.  Column 1 is the first column.
+     */
+    public int getVisibleColumnNumber() {
+        return leftColumn + 1;
+    }
+
+    /**
+     * Set the current visible column number.  1-based.
+     *
+     * @param column the new visible column number.  Column 1 is the first
+     * column.
+     */
+    public void setVisibleColumnNumber(final int column) {
+        if ((column > 0) && (column <= lineLengthMax)) {
+            leftColumn = column - 1;
+        }
+    }
+
+    /**
+     * Get the maximum possible row number.  1-based.  This grows while the
+     * file is being indexed.
+     *
+     * @return the maximum row number.  Row 1 is the first row.
+     */
+    public int getMaximumRowNumber() {
+        return file.getLineCount() + 1;
+    }
+
+    /**
+     * Get the maximum possible column number.  1-based.  Lines are only
+     * measured as they are drawn, so this is the widest line seen so far.
+     *
+     * @return the maximum column number.  Column 1 is the first column.
+     */
+    public int getMaximumColumnNumber() {
+        return lineLengthMax + 1;
+    }
+
+}
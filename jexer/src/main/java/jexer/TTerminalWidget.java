@@ -37,11 +37,11 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.text.MessageFormat;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.atomic.AtomicReference;
 
 import jexer.backend.ECMA48Terminal;
 import jexer.backend.GlyphMaker;
@@ -134,9 +134,11 @@ public class TTerminalWidget extends TScrollableWidget
     private List<DisplayLine> display;
 
     /**
-     * If true, the display has changed and needs updating.
+     * The newest display from the emulator, or null if draw() has already
+     * taken it.  Older displays are simply replaced.
      */
-    private List<List<DisplayLine>> dirtyQueue = new ArrayList<List<DisplayLine>>();
+    private final AtomicReference<List<DisplayLine>> latestDisplay =
+        new AtomicReference<List<DisplayLine>>();
 
     /**
      * If true, hide the mouse after typing a keystroke.
@@ -661,14 +663,9 @@ public class TTerminalWidget extends TScrollableWidget
             width = readEmulatorDisplay();
         }
 
-        // If the emulator notified of an update, sync.
-        synchronized (dirtyQueue) {
-            if (dirtyQueue.size() > 0) {
-                // We will be dropping frames to keep up.
-                display = dirtyQueue.remove(dirtyQueue.size() - 1);
-                dirtyQueue.clear();
-            }
-        }
+        // If the emulator notified of an update, sync.  We will be
+        // dropping frames to keep up.
+        takeLatestDisplay();
 
         // Draw the emulator screen.
         int row = 0;
@@ -1462,14 +1459,22 @@ public class TTerminalWidget extends TScrollableWidget
             width = emulator.getWidth();
         }
         if (currentDisplay != null) {
-            synchronized (dirtyQueue) {
-                dirtyQueue.add(currentDisplay);
-            }
+            latestDisplay.set(currentDisplay);
         }
 
         return width;
     }
 
+    /**
+     * Switch to the newest display from the emulator, if there is one.
+     */
+    private void takeLatestDisplay() {
+        List<DisplayLine> newDisplay = latestDisplay.getAndSet(null);
+        if (newDisplay != null) {
+            display = newDisplay;
+        }
+    }
+
     /**
      * Write the entire session (scrollback and display buffers) as plain
      * text to a writer.
@@ -1527,12 +1532,10 @@ public class TTerminalWidget extends TScrollableWidget
      * @param display the updated display
      */
     public void updateDisplay(final List<DisplayLine> display) {
-        synchronized (dirtyQueue) {
-            dirtyQueue.add(display);
-        }
-        TApplication app = getApplication();
-        if (app != null) {
-            app.doRepaint();
+        latestDisplay.set(display);
+        // Only the window holding this terminal needs to be redrawn.
+        if (getWindow() != null) {
+            getWindow().invalidate();
         }
     }
 
@@ -1543,25 +1546,17 @@ public class TTerminalWidget extends TScrollableWidget
      * may be on a different location.
      */
     public void displayChanged(final boolean cursorOnly) {
-        TApplication app = getApplication();
         if (cursorOnly) {
-            if (app != null) {
-                app.doRepaint();
+            if (getWindow() != null) {
+                getWindow().invalidate();
             }
             return;
         }
 
-        boolean readDisplay = false;
-        synchronized (dirtyQueue) {
-            if (dirtyQueue.size() > 0) {
-                display = dirtyQueue.remove(0);
-            }
-        }
-        if (readDisplay) {
-            readEmulatorDisplay();
-        }
-        if (app != null) {
-            app.doRepaint();
+        takeLatestDisplay();
+        // Only the window holding this terminal needs to be redrawn.
+        if (getWindow() != null) {
+            getWindow().invalidate();
         }
     }
 
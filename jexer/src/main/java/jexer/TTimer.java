@@ -28,12 +28,10 @@
  */
 package jexer;
 
-import java.util.Date;
-
 /**
  * TTimer implements a simple timer.
  */
-public class TTimer {
+public class TTimer implements Comparable<TTimer> {
 
     // ------------------------------------------------------------------------
     // Variables --------------------------------------------------------------
@@ -44,15 +42,33 @@ public class TTimer {
      */
     boolean recurring = false;
 
+    /**
+     * If true, this timer was removed and will not be ticked again.  Note
+     * package private access.
+     */
+    boolean cancelled = false;
+
+    /**
+     * If true, repaint the whole screen after every tick.  Note package
+     * private access.
+     */
+    boolean repaint = true;
+
+    /**
+     * Order in which this timer was scheduled, used to keep timers with the
+     * same deadline in order.  Note package private access.
+     */
+    long sequence = 0;
+
     /**
      * Duration (in millis) between ticks if this is a recurring timer.
      */
     private long duration = 0;
 
     /**
-     * The next time this timer needs to be ticked.
+     * The next time this timer needs to be ticked, in System.nanoTime().
      */
-    private Date nextTick;
+    private long deadline;
 
     /**
      * The action to perfom on a tick.
@@ -76,8 +92,26 @@ public class TTimer {
         this.duration  = duration;
         this.action    = action;
 
-        Date now = new Date();
-        nextTick = new Date(now.getTime() + duration);
+        deadline = System.nanoTime() + duration * 1000000L;
+    }
+
+    // ------------------------------------------------------------------------
+    // Comparable -------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Comparison operator.  Timers are ordered by deadline, and timers with
+     * the same deadline by the order they were scheduled.
+     *
+     * @param that another TTimer instance
+     * @return a negative number if this timer is due first
+     */
+    public int compareTo(final TTimer that) {
+        if (this.deadline != that.deadline) {
+            // Subtract first, System.nanoTime() may wrap around.
+            return (this.deadline - that.deadline < 0 ? -1 : 1);
+        }
+        return Long.compare(this.sequence, that.sequence);
     }
 
     // ------------------------------------------------------------------------
@@ -88,10 +122,10 @@ public class TTimer {
      * Get the next time this timer needs to be ticked.  Note package private
      * access.
      *
-     * @return time at which action should be called
+     * @return the deadline in System.nanoTime()
      */
-    Date getNextTick() {
-        return nextTick;
+    long getDeadline() {
+        return deadline;
     }
 
     /**
@@ -103,6 +137,16 @@ public class TTimer {
         this.recurring = recurring;
     }
 
+    /**
+     * Set the repaint flag.  A timer that does not repaint the screen must
+     * invalidate() whatever its action changes.
+     *
+     * @param repaint if true, repaint the whole screen after every tick
+     */
+    public void setRepaint(final boolean repaint) {
+        this.repaint = repaint;
+    }
+
     /**
      * Tick this timer.  Note package private access.
      */
@@ -111,9 +155,8 @@ public class TTimer {
             action.DO();
         }
         // Set next tick
-        Date ticked = new Date();
         if (recurring) {
-            nextTick = new Date(ticked.getTime() + duration);
+            deadline = System.nanoTime() + duration * 1000000L;
         }
     }
 
@@ -1617,6 +1617,35 @@ public abstract class TWidget implements Comparable<TWidget> {
         window.getApplication().doRepaint();
     }
 
+    /**
+     * Redraw this widget on the next update.  Unlike doRepaint(), only the
+     * windows that overlap this widget are drawn again.
+     */
+    public final void invalidate() {
+        repaint(0, 0, width, height);
+    }
+
+    /**
+     * Redraw part of this widget on the next update.  Only the windows that
+     * overlap the rectangle are drawn again.
+     *
+     * @param x column relative to this widget's left edge
+     * @param y row relative to this widget's top edge
+     * @param width number of columns to redraw
+     * @param height number of rows to redraw
+     */
+    public final void repaint(final int x, final int y, final int width,
+        final int height) {
+
+        TApplication application = getApplication();
+        if ((application == null) || !isDrawable()) {
+            return;
+        }
+        window.bufferDirty = true;
+        application.invalidate(getAbsoluteX() + x, getAbsoluteY() + y,
+            width, height);
+    }
+
     /**
      * Add a child widget to my list of children.  We set its tabOrder to 0
      * and increment the tabOrder of all other children.
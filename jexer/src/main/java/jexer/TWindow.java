@@ -31,6 +31,7 @@ package jexer;
 import java.util.HashSet;
 import java.util.Set;
 
+import jexer.backend.OffscreenScreen;
 import jexer.backend.Screen;
 import jexer.bits.BorderStyle;
 import jexer.bits.CellAttributes;
@@ -257,6 +258,24 @@ public class TWindow extends TWidget {
      */
     private final TTimer openEffectTimer = null;
 
+    /**
+     * The offscreen buffer this window was last drawn to, used when
+     * jexer.windowBuffers is true.
+     */
+    private OffscreenScreen buffer = null;
+
+    /**
+     * If true, the offscreen buffer must be redrawn before it is copied to
+     * the screen again.
+     */
+    volatile boolean bufferDirty = true;
+
+    /**
+     * The screen that getScreen() reports while this window is drawing to
+     * its offscreen buffer.
+     */
+    private Screen drawScreen = null;
+
     // ------------------------------------------------------------------------
     // Constructors -----------------------------------------------------------
     // ------------------------------------------------------------------------
@@ -994,6 +1013,10 @@ public class TWindow extends TWidget {
      */
     @Override
     public final Screen getScreen() {
+        Screen screen = drawScreen;
+        if (screen != null) {
+            return screen;
+        }
         return application.getScreen();
     }
 
@@ -1908,4 +1931,36 @@ public class TWindow extends TWidget {
         return false;
     }
 
+    /**
+     * Bring the offscreen buffer up to date, drawing this window and its
+     * children into it if anything has changed since it was last drawn.
+     * The buffer covers only the window; the shadow is left to the caller.
+     *
+     * @param force if true, redraw even if nothing is known to have changed
+     * @return the buffer, to be copied to the screen at (getX(), getY())
+     */
+    final Screen drawBuffer(final boolean force) {
+        boolean redraw = force || bufferDirty;
+        if ((buffer == null)
+            || (buffer.getWidth() != getWidth())
+            || (buffer.getHeight() != getHeight())
+        ) {
+            buffer = new OffscreenScreen(application.getScreen(),
+                getWidth(), getHeight());
+            redraw = true;
+        }
+        buffer.setPosition(getX(), getY());
+        if (redraw) {
+            bufferDirty = false;
+            buffer.reset();
+            drawScreen = buffer;
+            try {
+                drawChildren();
+            } finally {
+                drawScreen = null;
+            }
+        }
+        return buffer;
+    }
+
 }
@@ -0,0 +1,633 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2025 Autumn Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Autumn Lamonte ♥
+ * @version 1
+ */
+package jexer.backend;
+
+import java.util.Arrays;
+
+import jexer.bits.Cell;
+import jexer.bits.CellAttributes;
+
+/**
+ * CellBuffer stores a rectangle of Cells as parallel primitive arrays
+ * ("struct of arrays"): one int for the code point, one long for the
+ * packed flags/colors/width, and one int each for the foreground and
+ * background RGB.  Image cells also keep a copy of the full Cell in a side
+ * table.  Comparing two rows is then a few array compares instead of a
+ * Cell.equals() per cell.
+ */
+public class CellBuffer {
+
+    // ------------------------------------------------------------------------
+    // Constants --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Bits 40-41: the Cell.Width ordinal.
+     */
+    private static final int WIDTH_SHIFT        = 40;
+
+    /**
+     * Mask for the Cell.Width ordinal.
+     */
+    private static final long WIDTH_MASK        = 0x03L << WIDTH_SHIFT;
+
+    /**
+     * Bit 42: the cell has an image in the side table.
+     */
+    private static final long IMAGE             = 1L << 42;
+
+    /**
+     * Bit 43: the cell is unset, and never equal to anything.
+     */
+    private static final long UNSET             = 1L << 43;
+
+    /**
+     * Bit 44: the cell is blinking.
+     */
+    private static final long BLINK             = 1L << 44;
+
+    /**
+     * Bit 45: the cell is pulsing.
+     */
+    private static final long PULSE             = 1L << 45;
+
+    /**
+     * The character stored for an unset cell.
+     */
+    private static final int UNSET_CHAR         = 0xFFFF;
+
+    /**
+     * The packed attributes of a blank cell.
+     */
+    private static final long BLANK             = new Cell().getPackedAttributes();
+
+    /**
+     * The bits compared by isBlank(): bold, blink, reverse, underline,
+     * protect, the ANSI colors, width, image, and unset.  Animations are
+     * ignored, as in Cell.isBlank().
+     */
+    private static final long BLANK_MASK        = 0x1FL | (0xFFL << 32)
+                                                | WIDTH_MASK | IMAGE | UNSET;
+
+    /**
+     * The Cell.Width values, indexed by ordinal.
+     */
+    private static final Cell.Width [] WIDTHS   = Cell.Width.values();
+
+    // ------------------------------------------------------------------------
+    // Variables --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Number of columns.
+     */
+    private final int width;
+
+    /**
+     * Number of rows.
+     */
+    private final int height;
+
+    /**
+     * Code points, row-major.
+     */
+    private final int [] chars;
+
+    /**
+     * Packed flags, ANSI colors, width, and the bits above.
+     */
+    private final long [] attrs;
+
+    /**
+     * Foreground RGB, negative means unset.
+     */
+    private final int [] foreColorRGB;
+
+    /**
+     * Background RGB, negative means unset.
+     */
+    private final int [] backColorRGB;
+
+    /**
+     * Copies of the image cells, null for text cells.  Only allocated once
+     * an image is stored.
+     */
+    private Cell [] images = null;
+
+    /**
+     * Number of image or unset cells on each row.  Rows without any can be
+     * compared with whole-array compares.
+     */
+    private final int [] rowSpecial;
+
+    // ------------------------------------------------------------------------
+    // Constructors -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Public constructor creates a buffer of blank cells.
+     *
+     * @param width number of columns
+     * @param height number of rows
+     */
+    public CellBuffer(final int width, final int height) {
+        this.width = width;
+        this.height = height;
+        chars = new int[width * height];
+        attrs = new long[width * height];
+        foreColorRGB = new int[width * height];
+        backColorRGB = new int[width * height];
+        rowSpecial = new int[height];
+
+        Arrays.fill(chars, ' ');
+        Arrays.fill(attrs, BLANK);
+        Arrays.fill(foreColorRGB, -1);
+        Arrays.fill(backColorRGB, -1);
+    }
+
+    // ------------------------------------------------------------------------
+    // CellBuffer -------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Get the number of columns.
+     *
+     * @return the width
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the number of rows.
+     *
+     * @return the height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Copy one cell out of the buffer.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param cell the cell to overwrite
+     * @return cell
+     */
+    public Cell get(final int x, final int y, final Cell cell) {
+        int i = y * width + x;
+        long packed = attrs[i];
+        if ((packed & IMAGE) != 0) {
+            cell.setTo(images[i]);
+            return cell;
+        }
+        if ((packed & UNSET) != 0) {
+            cell.unset();
+            return cell;
+        }
+        cell.reset();
+        cell.setPackedAttributes(packed, foreColorRGB[i], backColorRGB[i]);
+        cell.setChar(chars[i]);
+        cell.setWidth(WIDTHS[(int) (packed >>> WIDTH_SHIFT) & 0x03]);
+        return cell;
+    }
+
+    /**
+     * Copy one cell out of the buffer.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @return a new Cell
+     */
+    public Cell get(final int x, final int y) {
+        return get(x, y, new Cell());
+    }
+
+    /**
+     * Store one cell.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param cell the cell to copy in
+     */
+    public void set(final int x, final int y, final Cell cell) {
+        int i = y * width + x;
+        long packed = cell.getPackedAttributes();
+        packed |= (long) cell.getWidth().ordinal() << WIDTH_SHIFT;
+        if (cell.isBlink()) {
+            packed |= BLINK;
+        }
+        if (cell.isPulse()) {
+            packed |= PULSE;
+        }
+        if (cell.isImage()) {
+            packed |= IMAGE;
+            if (images == null) {
+                images = new Cell[chars.length];
+            }
+            if (images[i] == null) {
+                images[i] = new Cell(cell);
+            } else {
+                images[i].setTo(cell);
+            }
+        } else if (images != null) {
+            images[i] = null;
+        }
+        store(i, y, cell.getChar(), packed, cell.getForeColorRGB(),
+            cell.getBackColorRGB());
+    }
+
+    /**
+     * Store one text cell.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param ch the character
+     * @param attr the attributes
+     */
+    public void set(final int x, final int y, final int ch,
+        final CellAttributes attr) {
+
+        int i = y * width + x;
+        long packed = attr.getPackedAttributes();
+        if (attr.isBlink()) {
+            packed |= BLINK;
+        }
+        if (attr.isPulse()) {
+            packed |= PULSE;
+        }
+        if (images != null) {
+            images[i] = null;
+        }
+        store(i, y, ch, packed, attr.getForeColorRGB(),
+            attr.getBackColorRGB());
+    }
+
+    /**
+     * Change the character of one cell, leaving everything else alone.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param ch the character
+     */
+    public void setChar(final int x, final int y, final int ch) {
+        int i = y * width + x;
+        if ((attrs[i] & IMAGE) != 0) {
+            images[i].setChar(ch);
+        }
+        chars[i] = ch;
+    }
+
+    /**
+     * Change the attributes of one cell, keeping its character, width, and
+     * image.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param attr the attributes
+     */
+    public void setAttr(final int x, final int y, final CellAttributes attr) {
+        int i = y * width + x;
+        long packed = attr.getPackedAttributes();
+        packed |= attrs[i] & (WIDTH_MASK | IMAGE | UNSET);
+        if (attr.isBlink()) {
+            packed |= BLINK;
+        }
+        if (attr.isPulse()) {
+            packed |= PULSE;
+        }
+        if ((attrs[i] & IMAGE) != 0) {
+            images[i].setAttr(attr, true);
+        }
+        attrs[i] = packed;
+        foreColorRGB[i] = attr.getForeColorRGB();
+        backColorRGB[i] = attr.getBackColorRGB();
+    }
+
+    /**
+     * Reset one cell to blank.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     */
+    public void reset(final int x, final int y) {
+        int i = y * width + x;
+        if (images != null) {
+            images[i] = null;
+        }
+        store(i, y, ' ', BLANK, -1, -1);
+    }
+
+    /**
+     * Unset one cell.  It will not be equal to any other cell until it has
+     * been set again.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     */
+    public void unset(final int x, final int y) {
+        int i = y * width + x;
+        if (images != null) {
+            images[i] = null;
+        }
+        store(i, y, UNSET_CHAR, BLANK | UNSET, -1, -1);
+    }
+
+    /**
+     * Copy one cell from another buffer of the same dimensions.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param other the buffer to copy from
+     */
+    public void copy(final int x, final int y, final CellBuffer other) {
+        int i = y * width + x;
+        if ((other.attrs[i] & IMAGE) != 0) {
+            if (images == null) {
+                images = new Cell[chars.length];
+            }
+            if (images[i] == null) {
+                images[i] = new Cell(other.images[i]);
+            } else {
+                images[i].setTo(other.images[i]);
+            }
+        } else if (images != null) {
+            images[i] = null;
+        }
+        store(i, y, other.chars[i], other.attrs[i], other.foreColorRGB[i],
+            other.backColorRGB[i]);
+    }
+
+    /**
+     * Get the code point of one cell.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @return the character
+     */
+    public int getChar(final int x, final int y) {
+        return chars[y * width + x];
+    }
+
+    /**
+     * See if one cell is an image.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @return true if this cell has an image
+     */
+    public boolean isImage(final int x, final int y) {
+        return ((attrs[y * width + x] & IMAGE) != 0);
+    }
+
+    /**
+     * See if one cell is blank, following the rules of Cell.isBlank().
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @return true if this cell is a space with default attributes
+     */
+    public boolean isBlank(final int x, final int y) {
+        int i = y * width + x;
+        return ((chars[i] == ' ')
+            && ((attrs[i] & BLANK_MASK) == (BLANK & BLANK_MASK))
+            && (foreColorRGB[i] < 0)
+            && (backColorRGB[i] < 0));
+    }
+
+    /**
+     * See if one cell is blinking.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @return true if this cell blinks
+     */
+    public boolean isBlink(final int x, final int y) {
+        return ((attrs[y * width + x] & BLINK) != 0);
+    }
+
+    /**
+     * See if one cell is pulsing.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @return true if this cell pulses
+     */
+    public boolean isPulse(final int x, final int y) {
+        return ((attrs[y * width + x] & PULSE) != 0);
+    }
+
+    /**
+     * Compare one cell with the same cell of another buffer, following the
+     * rules of Cell.equals().
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param other the buffer to compare against
+     * @return true if the cells are equal
+     */
+    public boolean equals(final int x, final int y, final CellBuffer other) {
+        int i = y * width + x;
+        long packed = attrs[i];
+        long otherPacked = other.attrs[i];
+        if (((packed | otherPacked) & UNSET) != 0) {
+            return false;
+        }
+        if (((packed | otherPacked) & IMAGE) != 0) {
+            if (((packed & otherPacked) & IMAGE) == 0) {
+                return false;
+            }
+            return images[i].equals(other.images[i]);
+        }
+        return ((packed == otherPacked)
+            && (chars[i] == other.chars[i])
+            && (foreColorRGB[i] == other.foreColorRGB[i])
+            && (backColorRGB[i] == other.backColorRGB[i]));
+    }
+
+    /**
+     * Compare one row with the same row of another buffer of the same
+     * dimensions.  Rows without images are compared with whole-array
+     * compares.
+     *
+     * @param y row coordinate.  0 is the top-most row.
+     * @param other the buffer to compare against
+     * @return true if every cell on the row is equal
+     */
+    public boolean rowEquals(final int y, final CellBuffer other) {
+        return rowEquals(y, other, y);
+    }
+
+    /**
+     * Compare one row with a possibly different row of another buffer of
+     * the same dimensions.
+     *
+     * @param y row coordinate.  0 is the top-most row.
+     * @param other the buffer to compare against
+     * @param otherY the row of other to compare against
+     * @return true if every cell on the row is equal
+     */
+    public boolean rowEquals(final int y, final CellBuffer other,
+        final int otherY) {
+
+        int from = y * width;
+        int to = from + width;
+        int otherFrom = otherY * width;
+        int otherTo = otherFrom + width;
+        if (!Arrays.equals(attrs, from, to, other.attrs, otherFrom, otherTo)
+            || !Arrays.equals(chars, from, to, other.chars, otherFrom, otherTo)
+        ) {
+            return false;
+        }
+        if ((rowSpecial[y] == 0) && (other.rowSpecial[otherY] == 0)) {
+            return (Arrays.equals(foreColorRGB, from, to,
+                    other.foreColorRGB, otherFrom, otherTo)
+                && Arrays.equals(backColorRGB, from, to,
+                    other.backColorRGB, otherFrom, otherTo));
+        }
+        for (int x = 0; x < width; x++) {
+            if (y == otherY) {
+                if (!equals(x, y, other)) {
+                    return false;
+                }
+            } else if (!get(x, y).equals(other.get(x, otherY))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hash one row, for finding rows that moved.  Rows with image or unset
+     * cells are not hashed.
+     *
+     * @param y row coordinate.  0 is the top-most row.
+     * @return the hash, or 0 if the row has image or unset cells
+     */
+    public int rowHash(final int y) {
+        if (rowSpecial[y] != 0) {
+            return 0;
+        }
+        int from = y * width;
+        int hash = 1;
+        for (int i = from; i < from + width; i++) {
+            long packed = attrs[i];
+            hash = (31 * hash) + (chars[i] ^ (int) packed
+                ^ (int) (packed >>> 16) ^ foreColorRGB[i]
+                ^ (backColorRGB[i] << 8));
+        }
+        return hash;
+    }
+
+    /**
+     * Move the rows in [top, bottom] up or down, the way a terminal scrolls
+     * its scrolling region.  The rows scrolled in are unset.
+     *
+     * @param top the first row of the region
+     * @param bottom the last row of the region
+     * @param n number of rows to scroll: positive moves the rows up,
+     * negative moves them down
+     */
+    public void scrollRows(final int top, final int bottom, final int n) {
+        int count = bottom - top + 1 - Math.abs(n);
+        if (count > 0) {
+            int from = (n > 0 ? top + n : top);
+            int to = (n > 0 ? top : top - n);
+            int length = count * width;
+            System.arraycopy(chars, from * width, chars, to * width, length);
+            System.arraycopy(attrs, from * width, attrs, to * width, length);
+            System.arraycopy(foreColorRGB, from * width, foreColorRGB,
+                to * width, length);
+            System.arraycopy(backColorRGB, from * width, backColorRGB,
+                to * width, length);
+            if (images != null) {
+                System.arraycopy(images, from * width, images, to * width,
+                    length);
+            }
+            System.arraycopy(rowSpecial, from, rowSpecial, to, count);
+        }
+
+        int exposedTop = (n > 0 ? Math.max(top, bottom - n + 1) : top);
+        int exposedBottom = (n > 0 ? bottom : Math.min(bottom, top - n - 1));
+        for (int y = exposedTop; y <= exposedBottom; y++) {
+            int from = y * width;
+            Arrays.fill(chars, from, from + width, UNSET_CHAR);
+            Arrays.fill(attrs, from, from + width, BLANK | UNSET);
+            Arrays.fill(foreColorRGB, from, from + width, -1);
+            Arrays.fill(backColorRGB, from, from + width, -1);
+            if (images != null) {
+                Arrays.fill(images, from, from + width, null);
+            }
+            rowSpecial[y] = width;
+        }
+    }
+
+    /**
+     * See if any cell on a row is blinking or pulsing.
+     *
+     * @param y row coordinate.  0 is the top-most row.
+     * @return true if this row must be redrawn on every flush
+     */
+    public boolean isRowAnimated(final int y) {
+        int from = y * width;
+        for (int i = from; i < from + width; i++) {
+            if ((attrs[i] & (BLINK | PULSE)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Store the primitive fields of one cell, keeping rowSpecial up to
+     * date.
+     *
+     * @param i index into the arrays
+     * @param y row coordinate
+     * @param ch the character
+     * @param packed the packed attributes
+     * @param fore the foreground RGB
+     * @param back the background RGB
+     */
+    private void store(final int i, final int y, final int ch,
+        final long packed, final int fore, final int back) {
+
+        boolean wasSpecial = ((attrs[i] & (IMAGE | UNSET)) != 0);
+        boolean isSpecial = ((packed & (IMAGE | UNSET)) != 0);
+        if (wasSpecial != isSpecial) {
+            rowSpecial[y] += (isSpecial ? 1 : -1);
+        }
+        chars[i] = ch;
+        attrs[i] = packed;
+        foreColorRGB[i] = fore;
+        backColorRGB[i] = back;
+    }
+
+}
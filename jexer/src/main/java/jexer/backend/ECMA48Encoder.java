@@ -0,0 +1,398 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2025 Autumn Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Autumn Lamonte ♥
+ * @version 1
+ */
+package jexer.backend;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import jexer.bits.CellAttributes;
+
+/**
+ * ECMA48Encoder accumulates ECMA-48 / ANSI X3.64 output (cursor motion, SGR
+ * attributes, and UTF-8 text) directly as bytes in a reusable buffer.  It
+ * is used by ECMA48Terminal to render a frame without creating
+ * intermediate Strings for every cell.
+ */
+public class ECMA48Encoder {
+
+    // ------------------------------------------------------------------------
+    // Constants --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The largest number that has a precomputed ASCII representation.
+     */
+    private static final int MAX_DECIMAL = 999;
+
+    /**
+     * ASCII representations of 0 through MAX_DECIMAL.
+     */
+    private static final byte [][] DECIMAL = new byte[MAX_DECIMAL + 1][];
+
+    /**
+     * SGR sequences to select each of the eight foreground colors, e.g.
+     * "\033[31m".
+     */
+    private static final byte [][] SGR_FOREGROUND = new byte[8][];
+
+    /**
+     * SGR sequences to select each of the eight background colors, e.g.
+     * "\033[42m".
+     */
+    private static final byte [][] SGR_BACKGROUND = new byte[8][];
+
+    /**
+     * The leading part of a T.416 RGB foreground color sequence.
+     */
+    private static final byte [] RGB_FOREGROUND = ascii("\033[38;2;");
+
+    /**
+     * The leading part of a T.416 RGB background color sequence.
+     */
+    private static final byte [] RGB_BACKGROUND = ascii("\033[48;2;");
+
+    /**
+     * The default initial buffer size.
+     */
+    private static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    static {
+        for (int i = 0; i <= MAX_DECIMAL; i++) {
+            DECIMAL[i] = ascii(Integer.toString(i));
+        }
+        for (int i = 0; i < 8; i++) {
+            SGR_FOREGROUND[i] = ascii("\033[" + (30 + i) + "m");
+            SGR_BACKGROUND[i] = ascii("\033[" + (40 + i) + "m");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Variables --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The output bytes.
+     */
+    private byte [] buffer;
+
+    /**
+     * The number of valid bytes in buffer.
+     */
+    private int length = 0;
+
+    // ------------------------------------------------------------------------
+    // Constructors -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Public constructor.
+     */
+    public ECMA48Encoder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Public constructor.
+     *
+     * @param capacity the initial size of the buffer in bytes
+     */
+    public ECMA48Encoder(final int capacity) {
+        buffer = new byte[Math.max(capacity, 16)];
+    }
+
+    // ------------------------------------------------------------------------
+    // ECMA48Encoder ----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Convert a string that is known to be 7-bit ASCII to bytes.
+     *
+     * @param str the string
+     * @return the bytes
+     */
+    private static byte [] ascii(final String str) {
+        byte [] bytes = new byte[str.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) str.charAt(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * Discard all output, retaining the buffer for reuse.
+     */
+    public void reset() {
+        length = 0;
+    }
+
+    /**
+     * Discard all output after a position, for example to throw away a
+     * synchronized update header when nothing followed it.
+     *
+     * @param length the number of bytes to keep
+     */
+    public void truncate(final int length) {
+        assert (length <= this.length);
+        this.length = length;
+    }
+
+    /**
+     * Get the number of bytes encoded so far.
+     *
+     * @return the number of bytes
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Write the encoded bytes to a stream.  The buffer is not reset.
+     *
+     * @param out the stream to write to
+     * @throws IOException if the stream throws
+     */
+    public void writeTo(final OutputStream out) throws IOException {
+        if (length > 0) {
+            out.write(buffer, 0, length);
+        }
+    }
+
+    /**
+     * Make sure there is room for n more bytes.
+     *
+     * @param n the number of bytes about to be appended
+     */
+    private void ensureCapacity(final int n) {
+        if (length + n > buffer.length) {
+            int newSize = Math.max(buffer.length * 2, length + n);
+            byte [] newBuffer = new byte[newSize];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+    }
+
+    /**
+     * Append raw bytes.
+     *
+     * @param bytes the bytes
+     */
+    public void append(final byte [] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    /**
+     * Append a string, encoded as UTF-8.
+     *
+     * @param str the string
+     */
+    public void append(final String str) {
+        int n = str.length();
+        ensureCapacity(n);
+        for (int i = 0; i < n; i++) {
+            char ch = str.charAt(i);
+            if (ch < 0x80) {
+                if (length == buffer.length) {
+                    ensureCapacity(n - i);
+                }
+                buffer[length++] = (byte) ch;
+                continue;
+            }
+            if (Character.isHighSurrogate(ch) && (i + 1 < n)
+                && Character.isLowSurrogate(str.charAt(i + 1))
+            ) {
+                appendCodePoint(Character.toCodePoint(ch, str.charAt(i + 1)));
+                i++;
+                continue;
+            }
+            appendCodePoint(ch);
+        }
+    }
+
+    /**
+     * Append one code point, encoded as UTF-8.
+     *
+     * @param ch the code point
+     */
+    public void appendCodePoint(final int ch) {
+        ensureCapacity(4);
+        if (ch < 0x80) {
+            buffer[length++] = (byte) ch;
+        } else if (ch < 0x800) {
+            buffer[length++] = (byte) (0xC0 | (ch >>> 6));
+            buffer[length++] = (byte) (0x80 | (ch & 0x3F));
+        } else if (ch < 0x10000) {
+            if ((ch >= 0xD800) && (ch <= 0xDFFF)) {
+                // Unpaired surrogate: emit '?' like the JDK encoder does.
+                buffer[length++] = (byte) '?';
+                return;
+            }
+            buffer[length++] = (byte) (0xE0 | (ch >>> 12));
+            buffer[length++] = (byte) (0x80 | ((ch >>> 6) & 0x3F));
+            buffer[length++] = (byte) (0x80 | (ch & 0x3F));
+        } else {
+            buffer[length++] = (byte) (0xF0 | (ch >>> 18));
+            buffer[length++] = (byte) (0x80 | ((ch >>> 12) & 0x3F));
+            buffer[length++] = (byte) (0x80 | ((ch >>> 6) & 0x3F));
+            buffer[length++] = (byte) (0x80 | (ch & 0x3F));
+        }
+    }
+
+    /**
+     * Append a non-negative number in decimal.
+     *
+     * @param n the number
+     */
+    public void appendDecimal(final int n) {
+        if ((n >= 0) && (n <= MAX_DECIMAL)) {
+            append(DECIMAL[n]);
+            return;
+        }
+        assert (n >= 0);
+        int digits = 1;
+        for (int i = n / 10; i > 0; i /= 10) {
+            digits++;
+        }
+        ensureCapacity(digits);
+        int value = n;
+        for (int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        length += digits;
+    }
+
+    /**
+     * Append one ASCII byte.
+     *
+     * @param ch the byte
+     */
+    private void appendByte(final char ch) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) ch;
+    }
+
+    /**
+     * Move the cursor to (x, y).
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     */
+    public void gotoXY(final int x, final int y) {
+        appendByte('\033');
+        appendByte('[');
+        appendDecimal(y + 1);
+        appendByte(';');
+        appendDecimal(x + 1);
+        appendByte('H');
+    }
+
+    /**
+     * Emit a SGR sequence for a single color change.
+     *
+     * @param color one of the Color.WHITE, Color.BLUE, etc. constants
+     * @param foreground if true, this is a foreground color
+     */
+    public void color(final jexer.bits.Color color, final boolean foreground) {
+        if (foreground) {
+            append(SGR_FOREGROUND[color.getValue()]);
+        } else {
+            append(SGR_BACKGROUND[color.getValue()]);
+        }
+    }
+
+    /**
+     * Emit a T.416 RGB sequence for a single color change.
+     *
+     * @param colorRGB a 24-bit RGB value
+     * @param foreground if true, this is a foreground color
+     */
+    public void colorRGB(final int colorRGB, final boolean foreground) {
+        if (foreground) {
+            append(RGB_FOREGROUND);
+        } else {
+            append(RGB_BACKGROUND);
+        }
+        appendDecimal((colorRGB >>> 16) & 0xFF);
+        appendByte(';');
+        appendDecimal((colorRGB >>> 8) & 0xFF);
+        appendByte(';');
+        appendDecimal(colorRGB & 0xFF);
+        appendByte('m');
+    }
+
+    /**
+     * Emit a SGR sequence that changes only the bold, underline, blink, and
+     * reverse attributes that differ between two cells.  Nothing is emitted
+     * if they are all the same.
+     *
+     * @param attr the new attributes
+     * @param lastAttr the attributes the terminal is currently using
+     */
+    public void attributes(final CellAttributes attr,
+        final CellAttributes lastAttr) {
+
+        boolean first = true;
+        if (attr.isBold() != lastAttr.isBold()) {
+            first = sgrParameter(first, attr.isBold() ? 1 : 22);
+        }
+        if (attr.isUnderline() != lastAttr.isUnderline()) {
+            first = sgrParameter(first, attr.isUnderline() ? 4 : 24);
+        }
+        if (attr.isBlink() != lastAttr.isBlink()) {
+            first = sgrParameter(first, attr.isBlink() ? 5 : 25);
+        }
+        if (attr.isReverse() != lastAttr.isReverse()) {
+            first = sgrParameter(first, attr.isReverse() ? 7 : 27);
+        }
+        if (!first) {
+            appendByte('m');
+        }
+    }
+
+    /**
+     * Emit one SGR parameter, preceded by either CSI or a separator.
+     *
+     * @param first if true, this is the first parameter of the sequence
+     * @param parameter the parameter value
+     * @return false, so that the next parameter is not first
+     */
+    private boolean sgrParameter(final boolean first, final int parameter) {
+        if (first) {
+            appendByte('\033');
+            appendByte('[');
+        } else {
+            appendByte(';');
+        }
+        appendDecimal(parameter);
+        return false;
+    }
+
+}
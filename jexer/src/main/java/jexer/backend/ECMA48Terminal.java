@@ -45,14 +45,20 @@ import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import javax.imageio.ImageIO;
 
@@ -61,6 +67,7 @@ import jexer.bits.CellAttributes;
 import jexer.bits.Color;
 import jexer.bits.ImageUtils;
 import jexer.bits.StringUtils;
+import jexer.bits.ThreadUtils;
 import jexer.event.TCommandEvent;
 import jexer.event.TInputEvent;
 import jexer.event.TKeypressEvent;
@@ -139,13 +146,47 @@ public class ECMA48Terminal extends LogicalScreen
     /**
      * If true, we want the reader thread to exit gracefully.
      */
-    private boolean stopReaderThread;
+    private volatile boolean stopReaderThread;
 
     /**
      * The reader thread.
      */
     private Thread readerThread;
 
+    /**
+     * If true, the reader thread blocks in read() and the input timer
+     * takes care of escape timeouts and window size checks.  If false, the
+     * reader thread polls available() every 20 millis.
+     */
+    private boolean blockingRead = true;
+
+    /**
+     * Guards the input parser state, which is used by both the reader
+     * thread and the input timer when blockingRead is true.
+     */
+    private final Object parserLock = new Object();
+
+    /**
+     * The periodic window size and output check, when blockingRead is
+     * true.
+     */
+    private ScheduledFuture<?> idleTimer = null;
+
+    /**
+     * The pending bare escape timeout, when blockingRead is true.
+     */
+    private ScheduledFuture<?> escapeTimer = null;
+
+    /**
+     * If true, cmBackendDisconnect has been added to the event queue.
+     */
+    private boolean disconnectPosted = false;
+
+    /**
+     * The timer thread shared by every terminal using blockingRead.
+     */
+    private static ScheduledExecutorService inputTimer = null;
+
     /**
      * Parameters being collected.  E.g. if the string is \033[1;3m, then
      * params[0] will be 1 and params[1] will be 3.
@@ -282,6 +323,29 @@ public class ECMA48Terminal extends LogicalScreen
      */
     private int imageThreadCount = 2;
 
+    /**
+     * The image encoder threads, used when imageThreadCount is more than 1.
+     * Created on first use and kept until the terminal is closed.
+     */
+    private ExecutorService imageExecutor = null;
+
+    /**
+     * The maximum number of entries in each image cache, or 0 to size the
+     * caches from the screen size.
+     */
+    private int imageCacheMaxEntries = 0;
+
+    /**
+     * The maximum total length of the image strings in each image cache.
+     */
+    private long imageCacheMaxBytes = 64L * 1024 * 1024;
+
+    /**
+     * If true, report the image cache counters to stderr when the terminal
+     * is closed.
+     */
+    private boolean imageCacheStats = false;
+
     /**
      * If true, then we changed System.in and need to change it back.
      */
@@ -362,6 +426,45 @@ public class ECMA48Terminal extends LogicalScreen
      */
     private ArrayList<Cell> blankImageRow = null;
 
+    /**
+     * The rows being examined by flushString(), taken from the dirty rows
+     * when the flush starts.
+     */
+    private boolean [] flushRows = null;
+
+    /**
+     * Scratch cell used by flushString() and flushLine() to read the
+     * logical screen.
+     */
+    private Cell flushCell = new Cell();
+
+    /**
+     * If true, use the terminal's scrolling region to move rows that
+     * scrolled instead of redrawing them.
+     */
+    private boolean scrollRegions = true;
+
+    /**
+     * Scratch row hashes of the logical screen used by flushScroll().
+     */
+    private int [] logicalRowHashes = null;
+
+    /**
+     * Scratch row hashes of the physical screen used by flushScroll().
+     */
+    private int [] physicalRowHashes = null;
+
+    /**
+     * Scratch flags used by flushScroll(): true if a row must be redrawn.
+     */
+    private boolean [] changedRows = null;
+
+    /**
+     * Scratch vote counts used by flushScroll(), indexed by the distance a
+     * row moved plus height.
+     */
+    private int [] scrollVotes = null;
+
     /**
      * The time we last flushed output in flushPhysical().
      */
@@ -399,6 +502,30 @@ public class ECMA48Terminal extends LogicalScreen
      */
     private PrintWriter output;
 
+    /**
+     * The terminal's raw OutputStream underneath output, or null if only a
+     * PrintWriter was provided in the constructor.  flushPhysical() writes
+     * the bytes from encoder here.
+     */
+    private OutputStream outputStream;
+
+    /**
+     * If true, render frames through encoder as bytes.  If false, render
+     * frames through a StringBuilder and output (the legacy path).
+     */
+    private boolean byteOutput = true;
+
+    /**
+     * The reusable byte encoder for screen updates.
+     */
+    private ECMA48Encoder encoder = null;
+
+    /**
+     * If true, writing to outputStream has failed.  This is the byte output
+     * equivalent of output.checkError().
+     */
+    private boolean outputStreamError = false;
+
     /**
      * The listening object that run() wakes up on new input.
      */
@@ -424,75 +551,76 @@ public class ECMA48Terminal extends LogicalScreen
 
     /**
      * ImageCache is a least-recently-used cache that hangs on to the
-     * post-rendered image string for a particular set of cells.
+     * post-rendered image string for a particular set of cells.  It is
+     * bounded by both a number of entries and the total length of the
+     * image strings.
      */
     private class ImageCache {
 
         /**
-         * Maximum size of the cache.
+         * Maximum number of entries in the cache.
          */
-        private int maxSize = 100;
+        private int maxEntries = 100;
 
         /**
-         * The entries stored in the cache.
+         * Maximum total length of the image strings in the cache.
          */
-        private HashMap<String, CacheEntry> cache = null;
+        private long maxBytes = 0;
 
         /**
-         * CacheEntry is one entry in the cache.
+         * The total length of the image strings in the cache.
          */
-        private class CacheEntry {
-            /**
-             * The cache key.
-             */
-            public String key;
+        private long bytes = 0;
 
-            /**
-             * The cache data.
-             */
-            public String data;
+        /**
+         * Number of get() calls that found an entry.
+         */
+        private long hits = 0;
 
-            /**
-             * The last time this entry was used.
-             */
-            public long millis = 0;
+        /**
+         * Number of get() calls that did not find an entry.
+         */
+        private long misses = 0;
 
-            /**
-             * Public constructor.
-             *
-             * @param key the cache entry key
-             * @param data the cache entry data
-             */
-            public CacheEntry(final String key, final String data) {
-                this.key = key;
-                this.data = data;
-                this.millis = System.currentTimeMillis();
-            }
-        }
+        /**
+         * Number of entries removed to stay under maxEntries or maxBytes.
+         */
+        private long evictions = 0;
+
+        /**
+         * The entries stored in the cache, in access order: the first entry
+         * is the least recently used.
+         */
+        private LinkedHashMap<Long, String> cache = null;
 
         /**
          * Public constructor.
          *
-         * @param maxSize the maximum size of the cache
+         * @param maxEntries the maximum number of entries in the cache
+         * @param maxBytes the maximum total length of the image strings in
+         * the cache
          */
-        public ImageCache(final int maxSize) {
-            this.maxSize = maxSize;
-            cache = new HashMap<String, CacheEntry>();
+        public ImageCache(final int maxEntries, final long maxBytes) {
+            this.maxEntries = Math.max(1, maxEntries);
+            this.maxBytes = maxBytes;
+            cache = new LinkedHashMap<Long, String>(16, 0.75f, true);
         }
 
         /**
-         * Make a unique key for a list of cells.
+         * Make a key for a list of cells.  Each cell's hashCode() already
+         * covers its image hash and id, so the key chains those into 64
+         * bits.
          *
          * @param cells the cells
          * @return the key
          */
-        private String makeKey(final ArrayList<Cell> cells) {
-            StringBuilder sb = new StringBuilder();
+        private long makeKey(final ArrayList<Cell> cells) {
+            long key = cells.size();
             for (Cell cell: cells) {
-                sb.append(cell.hashCode());
+                key = (key * 0x9E3779B97F4A7C15L) + cell.hashCode();
+                key ^= (key >>> 29);
             }
-            // System.err.println("key: " + sb.toString());
-            return sb.toString();
+            return key;
         }
 
         /**
@@ -503,16 +631,18 @@ public class ECMA48Terminal extends LogicalScreen
          * list of cells is not in the cache
          */
         public synchronized String get(final ArrayList<Cell> cells) {
-            CacheEntry entry = cache.get(makeKey(cells));
-            if (entry == null) {
-                return null;
+            String data = cache.get(makeKey(cells));
+            if (data == null) {
+                misses++;
+            } else {
+                hits++;
             }
-            entry.millis = System.currentTimeMillis();
-            return entry.data;
+            return data;
         }
 
         /**
-         * Put an entry into the cache.
+         * Put an entry into the cache, evicting the least recently used
+         * entries if the cache is full.
          *
          * @param cells the list of cells that are the cache key
          * @param data the image string representing these cells
@@ -520,41 +650,24 @@ public class ECMA48Terminal extends LogicalScreen
         public synchronized void put(final ArrayList<Cell> cells,
             final String data) {
 
-            String key = makeKey(cells);
-
-            // System.err.println("put() " + key + " size " + cache.size());
+            if (data.length() > maxBytes) {
+                // This will never fit.
+                return;
+            }
 
-            assert (!cache.containsKey(key));
+            // Another image thread may have put the same cells already.
+            String old = cache.put(makeKey(cells), data);
+            if (old != null) {
+                bytes -= old.length();
+            }
+            bytes += data.length();
 
-            assert (cache.size() <= maxSize);
-            if (cache.size() == maxSize) {
-                // Cache is at limit, evict oldest entry.
-                long oldestTime = Long.MAX_VALUE;
-                String keyToRemove = null;
-                for (CacheEntry entry: cache.values()) {
-                    if ((entry.millis < oldestTime) || (keyToRemove == null)) {
-                        keyToRemove = entry.key;
-                        oldestTime = entry.millis;
-                    }
-                }
-                /*
-                System.err.println("put() remove key = " + keyToRemove +
-                    " size " + cache.size());
-                 */
-                assert (keyToRemove != null);
-                cache.remove(keyToRemove);
-                /*
-                System.err.println("put() removed, size " + cache.size());
-                 */
+            Iterator<String> iterator = cache.values().iterator();
+            while ((cache.size() > maxEntries) || (bytes > maxBytes)) {
+                bytes -= iterator.next().length();
+                iterator.remove();
+                evictions++;
             }
-            assert (cache.size() <= maxSize);
-            CacheEntry entry = new CacheEntry(key, data);
-            assert (key.equals(entry.key));
-            cache.put(key, entry);
-            /*
-            System.err.println("put() added key " + key + " " +
-                " size " + cache.size());
-             */
         }
 
         /**
@@ -566,6 +679,74 @@ public class ECMA48Terminal extends LogicalScreen
             return cache.size();
         }
 
+        /**
+         * Make human-readable description of this cache's counters.
+         *
+         * @return hits, misses, evictions, entries, and bytes
+         */
+        @Override
+        public synchronized String toString() {
+            return String.format("%d hits, %d misses, %d evictions, " +
+                "%d entries, %d bytes", hits, misses, evictions,
+                cache.size(), bytes);
+        }
+
+    }
+
+    /**
+     * ImageJob encodes one span of image cells on a row to the string that
+     * draws it, using whichever image protocol is enabled.
+     */
+    private class ImageJob implements Callable<String> {
+
+        /**
+         * Column of the first cell.
+         */
+        private int x;
+
+        /**
+         * Row of the cells.
+         */
+        private int y;
+
+        /**
+         * The cells to draw.
+         */
+        private ArrayList<Cell> cells;
+
+        /**
+         * Public constructor.
+         *
+         * @param x column coordinate.  0 is the left-most column.
+         * @param y row coordinate.  0 is the top-most row.
+         * @param cells the cells to draw
+         */
+        public ImageJob(final int x, final int y,
+            final ArrayList<Cell> cells) {
+
+            this.x = x;
+            this.y = y;
+            this.cells = cells;
+        }
+
+        /**
+         * Encode the cells.
+         *
+         * @return the string to emit to the terminal
+         */
+        @Override
+        public String call() {
+            if (iterm2Images) {
+                return toIterm2Image(x, y, cells);
+            } else if (jexerImageOption != JexerImageOption.DISABLED) {
+                return toJexerImage(x, y, cells);
+            } else if (sixel == true) {
+                return toSixel(x, y, cells);
+            } else {
+                return toUnicodeGlyphs(x, y, cells);
+            }
+        }
+
     }
 
     // ------------------------------------------------------------------------
@@ -672,12 +853,12 @@ public class ECMA48Terminal extends LogicalScreen
         }
 
         if (output == null) {
-            this.output = new PrintWriter(new OutputStreamWriter(System.out,
-                    "UTF-8"));
+            outputStream = System.out;
         } else {
-            this.output = new PrintWriter(new OutputStreamWriter(output,
-                    "UTF-8"));
+            outputStream = output;
         }
+        this.output = new PrintWriter(new OutputStreamWriter(outputStream,
+                "UTF-8"));
 
         // Request xterm version.  Due to the ambiguity between the response
         // and Alt-P, this must be the first thing to request.
@@ -721,8 +902,7 @@ public class ECMA48Terminal extends LogicalScreen
 
         // Spin up the input reader
         eventQueue = new ArrayList<TInputEvent>();
-        readerThread = new Thread(this);
-        readerThread.start();
+        startReaderThread();
 
         // Clear the screen
         this.output.write(clearAll());
@@ -836,8 +1016,7 @@ public class ECMA48Terminal extends LogicalScreen
 
         // Spin up the input reader
         eventQueue = new ArrayList<TInputEvent>();
-        readerThread = new Thread(this);
-        readerThread.start();
+        startReaderThread();
 
         // Clear the screen
         this.output.write(clearAll());
@@ -885,6 +1064,11 @@ public class ECMA48Terminal extends LogicalScreen
      */
     @Override
     public void flushPhysical() {
+        if (byteOutput && (outputStream != null)) {
+            flushPhysicalBytes();
+            return;
+        }
+
         StringBuilder sb = new StringBuilder();
         if ((cursorVisible)
             && (cursorY >= 0)
@@ -892,12 +1076,12 @@ public class ECMA48Terminal extends LogicalScreen
             && (cursorY <= height - 1)
             && (cursorX <= width - 1)
         ) {
-            flushString(sb);
+            flushString(sb, null);
             sb.append(cursor(true));
             sb.append(gotoXY(cursorX, cursorY));
         } else {
             sb.append(cursor(false));
-            flushString(sb);
+            flushString(sb, null);
         }
         if (output != null) {
             if (hasSynchronizedOutput) {
@@ -927,14 +1111,7 @@ public class ECMA48Terminal extends LogicalScreen
             }
             output.flush();
 
-            long now = System.currentTimeMillis();
-            if ((int) (now / 1000) == (int) (lastFlushTime / 1000)) {
-                bytesPerSecond += sb.length();
-            } else {
-                lastBytesPerSecond = sb.length();
-                bytesPerSecond = 0;
-            }
-            lastFlushTime = now;
+            countBytes(sb.length());
         }
     }
 
@@ -1010,14 +1187,32 @@ public class ECMA48Terminal extends LogicalScreen
 
         // Tell the reader thread to stop looking at input
         stopReaderThread = true;
-        try {
-            readerThread.join();
-        } catch (InterruptedException e) {
-            if (debugToStderr) {
-                e.printStackTrace();
+        if (blockingRead) {
+            // The reader thread is most likely blocked in read(), and will
+            // only see stopReaderThread once the input is closed below.
+            stopInputTimers();
+        } else {
+            try {
+                readerThread.join();
+            } catch (InterruptedException e) {
+                if (debugToStderr) {
+                    e.printStackTrace();
+                }
             }
         }
 
+        shutdownImageExecutor();
+        if (sixelEncoder != null) {
+            sixelEncoder.shutdown();
+        }
+
+        if (imageCacheStats) {
+            printImageCacheStats("sixel", sixelCache);
+            printImageCacheStats("iTerm2", iterm2Cache);
+            printImageCacheStats("Jexer", jexerCache);
+            printImageCacheStats("Unicode glyph", unicodeGlyphCache);
+        }
+
         // Disable mouse reporting and show cursor.  Defensive null check
         // here in case closeTerminal() is called twice.
         if (output != null) {
@@ -1037,10 +1232,27 @@ public class ECMA48Terminal extends LogicalScreen
             // Shut down the streams, this should wake up the reader thread
             // and make it exit.
             if (input != null) {
-                try {
-                    input.close();
-                } catch (IOException e) {
-                    // SQUASH
+                if (blockingRead) {
+                    // Reader.close() waits for the reader thread to return
+                    // from read(), so close the stream underneath it.
+                    try {
+                        inputStream.close();
+                    } catch (IOException e) {
+                        // SQUASH
+                    }
+                    try {
+                        readerThread.join(1000);
+                    } catch (InterruptedException e) {
+                        if (debugToStderr) {
+                            e.printStackTrace();
+                        }
+                    }
+                } else {
+                    try {
+                        input.close();
+                    } catch (IOException e) {
+                        // SQUASH
+                    }
                 }
                 input = null;
             }
@@ -1051,6 +1263,35 @@ public class ECMA48Terminal extends LogicalScreen
         }
     }
 
+    /**
+     * Create an image cache using the jexer.ECMA48.imageCache options.
+     *
+     * @param defaultMaxEntries the maximum number of entries if
+     * jexer.ECMA48.imageCache.maxEntries is not set
+     * @return the new cache
+     */
+    private ImageCache newImageCache(final int defaultMaxEntries) {
+        if (imageCacheMaxEntries > 0) {
+            return new ImageCache(imageCacheMaxEntries, imageCacheMaxBytes);
+        }
+        return new ImageCache(defaultMaxEntries, imageCacheMaxBytes);
+    }
+
+    /**
+     * Print an image cache's counters to stderr.
+     *
+     * @param name the kind of images in the cache
+     * @param cache the cache, or null if it was never used
+     */
+    private void printImageCacheStats(final String name,
+        final ImageCache cache) {
+
+        if (cache != null) {
+            System.err.println("ECMA48Terminal " + name + " image cache: " +
+                cache);
+        }
+    }
+
     /**
      * Set listener to a different Object.
      *
@@ -1094,6 +1335,9 @@ public class ECMA48Terminal extends LogicalScreen
             sixel = true;
         }
         // Default to HQ quantizer.
+        if (sixelEncoder != null) {
+            sixelEncoder.shutdown();
+        }
         if (System.getProperty("jexer.ECMA48.sixelEncoder",
                 "hq").equals("legacy")) {
             sixelEncoder = new LegacySixelEncoder();
@@ -1164,7 +1408,33 @@ public class ECMA48Terminal extends LogicalScreen
             explicitlyDestroyImages = false;
         }
 
+        // Default to encoding output directly to bytes.
+        if (System.getProperty("jexer.ECMA48.outputEncoder",
+                "bytes").equals("legacy")) {
+            byteOutput = false;
+        } else {
+            byteOutput = true;
+        }
+
+        if (System.getProperty("jexer.ECMA48.scrollRegions",
+                "true").equals("false")) {
+            scrollRegions = false;
+        } else {
+            scrollRegions = true;
+        }
+
+        // The read mode cannot change once the reader thread is running.
+        if (readerThread == null) {
+            if (System.getProperty("jexer.ECMA48.blockingRead",
+                    "true").equals("false")) {
+                blockingRead = false;
+            } else {
+                blockingRead = true;
+            }
+        }
+
         // Image thread count.
+        int oldImageThreadCount = imageThreadCount;
         imageThreadCount = 2;
         try {
             imageThreadCount = Integer.parseInt(System.getProperty(
@@ -1179,6 +1449,38 @@ public class ECMA48Terminal extends LogicalScreen
             // Legacy encoder is not thread-safe.
             imageThreadCount = 1;
         }
+        if (imageThreadCount != oldImageThreadCount) {
+            shutdownImageExecutor();
+        }
+
+        // Image cache limits.
+        imageCacheMaxEntries = 0;
+        try {
+            imageCacheMaxEntries = Integer.parseInt(System.getProperty(
+                "jexer.ECMA48.imageCache.maxEntries", "0"));
+            if (imageCacheMaxEntries < 0) {
+                imageCacheMaxEntries = 0;
+            }
+        } catch (NumberFormatException e) {
+            // SQUASH
+        }
+        imageCacheMaxBytes = 64L * 1024 * 1024;
+        try {
+            imageCacheMaxBytes = Long.parseLong(System.getProperty(
+                "jexer.ECMA48.imageCache.maxBytes",
+                Long.toString(imageCacheMaxBytes)));
+            if (imageCacheMaxBytes < 0) {
+                imageCacheMaxBytes = 0;
+            }
+        } catch (NumberFormatException e) {
+            // SQUASH
+        }
+        if (System.getProperty("jexer.ECMA48.imageCache.stats",
+                "false").equals("true")) {
+            imageCacheStats = true;
+        } else {
+            imageCacheStats = false;
+        }
 
         // Set custom colors
         setCustomSystemColors();
@@ -1192,6 +1494,12 @@ public class ECMA48Terminal extends LogicalScreen
      * Read function runs on a separate thread.
      */
     public void run() {
+        if (blockingRead) {
+            readBlocking();
+            postDisconnect();
+            return;
+        }
+
         boolean done = false;
         // available() will often return > 1, so we need to read in chunks to
         // stay caught up.
@@ -1327,7 +1635,7 @@ public class ECMA48Terminal extends LogicalScreen
                     }
 
                     if (output != null) {
-                        if (output.checkError()) {
+                        if (output.checkError() || outputStreamError) {
                             // This is EOF.
                             done = true;
                         }
@@ -1346,21 +1654,207 @@ public class ECMA48Terminal extends LogicalScreen
         } // while ((done == false) && (stopReaderThread == false))
 
         // Pass an event up to TApplication to tell it this Backend is done.
+        postDisconnect();
+
+        // System.err.println("*** run() exiting..."); System.err.flush();
+    }
+
+    // ------------------------------------------------------------------------
+    // ECMA48Terminal ---------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Start the reader thread.  A blocking reader only wakes up when input
+     * arrives, so idle sessions cost no wakeups.  It is a daemon thread,
+     * so a reader still waiting on a remote side does not keep the JVM
+     * alive.
+     */
+    private void startReaderThread() {
+        if (setRawMode) {
+            // Nothing can wake a read() blocked on System.in short of
+            // closing it, which we must not do.  Poll instead, so that
+            // closeTerminal() can stop the reader before the next
+            // keystroke and that keystroke is left for whoever reads
+            // System.in next.
+            blockingRead = false;
+        }
+        if (blockingRead) {
+            readerThread = ThreadUtils.newThread(this,
+                "ECMA48Terminal reader");
+            readerThread.setDaemon(true);
+            readerThread.start();
+            // getIdleEvents() still only checks the window size once per
+            // second.
+            idleTimer = getInputTimer().scheduleWithFixedDelay(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        checkIdle();
+                    }
+                }, 500, 500, TimeUnit.MILLISECONDS);
+        } else {
+            readerThread = ThreadUtils.start(this, "ECMA48Terminal reader");
+        }
+    }
+
+    /**
+     * Read input until EOF or closeTerminal(), blocking in read() between
+     * keystrokes.  Used when blockingRead is true.
+     */
+    private void readBlocking() {
+        // read() returns as soon as anything is available, so this only
+        // needs to be large enough for a burst of pasted text.
+        char [] readBuffer = new char[1024];
+        List<TInputEvent> events = new ArrayList<TInputEvent>();
+        Reader reader = input;
+
+        try {
+            while (!stopReaderThread) {
+                int rc = reader.read(readBuffer, 0, readBuffer.length);
+                if (rc == -1) {
+                    // This is EOF
+                    break;
+                }
+                if (debugToStderr) {
+                    System.err.printf("%d rc = %d INPUT: %s\n",
+                        System.currentTimeMillis(), rc,
+                        new String(readBuffer, 0, rc));
+                }
+                synchronized (parserLock) {
+                    for (int i = 0; i < rc; i++) {
+                        processChar(events, readBuffer[i]);
+                    }
+                    if (state == ParseState.ESCAPE) {
+                        // Either more of the sequence is coming, or this
+                        // was the Escape key.
+                        scheduleEscapeTimeout();
+                    }
+                }
+                postEvents(events);
+            }
+        } catch (IOException e) {
+            if (!stopReaderThread) {
+                e.printStackTrace();
+            }
+        }
+        stopInputTimers();
+    }
+
+    /**
+     * Check for a new window size, a bare escape, or an output error.
+     * Called by the input timer when blockingRead is true.
+     */
+    private void checkIdle() {
+        if (stopReaderThread) {
+            return;
+        }
+
+        List<TInputEvent> events = new ArrayList<TInputEvent>();
+        synchronized (parserLock) {
+            getIdleEvents(events);
+        }
+        postEvents(events);
+
+        PrintWriter writer = output;
+        if ((writer != null) && (writer.checkError() || outputStreamError)) {
+            // This is EOF.  The reader thread will exit when TApplication
+            // closes the terminal.
+            stopInputTimers();
+            postDisconnect();
+        }
+    }
+
+    /**
+     * Schedule checkIdle() for just after a bare escape would time out.
+     * Called with parserLock held.
+     */
+    private void scheduleEscapeTimeout() {
+        if (escapeTimer != null) {
+            escapeTimer.cancel(false);
+        }
+        if (stopReaderThread) {
+            return;
+        }
+        long delay = escapeTime + 101 - System.currentTimeMillis();
+        escapeTimer = getInputTimer().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    checkIdle();
+                }
+            }, Math.max(delay, 1), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancel the input timer tasks for this terminal.
+     */
+    private void stopInputTimers() {
+        synchronized (parserLock) {
+            if (idleTimer != null) {
+                idleTimer.cancel(false);
+                idleTimer = null;
+            }
+            if (escapeTimer != null) {
+                escapeTimer.cancel(false);
+                escapeTimer = null;
+            }
+        }
+    }
+
+    /**
+     * Get the input timer thread, starting it if needed.
+     *
+     * @return the timer
+     */
+    private static synchronized ScheduledExecutorService getInputTimer() {
+        if (inputTimer == null) {
+            ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(
+                1, ThreadUtils.newDaemonFactory("ECMA48Terminal input timer"));
+            // Escape timeouts are usually cancelled by the rest of the
+            // sequence arriving, don't let them pile up.
+            timer.setRemoveOnCancelPolicy(true);
+            inputTimer = timer;
+        }
+        return inputTimer;
+    }
+
+    /**
+     * Add events to the queue for the backend thread to obtain, and wake
+     * up the listener.
+     *
+     * @param events the new events.  This list is cleared.
+     */
+    private void postEvents(final List<TInputEvent> events) {
+        if (events.size() == 0) {
+            return;
+        }
         synchronized (eventQueue) {
-            eventQueue.add(new TCommandEvent(backend, cmBackendDisconnect));
+            eventQueue.addAll(events);
         }
         if (listener != null) {
             synchronized (listener) {
                 listener.notifyAll();
             }
         }
-
-        // System.err.println("*** run() exiting..."); System.err.flush();
+        events.clear();
     }
 
-    // ------------------------------------------------------------------------
-    // ECMA48Terminal ---------------------------------------------------------
-    // ------------------------------------------------------------------------
+    /**
+     * Tell TApplication that this backend is done, once.
+     */
+    private void postDisconnect() {
+        synchronized (eventQueue) {
+            if (disconnectPosted) {
+                return;
+            }
+            disconnectPosted = true;
+            eventQueue.add(new TCommandEvent(backend, cmBackendDisconnect));
+        }
+        if (listener != null) {
+            synchronized (listener) {
+                listener.notifyAll();
+            }
+        }
+    }
 
     /**
      * Get the bytes per second from the last second.
@@ -1497,23 +1991,108 @@ public class ECMA48Terminal extends LogicalScreen
     }
 
     /**
-     * Perform a somewhat-optimal rendering of a line.
+     * Push the logical screen to the physical device by encoding it
+     * directly to bytes and writing those to outputStream.
+     */
+    private void flushPhysicalBytes() {
+        if (output == null) {
+            return;
+        }
+        if (encoder == null) {
+            encoder = new ECMA48Encoder(width * height * 8);
+        }
+        encoder.reset();
+
+        int start = 0;
+        if (hasSynchronizedOutput) {
+            // Begin Synchronized Update (BSU)
+            encoder.append("\033[?2026h");
+            start = encoder.length();
+        }
+        if ((cursorVisible)
+            && (cursorY >= 0)
+            && (cursorX >= 0)
+            && (cursorY <= height - 1)
+            && (cursorX <= width - 1)
+        ) {
+            flushString(null, encoder);
+            encoder.append(cursor(true));
+            encoder.gotoXY(cursorX, cursorY);
+        } else {
+            encoder.append(cursor(false));
+            flushString(null, encoder);
+        }
+        if (encoder.length() == start) {
+            // Nothing to update.
+            encoder.reset();
+        } else if (hasSynchronizedOutput) {
+            // End Synchronized Update (ESU)
+            encoder.append("\033[?2026l");
+        }
+
+        if (debugToStderr) {
+            System.err.printf("Writing %d bytes to terminal%s\n",
+                encoder.length(), (hasSynchronizedOutput ? " (sync)" : ""));
+        }
+
+        // Anything written through the PrintWriter must reach the stream
+        // before this frame does.
+        output.flush();
+        try {
+            encoder.writeTo(outputStream);
+            outputStream.flush();
+        } catch (IOException e) {
+            if (debugToStderr) {
+                e.printStackTrace();
+            }
+            outputStreamError = true;
+        }
+
+        countBytes(encoder.length());
+    }
+
+    /**
+     * Update the bytes per second counters after a flush.
+     *
+     * @param n the number of bytes written
+     */
+    private void countBytes(final int n) {
+        long now = System.currentTimeMillis();
+        long second = now / 1000;
+        long lastSecond = lastFlushTime / 1000;
+        if (second == lastSecond) {
+            bytesPerSecond += n;
+        } else {
+            // The finished second only counts if it was the one just
+            // before this one.
+            if (second == lastSecond + 1) {
+                lastBytesPerSecond = bytesPerSecond;
+            } else {
+                lastBytesPerSecond = 0;
+            }
+            bytesPerSecond = n;
+        }
+        lastFlushTime = now;
+    }
+
+    /**
+     * Perform a somewhat-optimal rendering of a line.  Exactly one of sb or
+     * encoder is used.
      *
      * @param y row coordinate.  0 is the top-most row.
-     * @param sb StringBuilder to write escape sequences to
+     * @param sb StringBuilder to write escape sequences to, or null
+     * @param encoder ECMA48Encoder to write escape sequences to, or null
      * @param lastAttr cell attributes from the last call to flushLine
      */
     private void flushLine(final int y, final StringBuilder sb,
-        CellAttributes lastAttr) {
+        final ECMA48Encoder encoder, CellAttributes lastAttr) {
 
         int lastX = -1;
         int textEnd = 0;
-        for (int x = 0; x < width; x++) {
-            Cell lCell = logical[x][y];
-            if (!lCell.isBlank()) {
+        for (int x = width - 1; x > 0; x--) {
+            if (!isLogicalBlank(x, y)) {
                 textEnd = x;
-            } else {
-                assert (!lCell.isImage());
+                break;
             }
         }
         // Push textEnd to first column beyond the text area
@@ -1526,28 +2105,26 @@ public class ECMA48Terminal extends LogicalScreen
         boolean hasImage = false;
 
         for (int x = 0; x < width; x++) {
-            Cell lCell = logical[x][y];
-            Cell pCell = physical[x][y];
-
-            if (lCell.isImage()) {
+            if (isLogicalImage(x, y)) {
                 continue;
             }
 
-            if (!lCell.equals(pCell) || lCell.isPulse() || reallyCleared) {
+            if (!isCellInSync(x, y) || isLogicalPulse(x, y) || reallyCleared) {
+                Cell lCell = getLogicalCell(x, y, flushCell);
 
                 if (debugToStderr && reallyDebug) {
                     System.err.printf("\n--\n");
                     System.err.printf(" Y: %d X: %d lastX %d textEnd %d\n",
                         y, x, lastX, textEnd);
                     System.err.printf("   lCell: %s\n", lCell);
-                    System.err.printf("   pCell: %s\n", pCell);
+                    System.err.printf("   pCell: %s\n", getPhysicalCell(x, y));
                     System.err.printf("   lastAttr: %s\n", lastAttr);
                     System.err.printf("    ====    \n");
                 }
 
                 if (lastAttr == null) {
                     lastAttr = new CellAttributes();
-                    sb.append(normal());
+                    emit(sb, encoder, normal());
                 }
 
                 // Place the cell
@@ -1558,7 +2135,7 @@ public class ECMA48Terminal extends LogicalScreen
                                 " lastX " + lastX);
                         }
                         // Advancing at least one cell, or the first gotoXY
-                        sb.append(gotoXY(x, y));
+                        emitGotoXY(sb, encoder, x, y);
                     }
                 }
 
@@ -1568,9 +2145,9 @@ public class ECMA48Terminal extends LogicalScreen
                     assert (lCell.isBlank());
 
                     for (int i = x; i < width; i++) {
-                        assert (logical[i][y].isBlank());
+                        assert (getLogicalCell(i, y).isBlank());
                         // Physical is always updated
-                        physical[i][y].reset();
+                        resetPhysical(i, y);
                     }
 
                     // Clear remaining line
@@ -1579,8 +2156,8 @@ public class ECMA48Terminal extends LogicalScreen
                             " lastX " + lastX);
                         System.err.println("X: " + x + " clearRemainingLine()");
                     }
-                    sb.append(gotoXY(x, y));
-                    sb.append(clearRemainingLine());
+                    emitGotoXY(sb, encoder, x, y);
+                    emit(sb, encoder, clearRemainingLine());
                     lastAttr.reset();
                     return;
                 }
@@ -1598,7 +2175,7 @@ public class ECMA48Terminal extends LogicalScreen
                     lastX = x;
 
                     // Physical is always updated
-                    physical[x][y].setTo(lCell);
+                    syncPhysical(x, y);
                     continue;
                 }
 
@@ -1619,47 +2196,51 @@ public class ECMA48Terminal extends LogicalScreen
                         System.err.println("3 gotoXY() " + x + " " + y +
                             " lastX " + lastX);
                     }
-                    sb.append(gotoXY(x, y));
+                    emitGotoXY(sb, encoder, x, y);
                 }
                 assert (!lCell.isImage());
 
                 // Now emit only the modified attributes
-                StringBuilder attrSgr = new StringBuilder(8);
-                if (lCell.isBold() != lastAttr.isBold()) {
-                    if (lCell.isBold()) {
-                        attrSgr.append(";1");
-                    } else {
-                        attrSgr.append(";22");
+                if (encoder != null) {
+                    encoder.attributes(lCell, lastAttr);
+                } else {
+                    StringBuilder attrSgr = new StringBuilder(8);
+                    if (lCell.isBold() != lastAttr.isBold()) {
+                        if (lCell.isBold()) {
+                            attrSgr.append(";1");
+                        } else {
+                            attrSgr.append(";22");
+                        }
                     }
-                }
-                if (lCell.isUnderline() != lastAttr.isUnderline()) {
-                    if (lCell.isUnderline()) {
-                        attrSgr.append(";4");
-                    } else {
-                        attrSgr.append(";24");
+                    if (lCell.isUnderline() != lastAttr.isUnderline()) {
+                        if (lCell.isUnderline()) {
+                            attrSgr.append(";4");
+                        } else {
+                            attrSgr.append(";24");
+                        }
                     }
-                }
-                if (lCell.isBlink() != lastAttr.isBlink()) {
-                    if (lCell.isBlink()) {
-                        attrSgr.append(";5");
-                    } else {
-                        attrSgr.append(";25");
+                    if (lCell.isBlink() != lastAttr.isBlink()) {
+                        if (lCell.isBlink()) {
+                            attrSgr.append(";5");
+                        } else {
+                            attrSgr.append(";25");
+                        }
                     }
-                }
-                if (lCell.isReverse() != lastAttr.isReverse()) {
-                    if (lCell.isReverse()) {
-                        attrSgr.append(";7");
-                    } else {
-                        attrSgr.append(";27");
+                    if (lCell.isReverse() != lastAttr.isReverse()) {
+                        if (lCell.isReverse()) {
+                            attrSgr.append(";7");
+                        } else {
+                            attrSgr.append(";27");
+                        }
                     }
-                }
-                if (attrSgr.length() > 0) {
-                    if (debugToStderr && reallyDebug) {
-                        System.err.println("2 attr: " + attrSgr.substring(1));
+                    if (attrSgr.length() > 0) {
+                        if (debugToStderr && reallyDebug) {
+                            System.err.println("2 attr: " + attrSgr.substring(1));
+                        }
+                        sb.append("\033[");
+                        sb.append(attrSgr.substring(1));
+                        sb.append("m");
                     }
-                    sb.append("\033[");
-                    sb.append(attrSgr.substring(1));
-                    sb.append("m");
                 }
 
                 boolean doForeColorRGB = false;
@@ -1683,7 +2264,11 @@ public class ECMA48Terminal extends LogicalScreen
                     if (debugToStderr && reallyDebug) {
                         System.err.println("3 set foreColorRGB");
                     }
-                    sb.append(colorRGB(foreColorRGB, true));
+                    if (encoder != null) {
+                        encoder.colorRGB(foreColorRGB, true);
+                    } else {
+                        sb.append(colorRGB(foreColorRGB, true));
+                    }
                 } else {
                     if ((lCell.getForeColorRGB() < 0)
                         && ((lastAttr.getForeColorRGB() >= 0)
@@ -1692,7 +2277,11 @@ public class ECMA48Terminal extends LogicalScreen
                         if (debugToStderr && reallyDebug) {
                             System.err.println("4 set foreColor");
                         }
-                        sb.append(color(lCell.getForeColor(), true, true));
+                        if (encoder != null) {
+                            encoder.color(lCell.getForeColor(), true);
+                        } else {
+                            sb.append(color(lCell.getForeColor(), true, true));
+                        }
                     }
                 }
 
@@ -1703,7 +2292,11 @@ public class ECMA48Terminal extends LogicalScreen
                     if (debugToStderr && reallyDebug) {
                         System.err.println("5 set backColorRGB");
                     }
-                    sb.append(colorRGB(lCell.getBackColorRGB(), false));
+                    if (encoder != null) {
+                        encoder.colorRGB(lCell.getBackColorRGB(), false);
+                    } else {
+                        sb.append(colorRGB(lCell.getBackColorRGB(), false));
+                    }
                 } else {
                     if ((lCell.getBackColorRGB() < 0)
                         && ((lastAttr.getBackColorRGB() >= 0)
@@ -1712,7 +2305,11 @@ public class ECMA48Terminal extends LogicalScreen
                         if (debugToStderr && reallyDebug) {
                             System.err.println("6 set backColor");
                         }
-                        sb.append(color(lCell.getBackColor(), false, true));
+                        if (encoder != null) {
+                            encoder.color(lCell.getBackColor(), false);
+                        } else {
+                            sb.append(color(lCell.getBackColor(), false, true));
+                        }
                     }
                 }
 
@@ -1722,7 +2319,11 @@ public class ECMA48Terminal extends LogicalScreen
                     || (!wideCharImages
                         && (lCell.getWidth() != Cell.Width.RIGHT))
                 ) {
-                    sb.append(Character.toChars(lCell.getChar()));
+                    if (encoder != null) {
+                        encoder.appendCodePoint(lCell.getChar());
+                    } else {
+                        sb.append(Character.toChars(lCell.getChar()));
+                    }
                 }
 
                 // Save the last rendered cell
@@ -1730,29 +2331,48 @@ public class ECMA48Terminal extends LogicalScreen
                 lastAttr.setTo(lCell);
 
                 // Text cell: update, done.
-                physical[x][y].setTo(lCell);
+                syncPhysical(x, y);
 
-            } // if (!lCell.equals(pCell) || (reallyCleared == true))
+            } // if (!isCellInSync(x, y) || (reallyCleared == true))
 
         } // for (int x = 0; x < width; x++)
     }
 
     /**
-     * Render the screen to a string that can be emitted to something that
-     * knows how to process ECMA-48/ANSI X3.64 escape sequences.
+     * Render the screen to escape sequences that can be emitted to something
+     * that knows how to process ECMA-48/ANSI X3.64 escape sequences.
+     * Exactly one of sb or encoder is used.
      *
-     * @param sb StringBuilder to write escape sequences to
-     * @return escape sequences string that provides the updates to the
-     * physical screen
+     * @param sb StringBuilder to write escape sequences to, or null
+     * @param encoder ECMA48Encoder to write escape sequences to, or null
      */
-    private String flushString(final StringBuilder sb) {
+    private void flushString(final StringBuilder sb,
+        final ECMA48Encoder encoder) {
+
         final boolean reallyDebug = false;
 
         CellAttributes attr = null;
 
         if (reallyCleared) {
             attr = new CellAttributes();
-            sb.append(clearAll());
+            emit(sb, encoder, clearAll());
+        }
+
+        // Only the rows that changed since the last flush can differ from
+        // physical.  Take them now, so that anything drawn while we are
+        // flushing is picked up next time.
+        if ((flushRows == null) || (flushRows.length < height)) {
+            flushRows = new boolean[height];
+        }
+        for (int y = 0; y < height; y++) {
+            flushRows[y] = reallyCleared || isRowDirty(y);
+            if (flushRows[y]) {
+                clearRowDirty(y);
+            }
+        }
+
+        if (scrollRegions && !reallyCleared) {
+            flushScroll(sb, encoder);
         }
 
         /*
@@ -1761,23 +2381,26 @@ public class ECMA48Terminal extends LogicalScreen
          */
         GlyphMaker glyphMaker = GlyphMaker.getInstance(getTextHeight());
         for (int y = 0; y < height; y++) {
+            if (!flushRows[y]) {
+                continue;
+            }
             boolean unsetRow = false;
             boolean eraseImagesOnRow = false;
             for (int x = 0; x < width; x++) {
-                Cell lCell = logical[x][y];
-                Cell pCell = physical[x][y];
+                Cell lCell = getLogicalCell(x, y, flushCell);
+                boolean physicalImage = isPhysicalImage(x, y);
 
                 // If physical has image data that will be overwritten
                 // by text, then erase all of the images on this row
                 // for terminals that require explicitlyDestroyImages
                 // to be true.
-                if (pCell.isImage() && !lCell.isImage()) {
+                if (physicalImage && !lCell.isImage()) {
                     eraseImagesOnRow = true;
                 }
 
                 // If physical had non-image data that is now image data, the
                 // entire row must be redrawn.
-                if (lCell.isImage() && !pCell.isImage()) {
+                if (lCell.isImage() && !physicalImage) {
                     unsetRow = true;
                 }
 
@@ -1792,6 +2415,7 @@ public class ECMA48Terminal extends LogicalScreen
                     BufferedImage newImage = glyphMaker.getImage(lCell,
                         getTextWidth(), getTextHeight(), getBackend());
                     lCell.setImage(newImage);
+                    setLogicalCell(x, y, lCell);
                     unsetRow = true;
                 }
             }
@@ -1802,7 +2426,7 @@ public class ECMA48Terminal extends LogicalScreen
 
             if (explicitlyDestroyImages && eraseImagesOnRow) {
                 for (int x = 0; x < width; x++) {
-                    physical[x][y].unset();
+                    unsetPhysical(x, y);
                 }
                 if ((blankImageRow == null)
                     || (blankImageRow.size() < width)
@@ -1822,11 +2446,11 @@ public class ECMA48Terminal extends LogicalScreen
                     }
                 }
                 if (iterm2Images) {
-                    sb.append(toIterm2Image(0, y, blankImageRow));
+                    emit(sb, encoder, toIterm2Image(0, y, blankImageRow));
                 } else if (jexerImageOption != JexerImageOption.DISABLED) {
-                    sb.append(toJexerImage(0, y, blankImageRow));
+                    emit(sb, encoder, toJexerImage(0, y, blankImageRow));
                 } else {
-                    sb.append(toSixel(0, y, blankImageRow));
+                    emit(sb, encoder, toSixel(0, y, blankImageRow));
                 }
             }
 
@@ -1834,22 +2458,17 @@ public class ECMA48Terminal extends LogicalScreen
 
         /*
          * Image encoding is expensive, especially when the image is not in
-         * cache.  We multithread it.  Since each image contains its own
-         * gotoxy(), it doesn't matter in what order they are delivered to
-         * the terminal.
+         * cache.  Collect the spans of image cells first, then encode them
+         * (see emitImages()).
          */
-        ExecutorService imageExecutor = null;
-        List<Future<String>> imageResults = null;
-
-        if (imageThreadCount > 1) {
-            imageExecutor = Executors.newFixedThreadPool(imageThreadCount);
-            imageResults = new ArrayList<Future<String>>();
-        }
+        List<ImageJob> imageJobs = null;
 
         for (int y = 0; y < height; y++) {
+            if (!flushRows[y]) {
+                continue;
+            }
             for (int x = 0; x < width; x++) {
-                Cell lCell = logical[x][y];
-                Cell pCell = physical[x][y];
+                Cell lCell = getLogicalCell(x, y, flushCell);
 
                 if (!lCell.isImage()
                     || (!wideCharImages
@@ -1863,20 +2482,20 @@ public class ECMA48Terminal extends LogicalScreen
                 // when imageId is not set.  Higher layers of code should
                 // always aim to set imageId before putting it on the screen.
                 while ((right < width)
-                    && (logical[right][y].isImage())
-                    && (!logical[right][y].equals(physical[right][y])
-                        || reallyCleared)
+                    && isLogicalImage(right, y)
+                    && (!isCellInSync(right, y) || reallyCleared)
                 ) {
                     right++;
                 }
 
                 ArrayList<Cell> cellsToDraw = new ArrayList<Cell>();
                 for (int i = 0; i < (right - x); i++) {
-                    assert (logical[x + i][y].isImage());
+                    Cell cell = getLogicalCell(x + i, y);
+                    assert (cell.isImage());
                     BufferedImage newImage;
                     BufferedImage textImage;
 
-                    if (logical[x + i][y].isTransparentImage()) {
+                    if (cell.isTransparentImage()) {
                         // We would normally only see transparent cells at
                         // this layer if backend transparency was enabled.
                         // But in the case of multihead, we may have been
@@ -1887,16 +2506,17 @@ public class ECMA48Terminal extends LogicalScreen
                         // under the image.
                         assert (backend != null);
                         if (imagesOverText == true) {
-                            logical[x + i][y].flattenImage(true, backend);
+                            cell.flattenImage(true, backend);
                         } else {
-                            logical[x + i][y].flattenImage(false, backend);
+                            cell.flattenImage(false, backend);
                         }
+                        setLogicalCell(x + i, y, cell);
                     }
-                    assert (!logical[x + i][y].isTransparentImage());
-                    cellsToDraw.add(logical[x + i][y]);
+                    assert (!cell.isTransparentImage());
+                    cellsToDraw.add(cell);
 
                     // Physical is always updated.
-                    physical[x + i][y].setTo(logical[x + i][y]);
+                    syncPhysical(x + i, y);
                 }
                 if (cellsToDraw.size() > 0) {
                     if (debugToStderr && reallyDebug) {
@@ -1906,99 +2526,331 @@ public class ECMA48Terminal extends LogicalScreen
 
                     if (iterm2Images) {
                         if (iterm2Cache == null) {
-                            iterm2Cache = new ImageCache(height * width * 10);
+                            iterm2Cache = newImageCache(height * width * 10);
                         }
                     } else if (jexerImageOption != JexerImageOption.DISABLED) {
                         if (jexerCache == null) {
-                            jexerCache = new ImageCache(height * width * 10);
+                            jexerCache = newImageCache(height * width * 10);
                         }
                     } else if (sixel == true) {
                         if (sixelCache == null) {
-                            sixelCache = new ImageCache(height * width * 10);
+                            sixelCache = newImageCache(height * width * 10);
                         }
                     } else {
                         if (unicodeGlyphCache == null) {
-                            unicodeGlyphCache = new ImageCache(height * width);
+                            unicodeGlyphCache = newImageCache(height * width);
                         }
                     }
 
-                    if (imageThreadCount == 1) {
-                        // Single-threaded
-                        if (iterm2Images) {
-                            sb.append(toIterm2Image(x, y, cellsToDraw));
-                        } else if (jexerImageOption != JexerImageOption.DISABLED) {
-                            sb.append(toJexerImage(x, y, cellsToDraw));
-                        } else if (sixel == true) {
-                            sb.append(toSixel(x, y, cellsToDraw));
-                        } else {
-                            sb.append(toUnicodeGlyphs(x, y, cellsToDraw));
-                        }
-                    } else {
-                        // Multi-threaded: experimental and likely borken
-                        final int callX = x;
-                        final int callY = y;
-
-                        // Make a deep copy of the cells to render.
-                        final ArrayList<Cell> callCells;
-                        callCells = new ArrayList<Cell>(cellsToDraw);
-                        imageResults.add(imageExecutor.submit(new Callable<String>() {
-                            @Override
-                            public String call() {
-                                if (iterm2Images) {
-                                    return toIterm2Image(callX, callY, callCells);
-                                } else if (jexerImageOption != JexerImageOption.DISABLED) {
-                                    return toJexerImage(callX, callY, callCells);
-                                } else if (sixel == true) {
-                                    return toSixel(callX, callY, callCells);
-                                } else {
-                                    return toUnicodeGlyphs(callX, callY,
-                                        callCells);
-                                }
-                            }
-                        }));
+                    if (imageJobs == null) {
+                        imageJobs = new ArrayList<ImageJob>();
                     }
+                    imageJobs.add(new ImageJob(x, y, cellsToDraw));
                 }
 
                 x = right;
             }
         }
 
-        if (imageThreadCount > 1) {
-            List<String> threadedImages = new ArrayList<String>(imageResults.size());
-            // Collect all the encoded images.
-            while (imageResults.size() > 0) {
-                Future<String> image = imageResults.get(0);
+        if (imageJobs != null) {
+            emitImages(sb, encoder, imageJobs);
+        }
+
+        // Draw the text part now.
+        for (int y = 0; y < height; y++) {
+            if (flushRows[y] && (reallyCleared || !isRowInSync(y))) {
+                flushLine(y, sb, encoder, attr);
+            }
+        }
+
+        reallyCleared = false;
+
+        if (debugToStderr && !hasSynchronizedOutput && (sb != null)) {
+            System.err.printf("flushString(): %s\n", sb.toString());
+        }
+    }
+
+    /**
+     * See if a block of rows has scrolled up or down since the last flush,
+     * and if so scroll them on the terminal using a scrolling region
+     * (DECSTBM) and SU/SD, so that only the rows scrolled in need to be
+     * drawn.  Rows are compared by hash first: a changed row whose hash
+     * matches exactly one other row of physical votes for that distance,
+     * and the longest block of rows that really moved by the winning
+     * distance is scrolled.  Rows with images are never scrolled.
+     *
+     * @param sb StringBuilder to write escape sequences to, or null
+     * @param encoder ECMA48Encoder to write escape sequences to, or null
+     */
+    private void flushScroll(final StringBuilder sb,
+        final ECMA48Encoder encoder) {
+
+        if ((changedRows == null) || (changedRows.length < height)) {
+            changedRows = new boolean[height];
+            logicalRowHashes = new int[height];
+            physicalRowHashes = new int[height];
+            scrollVotes = new int[height * 2];
+        }
+
+        int changed = 0;
+        for (int y = 0; y < height; y++) {
+            changedRows[y] = flushRows[y] && !isRowInSync(y);
+            if (changedRows[y]) {
+                changed++;
+            }
+        }
+        if (changed < 2) {
+            // Scrolling cannot save anything.
+            return;
+        }
+
+        // Rows that did not change have the same hash as physical.
+        for (int y = 0; y < height; y++) {
+            physicalRowHashes[y] = getPhysicalRowHash(y);
+            if (changedRows[y]) {
+                logicalRowHashes[y] = getLogicalRowHash(y);
+            } else {
+                logicalRowHashes[y] = physicalRowHashes[y];
+            }
+        }
+
+        // Vote on the distance rows moved.
+        Arrays.fill(scrollVotes, 0, height * 2, 0);
+        for (int y = 0; y < height; y++) {
+            int hash = logicalRowHashes[y];
+            if (!changedRows[y] || (hash == 0)) {
+                continue;
+            }
+            int from = -1;
+            for (int py = 0; py < height; py++) {
+                if (physicalRowHashes[py] == hash) {
+                    if (from != -1) {
+                        // Not unique, e.g. a blank line.
+                        from = -1;
+                        break;
+                    }
+                    from = py;
+                }
+            }
+            if ((from != -1) && (from != y)) {
+                scrollVotes[y - from + height]++;
+            }
+        }
+        int distance = 0;
+        int votes = 0;
+        for (int i = 0; i < height * 2; i++) {
+            if ((scrollVotes[i] > votes)
+                || ((scrollVotes[i] == votes) && (votes > 0)
+                    && (Math.abs(i - height) < Math.abs(distance)))
+            ) {
+                votes = scrollVotes[i];
+                distance = i - height;
+            }
+        }
+        if (distance == 0) {
+            return;
+        }
+
+        // Find the longest block of rows that moved by distance, and count
+        // the rows that would not have to be drawn.
+        int bestTop = -1;
+        int bestBottom = -1;
+        int bestSaved = 0;
+        int runTop = -1;
+        int saved = 0;
+        int first = Math.max(0, distance);
+        int last = Math.min(height, height + distance);
+        for (int y = first; y <= last; y++) {
+            boolean moved = false;
+            if (y < last) {
+                int hash = logicalRowHashes[y];
+                moved = ((hash != 0)
+                    && (hash == physicalRowHashes[y - distance])
+                    && isRowMoved(y, y - distance));
+            }
+            if (moved) {
+                if (runTop == -1) {
+                    runTop = y;
+                    saved = 0;
+                }
+                if (changedRows[y]) {
+                    saved++;
+                }
+            } else if (runTop != -1) {
+                if (saved > bestSaved) {
+                    bestTop = runTop;
+                    bestBottom = y - 1;
+                    bestSaved = saved;
+                }
+                runTop = -1;
+            }
+        }
+        if (bestSaved < 2) {
+            return;
+        }
+
+        // The scrolling region is the moved rows plus the rows scrolled
+        // in.  The rows scrolled off must not have images on them.
+        int top = (distance < 0 ? bestTop : bestTop - distance);
+        int bottom = (distance < 0 ? bestBottom - distance : bestBottom);
+        int offTop = (distance < 0 ? top : bottom - distance + 1);
+        int offBottom = (distance < 0 ? top - distance - 1 : bottom);
+        for (int y = offTop; y <= offBottom; y++) {
+            for (int x = 0; x < width; x++) {
+                if (isPhysicalImage(x, y)) {
+                    return;
+                }
+            }
+        }
+
+        // Some terminals use back-color-erase, so the rows scrolled in
+        // will be white-on-black.  They are unset in physical anyway.
+        emit(sb, encoder, "\033[0;37;40m");
+        emit(sb, encoder, String.format("\033[%d;%dr", top + 1, bottom + 1));
+        if (distance < 0) {
+            emit(sb, encoder, String.format("\033[%dS", -distance));
+        } else {
+            emit(sb, encoder, String.format("\033[%dT", distance));
+        }
+        emit(sb, encoder, "\033[r");
+
+        scrollPhysical(top, bottom, -distance);
+        for (int y = top; y <= bottom; y++) {
+            flushRows[y] = true;
+        }
+    }
+
+    /**
+     * Encode spans of image cells and emit them in the order given, which
+     * is the same output whether one thread or several do the encoding.
+     * With more than one span and imageThreadCount above 1, every span but
+     * the first is handed to imageExecutor while this thread encodes the
+     * first.  A span that the executor rejects or fails on is encoded on
+     * this thread instead.
+     *
+     * @param sb StringBuilder to write escape sequences to, or null
+     * @param encoder ECMA48Encoder to write escape sequences to, or null
+     * @param jobs the spans to encode, in screen order
+     */
+    private void emitImages(final StringBuilder sb,
+        final ECMA48Encoder encoder, final List<ImageJob> jobs) {
+
+        if ((imageThreadCount == 1) || (jobs.size() == 1)) {
+            for (ImageJob job: jobs) {
+                emit(sb, encoder, job.call());
+            }
+            return;
+        }
+
+        ExecutorService executor = getImageExecutor();
+        List<Future<String>> results = new ArrayList<Future<String>>(
+            jobs.size());
+        results.add(null);
+        for (int i = 1; i < jobs.size(); i++) {
+            Future<String> result = null;
+            try {
+                result = executor.submit(jobs.get(i));
+            } catch (RejectedExecutionException e) {
+                // The executor was shut down, fall through to this thread.
+            }
+            results.add(result);
+        }
+
+        emit(sb, encoder, jobs.get(0).call());
+        boolean interrupted = false;
+        for (int i = 1; i < jobs.size(); i++) {
+            Future<String> result = results.get(i);
+            String image = null;
+            if ((result != null) && !interrupted) {
                 try {
-                    threadedImages.add(image.get());
+                    image = result.get();
                 } catch (InterruptedException e) {
-                    // SQUASH
-                    // e.printStackTrace();
+                    // Stop waiting on the workers, and finish this frame
+                    // here.
+                    interrupted = true;
+                } catch (CancellationException e) {
+                    // The executor was shut down, encode it here.
                 } catch (ExecutionException e) {
-                    // SQUASH
-                    // e.printStackTrace();
+                    if (debugToStderr) {
+                        e.printStackTrace();
+                    }
                 }
-                imageResults.remove(0);
             }
-            imageExecutor.shutdown();
+            if (interrupted && (result != null)) {
+                result.cancel(true);
+            }
+            if (image == null) {
+                image = jobs.get(i).call();
+            }
+            emit(sb, encoder, image);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get the image encoder threads, starting them if needed.
+     *
+     * @return the executor
+     */
+    private ExecutorService getImageExecutor() {
+        if (imageExecutor == null) {
+            imageExecutor = Executors.newFixedThreadPool(imageThreadCount,
+                ThreadUtils.newDaemonFactory("ECMA48Terminal image encoder"));
+        }
+        return imageExecutor;
+    }
 
-            Collections.sort(threadedImages);
-            for (String imageString: threadedImages) {
-                sb.append(imageString);
+    /**
+     * Stop the image encoder threads, and wait briefly for them to finish.
+     * They will be started again on the next frame that needs them.
+     */
+    private void shutdownImageExecutor() {
+        if (imageExecutor != null) {
+            imageExecutor.shutdownNow();
+            try {
+                imageExecutor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // SQUASH
             }
+            imageExecutor = null;
         }
+    }
 
-        // Draw the text part now.
-        for (int y = 0; y < height; y++) {
-            flushLine(y, sb, attr);
+    /**
+     * Emit a string to whichever of sb or encoder is in use.
+     *
+     * @param sb StringBuilder to write to, or null
+     * @param encoder ECMA48Encoder to write to, or null
+     * @param str the string to emit
+     */
+    private void emit(final StringBuilder sb, final ECMA48Encoder encoder,
+        final String str) {
+
+        if (encoder != null) {
+            encoder.append(str);
+        } else {
+            sb.append(str);
         }
+    }
 
-        reallyCleared = false;
+    /**
+     * Emit a cursor position to whichever of sb or encoder is in use.
+     *
+     * @param sb StringBuilder to write to, or null
+     * @param encoder ECMA48Encoder to write to, or null
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     */
+    private void emitGotoXY(final StringBuilder sb,
+        final ECMA48Encoder encoder, final int x, final int y) {
 
-        String result = sb.toString();
-        if (debugToStderr && !hasSynchronizedOutput) {
-            System.err.printf("flushString(): %s\n", result);
+        if (encoder != null) {
+            encoder.gotoXY(x, y);
+        } else {
+            sb.append(gotoXY(x, y));
         }
-        return result;
     }
 
     /**
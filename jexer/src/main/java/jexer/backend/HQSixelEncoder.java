@@ -43,14 +43,23 @@ import java.awt.image.Raster;
 import java.io.FileInputStream;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import javax.imageio.ImageIO;
 
 import jexer.bits.MathUtils;
+import jexer.bits.ThreadUtils;
 
 /**
  * HQSixelEncoder turns a BufferedImage into String of sixel image data,
@@ -82,6 +91,25 @@ public class HQSixelEncoder implements SixelEncoder {
      */
     private static final int FAST_AND_DIRTY = 64;
 
+    /**
+     * When reusing palettes, a previous palette is used for a new image if
+     * its color error on the new image is at most this many times its
+     * error on the image it was made for...
+     */
+    private static final double REUSE_ERROR_FACTOR = 1.5;
+
+    /**
+     * ...plus this much.  The error is the mean squared RGB distance in
+     * sixel color space (0-100 per component).
+     */
+    private static final double REUSE_ERROR_SLACK = 4.0;
+
+    /**
+     * The minimum number of sixel rows in each band of an image that is
+     * dithered and encoded on several threads.
+     */
+    private static final int MIN_BAND_SIXEL_ROWS = 16;
+
     /**
      * When run from the command line, we need both the image, and to know if
      * the image is transparent in order to set to correct sixel introducer.
@@ -617,6 +645,50 @@ public class HQSixelEncoder implements SixelEncoder {
 
         }
 
+        /**
+         * ColorSearch holds the state used while mapping image colors to
+         * palette colors.  Each band of the image being dithered at the
+         * same time gets its own.
+         */
+        private class ColorSearch {
+
+            /**
+             * A map of recent matching colors.  Only used for median cut.
+             */
+            private ColorMatchCache recentColorMatch = null;
+
+            /**
+             * The key used for binary search.
+             */
+            private PcaColor pcaKey = new PcaColor(0, 0, 0, 0);
+
+            /**
+             * The index into pcaColors last found by binary search.
+             */
+            private int lastPcaSearchIndex = 0;
+
+            /**
+             * The colors used by the pixels mapped with this search.
+             */
+            private BitSet usedColors;
+
+            /**
+             * Public constructor.
+             *
+             * @param pixels the number of pixels that will be mapped
+             */
+            public ColorSearch(final int pixels) {
+                if ((quantizationType == 1) && (nearestColors == null)) {
+                    // Allow up the last 8192 colors to be re-used, or 10% of
+                    // the pixels.
+                    recentColorMatch = new ColorMatchCache(Math.max(1,
+                            Math.min(pixels / 10, 8192)));
+                }
+                usedColors = new BitSet(sixelColors.size());
+            }
+
+        }
+
         /**
          * Number of colors in this palette.
          */
@@ -648,21 +720,6 @@ public class HQSixelEncoder implements SixelEncoder {
             }
         };
 
-        /**
-         * A map of recent matching colors.
-         */
-        private ColorMatchCache recentColorMatch;
-
-        /**
-         * The key used for binary search.
-         */
-        private PcaColor pcaKey = new PcaColor(0, 0, 0, 0);
-
-        /**
-         * The index into pcaColors last found by binary search.
-         */
-        private int lastPcaSearchIndex = 0;
-
         /**
          * The distance along the first principal component axis at which two
          * colors are deemed close to each other.
@@ -733,6 +790,25 @@ public class HQSixelEncoder implements SixelEncoder {
          */
         private Timings timings;
 
+        /**
+         * The mean squared distance between the sampled image colors and
+         * their palette colors, or -1 if not measured.
+         */
+        private double quantizationError = -1;
+
+        /**
+         * If true, the colors came from a previous image's palette.
+         */
+        private boolean reused = false;
+
+        /**
+         * The palette index for every sixel color (red * 101 * 101 + green
+         * * 101 + blue), or -1 if not searched yet.  Only used when
+         * reusing palettes, and shared by every image that uses the same
+         * colors.
+         */
+        private int [] nearestColors = null;
+
         /**
          * Public constructor.
          *
@@ -740,9 +816,11 @@ public class HQSixelEncoder implements SixelEncoder {
          * @param image a bitmap image
          * @param allowTransparent if true, allow transparent pixels to be
          * specified
+         * @param previous a median cut palette from an earlier image to try
+         * before doing a new median cut, or null
          */
         public Palette(final int size, final BufferedImage image,
-            final boolean allowTransparent) {
+            final boolean allowTransparent, final Palette previous) {
 
             assert (size >= 2);
             assert (image.getWidth() > 0);
@@ -913,8 +991,110 @@ public class HQSixelEncoder implements SixelEncoder {
             } else if (true || (colorMap.size() <= numColors * 10)) {
                 // For now, direct map and median cut are all we get.
                 quantizationType = 1;
-                medianCut();
+                if ((previous == null) || !reuse(previous, numColors)) {
+                    medianCut();
+                    if (reusePalette) {
+                        nearestColors = new int[101 * 101 * 101];
+                        Arrays.fill(nearestColors, -1);
+                        quantizationError = sampleError();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Try to use the colors of a previous image's median cut palette for
+         * this image.  Consecutive frames of an animation usually share
+         * almost all of their colors, so this skips the median cut and
+         * search map build when the previous colors are still a good fit.
+         *
+         * @param previous the previous palette
+         * @param numColors the number of colors this palette may use
+         * @return true if the previous colors are used
+         */
+        private boolean reuse(final Palette previous, final int numColors) {
+            if ((previous.paletteSize != paletteSize)
+                || (previous.sixelColors.size() > numColors)
+                || (previous.quantizationError < 0)
+            ) {
+                return false;
+            }
+
+            List<Integer> newColors = sixelColors;
+            sixelColors = previous.sixelColors;
+            PCA = previous.PCA;
+            pcaColors = previous.pcaColors;
+            pcaThreshold = previous.pcaThreshold;
+            nearestColors = previous.nearestColors;
+            quantizationDone = true;
+
+            double error = sampleError();
+            if (verbosity >= 1) {
+                System.err.printf("Previous palette error %6.2f, was %6.2f\n",
+                    error, previous.quantizationError);
+            }
+            if (error > (previous.quantizationError * REUSE_ERROR_FACTOR)
+                + REUSE_ERROR_SLACK
+            ) {
+                // Too far off, go back to a fresh median cut.
+                sixelColors = newColors;
+                PCA = null;
+                pcaColors = null;
+                pcaThreshold = 0;
+                nearestColors = null;
+                quantizationDone = false;
+                return false;
+            }
+
+            // Keep the error of the image the colors were made for, so that
+            // a slow drift will eventually make a new palette.
+            quantizationError = previous.quantizationError;
+            reused = true;
+            if (timings != null) {
+                timings.buildColorMapTime = System.nanoTime();
             }
+            return true;
+        }
+
+        /**
+         * Find the mean squared distance between the sampled image colors
+         * and their nearest palette colors.
+         *
+         * @return the population-weighted mean squared distance
+         */
+        private double sampleError() {
+            ColorSearch search = new ColorSearch(0);
+            long totalError = 0;
+            long count = 0;
+            for (ColorIdx color: colorMap.values()) {
+                int red   = (color.color >>> 16) & 0xFF;
+                int green = (color.color >>>  8) & 0xFF;
+                int blue  =  color.color         & 0xFF;
+                int sixelRgb = sixelColors.get(nearestColor(search,
+                        color.color));
+                int red2   = (sixelRgb >>> 16) & 0xFF;
+                int green2 = (sixelRgb >>>  8) & 0xFF;
+                int blue2  =  sixelRgb         & 0xFF;
+                totalError += (long) color.count * ((red2 - red) * (red2 - red)
+                    + (green2 - green) * (green2 - green)
+                    + (blue2 - blue) * (blue2 - blue));
+                count += color.count;
+            }
+            if (count == 0) {
+                return 0;
+            }
+            return ((double) totalError / count);
+        }
+
+        /**
+         * Drop the image data once encoding is done, keeping only what a
+         * later image needs to reuse the colors.
+         */
+        private void forgetImage() {
+            sixelImage = null;
+            colorMap = null;
+            buckets = null;
+            sixelRows = null;
         }
 
         /**
@@ -1321,11 +1501,6 @@ public class HQSixelEncoder implements SixelEncoder {
             // A first principal component difference within 8 indices will
             // be deemed in the same neighborhood.
             pcaThreshold = ((pcaColors.get(idx - 1).firstPca - pcaColors.get(0).firstPca) / idx) * 8.0;
-
-            // Allow up the last 8192 colors to be re-used, or 10% of the
-            // image size.
-            recentColorMatch = new ColorMatchCache(Math.min(
-                sixelImageWidth * sixelImageHeight / 10, 8192));
         }
 
         /**
@@ -1386,22 +1561,23 @@ public class HQSixelEncoder implements SixelEncoder {
          * One can then search forward and backward to find all nearby
          * colors.
          *
+         * @param search the search state
          * @param red the red component, from 0-100
          * @param green the green component, from 0-100
          * @param blue the blue component, from 0-100
          * @return the palette index of the nearest color in RGB space
          */
-        private int findNearestColor(final int red, final int green,
-            final int blue) {
+        private int findNearestColor(final ColorSearch search, final int red,
+            final int green, final int blue) {
 
             // Search pcaColors by first PCA.
             double pca1 = (PCA[2][0] * red)
                         + (PCA[2][1] * green)
                         + (PCA[2][2] * blue);
 
-            PcaColor lastPcaColor = pcaColors.get(lastPcaSearchIndex);
+            PcaColor lastPcaColor = pcaColors.get(search.lastPcaSearchIndex);
             PcaColor centerPca = null;
-            int idx = lastPcaSearchIndex;
+            int idx = search.lastPcaSearchIndex;
             if (Math.abs(lastPcaColor.firstPca - pca1) < pcaThreshold) {
                 // Skip the binary search, we are already close.
                 centerPca = lastPcaColor;
@@ -1409,16 +1585,16 @@ public class HQSixelEncoder implements SixelEncoder {
 
                 // This version uses standard Java binary search.  It's
                 // faster than my first attempt, so it can stay.
-                pcaKey.firstPca = pca1;
+                search.pcaKey.firstPca = pca1;
 
                 // pcaIndex will almost certainly come back negative, because
                 // doubles cannot exactly be equal in practice.
                 int pcaIndex = Math.abs(Collections.binarySearch(pcaColors,
-                        pcaKey, nearby));
+                        search.pcaKey, nearby));
 
                 // idx is near the center of the neighborhood.
                 idx = Math.max(0, Math.min(sixelColors.size() - 1, pcaIndex));
-                lastPcaSearchIndex = idx;
+                search.lastPcaSearchIndex = idx;
                 centerPca = pcaColors.get(idx);
             }
 
@@ -1530,6 +1706,39 @@ public class HQSixelEncoder implements SixelEncoder {
             return result;
         }
 
+        /**
+         * Find the palette index for a color, using nearestColors or the
+         * recent matches before searching.
+         *
+         * @param search the search state
+         * @param color the sixel color
+         * @return the palette index of the nearest color in RGB space
+         */
+        private int nearestColor(final ColorSearch search, final int color) {
+            int red   = (color >>> 16) & 0xFF;
+            int green = (color >>>  8) & 0xFF;
+            int blue  =  color         & 0xFF;
+
+            if (nearestColors != null) {
+                int key = (red * 101 * 101) + (green * 101) + blue;
+                int colorIdx = nearestColors[key];
+                if (colorIdx < 0) {
+                    colorIdx = findNearestColor(search, red, green, blue);
+                    nearestColors[key] = colorIdx;
+                }
+                return colorIdx;
+            }
+
+            // See if this entry has been seen before recently.
+            int colorIdx = search.recentColorMatch.get(color);
+            if (colorIdx < 0) {
+                // We need to search for it.
+                colorIdx = findNearestColor(search, red, green, blue);
+                search.recentColorMatch.put(color, colorIdx);
+            }
+            return colorIdx;
+        }
+
         /**
          * Clamp an int value to [0, 100].
          *
@@ -1548,15 +1757,35 @@ public class HQSixelEncoder implements SixelEncoder {
          * the palette.
          */
         public int [] ditherImage() {
+            if (noDither) {
+                return sixelImage;
+            }
+            ditherRows(0, sixelImageHeight,
+                new ColorSearch(sixelImageWidth * sixelImageHeight));
+            return sixelImage;
+        }
+
+        /**
+         * Dither a band of rows of the image.  No error is carried past the
+         * last row of the band, so that bands starting on a sixel row can be
+         * dithered at the same time.
+         *
+         * @param startY the first row to dither
+         * @param endY the row after the last row to dither
+         * @param search the search state for this band
+         */
+        public void ditherRows(final int startY, final int endY,
+            final ColorSearch search) {
+
             int [] rgbArray = sixelImage;
             if (noDither) {
-                return rgbArray;
+                return;
             }
 
-            int height = sixelImageHeight;
+            int height = endY;
             int width = sixelImageWidth;
             SixelRow sixelRow;
-            for (int imageY = 0; imageY < height; imageY++) {
+            for (int imageY = startY; imageY < height; imageY++) {
                 sixelRow = sixelRows[imageY / 6];
                 for (int imageX = 0; imageX < width; imageX++) {
                     int oldPixel = rgbArray[imageX + (width * imageY)];
@@ -1578,16 +1807,7 @@ public class HQSixelEncoder implements SixelEncoder {
                     if (quantizationType == 0) {
                         colorIdx = colorMap.get(color).directMapIndex;
                     } else {
-                        // See if this entry has been seen before recently.
-                        colorIdx = recentColorMatch.get(color);
-                        if (colorIdx < 0) {
-                            // We need to search for it.
-                            int red   = (color >>> 16) & 0xFF;
-                            int green = (color >>>  8) & 0xFF;
-                            int blue  =  color         & 0xFF;
-                            colorIdx = findNearestColor(red, green, blue);
-                            recentColorMatch.put(color, colorIdx);
-                        }
+                        colorIdx = nearestColor(search, color);
                     }
 
                     assert (colorIdx >= 0);
@@ -1595,7 +1815,7 @@ public class HQSixelEncoder implements SixelEncoder {
                     int newPixel = sixelColors.get(colorIdx);
                     rgbArray[imageX + (width * imageY)] = colorIdx;
                     sixelRow.colors.set(colorIdx);
-                    usedColors.set(colorIdx);
+                    search.usedColors.set(colorIdx);
 
                     if (quantizationType == 0) {
                         // For direct map, every possible color is already in
@@ -1647,7 +1867,7 @@ public class HQSixelEncoder implements SixelEncoder {
                             assert (transparent == true);
                             rgbArray[imageX + 1 + (width * imageY)] = 0;
                         }
-                        if (imageY < sixelImageHeight - 1) {
+                        if (imageY < height - 1) {
                             int pXpYp = rgbArray[imageX + 1 + (width * (imageY + 1))];
                             if ((pXpYp & 0xFF000000) == 0xFF000000) {
                                 red   = ((pXpYp >>> 16) & 0xFF) + redError;
@@ -1664,7 +1884,7 @@ public class HQSixelEncoder implements SixelEncoder {
                                 rgbArray[imageX + 1 + (width * (imageY + 1))] = 0;
                             }
                         }
-                    } else if (imageY < sixelImageHeight - 1) {
+                    } else if (imageY < height - 1) {
                         int pXmYp = rgbArray[imageX - 1 + (width * (imageY + 1))];
                         int pXYp = rgbArray[imageX + (width * (imageY + 1))];
 
@@ -1703,7 +1923,9 @@ public class HQSixelEncoder implements SixelEncoder {
                 } // for (int imageY = 0; imageY < height; imageY++)
             } // for (int imageX = 0; imageX < width; imageX++)
 
-            return rgbArray;
+            synchronized (usedColors) {
+                usedColors.or(search.usedColors);
+            }
         }
 
         /**
@@ -1749,10 +1971,27 @@ public class HQSixelEncoder implements SixelEncoder {
     private int paletteSize = 128;
 
     /**
-     * The palette used in the last image.
+     * The last median cut palette, which the next image may reuse.
      */
     private Palette lastPalette;
 
+    /**
+     * If true, try the last median cut palette on each new image before
+     * doing a new median cut.
+     */
+    private boolean reusePalette = false;
+
+    /**
+     * The number of threads used to dither and encode one image.
+     */
+    private int threadCount = 1;
+
+    /**
+     * The threads used to dither and encode bands of an image, when
+     * threadCount is more than 1.
+     */
+    private ExecutorService executor = null;
+
     /**
      * If true, record timings for the image.
      */
@@ -1816,6 +2055,76 @@ public class HQSixelEncoder implements SixelEncoder {
         } else {
             fastAndDirty = false;
         }
+        if (System.getProperty("jexer.ECMA48.sixelReusePalette",
+                "false").equals("true")
+        ) {
+            reusePalette = true;
+        } else {
+            reusePalette = false;
+        }
+        clearPalette();
+
+        int threadCount = 1;
+        try {
+            threadCount = Integer.parseInt(System.getProperty(
+                "jexer.ECMA48.sixelThreadCount", "1"));
+            if (threadCount < 1) {
+                threadCount = 1;
+            }
+        } catch (NumberFormatException e) {
+            // SQUASH
+        }
+        synchronized (this) {
+            if ((threadCount != this.threadCount) && (executor != null)) {
+                executor.shutdown();
+                executor = null;
+            }
+            this.threadCount = threadCount;
+        }
+    }
+
+    /**
+     * Get the threads used to encode bands of an image, starting them if
+     * needed.
+     *
+     * @return the executor
+     */
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threadCount,
+                ThreadUtils.newDaemonFactory("HQSixelEncoder band encoder"));
+        }
+        return executor;
+    }
+
+    /**
+     * Get the palette that the next image may reuse.
+     *
+     * @return the last median cut palette, or null
+     */
+    private synchronized Palette getLastPalette() {
+        return lastPalette;
+    }
+
+    /**
+     * Keep a new median cut palette for the next image to reuse.
+     *
+     * @param palette the palette
+     */
+    private synchronized void setLastPalette(final Palette palette) {
+        lastPalette = palette;
+    }
+
+    /**
+     * Decide how many bands to split an image into.
+     *
+     * @param height the image height in pixels
+     * @return the number of bands
+     */
+    private int getBandCount(final int height) {
+        int sixelRows = (height + 5) / 6;
+        return Math.max(1, Math.min(threadCount,
+                sixelRows / MIN_BAND_SIXEL_ROWS));
     }
 
     /**
@@ -1865,34 +2174,173 @@ public class HQSixelEncoder implements SixelEncoder {
         SixelResult result = new SixelResult();
 
         // Anaylze the picture and generate a palette.
-        Palette palette = new Palette(paletteSize, bitmap, allowTransparent);
+        Palette palette = new Palette(paletteSize, bitmap, allowTransparent,
+            (reusePalette ? getLastPalette() : null));
         result.palette = palette;
         result.transparent = palette.transparent;
 
-        // Dither the image.  We don't bother wrapping it in a BufferedImage.
-        int [] rgbArray = palette.ditherImage();
+        // Render the entire row of cells.
+        int width = bitmap.getWidth();
+
+        int bands = getBandCount(fullHeight);
+        if (bands == 1) {
+            // Dither the image.  We don't bother wrapping it in a
+            // BufferedImage.
+            int [] rgbArray = palette.ditherImage();
+
+            if (palette.timings != null) {
+                palette.timings.ditherImageTime = System.nanoTime();
+            }
+
+            if (rgbArray == null) {
+                if (palette.timings != null) {
+                    palette.timings.emitSixelTime = System.nanoTime();
+                    palette.timings.endTime = System.nanoTime();
+                }
+                result.encodedImage = "";
+                return result;
+            }
+
+            // Emit the palette.
+            palette.emitPalette(sb);
+
+            emitSixelRows(palette, rgbArray, width, fullHeight, 0,
+                fullHeight, sb);
+        } else {
+            // Dither and encode the bands at the same time.  The palette
+            // can only be emitted once all of the bands know which colors
+            // they used.
+            String [] bandData = encodeBands(palette, width, fullHeight,
+                bands);
+
+            if (palette.timings != null) {
+                palette.timings.ditherImageTime = System.nanoTime();
+            }
+
+            palette.emitPalette(sb);
+            for (int i = 0; i < bandData.length; i++) {
+                sb.append(bandData[i]);
+            }
+        }
+
+        // Kill the very last "-", because it is unnecessary.
+        sb.deleteCharAt(sb.length() - 1);
+
+        // Add the raster information.
+        sb.insert(0, String.format("\"1;1;%d;%d", bitmap.getWidth(),
+                bitmap.getHeight()));
 
         if (palette.timings != null) {
-            palette.timings.ditherImageTime = System.nanoTime();
+            palette.timings.emitSixelTime = System.nanoTime();
+            palette.timings.endTime = System.nanoTime();
         }
+        result.encodedImage = sb.toString();
 
-        if (rgbArray == null) {
-            if (palette.timings != null) {
-                palette.timings.emitSixelTime = System.nanoTime();
-                palette.timings.endTime = System.nanoTime();
+        if (reusePalette && (palette.quantizationType == 1)
+            && !palette.reused
+        ) {
+            palette.forgetImage();
+            setLastPalette(palette);
+        }
+        return result;
+    }
+
+    /**
+     * Dither and encode an image in bands on several threads.  Each band
+     * starts on a sixel row.  The first band is done on this thread.
+     *
+     * @param palette the palette of the image
+     * @param width the image width in pixels
+     * @param fullHeight the image height in pixels
+     * @param bands the number of bands
+     * @return the sixel data for each band, in order
+     */
+    private String [] encodeBands(final Palette palette, final int width,
+        final int fullHeight, final int bands) {
+
+        int sixelRows = (fullHeight + 5) / 6;
+        final int bandHeight = ((sixelRows + bands - 1) / bands) * 6;
+
+        List<Callable<String>> jobs = new ArrayList<Callable<String>>(bands);
+        for (int i = 0; i < bands; i++) {
+            final int startY = i * bandHeight;
+            final int endY = Math.min(fullHeight, startY + bandHeight);
+            jobs.add(new Callable<String>() {
+                @Override
+                public String call() {
+                    palette.ditherRows(startY, endY,
+                        palette.new ColorSearch(width * (endY - startY)));
+                    StringBuilder bandSb = new StringBuilder(16384);
+                    emitSixelRows(palette, palette.sixelImage, width,
+                        fullHeight, startY, endY, bandSb);
+                    return bandSb.toString();
+                }
+            });
+        }
+
+        ExecutorService executor = getExecutor();
+        List<Future<String>> results = new ArrayList<Future<String>>(bands);
+        results.add(null);
+        for (int i = 1; i < bands; i++) {
+            Future<String> result = null;
+            try {
+                result = executor.submit(jobs.get(i));
+            } catch (RejectedExecutionException e) {
+                // The executor was shut down, fall through to this thread.
             }
-            result.encodedImage = "";
-            return result;
+            results.add(result);
         }
 
-        // Emit the palette.
-        palette.emitPalette(sb);
+        String [] bandData = new String[bands];
+        boolean interrupted = false;
+        for (int i = 0; i < bands; i++) {
+            Future<String> result = results.get(i);
+            try {
+                if (result == null) {
+                    bandData[i] = jobs.get(i).call();
+                    continue;
+                }
+                while (bandData[i] == null) {
+                    try {
+                        bandData[i] = result.get();
+                    } catch (InterruptedException e) {
+                        // The band is already being written, so it must be
+                        // waited for.
+                        interrupted = true;
+                    }
+                }
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return bandData;
+    }
 
-        // Render the entire row of cells.
-        int width = bitmap.getWidth();
+    /**
+     * Encode a band of a dithered image as sixel rows, each followed by a
+     * "-".
+     *
+     * @param palette the palette of the image
+     * @param rgbArray the dithered image, every pixel an index into the
+     * palette
+     * @param width the image width in pixels
+     * @param fullHeight the image height in pixels
+     * @param startY the first pixel row of the band, a multiple of 6
+     * @param endY the pixel row after the band
+     * @param sb the StringBuilder to append to
+     */
+    private void emitSixelRows(final Palette palette, final int [] rgbArray,
+        final int width, final int fullHeight, final int startY,
+        final int endY, final StringBuilder sb) {
 
         int colorsN = palette.sixelColors.size();
-        for (int currentRow = 0; currentRow < fullHeight; currentRow += 6) {
+        int [] row = new int[width];
+        for (int currentRow = startY; currentRow < endY; currentRow += 6) {
             Palette.SixelRow sixelRow = palette.sixelRows[currentRow / 6];
 
             for (int i = 0; i < colorsN; i++) {
@@ -1914,7 +2362,7 @@ public class HQSixelEncoder implements SixelEncoder {
                  * sum, but should be faster as many cells are captured on
                  * one memory access.
                  */
-                int [] row = new int[width];
+                Arrays.fill(row, 0);
                 for (int j = 0;
                      (j < 6) && (currentRow + j < fullHeight);
                      j++) {
@@ -1977,21 +2425,7 @@ public class HQSixelEncoder implements SixelEncoder {
             // Advance to the next scan line.
             sb.append("-");
 
-        } // for (int currentRow = 0; currentRow < imageHeight; currentRow += 6)
-
-        // Kill the very last "-", because it is unnecessary.
-        sb.deleteCharAt(sb.length() - 1);
-
-        // Add the raster information.
-        sb.insert(0, String.format("\"1;1;%d;%d", bitmap.getWidth(),
-                bitmap.getHeight()));
-
-        if (palette.timings != null) {
-            palette.timings.emitSixelTime = System.nanoTime();
-            palette.timings.endTime = System.nanoTime();
-        }
-        result.encodedImage = sb.toString();
-        return result;
+        } // for (int currentRow = startY; currentRow < endY; currentRow += 6)
     }
 
     /**
@@ -2062,6 +2496,7 @@ public class HQSixelEncoder implements SixelEncoder {
         }
 
         this.paletteSize = paletteSize;
+        clearPalette();
     }
 
     /**
@@ -2069,7 +2504,27 @@ public class HQSixelEncoder implements SixelEncoder {
      * encode.
      */
     public void clearPalette() {
-        // NOP
+        setLastPalette(null);
+    }
+
+    /**
+     * Stop the band encoder threads, and wait briefly for them to finish.
+     * They will be started again if another image is encoded.
+     */
+    public void shutdown() {
+        ExecutorService oldExecutor;
+        synchronized (this) {
+            oldExecutor = executor;
+            executor = null;
+        }
+        if (oldExecutor != null) {
+            oldExecutor.shutdown();
+            try {
+                oldExecutor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // SQUASH
+            }
+        }
     }
 
     /**
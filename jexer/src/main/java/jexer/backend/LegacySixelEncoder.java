@@ -1055,6 +1055,14 @@ public class LegacySixelEncoder implements SixelEncoder {
         palette = null;
     }
 
+    /**
+     * Stop any threads this encoder started.  This encoder does not start
+     * any.
+     */
+    public void shutdown() {
+        // NOP
+    }
+
     /**
      * Convert all filenames to sixel.
      *
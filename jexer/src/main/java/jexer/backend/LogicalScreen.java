@@ -74,6 +74,17 @@ public class LogicalScreen implements Screen {
      */
     private int offsetY;
 
+    /**
+     * The column of the full screen that column 0 of this screen stands
+     * for.  Drawing offsets are given in full screen coordinates.
+     */
+    private int originX = 0;
+
+    /**
+     * The row of the full screen that row 0 of this screen stands for.
+     */
+    private int originY = 0;
+
     /**
      * Ignore anything drawn right of clipRight.
      */
@@ -95,21 +106,73 @@ public class LogicalScreen implements Screen {
     private int clipTop;
 
     /**
-     * The physical screen last sent out on flush().
+     * If true, only cells inside the damage rectangle may be drawn.
+     */
+    private boolean damageClip = false;
+
+    /**
+     * Left column of the damage rectangle.
+     */
+    private int damageLeft;
+
+    /**
+     * Top row of the damage rectangle.
+     */
+    private int damageTop;
+
+    /**
+     * Column just right of the damage rectangle.
+     */
+    private int damageRight;
+
+    /**
+     * Row just below the damage rectangle.
+     */
+    private int damageBottom;
+
+    /**
+     * The physical screen last sent out on flush().  Null if packedCells is
+     * true.
      */
     protected Cell [][] physical;
 
     /**
-     * The logical screen being rendered to.
+     * The logical screen being rendered to.  Null if packedCells is true.
      */
     protected Cell [][] logical;
 
+    /**
+     * If true, the logical and physical screens are stored in CellBuffers
+     * (primitive arrays) rather than Cell arrays.  Subclasses should use
+     * getLogicalCell(), isCellInSync(), syncPhysical() and friends, which
+     * work with either storage.
+     */
+    private boolean packedCells = false;
+
+    /**
+     * The physical screen when packedCells is true.
+     */
+    private CellBuffer physicalCells;
+
+    /**
+     * The logical screen when packedCells is true.
+     */
+    private CellBuffer logicalCells;
+
     /**
      * Set if the user explicitly wants to redraw everything starting with a
      * ECMATerminal.clearAll().
      */
     protected boolean reallyCleared;
 
+    /**
+     * Rows of the logical screen that may no longer match the physical
+     * screen.  A row that is not dirty is known to match physical and to
+     * contain no blinking or pulsing cells, so flushPhysical() may skip it
+     * entirely.
+     */
+    private boolean [] dirtyRows;
+
     /**
      * If true, the cursor is visible and should be placed onscreen at
      * (cursorX, cursorY) during a call to flushPhysical().
@@ -161,6 +224,8 @@ public class LogicalScreen implements Screen {
         this.height = 24;
         logical     = null;
         physical    = null;
+        packedCells = System.getProperty("jexer.screenStorage",
+            "cells").equals("packed");
         reallocate(width, height);
     }
 
@@ -194,7 +259,7 @@ public class LogicalScreen implements Screen {
      * @param offsetX new drawing offset
      */
     public final void setOffsetX(final int offsetX) {
-        this.offsetX = offsetX;
+        this.offsetX = offsetX - originX;
     }
 
     /**
@@ -203,7 +268,7 @@ public class LogicalScreen implements Screen {
      * @return the drawing offset
      */
     public int getOffsetX() {
-        return offsetX;
+        return offsetX + originX;
     }
 
     /**
@@ -212,7 +277,7 @@ public class LogicalScreen implements Screen {
      * @param offsetY new drawing offset
      */
     public final void setOffsetY(final int offsetY) {
-        this.offsetY = offsetY;
+        this.offsetY = offsetY - originY;
     }
 
     /**
@@ -221,7 +286,7 @@ public class LogicalScreen implements Screen {
      * @return the drawing offset
      */
     public int getOffsetY() {
-        return offsetY;
+        return offsetY + originY;
     }
 
     /**
@@ -296,6 +361,51 @@ public class LogicalScreen implements Screen {
         this.clipTop = clipTop;
     }
 
+    /**
+     * Limit all drawing to a rectangle of the screen, independent of the
+     * offset and clipping variables.  Cells outside the rectangle keep
+     * their current contents.
+     *
+     * @param x left column of the rectangle.  0 is the left-most column.
+     * @param y top row of the rectangle.  0 is the top-most row.
+     * @param width number of columns in the rectangle
+     * @param height number of rows in the rectangle
+     */
+    public final void setDamageClip(final int x, final int y,
+        final int width, final int height) {
+
+        damageClip   = true;
+        damageLeft   = x;
+        damageTop    = y;
+        damageRight  = x + width;
+        damageBottom = y + height;
+    }
+
+    /**
+     * Remove the rectangle set by setDamageClip(), so that drawing may reach
+     * the whole screen again.
+     */
+    public final void resetDamageClip() {
+        damageClip = false;
+    }
+
+    /**
+     * See if a cell may not be drawn because it is outside the damage
+     * rectangle.
+     *
+     * @param x column coordinate, without offset.  0 is the left-most
+     * column.
+     * @param y row coordinate, without offset.  0 is the top-most row.
+     * @return true if the cell must be left alone
+     */
+    private boolean isOutsideDamage(final int x, final int y) {
+        return (damageClip
+            && ((x < damageLeft)
+                || (x >= damageRight)
+                || (y < damageTop)
+                || (y >= damageBottom)));
+    }
+
     /**
      * Get dirty flag.
      *
@@ -303,15 +413,20 @@ public class LogicalScreen implements Screen {
      * screen
      */
     public final boolean isDirty() {
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                if (logical[x][y].isBlink()) {
+        for (int y = 0; y < height; y++) {
+            if (!dirtyRows[y]) {
+                continue;
+            }
+            for (int x = 0; x < width; x++) {
+                if (packedCells ? logicalCells.isBlink(x, y)
+                    : logical[x][y].isBlink()
+                ) {
                     // Blinking screens are always dirty.  There is
                     // opportunity for a Netscape blink tag joke here...
                     return true;
                 }
                 synchronized (this) {
-                    if (!logical[x][y].equals(physical[x][y])) {
+                    if (!isCellInSync(x, y)) {
                         return true;
                     }
                 }
@@ -331,7 +446,7 @@ public class LogicalScreen implements Screen {
     public final CellAttributes getAttrXY(final int x, final int y) {
         CellAttributes attr = new CellAttributes();
         if ((x >= 0) && (x < width) && (y >= 0) && (y < height)) {
-            attr.setTo(logical[x][y]);
+            attr.setTo(getLogicalCell(x, y));
         }
         return attr;
     }
@@ -346,7 +461,7 @@ public class LogicalScreen implements Screen {
     public Cell getCharXY(final int x, final int y) {
         Cell cell = new Cell();
         if ((x >= 0) && (x < width) && (y >= 0) && (y < height)) {
-            cell.setTo(logical[x][y]);
+            copyLogicalCell(x, y, cell);
         }
         return cell;
     }
@@ -380,7 +495,7 @@ public class LogicalScreen implements Screen {
 
         if ((X >= 0) && (X < width) && (Y >= 0) && (Y < height)) {
             Cell cell = new Cell();
-            cell.setTo(logical[X][Y]);
+            copyLogicalCell(X, Y, cell);
             return cell;
         }
         return null;
@@ -425,14 +540,21 @@ public class LogicalScreen implements Screen {
             Y += offsetY;
         }
 
-        if ((X >= 0) && (X < width) && (Y >= 0) && (Y < height)) {
-            logical[X][Y].setAttr(attr, true);
+        if ((X >= 0) && (X < width) && (Y >= 0) && (Y < height)
+            && !isOutsideDamage(X, Y)
+        ) {
+            if (packedCells) {
+                logicalCells.setAttr(X, Y, attr);
+            } else {
+                logical[X][Y].setAttr(attr, true);
+            }
+            dirtyRows[Y] = true;
 
             // If this happens to be the cursor position, make the position
             // dirty.
             if ((cursorX == X) && (cursorY == Y)) {
                 synchronized (this) {
-                    physical[cursorX][cursorY].unset();
+                    unsetPhysical(cursorX, cursorY);
                     unsetImageRow(cursorY);
                 }
             }
@@ -480,20 +602,23 @@ public class LogicalScreen implements Screen {
 
         // System.err.printf("putCharXY: %d, %d, %c\n", X, Y, ch);
 
-        if ((X >= 0) && (X < width) && (Y >= 0) && (Y < height)) {
+        if ((X >= 0) && (X < width) && (Y >= 0) && (Y < height)
+            && !isOutsideDamage(X, Y)
+        ) {
 
             // Do not put control characters on the display
             if (!ch.isImage()) {
                 assert (ch.getChar() >= 0x20);
                 assert (ch.getChar() != 0x7F);
             }
-            logical[X][Y].setTo(ch);
+            setLogicalCell(X, Y, ch);
+            dirtyRows[Y] = true;
 
             // If this happens to be the cursor position, make the position
             // dirty.
             if ((cursorX == X) && (cursorY == Y)) {
                 synchronized (this) {
-                    physical[cursorX][cursorY].unset();
+                    unsetPhysical(cursorX, cursorY);
                     unsetImageRow(cursorY);
                 }
             }
@@ -529,20 +654,33 @@ public class LogicalScreen implements Screen {
 
         // System.err.printf("putCharXY: %d, %d, %c\n", X, Y, ch);
 
-        if ((X >= 0) && (X < width) && (Y >= 0) && (Y < height)) {
+        if ((X >= 0) && (X < width) && (Y >= 0) && (Y < height)
+            && !isOutsideDamage(X, Y)
+        ) {
 
             // Do not put control characters on the display
             assert (ch >= 0x20);
             assert (ch != 0x7F);
 
-            logical[X][Y].setTo(attr);
-            logical[X][Y].setChar(ch);
+            if (packedCells) {
+                if (attr instanceof Cell) {
+                    // Keep the width and image, as Cell.setTo() does.
+                    logicalCells.set(X, Y, (Cell) attr);
+                    logicalCells.setChar(X, Y, ch);
+                } else {
+                    logicalCells.set(X, Y, ch, attr);
+                }
+            } else {
+                logical[X][Y].setTo(attr);
+                logical[X][Y].setChar(ch);
+            }
+            dirtyRows[Y] = true;
 
             // If this happens to be the cursor position, make the position
             // dirty.
             if ((cursorX == X) && (cursorY == Y)) {
                 synchronized (this) {
-                    physical[cursorX][cursorY].unset();
+                    unsetPhysical(cursorX, cursorY);
                     unsetImageRow(cursorY);
                 }
             }
@@ -575,14 +713,21 @@ public class LogicalScreen implements Screen {
 
         // System.err.printf("putCharXY: %d, %d, %c\n", X, Y, ch);
 
-        if ((X >= 0) && (X < width) && (Y >= 0) && (Y < height)) {
-            logical[X][Y].setChar(ch);
+        if ((X >= 0) && (X < width) && (Y >= 0) && (Y < height)
+            && !isOutsideDamage(X, Y)
+        ) {
+            if (packedCells) {
+                logicalCells.setChar(X, Y, ch);
+            } else {
+                logical[X][Y].setChar(ch);
+            }
+            dirtyRows[Y] = true;
 
             // If this happens to be the cursor position, make the position
             // dirty.
             if ((cursorX == X) && (cursorY == Y)) {
                 synchronized (this) {
-                    physical[cursorX][cursorY].unset();
+                    unsetPhysical(cursorX, cursorY);
                     unsetImageRow(cursorY);
                 }
             }
@@ -764,8 +909,16 @@ public class LogicalScreen implements Screen {
     public final synchronized void reset() {
         for (int row = 0; row < height; row++) {
             for (int col = 0; col < width; col++) {
-                logical[col][row].reset();
+                if (isOutsideDamage(col, row)) {
+                    continue;
+                }
+                if (packedCells) {
+                    logicalCells.reset(col, row);
+                } else {
+                    logical[col][row].reset();
+                }
             }
+            dirtyRows[row] = true;
         }
         resetClipping();
     }
@@ -933,7 +1086,8 @@ public class LogicalScreen implements Screen {
         ) {
             // Make the current cursor position dirty
             synchronized (this) {
-                physical[cursorX][cursorY].unset();
+                unsetPhysical(cursorX, cursorY);
+                dirtyRows[cursorY] = true;
                 unsetImageRow(cursorY);
             }
         }
@@ -988,6 +1142,453 @@ public class LogicalScreen implements Screen {
     // LogicalScreen ----------------------------------------------------------
     // ------------------------------------------------------------------------
 
+    /**
+     * Set the position on the full screen that this screen covers.  After
+     * this, setOffsetX() and setOffsetY() take full screen coordinates, so
+     * that widgets can draw here exactly as they would on the full screen.
+     *
+     * @param x the column of the full screen that column 0 stands for
+     * @param y the row of the full screen that row 0 stands for
+     */
+    protected final void setOrigin(final int x, final int y) {
+        originX = x;
+        originY = y;
+    }
+
+    /**
+     * See if a row may have changed since it was last flushed.
+     *
+     * @param y row coordinate.  0 is the top-most row.
+     * @return true if the row needs to be compared against physical
+     */
+    protected final boolean isRowDirty(final int y) {
+        if ((y < 0) || (y >= height)) {
+            return false;
+        }
+        return dirtyRows[y];
+    }
+
+    /**
+     * Mark one row as needing to be compared against physical on the next
+     * flush.
+     *
+     * @param y row coordinate.  0 is the top-most row.
+     */
+    protected final void setRowDirty(final int y) {
+        if ((y < 0) || (y >= height)) {
+            return;
+        }
+        dirtyRows[y] = true;
+    }
+
+    /**
+     * Mark every row as needing to be compared against physical on the
+     * next flush.
+     */
+    protected final void setAllRowsDirty() {
+        for (int y = 0; y < height; y++) {
+            dirtyRows[y] = true;
+        }
+    }
+
+    /**
+     * Mark one row as clean.  This is called by flushPhysical() just before
+     * it brings physical in sync with logical for the row, so that anything
+     * drawn while the flush is running is seen on the next flush.  Rows
+     * with blinking or pulsing cells must be redrawn every time, and so are
+     * left dirty.
+     *
+     * @param y row coordinate.  0 is the top-most row.
+     */
+    protected final void clearRowDirty(final int y) {
+        if ((y < 0) || (y >= height)) {
+            return;
+        }
+        dirtyRows[y] = false;
+        if (packedCells) {
+            dirtyRows[y] = logicalCells.isRowAnimated(y);
+            return;
+        }
+        for (int x = 0; x < width; x++) {
+            if (logical[x][y].isBlink() || logical[x][y].isPulse()) {
+                dirtyRows[y] = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get one cell of the logical screen.  With Cell storage this is the
+     * cell itself, and changes to it are seen on the next flush.  With
+     * packed storage this is a new copy; call setLogicalCell() to store
+     * changes.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @return the cell
+     */
+    protected final Cell getLogicalCell(final int x, final int y) {
+        if (packedCells) {
+            return logicalCells.get(x, y);
+        }
+        return logical[x][y];
+    }
+
+    /**
+     * Get one cell of the logical screen without allocating.  With Cell
+     * storage this is the cell itself.  With packed storage the cell is
+     * copied into scratch, which is returned.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param scratch the cell to copy into if needed
+     * @return the cell
+     */
+    protected final Cell getLogicalCell(final int x, final int y,
+        final Cell scratch) {
+
+        if (packedCells) {
+            return logicalCells.get(x, y, scratch);
+        }
+        return logical[x][y];
+    }
+
+    /**
+     * Store one cell of the logical screen.  This does not mark the row
+     * dirty.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param cell the new value
+     */
+    protected final void setLogicalCell(final int x, final int y,
+        final Cell cell) {
+
+        if (packedCells) {
+            logicalCells.set(x, y, cell);
+        } else if (logical[x][y] != cell) {
+            logical[x][y].setTo(cell);
+        }
+    }
+
+    /**
+     * Get a copy of one cell of the physical screen.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @return a new Cell
+     */
+    protected final Cell getPhysicalCell(final int x, final int y) {
+        if (packedCells) {
+            return physicalCells.get(x, y);
+        }
+        return new Cell(physical[x][y]);
+    }
+
+    /**
+     * See if one cell of the logical screen is an image.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @return true if the cell has an image
+     */
+    protected final boolean isLogicalImage(final int x, final int y) {
+        if (packedCells) {
+            return logicalCells.isImage(x, y);
+        }
+        return logical[x][y].isImage();
+    }
+
+    /**
+     * See if one cell of the logical screen is blank.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @return true if the cell is a space with default attributes
+     * @see Cell#isBlank()
+     */
+    protected final boolean isLogicalBlank(final int x, final int y) {
+        if (packedCells) {
+            return logicalCells.isBlank(x, y);
+        }
+        return logical[x][y].isBlank();
+    }
+
+    /**
+     * See if one cell of the logical screen is pulsing.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @return true if the cell pulses
+     */
+    protected final boolean isLogicalPulse(final int x, final int y) {
+        if (packedCells) {
+            return logicalCells.isPulse(x, y);
+        }
+        return logical[x][y].isPulse();
+    }
+
+    /**
+     * See if one cell of the physical screen is an image.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @return true if the cell has an image
+     */
+    protected final boolean isPhysicalImage(final int x, final int y) {
+        if (packedCells) {
+            return physicalCells.isImage(x, y);
+        }
+        return physical[x][y].isImage();
+    }
+
+    /**
+     * See if one cell of the logical screen matches the physical screen.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @return true if the cell does not need to be redrawn
+     */
+    protected final boolean isCellInSync(final int x, final int y) {
+        if (packedCells) {
+            return logicalCells.equals(x, y, physicalCells);
+        }
+        return logical[x][y].equals(physical[x][y]);
+    }
+
+    /**
+     * See if one row of the logical screen matches the physical screen and
+     * has no blinking or pulsing cells.  With packed storage this is a few
+     * array compares.
+     *
+     * @param y row coordinate.  0 is the top-most row.
+     * @return true if nothing on the row needs to be redrawn
+     */
+    protected final boolean isRowInSync(final int y) {
+        if (packedCells) {
+            return (logicalCells.rowEquals(y, physicalCells)
+                && !logicalCells.isRowAnimated(y));
+        }
+        for (int x = 0; x < width; x++) {
+            if (logical[x][y].isBlink()
+                || logical[x][y].isPulse()
+                || !logical[x][y].equals(physical[x][y])
+            ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hash one row of the logical screen, for finding rows that moved.
+     *
+     * @param y row coordinate.  0 is the top-most row.
+     * @return the hash, or 0 if the row has image or unset cells
+     */
+    protected final int getLogicalRowHash(final int y) {
+        if (packedCells) {
+            return logicalCells.rowHash(y);
+        }
+        return rowHash(logical, y);
+    }
+
+    /**
+     * Hash one row of the physical screen, for finding rows that moved.
+     *
+     * @param y row coordinate.  0 is the top-most row.
+     * @return the hash, or 0 if the row has image or unset cells
+     */
+    protected final int getPhysicalRowHash(final int y) {
+        if (packedCells) {
+            return physicalCells.rowHash(y);
+        }
+        return rowHash(physical, y);
+    }
+
+    /**
+     * See if one row of the logical screen matches a different row of the
+     * physical screen.
+     *
+     * @param y row coordinate on the logical screen
+     * @param physicalY row coordinate on the physical screen
+     * @return true if every cell on the rows is equal
+     */
+    protected final boolean isRowMoved(final int y, final int physicalY) {
+        if (packedCells) {
+            return logicalCells.rowEquals(y, physicalCells, physicalY);
+        }
+        for (int x = 0; x < width; x++) {
+            if (!logical[x][y].equals(physical[x][physicalY])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Scroll some rows of the physical screen, to match a terminal that
+     * was told to scroll its scrolling region.  The rows scrolled in are
+     * unset.
+     *
+     * @param top the first row of the region
+     * @param bottom the last row of the region
+     * @param n number of rows to scroll: positive moves the rows up,
+     * negative moves them down
+     */
+    protected final void scrollPhysical(final int top, final int bottom,
+        final int n) {
+
+        if (packedCells) {
+            physicalCells.scrollRows(top, bottom, n);
+            return;
+        }
+        int count = bottom - top + 1 - Math.abs(n);
+        Cell [] column = new Cell[bottom - top + 1];
+        for (int x = 0; x < width; x++) {
+            // Rotate the Cells so that the ones scrolled off are reused for
+            // the rows scrolled in.
+            for (int y = top; y <= bottom; y++) {
+                int from = y + n;
+                if (from > bottom) {
+                    from -= (bottom - top + 1);
+                } else if (from < top) {
+                    from += (bottom - top + 1);
+                }
+                column[y - top] = physical[x][from];
+            }
+            for (int y = top; y <= bottom; y++) {
+                physical[x][y] = column[y - top];
+                if ((n > 0) && (y - top >= count)) {
+                    physical[x][y].unset();
+                } else if ((n < 0) && (y - top < -n)) {
+                    physical[x][y].unset();
+                }
+            }
+        }
+    }
+
+    /**
+     * Hash one row of a Cell array.
+     *
+     * @param cells the logical or physical array
+     * @param y row coordinate.  0 is the top-most row.
+     * @return the hash, or 0 if the row has image or unset cells
+     */
+    private int rowHash(final Cell [][] cells, final int y) {
+        int hash = 1;
+        for (int x = 0; x < width; x++) {
+            Cell cell = cells[x][y];
+            if (cell.isImage() || cell.isUnset()) {
+                return 0;
+            }
+            hash = (31 * hash) + cell.hashCode();
+        }
+        return hash;
+    }
+
+    /**
+     * Copy one cell of the logical screen to the physical screen.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     */
+    protected final void syncPhysical(final int x, final int y) {
+        if (packedCells) {
+            physicalCells.copy(x, y, logicalCells);
+        } else {
+            physical[x][y].setTo(logical[x][y]);
+        }
+    }
+
+    /**
+     * Unset one cell of the physical screen, forcing it to be redrawn.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     */
+    protected final void unsetPhysical(final int x, final int y) {
+        if (packedCells) {
+            physicalCells.unset(x, y);
+        } else {
+            physical[x][y].unset();
+        }
+    }
+
+    /**
+     * Reset one cell of the physical screen to blank.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     */
+    protected final void resetPhysical(final int x, final int y) {
+        if (packedCells) {
+            physicalCells.reset(x, y);
+        } else {
+            physical[x][y].reset();
+        }
+    }
+
+    /**
+     * Copy one cell of the logical screen into another cell.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param cell the cell to overwrite
+     */
+    private void copyLogicalCell(final int x, final int y, final Cell cell) {
+        if (packedCells) {
+            logicalCells.get(x, y, cell);
+        } else {
+            cell.setTo(logical[x][y]);
+        }
+    }
+
+    /**
+     * Replace one cell of the logical screen with a copy of another cell.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param cell the new value
+     */
+    private void replaceLogicalCell(final int x, final int y,
+        final Cell cell) {
+
+        if (isOutsideDamage(x, y)) {
+            return;
+        }
+        if (packedCells) {
+            logicalCells.set(x, y, cell);
+        } else {
+            logical[x][y] = new Cell(cell);
+        }
+    }
+
+    /**
+     * Copy some rows of another screen of the same dimensions to this one,
+     * marking only those rows dirty.
+     *
+     * @param other the other screen
+     * @param rows if rows[y] is true, row y is copied
+     */
+    protected void copyScreenRows(final Screen other, final boolean [] rows) {
+        synchronized (this) {
+            if ((other.getWidth() != width) || (other.getHeight() != height)) {
+                copyScreen(other);
+                return;
+            }
+            for (int row = 0; row < height; row++) {
+                if (!rows[row]) {
+                    continue;
+                }
+                for (int col = 0; col < width; col++) {
+                    replaceLogicalCell(col, row, other.getCharXY(col, row));
+                }
+                dirtyRows[row] = true;
+            }
+        }
+    }
+
     /**
      * Reallocate screen buffers.
      *
@@ -995,6 +1596,35 @@ public class LogicalScreen implements Screen {
      * @param height new height
      */
     private synchronized void reallocate(final int width, final int height) {
+        dirtyRows = new boolean[height];
+        if (packedCells) {
+            logicalCells = new CellBuffer(width, height);
+            physicalCells = new CellBuffer(width, height);
+            for (int row = 0; row < height; row++) {
+                dirtyRows[row] = true;
+            }
+        } else {
+            reallocateCells(width, height);
+        }
+
+        this.width = width;
+        this.height = height;
+
+        clipLeft = 0;
+        clipTop = 0;
+        clipRight = width;
+        clipBottom = height;
+
+        reallyCleared = true;
+    }
+
+    /**
+     * Reallocate the Cell arrays.
+     *
+     * @param width new width
+     * @param height new height
+     */
+    private void reallocateCells(final int width, final int height) {
         if (logical != null) {
             for (int row = 0; row < this.height; row++) {
                 for (int col = 0; col < this.width; col++) {
@@ -1019,17 +1649,8 @@ public class LogicalScreen implements Screen {
                 physical[col][row] = new Cell();
                 logical[col][row] = new Cell();
             }
+            dirtyRows[row] = true;
         }
-
-        this.width = width;
-        this.height = height;
-
-        clipLeft = 0;
-        clipTop = 0;
-        clipRight = width;
-        clipBottom = height;
-
-        reallyCleared = true;
     }
 
     /**
@@ -1038,8 +1659,9 @@ public class LogicalScreen implements Screen {
     public synchronized void clearPhysical() {
         for (int row = 0; row < height; row++) {
             for (int col = 0; col < width; col++) {
-                physical[col][row].unset();
+                unsetPhysical(col, row);
             }
+            dirtyRows[row] = true;
         }
     }
 
@@ -1054,8 +1676,9 @@ public class LogicalScreen implements Screen {
             return;
         }
         for (int x = 0; x < width; x++) {
-            if (logical[x][y].isImage()) {
-                physical[x][y].unset();
+            if (isLogicalImage(x, y)) {
+                unsetPhysical(x, y);
+                dirtyRows[y] = true;
             }
         }
     }
@@ -1316,7 +1939,7 @@ public class LogicalScreen implements Screen {
             other = new LogicalScreen(width, height);
             for (int row = 0; row < height; row++) {
                 for (int col = 0; col < width; col++) {
-                    other.logical[col][row] = new Cell(logical[col][row]);
+                    other.setLogicalCell(col, row, getLogicalCell(col, row));
                 }
             }
         }
@@ -1347,7 +1970,8 @@ public class LogicalScreen implements Screen {
                     if (col < 0) {
                         continue;
                     }
-                    other.logical[col - x][row - y] = new Cell(logical[col][row]);
+                    other.setLogicalCell(col - x, row - y,
+                        getLogicalCell(col, row));
                 }
             }
         }
@@ -1379,7 +2003,8 @@ public class LogicalScreen implements Screen {
                     if (col < 0) {
                         continue;
                     }
-                    other.logical[col - x][row - y] = new Cell(physical[col][row]);
+                    other.setLogicalCell(col - x, row - y,
+                        getPhysicalCell(col, row));
                 }
             }
         }
@@ -1398,8 +2023,9 @@ public class LogicalScreen implements Screen {
             }
             for (int row = 0; row < height; row++) {
                 for (int col = 0; col < width; col++) {
-                    logical[col][row] = new Cell(other.getCharXY(col, row));
+                    replaceLogicalCell(col, row, other.getCharXY(col, row));
                 }
+                dirtyRows[row] = true;
             }
         }
     }
@@ -1426,8 +2052,10 @@ public class LogicalScreen implements Screen {
                     if (col < 0) {
                         continue;
                     }
-                    logical[col][row] = new Cell(other.getCharXY(col - x, row - y));
+                    replaceLogicalCell(col, row,
+                        other.getCharXY(col - x, row - y));
                 }
+                dirtyRows[row] = true;
             }
         }
     }
@@ -1469,7 +2097,9 @@ public class LogicalScreen implements Screen {
         LogicalScreen rectangle = new LogicalScreen(width, height);
         for (int row = 0; row < height; row++) {
             for (int col = 0; col < width; col++) {
-                rectangle.logical[col][row].setBackColorRGB(color);
+                Cell cell = rectangle.getLogicalCell(col, row);
+                cell.setBackColorRGB(color);
+                rectangle.setLogicalCell(col, row, cell);
             }
         }
 
@@ -1500,6 +2130,14 @@ public class LogicalScreen implements Screen {
             return;
         }
 
+        if (damageClip
+            && ((x >= damageRight) || (x + width <= damageLeft)
+                || (y >= damageBottom) || (y + height <= damageTop))
+        ) {
+            // Nothing to blend inside the damage rectangle.
+            return;
+        }
+
         long now = System.currentTimeMillis();
 
         /*
@@ -1532,7 +2170,7 @@ public class LogicalScreen implements Screen {
                         continue;
                     }
 
-                    Cell cell = logical[col][row];
+                    Cell cell = getLogicalCell(col, row);
                     int thisBg = cell.getBackColorRGB();
                     if (thisBg < 0) {
                         if (backend != null) {
@@ -1611,16 +2249,22 @@ public class LogicalScreen implements Screen {
             g2d.drawImage(overForeground, 0, 0, null);
             g2d.dispose();
 
+            // With packed storage the cells being blended are copies,
+            // which are written back once their row is done.
+            Cell [] thisRow = new Cell[this.width];
+
             for (int row = y; (row < y + height) && (row < this.height); row++) {
                 if (row < 0) {
                     continue;
                 }
                 for (int col = x; (col < x + width) && (col < this.width); col++) {
-                    if (col < 0) {
+                    if ((col < 0) || isOutsideDamage(col, row)) {
                         continue;
                     }
-                    Cell thisCell = logical[col][row];
+                    Cell thisCell = getLogicalCell(col, row);
+                    thisRow[col] = thisCell;
                     Cell overCell = otherScreen.getCharXY(col - x, row - y);
+                    dirtyRows[row] = true;
                     int thisFg = thisForeground.getRGB(col - x, row - y);
                     int thisBg = thisBackground.getRGB(col - x, row - y);
                     int thisOldBg = thisOldBackground.getRGB(col - x, row - y);
@@ -1860,6 +2504,13 @@ public class LogicalScreen implements Screen {
                     // character, or set the image, and blended backgrounds
                     // for each case.
                 }
+
+                for (int col = 0; col < this.width; col++) {
+                    if (thisRow[col] != null) {
+                        setLogicalCell(col, row, thisRow[col]);
+                        thisRow[col] = null;
+                    }
+                }
             }
         }
     }
@@ -32,6 +32,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import jexer.bits.CellAttributes;
+import jexer.bits.ThreadUtils;
 import jexer.event.TCommandEvent;
 import jexer.event.TInputEvent;
 import static jexer.TCommand.*;
@@ -60,6 +61,149 @@ public class MultiBackend implements Backend {
      */
     private SessionInfo sessionInfo;
 
+    /**
+     * The flush workers, one per backend.
+     */
+    private List<FlushWorker> workers = new ArrayList<FlushWorker>();
+
+    /**
+     * FlushWorker writes frames to one backend on its own thread, so that
+     * a slow backend never holds up the others or the application.  If
+     * the backend is still writing when new frames arrive, only the newest
+     * is written.
+     */
+    private class FlushWorker implements Runnable {
+
+        /**
+         * The backend to flush.
+         */
+        private final Backend backend;
+
+        /**
+         * The screen of multiScreen's that belongs to this backend.
+         */
+        private final Screen screen;
+
+        /**
+         * The rows changed by the frames not yet written, or null if there
+         * are none.
+         */
+        private boolean [] rows = null;
+
+        /**
+         * When the oldest frame not yet written was requested.
+         */
+        private long requestTime = 0;
+
+        /**
+         * If false, the worker thread exits once it has written the
+         * pending frame, if any.
+         */
+        private boolean running = true;
+
+        /**
+         * The worker thread.
+         */
+        private Thread thread = null;
+
+        /**
+         * The number of frames skipped because a newer one replaced them.
+         */
+        private long droppedFrames = 0;
+
+        /**
+         * The time from a frame being requested to it being written, for
+         * the last frame written.
+         */
+        private long lag = 0;
+
+        /**
+         * Public constructor.
+         *
+         * @param backend the backend to flush
+         * @param screen the screen of multiScreen's that belongs to the
+         * backend
+         */
+        public FlushWorker(final Backend backend, final Screen screen) {
+            this.backend = backend;
+            this.screen = screen;
+        }
+
+        /**
+         * Hand a new frame to the worker.
+         *
+         * @param frameRows the rows the frame changed
+         */
+        public synchronized void post(final boolean [] frameRows) {
+            if (rows == null) {
+                rows = frameRows.clone();
+                requestTime = System.currentTimeMillis();
+            } else {
+                droppedFrames++;
+                if (rows.length != frameRows.length) {
+                    // The screen was resized, MultiScreen.copyRows() will
+                    // copy everything.
+                    rows = frameRows.clone();
+                } else {
+                    for (int y = 0; y < rows.length; y++) {
+                        rows[y] |= frameRows[y];
+                    }
+                }
+            }
+            notify();
+        }
+
+        /**
+         * Stop the worker thread.
+         *
+         * @param flushPending if true, write the frame not yet written
+         * before exiting, else discard it
+         */
+        public synchronized void stop(final boolean flushPending) {
+            running = false;
+            if (!flushPending) {
+                rows = null;
+            }
+            notify();
+        }
+
+        /**
+         * The flush loop.
+         */
+        public void run() {
+            for (;;) {
+                boolean [] frameRows;
+                long frameTime;
+                synchronized (this) {
+                    while (running && (rows == null)) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            // SQUASH
+                        }
+                    }
+                    if (rows == null) {
+                        // Stopped, and nothing left to write.
+                        return;
+                    }
+                    frameRows = rows;
+                    frameTime = requestTime;
+                    rows = null;
+                }
+
+                // Copy the newest frame, then write it out.
+                multiScreen.copyRows(screen, frameRows);
+                synchronized (backend.getScreen()) {
+                    backend.flushScreen();
+                }
+                synchronized (this) {
+                    lag = System.currentTimeMillis() - frameTime;
+                }
+            }
+        }
+
+    }
+
     // ------------------------------------------------------------------------
     // Constructors -----------------------------------------------------------
     // ------------------------------------------------------------------------
@@ -83,6 +227,7 @@ public class MultiBackend implements Backend {
             ((GenericBackend) backend).abortOnDisconnect = false;
         }
         sessionInfo = backend.getSessionInfo();
+        startWorker(backend);
     }
 
     // ------------------------------------------------------------------------
@@ -112,18 +257,13 @@ public class MultiBackend implements Backend {
      * screen to the physical device.
      */
     public void flushScreen() {
-        multiScreen.flushPhysical();
-        int n = backends.size();
-        for (int i = 0; i < n; i++) {
-            final Backend backend = backends.get(Math.min(i, backends.size()));
-            // Flush to the physical device on another thread.
-            (new Thread(new Runnable() {
-                public void run() {
-                    synchronized (backend.getScreen()) {
-                        backend.flushScreen();
-                    }
-                }
-            })).start();
+        // Each backend copies and writes the frame on its own worker
+        // thread.
+        boolean [] rows = multiScreen.takeDirtyRows();
+        synchronized (workers) {
+            for (FlushWorker worker: workers) {
+                worker.post(rows);
+            }
         }
     }
 
@@ -177,6 +317,7 @@ public class MultiBackend implements Backend {
             for (Backend backend: backendsToRemove) {
                 multiScreen.removeScreen(backend.getScreen());
                 backends.remove(backend);
+                stopWorker(backend);
                 backend.shutdown();
             }
         }
@@ -190,6 +331,16 @@ public class MultiBackend implements Backend {
      * restores console, etc.
      */
     public void shutdown() {
+        // Let the workers write the last frame before the backends close.
+        List<Thread> threads = new ArrayList<Thread>();
+        synchronized (workers) {
+            for (FlushWorker worker: workers) {
+                worker.stop(true);
+                threads.add(worker.thread);
+            }
+            workers.clear();
+        }
+        ThreadUtils.join(threads, 2000);
         for (Backend backend: backends) {
             backend.shutdown();
         }
@@ -273,6 +424,7 @@ public class MultiBackend implements Backend {
         if (backend instanceof GenericBackend) {
             ((GenericBackend) backend).abortOnDisconnect = false;
         }
+        startWorker(backend);
 
         boolean allReadOnly = true;
         for (Backend b: backends) {
@@ -309,6 +461,93 @@ public class MultiBackend implements Backend {
                 multiScreen.removeScreen(backend.getScreen());
             }
             backends.remove(backend);
+            stopWorker(backend);
+        }
+    }
+
+    /**
+     * Start the flush worker thread for a backend.
+     *
+     * @param backend the backend
+     */
+    private void startWorker(final Backend backend) {
+        Screen screen = backend.getScreen();
+        if (backend instanceof TWindowBackend) {
+            screen = ((TWindowBackend) backend).getOtherScreen();
+        }
+        FlushWorker worker = new FlushWorker(backend, screen);
+        worker.thread = ThreadUtils.newThread(worker, "MultiBackend flush");
+        synchronized (workers) {
+            workers.add(worker);
+        }
+        worker.thread.start();
+    }
+
+    /**
+     * Stop the flush worker thread for a backend.
+     *
+     * @param backend the backend
+     */
+    private void stopWorker(final Backend backend) {
+        synchronized (workers) {
+            for (int i = 0; i < workers.size(); i++) {
+                if (workers.get(i).backend == backend) {
+                    // The backend is going away, its frames with it.
+                    workers.remove(i).stop(false);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the flush worker for a backend.
+     *
+     * @param backend the backend
+     * @return the worker, or null if backend is not one of mine
+     */
+    private FlushWorker getWorker(final Backend backend) {
+        synchronized (workers) {
+            for (FlushWorker worker: workers) {
+                if (worker.backend == backend) {
+                    return worker;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the number of frames a backend skipped because it was still
+     * writing an older one when a newer one arrived.
+     *
+     * @param backend the backend
+     * @return the number of frames skipped
+     */
+    public long getDroppedFrames(final Backend backend) {
+        FlushWorker worker = getWorker(backend);
+        if (worker == null) {
+            return 0;
+        }
+        synchronized (worker) {
+            return worker.droppedFrames;
+        }
+    }
+
+    /**
+     * Get how far a backend is behind the application: the milliseconds
+     * from the last frame it wrote being requested to it being written.
+     *
+     * @param backend the backend
+     * @return the lag in millis
+     */
+    public long getFlushLag(final Backend backend) {
+        FlushWorker worker = getWorker(backend);
+        if (worker == null) {
+            return 0;
+        }
+        synchronized (worker) {
+            return worker.lag;
         }
     }
 
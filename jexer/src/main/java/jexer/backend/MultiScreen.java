@@ -194,10 +194,10 @@ public class MultiScreen extends LogicalScreen implements Screen {
         synchronized (screens) {
             screensToFlush.addAll(screens);
         }
+
+        boolean [] rows = takeDirtyRows();
         for (Screen screen: screensToFlush) {
-            synchronized (screen) {
-                screen.copyScreen(this);
-            }
+            copyRows(screen, rows);
         }
     }
 
@@ -229,6 +229,8 @@ public class MultiScreen extends LogicalScreen implements Screen {
         synchronized (screens) {
             screens.add(screen);
         }
+        // The new screen needs everything on the next flush.
+        setAllRowsDirty();
         textWidth = Math.min(textWidth, screen.getTextWidth());
         textHeight = Math.min(textHeight, screen.getTextHeight());
     }
@@ -250,4 +252,44 @@ public class MultiScreen extends LogicalScreen implements Screen {
         }
     }
 
+    /**
+     * Get the rows that changed since the last call, and mark them clean.
+     * Note package private access.
+     *
+     * @return one flag per row, true if that row must be copied
+     */
+    boolean [] takeDirtyRows() {
+        synchronized (this) {
+            boolean [] rows = new boolean[height];
+            for (int y = 0; y < height; y++) {
+                rows[y] = isRowDirty(y);
+                if (rows[y]) {
+                    clearRowDirty(y);
+                }
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Copy rows of this screen to one of the other screens.  Note package
+     * private access.
+     *
+     * @param screen the screen to copy to
+     * @param rows one flag per row, true if that row must be copied
+     */
+    void copyRows(final Screen screen, final boolean [] rows) {
+        synchronized (this) {
+            synchronized (screen) {
+                if ((screen instanceof LogicalScreen)
+                    && (rows.length == height)
+                ) {
+                    ((LogicalScreen) screen).copyScreenRows(this, rows);
+                } else {
+                    screen.copyScreen(this);
+                }
+            }
+        }
+    }
+
 }
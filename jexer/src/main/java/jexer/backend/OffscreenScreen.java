@@ -0,0 +1,107 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2025 Autumn Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Autumn Lamonte ♥
+ * @version 1
+ */
+package jexer.backend;
+
+/**
+ * OffscreenScreen is a screen that covers one rectangle of a full screen,
+ * such as one window.  Drawing offsets are given in the full screen's
+ * coordinates, so widgets draw to it exactly as they would to the full
+ * screen.  It is never flushed; its owner copies it onto the full screen
+ * instead.
+ */
+public class OffscreenScreen extends LogicalScreen {
+
+    // ------------------------------------------------------------------------
+    // Variables --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The full screen.
+     */
+    private final Screen screen;
+
+    // ------------------------------------------------------------------------
+    // Constructors -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Public constructor.
+     *
+     * @param screen the full screen
+     * @param width width in cells
+     * @param height height in cells
+     */
+    @SuppressWarnings("this-escape")
+    public OffscreenScreen(final Screen screen, final int width,
+        final int height) {
+
+        super(width, height);
+        this.screen = screen;
+        setBackend(screen.getBackend());
+    }
+
+    // ------------------------------------------------------------------------
+    // LogicalScreen ----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Get the width of a character cell in pixels.
+     *
+     * @return the width in pixels of a character cell
+     */
+    @Override
+    public int getTextWidth() {
+        return screen.getTextWidth();
+    }
+
+    /**
+     * Get the height of a character cell in pixels.
+     *
+     * @return the height in pixels of a character cell
+     */
+    @Override
+    public int getTextHeight() {
+        return screen.getTextHeight();
+    }
+
+    // ------------------------------------------------------------------------
+    // OffscreenScreen --------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Set the position of this screen on the full screen.
+     *
+     * @param x column of the full screen that column 0 stands for
+     * @param y row of the full screen that row 0 stands for
+     */
+    public void setPosition(final int x, final int y) {
+        setOrigin(x, y);
+    }
+
+}
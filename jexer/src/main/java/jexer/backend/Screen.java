@@ -122,6 +122,25 @@ public interface Screen {
      */
     public void setClipTop(final int clipTop);
 
+    /**
+     * Limit all drawing to a rectangle of the screen, independent of the
+     * offset and clipping variables.  Cells outside the rectangle keep
+     * their current contents.
+     *
+     * @param x left column of the rectangle.  0 is the left-most column.
+     * @param y top row of the rectangle.  0 is the top-most row.
+     * @param width number of columns in the rectangle
+     * @param height number of rows in the rectangle
+     */
+    public void setDamageClip(final int x, final int y, final int width,
+        final int height);
+
+    /**
+     * Remove the rectangle set by setDamageClip(), so that drawing may reach
+     * the whole screen again.
+     */
+    public void resetDamageClip();
+
     /**
      * Get dirty flag.
      *
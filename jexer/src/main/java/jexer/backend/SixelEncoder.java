@@ -97,4 +97,10 @@ public interface SixelEncoder {
      */
     public void clearPalette();
 
+    /**
+     * Stop any threads this encoder started, and wait briefly for them to
+     * finish.  The encoder can still be used afterwards.
+     */
+    public void shutdown();
+
 }
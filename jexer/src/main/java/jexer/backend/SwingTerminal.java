@@ -222,6 +222,12 @@ public class SwingTerminal extends LogicalScreen
      */
     private Map<Cell, BufferedImage> glyphCache;
 
+    /**
+     * Scratch cell used to read the logical screen while drawing.  Only
+     * used while synchronized on this.
+     */
+    private Cell drawCell = new Cell();
+
     /**
      * If true, we were successful at getting the font dimensions.
      */
@@ -1617,7 +1623,7 @@ public class SwingTerminal extends LogicalScreen
         ) {
             int xPixel = cursorX * textWidth + left;
             int yPixel = cursorY * textHeight + top;
-            Cell lCell = logical[cursorX][cursorY];
+            Cell lCell = getLogicalCell(cursorX, cursorY, drawCell);
             int cursorWidth = textWidth;
             switch (lCell.getWidth()) {
             case SINGLE:
@@ -1729,15 +1735,18 @@ public class SwingTerminal extends LogicalScreen
              */
 
             for (int y = yCellMin; y < yCellMax; y++) {
+                if ((xCellMin == 0) && (xCellMax == width)) {
+                    // This entire row is about to be in sync.
+                    clearRowDirty(y);
+                }
                 for (int x = xCellMin; x < xCellMax; x++) {
 
                     int xPixel = x * textWidth + left;
                     int yPixel = y * textHeight + top;
 
-                    Cell lCell = logical[x][y];
-                    Cell pCell = physical[x][y];
+                    Cell lCell = getLogicalCell(x, y, drawCell);
 
-                    if (!lCell.equals(pCell)
+                    if (!isCellInSync(x, y)
                         || lCell.isBlink()
                         || lCell.isPulse()
                         || reallyCleared
@@ -1756,7 +1765,7 @@ public class SwingTerminal extends LogicalScreen
                         }
 
                         // Physical is always updated
-                        physical[x][y].setTo(lCell);
+                        syncPhysical(x, y);
                     }
                 }
             }
@@ -1809,14 +1818,19 @@ public class SwingTerminal extends LogicalScreen
 
             synchronized (this) {
                 for (int y = 0; y < height; y++) {
+                    // Rows that have not changed since the last flush can
+                    // be skipped, except for the one with the cursor.
+                    if (!isRowDirty(y) && !(cursorVisible && (y == cursorY))) {
+                        continue;
+                    }
+                    clearRowDirty(y);
                     for (int x = 0; x < width; x++) {
-                        Cell lCell = logical[x][y];
-                        Cell pCell = physical[x][y];
+                        Cell lCell = getLogicalCell(x, y, drawCell);
 
                         int xPixel = x * textWidth + left;
                         int yPixel = y * textHeight + top;
 
-                        if (!lCell.equals(pCell)
+                        if (!isCellInSync(x, y)
                             || ((x == cursorX)
                                 && (y == cursorY)
                                 && cursorVisible)
@@ -1834,7 +1848,7 @@ public class SwingTerminal extends LogicalScreen
                             } else {
                                 drawGlyph(gr, lCell, xPixel, yPixel);
                             }
-                            physical[x][y].setTo(lCell);
+                            syncPhysical(x, y);
                         }
                     }
                 }
@@ -1857,14 +1871,16 @@ public class SwingTerminal extends LogicalScreen
 
         synchronized (this) {
             for (int y = 0; y < height; y++) {
+                if (!isRowDirty(y) && !(cursorVisible && (y == cursorY))) {
+                    continue;
+                }
                 for (int x = 0; x < width; x++) {
-                    Cell lCell = logical[x][y];
-                    Cell pCell = physical[x][y];
+                    Cell lCell = getLogicalCell(x, y, drawCell);
 
                     int xPixel = x * textWidth + left;
                     int yPixel = y * textHeight + top;
 
-                    if (!lCell.equals(pCell)
+                    if (!isCellInSync(x, y)
                         || ((x == cursorX)
                             && (y == cursorY)
                             && cursorVisible)
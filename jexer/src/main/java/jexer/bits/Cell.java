@@ -666,6 +666,15 @@ public class Cell extends CellAttributes {
         hasTransparentPixels = -1;
     }
 
+    /**
+     * Check to see if this cell is unset.
+     *
+     * @return true if this cell is unset
+     */
+    public boolean isUnset() {
+        return (ch == UNSET_VALUE);
+    }
+
     /**
      * Check to see if this cell has default attributes: white foreground,
      * black background, no bold/blink/reverse/underline/protect, and a
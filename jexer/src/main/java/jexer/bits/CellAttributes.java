@@ -410,6 +410,38 @@ public class CellAttributes {
         this.backColor = Color.BLACK;
     }
 
+    /**
+     * Get the flags and ANSI colors packed into one value: the flags in
+     * the low 32 bits, the foreColor value in bits 32-35, and the backColor
+     * value in bits 36-39.  Together with foreColorRGB and backColorRGB
+     * this is everything equals() compares.
+     *
+     * @return the packed value
+     */
+    public final long getPackedAttributes() {
+        return ((flags & 0xFFFFFFFFL)
+            | ((long) foreColor.getValue() << 32)
+            | ((long) backColor.getValue() << 36));
+    }
+
+    /**
+     * Set all fields from a value returned by getPackedAttributes() and the
+     * RGB colors.
+     *
+     * @param packed the packed flags and ANSI colors
+     * @param foreColorRGB foreColor RGB value.  Negative means unset.
+     * @param backColorRGB backColor RGB value.  Negative means unset.
+     */
+    public final void setPackedAttributes(final long packed,
+        final int foreColorRGB, final int backColorRGB) {
+
+        this.flags              = (int) packed;
+        this.foreColor          = Color.getSgrColor((int) (packed >>> 32) & 0x0F);
+        this.backColor          = Color.getSgrColor((int) (packed >>> 36) & 0x0F);
+        this.foreColorRGB       = foreColorRGB;
+        this.backColorRGB       = backColorRGB;
+    }
+
     /**
      * See if this cell uses RGB or ANSI colors.
      *
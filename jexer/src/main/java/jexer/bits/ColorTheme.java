@@ -675,6 +675,11 @@ public class ColorTheme {
         color.setBackColor(Color.CYAN);
         color.setBold(true);
         colors.put("teditor.margin", color);
+        color = new CellAttributes();
+        color.setForeColor(Color.BLACK);
+        color.setBackColor(Color.GREEN);
+        color.setBold(false);
+        colors.put("teditor.match", color);
 
         // TTable
         color = new CellAttributes();
@@ -1316,6 +1321,11 @@ public class ColorTheme {
         color.setBackColor(Color.CYAN);
         color.setBold(true);
         colors.put("teditor.margin", color);
+        color = new CellAttributes();
+        color.setForeColor(Color.BLACK);
+        color.setBackColor(Color.GREEN);
+        color.setBold(false);
+        colors.put("teditor.match", color);
 
         // TTable
         color = new CellAttributes();
@@ -0,0 +1,175 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2025 Autumn Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Autumn Lamonte ♥
+ * @version 1
+ */
+package jexer.bits;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * ThreadUtils creates the threads used by TApplication, the backends, the
+ * terminal emulator, and TelnetChannelServer: event handlers, screen
+ * updaters, input readers, flush workers, image encoder pools, and the
+ * like.  By default these are platform threads; setting
+ * jexer.virtualThreads to true, or supplying a ThreadFactory, changes all
+ * of them at once.
+ */
+public class ThreadUtils {
+
+    // ------------------------------------------------------------------------
+    // Variables --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The factory to create new threads with, or null to use the default.
+     */
+    private static volatile ThreadFactory threadFactory = null;
+
+    // ------------------------------------------------------------------------
+    // Constructors -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Private constructor prevents accidental creation of this class.
+     */
+    private ThreadUtils() {}
+
+    // ------------------------------------------------------------------------
+    // ThreadUtils ------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Get the factory used to create new threads.
+     *
+     * @return the factory
+     */
+    public static ThreadFactory getThreadFactory() {
+        ThreadFactory factory = threadFactory;
+        if (factory == null) {
+            if (System.getProperty("jexer.virtualThreads",
+                    "false").equals("true")) {
+
+                factory = Thread.ofVirtual().factory();
+            } else {
+                factory = Thread.ofPlatform().factory();
+            }
+            threadFactory = factory;
+        }
+        return factory;
+    }
+
+    /**
+     * Set the factory used to create new threads.  This only affects
+     * threads created after the call, so it should be done before any
+     * backend or TApplication is constructed.
+     *
+     * @param factory the factory, or null to go back to the one selected
+     * by jexer.virtualThreads
+     */
+    public static void setThreadFactory(final ThreadFactory factory) {
+        threadFactory = factory;
+    }
+
+    /**
+     * Create a new thread, but do not start it.
+     *
+     * @param runnable the code for the thread to run
+     * @param name the thread name
+     * @return the new thread
+     */
+    public static Thread newThread(final Runnable runnable,
+        final String name) {
+
+        Thread thread = getThreadFactory().newThread(runnable);
+        thread.setName(name);
+        return thread;
+    }
+
+    /**
+     * Get a ThreadFactory for the worker threads of a pool.  The threads
+     * come from the current factory, and are daemon threads so that an
+     * idle pool does not keep the JVM alive.
+     *
+     * @param name the name for every thread
+     * @return the factory
+     */
+    public static ThreadFactory newDaemonFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = ThreadUtils.newThread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Create and start a new thread.
+     *
+     * @param runnable the code for the thread to run
+     * @param name the thread name
+     * @return the running thread
+     */
+    public static Thread start(final Runnable runnable, final String name) {
+        Thread thread = newThread(runnable, name);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Wait for threads to finish, for at most a fixed time in all.
+     *
+     * @param threads the threads to wait on
+     * @param millis the most milliseconds to wait in all
+     * @return true if every thread finished
+     */
+    public static boolean join(final Iterable<Thread> threads,
+        final long millis) {
+
+        long deadline = System.currentTimeMillis() + millis;
+        for (Thread thread: threads) {
+            if (thread == Thread.currentThread()) {
+                continue;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                thread.join(remaining);
+            } catch (InterruptedException e) {
+                return false;
+            }
+            if (thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
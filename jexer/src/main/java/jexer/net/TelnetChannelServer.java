@@ -0,0 +1,423 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2025 Autumn Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Autumn Lamonte ♥
+ * @version 1
+ */
+package jexer.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import jexer.bits.ThreadUtils;
+
+/**
+ * TelnetChannelServer is a telnet server that performs the socket I/O and
+ * telnet protocol for all of its sessions on a single selector thread.
+ * Each new session is handed to a SessionHandler on its own thread, which
+ * will usually run a TApplication on the session's streams.  The threads
+ * come from ThreadUtils, so set jexer.virtualThreads to true to host many
+ * sessions on virtual threads:
+ *
+ * <pre>
+ * {@code
+ *     TelnetChannelServer server = new TelnetChannelServer(port,
+ *         new TelnetChannelServer.SessionHandler() {
+ *             public void run(final TelnetChannelSession session)
+ *                 throws Exception {
+ *
+ *                 new DemoApplication(session.getInputStream(),
+ *                     session.getOutputStream()).run();
+ *             }
+ *         });
+ *     server.start();
+ * }
+ * </pre>
+ *
+ * Compared to TelnetServerSocket, no platform threads are needed per
+ * session for the socket, and a client that stops reading only holds up
+ * its own session: once it is more than getMaxPendingOutput() bytes
+ * behind, that session's writes block until the client catches up.
+ */
+public class TelnetChannelServer implements Runnable {
+
+    // ------------------------------------------------------------------------
+    // Constants --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The size of the buffer used to read from the sockets.
+     */
+    private static final int READ_BUFFER_SIZE = 4096;
+
+    // ------------------------------------------------------------------------
+    // SessionHandler ---------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The code to run for each session.
+     */
+    public interface SessionHandler {
+
+        /**
+         * Run a session.  This is called on a new thread for each
+         * session, and the session is closed when it returns.
+         *
+         * @param session the new session
+         * @throws Exception if the session fails
+         */
+        public void run(final TelnetChannelSession session) throws Exception;
+
+    }
+
+    // ------------------------------------------------------------------------
+    // Variables --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The listening socket.
+     */
+    private final ServerSocketChannel serverChannel;
+
+    /**
+     * The selector for the listening socket and all sessions.
+     */
+    private final Selector selector;
+
+    /**
+     * The code to run for each session.
+     */
+    private final SessionHandler handler;
+
+    /**
+     * The open sessions.
+     */
+    private final Set<TelnetChannelSession> sessions =
+        ConcurrentHashMap.newKeySet();
+
+    /**
+     * Sessions whose interest ops need to be updated on the selector
+     * thread.
+     */
+    private final ConcurrentLinkedQueue<TelnetChannelSession> interestQueue =
+        new ConcurrentLinkedQueue<TelnetChannelSession>();
+
+    /**
+     * The buffer used to read from every socket.  Only the selector thread
+     * reads.
+     */
+    private final ByteBuffer readBuffer =
+        ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+    /**
+     * The maximum number of bytes of output a session can have waiting for
+     * a slow client before its writes block.
+     */
+    private volatile int maxPendingOutput = 1024 * 1024;
+
+    /**
+     * The selector thread.
+     */
+    private Thread selectorThread = null;
+
+    /**
+     * If true, the selector thread should exit.
+     */
+    private volatile boolean stopped = false;
+
+    // ------------------------------------------------------------------------
+    // Constructors -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a server bound to the specified port.
+     *
+     * @param port the port number, or 0 to use a port number that is
+     * automatically allocated.
+     * @param handler the code to run for each session
+     * @throws IOException if an I/O error occurs
+     */
+    public TelnetChannelServer(final int port,
+        final SessionHandler handler) throws IOException {
+
+        this(port, 0, null, handler);
+    }
+
+    /**
+     * Create a server with the specified port, listen backlog, and local IP
+     * address to bind to.
+     *
+     * @param port the port number, or 0 to use a port number that is
+     * automatically allocated.
+     * @param backlog requested maximum length of the queue of incoming
+     * connections, or 0 for the default.
+     * @param bindAddr the local InetAddress the server will bind to, or null
+     * for all addresses
+     * @param handler the code to run for each session
+     * @throws IOException if an I/O error occurs
+     */
+    public TelnetChannelServer(final int port, final int backlog,
+        final InetAddress bindAddr,
+        final SessionHandler handler) throws IOException {
+
+        if (handler == null) {
+            throw new IllegalArgumentException("SessionHandler must be " +
+                "specified");
+        }
+        this.handler = handler;
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(new InetSocketAddress(bindAddr, port), backlog);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Runnable ---------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The selector loop.  Use start() to run it on its own thread.
+     */
+    public void run() {
+        try {
+            while (!stopped) {
+                selector.select();
+
+                TelnetChannelSession session = interestQueue.poll();
+                while (session != null) {
+                    try {
+                        session.updateInterestOps();
+                    } catch (CancelledKeyException e) {
+                        // The session was closed after it asked.
+                        session.close();
+                    }
+                    session = interestQueue.poll();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().
+                    iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    session = (TelnetChannelSession) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            session.readChannel(readBuffer);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            session.writeChannelReady();
+                        }
+                        session.updateInterestOps();
+                    } catch (IOException e) {
+                        // The client went away.
+                        session.close();
+                    } catch (CancelledKeyException e) {
+                        // The handler thread closed the session while this
+                        // key was being processed.
+                        session.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (!stopped) {
+                e.printStackTrace();
+            }
+        } finally {
+            for (TelnetChannelSession session:
+                     new ArrayList<TelnetChannelSession>(sessions)) {
+                session.close();
+            }
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+                // SQUASH
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // SQUASH
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // TelnetChannelServer ----------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Start the selector thread.
+     */
+    public synchronized void start() {
+        if (selectorThread == null) {
+            selectorThread = ThreadUtils.start(this, "TelnetChannelServer " +
+                getLocalPort());
+        }
+    }
+
+    /**
+     * Stop accepting connections and close all sessions.
+     */
+    public void close() {
+        stopped = true;
+        selector.wakeup();
+    }
+
+    /**
+     * Get the port the server is listening on.
+     *
+     * @return the port number
+     */
+    public int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Get the number of open sessions.
+     *
+     * @return the number of sessions
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Get the maximum number of bytes of output a session can have waiting
+     * for a slow client before its writes block.
+     *
+     * @return the number of bytes
+     */
+    public int getMaxPendingOutput() {
+        return maxPendingOutput;
+    }
+
+    /**
+     * Set the maximum number of bytes of output a session can have waiting
+     * for a slow client before its writes block.
+     *
+     * @param maxPendingOutput the number of bytes.  Values below 1024 are
+     * treated as 1024.
+     */
+    public void setMaxPendingOutput(final int maxPendingOutput) {
+        this.maxPendingOutput = Math.max(maxPendingOutput, 1024);
+    }
+
+    /**
+     * Ask the selector thread to update a session's interest ops.
+     *
+     * @param session the session
+     */
+    void updateInterest(final TelnetChannelSession session) {
+        interestQueue.add(session);
+        selector.wakeup();
+    }
+
+    /**
+     * Forget a closed session.
+     *
+     * @param session the session
+     */
+    void removeSession(final TelnetChannelSession session) {
+        sessions.remove(session);
+    }
+
+    /**
+     * Accept a new connection and start its session.
+     */
+    private void accept() {
+        SocketChannel channel = null;
+        TelnetChannelSession session = null;
+        try {
+            channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+
+            final TelnetChannelSession newSession = new TelnetChannelSession(
+                this, channel);
+            session = newSession;
+            session.setKey(channel.register(selector, SelectionKey.OP_READ,
+                    session));
+            sessions.add(session);
+            session.sendOptions();
+            session.updateInterestOps();
+
+            ThreadUtils.start(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            handler.run(newSession);
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        } finally {
+                            newSession.close();
+                        }
+                    }
+                }, "TelnetChannelSession " + session.getRemoteAddress());
+        } catch (IOException e) {
+            // Could not set up this connection, keep going.
+            if (session != null) {
+                // Closes the channel and forgets the session.
+                session.close();
+            } else if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e2) {
+                    // SQUASH
+                }
+            }
+        }
+    }
+
+}
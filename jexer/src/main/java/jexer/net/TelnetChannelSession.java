@@ -0,0 +1,1286 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2025 Autumn Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Autumn Lamonte ♥
+ * @version 1
+ */
+package jexer.net;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jexer.backend.SessionInfo;
+import static jexer.net.TelnetSocket.*;
+
+/**
+ * TelnetChannelSession is one connection to a TelnetChannelServer.  The
+ * server's selector thread performs the telnet protocol on the bytes read
+ * from the socket, and the session's InputStream and OutputStream are used
+ * by the application, usually by passing them to a TApplication or
+ * ECMA48Backend.
+ *
+ * <p>The streams block with a ReentrantLock rather than wait()/notify(),
+ * so that virtual threads waiting on them do not pin their carrier.
+ */
+public class TelnetChannelSession {
+
+    // ------------------------------------------------------------------------
+    // Constants --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The size of the decoded input buffer.  When it is nearly full, the
+     * selector stops reading this session's socket until the application
+     * catches up.
+     */
+    private static final int INPUT_BUFFER_SIZE = 8192;
+
+    /**
+     * The minimum room in the input buffer to keep reading the socket.
+     */
+    private static final int MIN_INPUT_ROOM = 512;
+
+    /**
+     * The initial size of the output buffer.  It grows up to the server's
+     * maximum pending output, and goes back to this size when drained.
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 8192;
+
+    /**
+     * The maximum size of a sub-negotiation.  Anything longer is truncated.
+     */
+    private static final int MAX_SUBNEG_SIZE = 1024;
+
+    // ------------------------------------------------------------------------
+    // Variables --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The server that owns this session.
+     */
+    private final TelnetChannelServer server;
+
+    /**
+     * The socket.
+     */
+    private final SocketChannel channel;
+
+    /**
+     * The socket's registration with the server's selector.
+     */
+    private SelectionKey key;
+
+    /**
+     * The remote address, kept so that it can be reported after close.
+     */
+    private final SocketAddress remoteAddress;
+
+    /**
+     * Guards the buffers and the telnet protocol state.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled when input arrives, on EOF, and on close.
+     */
+    private final Condition inputReady = lock.newCondition();
+
+    /**
+     * Signalled when the output buffer has room again, and on close.
+     */
+    private final Condition outputDrained = lock.newCondition();
+
+    /**
+     * Decoded input waiting for the application, in write mode.
+     */
+    private final ByteBuffer inbound = ByteBuffer.allocate(INPUT_BUFFER_SIZE);
+
+    /**
+     * Encoded output waiting for the socket, in write mode.
+     */
+    private ByteBuffer outbound = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+
+    /**
+     * If true, the remote side has closed its end.
+     */
+    private boolean inputEof = false;
+
+    /**
+     * If true, the selector stopped reading because inbound is full.
+     */
+    private boolean readPaused = false;
+
+    /**
+     * If true, this session is closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * The application-facing input stream.
+     */
+    private final ChannelInputStream inputStream;
+
+    /**
+     * The application-facing output stream.
+     */
+    private final ChannelOutputStream outputStream;
+
+    /**
+     * If true, telnet BINARY mode is enabled.
+     */
+    private boolean binaryMode = false;
+
+    /**
+     * If true, request the client terminal type.
+     */
+    private boolean doTermType = true;
+
+    /**
+     * If true, request the client terminal speed.
+     */
+    private boolean doTermSpeed = true;
+
+    /**
+     * If true, request the New Environment option.
+     */
+    private boolean doEnvironment = true;
+
+    /**
+     * When true, the last read byte from the remote side was IAC.
+     */
+    private boolean iac = false;
+
+    /**
+     * When true, we are in the middle of a DO/DONT/WILL/WONT negotiation.
+     */
+    private boolean dowill = false;
+
+    /**
+     * The telnet option being negotiated.
+     */
+    private byte dowillType = 0;
+
+    /**
+     * When true, we are waiting to see the end of the sub-negotiation
+     * sequence.
+     */
+    private boolean subnegEnd = false;
+
+    /**
+     * When true, the last byte read from the remote side was CR.
+     */
+    private boolean readCR = false;
+
+    /**
+     * When true, the last byte the application wrote was a CR.
+     */
+    private boolean writeCR = false;
+
+    /**
+     * The subnegotiation buffer.
+     */
+    private final byte [] subnegBuffer = new byte[MAX_SUBNEG_SIZE];
+
+    /**
+     * The number of bytes in subnegBuffer.
+     */
+    private int subnegLength = 0;
+
+    /**
+     * The terminal type reported by the client.
+     */
+    private volatile String terminalType = "";
+
+    /**
+     * The terminal speed reported by the client.
+     */
+    private volatile String terminalSpeed = "";
+
+    /**
+     * User name.
+     */
+    private volatile String username = "";
+
+    /**
+     * Language.
+     */
+    private volatile String language = "en_US";
+
+    /**
+     * Text window width.
+     */
+    private volatile int windowWidth = 80;
+
+    /**
+     * Text window height.
+     */
+    private volatile int windowHeight = 24;
+
+    /**
+     * The time this session was started.
+     */
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * The number of seconds since the last user input event from this
+     * session.
+     */
+    private volatile int idleTime = Integer.MAX_VALUE;
+
+    // ------------------------------------------------------------------------
+    // Constructors -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Package private constructor, sessions are created by
+     * TelnetChannelServer.
+     *
+     * @param server the server that accepted this connection
+     * @param channel the non-blocking socket
+     * @throws IOException if an I/O error occurs
+     */
+    TelnetChannelSession(final TelnetChannelServer server,
+        final SocketChannel channel) throws IOException {
+
+        this.server        = server;
+        this.channel       = channel;
+        this.remoteAddress = channel.getRemoteAddress();
+        inputStream        = new ChannelInputStream();
+        outputStream       = new ChannelOutputStream();
+    }
+
+    // ------------------------------------------------------------------------
+    // ChannelInputStream -----------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The application side of the input.  It is also the SessionInfo, so
+     * that ECMA48Terminal sees the window size from NAWS.
+     */
+    private class ChannelInputStream extends InputStream
+                                     implements SessionInfo {
+
+        /**
+         * Reads the next byte of data from the input stream.
+         *
+         * @return the next byte of data, or -1 if there is no more data
+         * because the end of the stream has been reached.
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public int read() throws IOException {
+            byte [] b = new byte[1];
+            if (read(b, 0, 1) == -1) {
+                return -1;
+            }
+            return (b[0] & 0xFF);
+        }
+
+        /**
+         * Reads up to len bytes of data from the input stream into an
+         * array of bytes, blocking until at least one byte is available.
+         *
+         * @param b the buffer into which the data is read.
+         * @param off the start offset in array b at which the data is
+         * written.
+         * @param len the maximum number of bytes to read.
+         * @return the total number of bytes read into the buffer, or -1 if
+         * there is no more data because the end of the stream has been
+         * reached.
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public int read(final byte [] b, final int off,
+            final int len) throws IOException {
+
+            if (len == 0) {
+                return 0;
+            }
+            lock.lock();
+            try {
+                while (inbound.position() == 0) {
+                    if (inputEof || closed) {
+                        return -1;
+                    }
+                    try {
+                        inputReady.await();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+                inbound.flip();
+                int n = Math.min(len, inbound.remaining());
+                inbound.get(b, off, n);
+                inbound.compact();
+                if (readPaused && (inbound.remaining() >= INPUT_BUFFER_SIZE / 2)) {
+                    readPaused = false;
+                    server.updateInterest(TelnetChannelSession.this);
+                }
+                return n;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Returns the number of bytes that can be read without blocking.
+         *
+         * @return the number of decoded bytes waiting
+         * @throws IOException if the session is closed
+         */
+        @Override
+        public int available() throws IOException {
+            lock.lock();
+            try {
+                if (closed) {
+                    throw new IOException("InputStream is closed");
+                }
+                return inbound.position();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Closes the session.
+         *
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void close() throws IOException {
+            TelnetChannelSession.this.close();
+        }
+
+        /**
+         * Get the time this session was started.
+         *
+         * @return the number of millis since midnight, January 1, 1970 UTC
+         */
+        public long getStartTime() {
+            return startTime;
+        }
+
+        /**
+         * Get the time this session was idle.
+         *
+         * @return the number of seconds since the last user input event
+         * from this session
+         */
+        public int getIdleTime() {
+            return idleTime;
+        }
+
+        /**
+         * Set the time this session was idle.
+         *
+         * @param seconds the number of seconds since the last user input
+         * event from this session
+         */
+        public void setIdleTime(final int seconds) {
+            idleTime = seconds;
+        }
+
+        /**
+         * Username getter.
+         *
+         * @return the username
+         */
+        public String getUsername() {
+            return username;
+        }
+
+        /**
+         * Username setter.
+         *
+         * @param username the value
+         */
+        public void setUsername(final String username) {
+            TelnetChannelSession.this.username = username;
+        }
+
+        /**
+         * Language getter.
+         *
+         * @return the language
+         */
+        public String getLanguage() {
+            return language;
+        }
+
+        /**
+         * Language setter.
+         *
+         * @param language the value
+         */
+        public void setLanguage(final String language) {
+            TelnetChannelSession.this.language = language;
+        }
+
+        /**
+         * Text window width getter.
+         *
+         * @return the window width
+         */
+        public int getWindowWidth() {
+            return windowWidth;
+        }
+
+        /**
+         * Text window height getter.
+         *
+         * @return the window height
+         */
+        public int getWindowHeight() {
+            return windowHeight;
+        }
+
+        /**
+         * Re-query the text window size.
+         */
+        public void queryWindowSize() {
+            // NOP, NAWS updates the size as it changes.
+        }
+
+    }
+
+    // ------------------------------------------------------------------------
+    // ChannelOutputStream ----------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The application side of the output.  Bytes are encoded into the
+     * output buffer and written to the socket on flush().  If the client
+     * falls behind by more than the server's maximum pending output,
+     * write() blocks until the selector has sent some of it.
+     */
+    private class ChannelOutputStream extends OutputStream {
+
+        /**
+         * Writes the specified byte to this output stream.
+         *
+         * @param b the byte to write.
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void write(final int b) throws IOException {
+            byte [] bytes = new byte[1];
+            bytes[0] = (byte) b;
+            write(bytes, 0, 1);
+        }
+
+        /**
+         * Writes len bytes from the specified byte array starting at offset
+         * off to this output stream.
+         *
+         * @param b the data.
+         * @param off the start offset in the data.
+         * @param len the number of bytes to write.
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void write(final byte [] b, final int off,
+            final int len) throws IOException {
+
+            lock.lock();
+            try {
+                checkOpen();
+                for (int i = 0; i < len; i++) {
+                    // One byte encodes to at most 4 bytes: CR NUL IAC IAC.
+                    while (outbound.remaining() < 4) {
+                        makeRoom();
+                    }
+                    encode(b[off + i]);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Send the buffered output to the socket.  Whatever the socket
+         * cannot take now is sent by the selector thread.
+         *
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void flush() throws IOException {
+            lock.lock();
+            try {
+                checkOpen();
+                if (!binaryMode && writeCR) {
+                    // The last byte written was a CR, which was never
+                    // actually sent.  CR <anything> -> CR NUL
+                    if (!ensureRoom(2)) {
+                        checkOpen();
+                    }
+                    outbound.put((byte) C_CR);
+                    outbound.put((byte) C_NUL);
+                    writeCR = false;
+                }
+                if (writeChannel()) {
+                    server.updateInterest(TelnetChannelSession.this);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Closes the session.
+         *
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void close() throws IOException {
+            TelnetChannelSession.this.close();
+        }
+
+    }
+
+    // ------------------------------------------------------------------------
+    // TelnetChannelSession ---------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Get the InputStream for this session.  It implements SessionInfo.
+     *
+     * @return the input stream
+     */
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    /**
+     * Get the OutputStream for this session.
+     *
+     * @return the output stream
+     */
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * Get the SessionInfo for this session.
+     *
+     * @return the session info
+     */
+    public SessionInfo getSessionInfo() {
+        return inputStream;
+    }
+
+    /**
+     * Get the remote address.
+     *
+     * @return the address of the client
+     */
+    public SocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * Get the terminal type as reported by the telnet Terminal Type option.
+     *
+     * @return the terminal type
+     */
+    public String getTerminalType() {
+        return terminalType;
+    }
+
+    /**
+     * Get the terminal speed as reported by the telnet Terminal Speed
+     * option.
+     *
+     * @return the terminal speed
+     */
+    public String getTerminalSpeed() {
+        return terminalSpeed;
+    }
+
+    /**
+     * See if this session is closed.
+     *
+     * @return true if the session is closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Close the socket and wake up anything blocked on the streams.  It is
+     * safe to call this multiple times.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            inputReady.signalAll();
+            outputDrained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // SQUASH
+        }
+        server.removeSession(this);
+    }
+
+    /**
+     * Make human-readable description of this session.
+     *
+     * @return displayable String
+     */
+    @Override
+    public String toString() {
+        return String.format("TelnetChannelSession[%s]", remoteAddress);
+    }
+
+    /**
+     * Set the selection key.  Called by the selector thread.
+     *
+     * @param key the key
+     */
+    void setKey(final SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Set the key's interest ops from the buffer state.  Called by the
+     * selector thread.  close() sets closed under the lock before it
+     * cancels the key, so the key stays valid while the lock is held here.
+     */
+    void updateInterestOps() {
+        lock.lock();
+        try {
+            if ((key == null) || !key.isValid() || closed) {
+                return;
+            }
+            int ops = 0;
+            if (!inputEof) {
+                if (inbound.remaining() >= MIN_INPUT_ROOM) {
+                    ops |= SelectionKey.OP_READ;
+                } else {
+                    readPaused = true;
+                }
+            }
+            if (outbound.position() > 0) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Read from the socket and run the bytes through the telnet protocol.
+     * Called by the selector thread when the socket is readable.
+     *
+     * @param readBuffer scratch buffer shared by every session
+     * @throws IOException if an I/O error occurs
+     */
+    void readChannel(final ByteBuffer readBuffer) throws IOException {
+        lock.lock();
+        try {
+            // One byte on the wire decodes to at most two bytes.
+            readBuffer.clear();
+            readBuffer.limit(Math.min(readBuffer.capacity(),
+                    inbound.remaining() / 2));
+            if (readBuffer.limit() == 0) {
+                readPaused = true;
+                return;
+            }
+            int rc = channel.read(readBuffer);
+            if (rc < 0) {
+                inputEof = true;
+                inputReady.signalAll();
+                return;
+            }
+            readBuffer.flip();
+            int before = inbound.position();
+            decode(readBuffer);
+            if (inbound.position() > before) {
+                inputReady.signalAll();
+            }
+            if (closed) {
+                // decode() dropped a client that would not read.
+                return;
+            }
+
+            // Send any negotiation responses now.
+            writeChannel();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write pending output to the socket.  Called by the selector thread
+     * when the socket is writable.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    void writeChannelReady() throws IOException {
+        lock.lock();
+        try {
+            writeChannel();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Send the options we want to negotiate on.  See
+     * TelnetInputStream.telnetSendOptions() for the list.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    void sendOptions() throws IOException {
+        lock.lock();
+        try {
+            // Binary Transmission: must ask both do and will
+            respond(TELNET_DO, 0);
+            respond(TELNET_WILL, 0);
+
+            // Suppress Go Ahead
+            respond(TELNET_DO, 3);
+            respond(TELNET_WILL, 3);
+
+            // Enable Echo - I echo to them, they do not echo back to me.
+            respond(TELNET_DONT, 1);
+            respond(TELNET_WILL, 1);
+
+            // Terminal type, terminal speed, NAWS, and environment
+            respond(TELNET_DO, 24);
+            respond(TELNET_DO, 32);
+            respond(TELNET_DO, 31);
+            respond(TELNET_DO, 39);
+
+            writeChannel();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write as much of outbound as the socket will take without blocking.
+     * Called with the lock held.
+     *
+     * @return true if some output is still pending
+     * @throws IOException if an I/O error occurs
+     */
+    private boolean writeChannel() throws IOException {
+        if (outbound.position() == 0) {
+            return false;
+        }
+        outbound.flip();
+        try {
+            channel.write(outbound);
+        } finally {
+            outbound.compact();
+        }
+        if (outbound.position() == 0) {
+            if (outbound.capacity() > OUTPUT_BUFFER_SIZE) {
+                // Don't hold a large buffer for an idle session.
+                outbound = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+            }
+            outputDrained.signalAll();
+            return false;
+        }
+        if (outbound.position() < server.getMaxPendingOutput() / 2) {
+            outputDrained.signalAll();
+        }
+        return true;
+    }
+
+    /**
+     * Make room in outbound for the application's next write, blocking
+     * while the client is too far behind.  Called with the lock held.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    private void makeRoom() throws IOException {
+        checkOpen();
+        writeChannel();
+        if (outbound.remaining() >= 4) {
+            return;
+        }
+        if (outbound.capacity() < server.getMaxPendingOutput()) {
+            grow(Math.min(outbound.capacity() * 2,
+                    server.getMaxPendingOutput()));
+            return;
+        }
+
+        // Backpressure: wait for the selector to send some of it.
+        server.updateInterest(this);
+        try {
+            outputDrained.await();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Make sure outbound can take n more bytes without blocking.  Used for
+     * protocol responses, which may go over the maximum pending output by
+     * up to OUTPUT_BUFFER_SIZE.  A client that keeps negotiating past that
+     * without reading the answers is dropped.  Called with the lock held.
+     *
+     * @param n the number of bytes
+     * @return true if there is room, false if the session is closed
+     */
+    private boolean ensureRoom(final int n) {
+        if (closed) {
+            return false;
+        }
+        if (outbound.position() + n >
+            server.getMaxPendingOutput() + OUTPUT_BUFFER_SIZE
+        ) {
+            close();
+            return false;
+        }
+        if (outbound.remaining() < n) {
+            grow(Math.max(outbound.capacity() * 2, outbound.position() + n));
+        }
+        return true;
+    }
+
+    /**
+     * Replace outbound with a larger buffer.  Called with the lock held.
+     *
+     * @param capacity the new size
+     */
+    private void grow(final int capacity) {
+        ByteBuffer newBuffer = ByteBuffer.allocate(capacity);
+        outbound.flip();
+        newBuffer.put(outbound);
+        outbound = newBuffer;
+    }
+
+    /**
+     * Throw if the session is closed.
+     *
+     * @throws IOException if the session is closed
+     */
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Telnet session is closed");
+        }
+    }
+
+    /**
+     * Encode one byte written by the application, as
+     * TelnetOutputStream.writeImpl() does.  Called with the lock held and
+     * at least 4 bytes of room in outbound.
+     *
+     * @param ch the byte
+     */
+    private void encode(final byte ch) {
+        if (binaryMode) {
+            if (ch == (byte) TELNET_IAC) {
+                // IAC -> IAC IAC
+                outbound.put((byte) TELNET_IAC);
+            }
+            outbound.put(ch);
+            return;
+        }
+
+        // NVT ASCII mode: hold a CR until we see what follows it.
+        if (ch == C_CR) {
+            if (writeCR) {
+                // CR <anything> -> CR NUL
+                outbound.put((byte) C_CR);
+                outbound.put((byte) C_NUL);
+            }
+            writeCR = true;
+        } else if (ch == C_LF) {
+            if (writeCR) {
+                // CR LF -> CR LF
+                outbound.put((byte) C_CR);
+                writeCR = false;
+            }
+            outbound.put(ch);
+        } else {
+            if (writeCR) {
+                // CR <anything> -> CR NUL
+                outbound.put((byte) C_CR);
+                outbound.put((byte) C_NUL);
+                writeCR = false;
+            }
+            if (ch == (byte) TELNET_IAC) {
+                // IAC -> IAC IAC
+                outbound.put((byte) TELNET_IAC);
+            }
+            outbound.put(ch);
+        }
+    }
+
+    /**
+     * Queue a telnet command.  Called with the lock held.
+     *
+     * @param command TELNET_DO/DONT/WILL/WONT
+     * @param option the telnet option
+     */
+    private void respond(final int command, final int option) {
+        if (!ensureRoom(3)) {
+            return;
+        }
+        outbound.put((byte) TELNET_IAC);
+        outbound.put((byte) command);
+        outbound.put((byte) option);
+    }
+
+    /**
+     * Queue a sub-negotiation SEND request (RFC 855).  Called with the lock
+     * held.
+     *
+     * @param option the telnet option
+     */
+    private void requestSubneg(final int option) {
+        if (!ensureRoom(6)) {
+            return;
+        }
+        outbound.put((byte) TELNET_IAC);
+        outbound.put((byte) TELNET_SB);
+        outbound.put((byte) option);
+        outbound.put((byte) 1);
+        outbound.put((byte) TELNET_IAC);
+        outbound.put((byte) TELNET_SE);
+    }
+
+    /**
+     * Run bytes from the wire through the telnet protocol, appending the
+     * data bytes to inbound.  This is the server side of
+     * TelnetInputStream.readImpl().  Called with the lock held.
+     *
+     * @param buffer the bytes read from the socket
+     */
+    private void decode(final ByteBuffer buffer) {
+        while (buffer.hasRemaining() && !closed) {
+            byte b = buffer.get();
+
+            if (subnegEnd) {
+                // Looking for IAC SE to end this subnegotiation
+                if (b == (byte) TELNET_SE) {
+                    if (iac) {
+                        iac = false;
+                        subnegEnd = false;
+                        handleSubneg();
+                    }
+                } else if (b == (byte) TELNET_IAC) {
+                    if (iac) {
+                        // An argument to the subnegotiation option
+                        addSubneg((byte) TELNET_IAC);
+                        iac = false;
+                    } else {
+                        iac = true;
+                    }
+                } else {
+                    // An argument to the subnegotiation option
+                    addSubneg(b);
+                }
+                continue;
+            }
+
+            if (dowill) {
+                handleOption(b);
+                dowill = false;
+                continue;
+            }
+
+            if (b == (byte) TELNET_IAC) {
+                if (iac) {
+                    // IAC IAC -> IAC
+                    inbound.put((byte) TELNET_IAC);
+                    iac = false;
+                } else {
+                    iac = true;
+                }
+                continue;
+            }
+
+            if (iac) {
+                switch (b) {
+                case (byte) TELNET_SB:
+                    // START Sub-Negotiation
+                    subnegEnd = true;
+                    subnegLength = 0;
+                    break;
+                case (byte) TELNET_WILL:
+                case (byte) TELNET_WONT:
+                case (byte) TELNET_DO:
+                case (byte) TELNET_DONT:
+                    dowill = true;
+                    dowillType = b;
+                    break;
+                default:
+                    // Everything else is equivalent to IAC NOP
+                    break;
+                }
+                iac = false;
+                continue;
+            }
+
+            if (binaryMode) {
+                inbound.put(b);
+                continue;
+            }
+
+            // RFC 854 NVT ASCII mode: bare CR is CR NUL, CR LF is CR LF.
+            if (b == C_LF) {
+                if (readCR) {
+                    inbound.put((byte) C_CR);
+                    readCR = false;
+                }
+                inbound.put(b);
+            } else if (b == C_NUL) {
+                if (readCR) {
+                    // This is CR NUL.  Send CR.
+                    inbound.put((byte) C_CR);
+                    readCR = false;
+                } else {
+                    inbound.put(b);
+                }
+            } else if (b == C_CR) {
+                if (readCR) {
+                    // This is CR CR.  Send a CR NUL and leave the cr flag
+                    // on.
+                    inbound.put((byte) C_CR);
+                    inbound.put((byte) C_NUL);
+                }
+                readCR = true;
+            } else {
+                if (readCR) {
+                    // This was a bare CR in the stream.
+                    inbound.put((byte) C_CR);
+                    readCR = false;
+                }
+                inbound.put(b);
+            }
+        }
+    }
+
+    /**
+     * Add a byte to the sub-negotiation buffer.
+     *
+     * @param b the byte
+     */
+    private void addSubneg(final byte b) {
+        if (subnegLength < subnegBuffer.length) {
+            subnegBuffer[subnegLength++] = b;
+        }
+    }
+
+    /**
+     * Handle the option byte of a DO/DONT/WILL/WONT from the client.
+     *
+     * @param option the telnet option
+     */
+    private void handleOption(final byte option) {
+        boolean will = (dowillType == (byte) TELNET_WILL);
+        boolean doOption = (dowillType == (byte) TELNET_DO);
+
+        switch (option) {
+        case 0:
+            // Binary Transmission
+            if (doOption) {
+                respond(TELNET_WILL, option);
+            }
+            binaryMode = will || doOption;
+            break;
+
+        case 1:
+        case 3:
+            // Echo and Suppress Go Ahead: we already said WILL.
+            if (doOption) {
+                respond(TELNET_WILL, option);
+            }
+            break;
+
+        case 24:
+            // Terminal Type
+            if (will && doTermType) {
+                requestSubneg(24);
+                doTermType = false;
+            }
+            break;
+
+        case 31:
+            // NAWS: the client sends it when its size changes.
+            break;
+
+        case 32:
+            // Terminal Speed
+            if (will && doTermSpeed) {
+                requestSubneg(32);
+                doTermSpeed = false;
+            }
+            break;
+
+        case 39:
+            // New Environment
+            if (will && doEnvironment) {
+                requestSubneg(39);
+                doEnvironment = false;
+            }
+            break;
+
+        default:
+            // Other side asked for something we don't understand.  Tell
+            // them we will not do this option.
+            if (doOption) {
+                respond(TELNET_WONT, option);
+            } else if (will) {
+                respond(TELNET_DONT, option);
+            }
+            break;
+        }
+    }
+
+    /**
+     * Handle an option sub-negotiation.
+     */
+    private void handleSubneg() {
+        if (subnegLength < 1) {
+            return;
+        }
+
+        switch (subnegBuffer[0]) {
+        case 24:
+            // Terminal Type: client sent "IS"
+            if ((subnegLength > 1) && (subnegBuffer[1] == 0)) {
+                terminalType = subnegString(2);
+            }
+            break;
+
+        case 32:
+            // Terminal Speed: client sent "IS"
+            if ((subnegLength > 1) && (subnegBuffer[1] == 0)) {
+                terminalSpeed = subnegString(2);
+            }
+            break;
+
+        case 31:
+            // NAWS: width and height as 16-bit values
+            if (subnegLength >= 5) {
+                windowWidth = ((subnegBuffer[1] & 0xFF) << 8)
+                    | (subnegBuffer[2] & 0xFF);
+                windowHeight = ((subnegBuffer[3] & 0xFF) << 8)
+                    | (subnegBuffer[4] & 0xFF);
+            }
+            break;
+
+        case 39:
+            // Environment
+            handleNewEnvironment();
+            break;
+
+        default:
+            // Ignore this one
+            break;
+        }
+    }
+
+    /**
+     * Get part of the sub-negotiation buffer as a string.
+     *
+     * @param start the index of the first byte
+     * @return the string
+     */
+    private String subnegString(final int start) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = start; i < subnegLength; i++) {
+            sb.append((char) (subnegBuffer[i] & 0xFF));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Handle the New Environment option (RFC 1572), picking out LANG,
+     * LOGNAME, and USER.  Like TelnetInputStream, this does not handle ESC.
+     */
+    private void handleNewEnvironment() {
+        Map<String, String> newEnv = new TreeMap<String, String>();
+
+        // Looking for "IS"
+        if ((subnegLength < 2) || (subnegBuffer[1] != 0)) {
+            return;
+        }
+
+        StringBuilder name = null;
+        StringBuilder value = null;
+        for (int i = 2; i < subnegLength; i++) {
+            byte b = subnegBuffer[i];
+            if ((b == 0) || (b == 3)) {
+                // VAR or USERVAR
+                if ((name != null) && (value != null)
+                    && (value.length() > 0)
+                ) {
+                    newEnv.put(name.toString(), value.toString());
+                }
+                name = new StringBuilder();
+                value = null;
+            } else if ((b == 1) && (name != null)) {
+                // VALUE
+                value = new StringBuilder();
+            } else if (value != null) {
+                value.append((char) (b & 0xFF));
+            } else if (name != null) {
+                name.append((char) (b & 0xFF));
+            } else {
+                // The other side isn't following the rules, see ya.
+                return;
+            }
+        }
+        if ((name != null) && (value != null) && (value.length() > 0)) {
+            newEnv.put(name.toString(), value.toString());
+        }
+
+        if (newEnv.containsKey("LANG")) {
+            language = newEnv.get("LANG");
+        }
+        if (newEnv.containsKey("LOGNAME")) {
+            username = newEnv.get("LOGNAME");
+        }
+        if (newEnv.containsKey("USER")) {
+            username = newEnv.get("USER");
+        }
+    }
+
+}
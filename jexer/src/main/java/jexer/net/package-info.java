@@ -28,6 +28,7 @@
  */
 
 /**
- * A Telnet-aware ServerSocket that establishes an 8-bit clean data channel.
+ * A Telnet-aware ServerSocket that establishes an 8-bit clean data channel,
+ * and a selector-based telnet server for hosting many sessions in one JVM.
  */
 package jexer.net;
@@ -31,24 +31,70 @@ package jexer.teditor;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import jexer.bits.CellAttributes;
+import jexer.bits.StringUtils;
 
 /**
  * A Document represents a text file, as a collection of lines.
+ *
+ * The text is kept in a PieceTable.  Line objects, which carry the cursor
+ * position and highlighting, are only made for the lines that are asked
+ * for, and a limited number of them are kept.  Edits to the current line
+ * are written back to the PieceTable as they are made.
  */
 public class Document {
 
+    // ------------------------------------------------------------------------
+    // Constants --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The maximum number of Line objects to keep.  This is many more than
+     * fit on one screen.
+     */
+    private static final int LINE_CACHE_SIZE = 1024;
+
+    /**
+     * Matches fewer than this many characters apart are replaced by
+     * replaceAll() as a single edit.
+     */
+    private static final int REPLACE_GAP = 1024;
+
+    /**
+     * replaceAll() stops merging matches into one edit once the edit would
+     * span more than this many characters, so that no single edit holds a
+     * large part of the document as both old and new text.
+     */
+    private static final int REPLACE_SPAN = 16 * 1024;
+
     // ------------------------------------------------------------------------
     // Variables --------------------------------------------------------------
     // ------------------------------------------------------------------------
 
     /**
-     * The list of lines.
+     * The text, with lines separated by '\n'.
+     */
+    private PieceTable text = new PieceTable("");
+
+    /**
+     * The lines that have been made from text, by line number, least
+     * recently used first.  The current line is never dropped.
      */
-    private ArrayList<Line> lines = new ArrayList<Line>();
+    private LinkedHashMap<Integer, Line> lines;
+
+    /**
+     * The number of cells needed to display the longest line, or -1 if
+     * it has not been computed.  Edits only ever raise it.
+     */
+    private int lineLengthMax = -1;
 
     /**
      * The current line number being edited.  Note that this is 0-based, the
@@ -76,6 +122,29 @@ public class Document {
      */
     private Highlighter highlighter = new Highlighter();
 
+    /**
+     * The highlighter's lexer state at the start of each line.  These are
+     * found as lines are highlighted, from the top down.
+     */
+    private int [] lineStates = new int[16];
+
+    /**
+     * The number of lines at the top whose entry in lineStates is right.
+     */
+    private int statesValid = 1;
+
+    /**
+     * Entries in lineStates from hintsFrom up to statesKnown were right
+     * before the last edit, and still are if the lexer reaches one of them
+     * in the same state.  That is how re-lexing after an edit stops.
+     */
+    private int statesKnown = 1;
+
+    /**
+     * The first line after the last edit that has a hint in lineStates.
+     */
+    private int hintsFrom = 1;
+
     /**
      * The tab stop size.
      */
@@ -93,6 +162,17 @@ public class Document {
      */
     private boolean saveWithTabs = false;
 
+    /**
+     * If set, edits to the text are recorded here so they can be undone.
+     */
+    private UndoJournal undoJournal = null;
+
+    /**
+     * The number of times the text has been changed, so that a search can
+     * tell that the text it was reading is out of date.
+     */
+    private long modifications = 0;
+
     // ------------------------------------------------------------------------
     // Constructors -----------------------------------------------------------
     // ------------------------------------------------------------------------
@@ -105,6 +185,7 @@ public class Document {
      */
     @SuppressWarnings("this-escape")
     public Document(final String str, final CellAttributes defaultColor) {
+        this();
         this.defaultColor = defaultColor;
 
         // Set colors to resemble the Borland IDE colors, but for Java
@@ -118,7 +199,28 @@ public class Document {
      * Private constructor used by dup().
      */
     private Document() {
-        // NOP
+        lines = new LinkedHashMap<Integer, Line>(16, 0.75f, true) {
+
+            /**
+             * Serializable version.
+             */
+            private static final long serialVersionUID = 1;
+
+            /**
+             * Drop the least recently used line once there are too many,
+             * unless it is the current line.
+             *
+             * @param eldest the least recently used line
+             * @return true if eldest should be dropped
+             */
+            @Override
+            protected boolean removeEldestEntry(
+                final Map.Entry<Integer, Line> eldest) {
+
+                return ((size() > LINE_CACHE_SIZE)
+                    && (eldest.getKey() != lineNumber));
+            }
+        };
     }
 
     // ------------------------------------------------------------------------
@@ -131,10 +233,22 @@ public class Document {
      * @param text the new contents
      */
     public void setText(final String text) {
+        // Trailing line breaks do not make lines, same as String.split().
+        int end = text.length();
+        while ((end > 0) && (text.charAt(end - 1) == '\n')) {
+            end--;
+        }
+        this.text = new PieceTable(Line.normalize(text.substring(0, end),
+                true));
+        modifications++;
         lines.clear();
-        String [] rawLines = text.split("\n");
-        for (int i = 0; i < rawLines.length; i++) {
-            lines.add(new Line(rawLines[i], defaultColor, highlighter));
+        lineLengthMax = -1;
+        lineStates[0] = Highlighter.STATE_NORMAL;
+        statesValid = 1;
+        statesKnown = 1;
+        hintsFrom = 1;
+        if (undoJournal != null) {
+            undoJournal.clear();
         }
     }
 
@@ -145,9 +259,16 @@ public class Document {
      */
     public Document dup() {
         Document other = new Document();
-        for (Line line: lines) {
-            other.lines.add(line.dup());
+        other.text = text.dup();
+        if (lineNumber < getLineCount()) {
+            // Keep the cursor position.
+            other.lines.put(lineNumber, getCurrentLine().dup());
         }
+        other.lineLengthMax = lineLengthMax;
+        other.lineStates = lineStates.clone();
+        other.statesValid = statesValid;
+        other.statesKnown = statesKnown;
+        other.hintsFrom = hintsFrom;
         other.lineNumber = lineNumber;
         other.overwrite = overwrite;
         other.dirty = dirty;
@@ -201,11 +322,11 @@ public class Document {
             output = new OutputStreamWriter(new FileOutputStream(filename),
                 "UTF-8");
 
-            for (Line line: lines) {
+            for (int i = 0; i < getLineCount(); i++) {
                 if (saveWithTabs) {
-                    output.write(convertSpacesToTabs(line.getRawString()));
+                    output.write(convertSpacesToTabs(text.getLine(i)));
                 } else {
-                    output.write(line.getRawString());
+                    output.write(text.getLine(i));
                 }
                 output.write("\n");
             }
@@ -245,7 +366,7 @@ public class Document {
      * @return the line
      */
     public Line getCurrentLine() {
-        return lines.get(lineNumber);
+        return getLine(lineNumber);
     }
 
     /**
@@ -256,7 +377,16 @@ public class Document {
      * @return the line
      */
     public Line getLine(final int lineNumber) {
-        return lines.get(lineNumber);
+        Line line = lines.get(lineNumber);
+        if (line == null) {
+            line = new Line(text.getLine(lineNumber), defaultColor,
+                highlighter);
+            lines.put(lineNumber, line);
+        }
+        if (highlighter.isEnabled()) {
+            line.setState(getLineState(lineNumber));
+        }
+        return line;
     }
 
     /**
@@ -266,9 +396,9 @@ public class Document {
      * line.
      */
     public void setLineNumber(final int n) {
-        if ((n < 0) || (n > lines.size())) {
+        if ((n < 0) || (n > getLineCount())) {
             throw new IndexOutOfBoundsException("Lines array size is " +
-                lines.size() + ", requested index " + n);
+                getLineCount() + ", requested index " + n);
         }
         lineNumber = n;
     }
@@ -279,7 +409,7 @@ public class Document {
      * @return the cursor position
      */
     public int getCursor() {
-        return lines.get(lineNumber).getCursor();
+        return getCurrentLine().getCursor();
     }
 
     /**
@@ -288,7 +418,7 @@ public class Document {
      * @return the character, or -1 if the cursor is at the end of the line
      */
     public int getChar() {
-        return lines.get(lineNumber).getChar();
+        return getCurrentLine().getChar();
     }
 
     /**
@@ -297,10 +427,10 @@ public class Document {
      * @param cursor the new cursor position
      */
     public void setCursor(final int cursor) {
-        if (cursor >= lines.get(lineNumber).getDisplayLength()) {
-            lines.get(lineNumber).end();
+        if (cursor >= getCurrentLine().getDisplayLength()) {
+            getCurrentLine().end();
         } else {
-            lines.get(lineNumber).setCursor(cursor);
+            getCurrentLine().setCursor(cursor);
         }
     }
 
@@ -310,13 +440,13 @@ public class Document {
      * @return true if the editing line changed
      */
     public boolean down() {
-        if (lineNumber < lines.size() - 1) {
-            int x = lines.get(lineNumber).getCursor();
+        if (lineNumber < getLineCount() - 1) {
+            int x = getCurrentLine().getCursor();
             lineNumber++;
-            if (x >= lines.get(lineNumber).getDisplayLength()) {
-                lines.get(lineNumber).end();
+            if (x >= getCurrentLine().getDisplayLength()) {
+                getCurrentLine().end();
             } else {
-                lines.get(lineNumber).setCursor(x);
+                getCurrentLine().setCursor(x);
             }
             return true;
         }
@@ -333,16 +463,16 @@ public class Document {
      * @return true if the editing line changed
      */
     public boolean down(final int n) {
-        if (lineNumber < lines.size() - 1) {
-            int x = lines.get(lineNumber).getCursor();
+        if (lineNumber < getLineCount() - 1) {
+            int x = getCurrentLine().getCursor();
             lineNumber += n;
-            if (lineNumber > lines.size() - 1) {
-                lineNumber = lines.size() - 1;
+            if (lineNumber > getLineCount() - 1) {
+                lineNumber = getLineCount() - 1;
             }
-            if (x >= lines.get(lineNumber).getDisplayLength()) {
-                lines.get(lineNumber).end();
+            if (x >= getCurrentLine().getDisplayLength()) {
+                getCurrentLine().end();
             } else {
-                lines.get(lineNumber).setCursor(x);
+                getCurrentLine().setCursor(x);
             }
             return true;
         }
@@ -356,12 +486,12 @@ public class Document {
      */
     public boolean up() {
         if (lineNumber > 0) {
-            int x = lines.get(lineNumber).getCursor();
+            int x = getCurrentLine().getCursor();
             lineNumber--;
-            if (x >= lines.get(lineNumber).getDisplayLength()) {
-                lines.get(lineNumber).end();
+            if (x >= getCurrentLine().getDisplayLength()) {
+                getCurrentLine().end();
             } else {
-                lines.get(lineNumber).setCursor(x);
+                getCurrentLine().setCursor(x);
             }
             return true;
         }
@@ -379,15 +509,15 @@ public class Document {
      */
     public boolean up(final int n) {
         if (lineNumber > 0) {
-            int x = lines.get(lineNumber).getCursor();
+            int x = getCurrentLine().getCursor();
             lineNumber -= n;
             if (lineNumber < 0) {
                 lineNumber = 0;
             }
-            if (x >= lines.get(lineNumber).getDisplayLength()) {
-                lines.get(lineNumber).end();
+            if (x >= getCurrentLine().getDisplayLength()) {
+                getCurrentLine().end();
             } else {
-                lines.get(lineNumber).setCursor(x);
+                getCurrentLine().setCursor(x);
             }
             return true;
         }
@@ -401,7 +531,7 @@ public class Document {
      * @return true if the cursor position changed
      */
     public boolean left() {
-        if (!lines.get(lineNumber).left()) {
+        if (!getCurrentLine().left()) {
             // We are on the leftmost column, wrap
             if (up()) {
                 end();
@@ -419,7 +549,7 @@ public class Document {
      * @return true if the cursor position changed
      */
     public boolean right() {
-        if (!lines.get(lineNumber).right()) {
+        if (!getCurrentLine().right()) {
             // We are on the rightmost column, wrap
             if (down()) {
                 home();
@@ -572,7 +702,7 @@ public class Document {
      * @return the string
      */
     public String getRawLine() {
-        return lines.get(lineNumber).getRawString();
+        return getCurrentLine().getRawString();
     }
 
     /**
@@ -581,7 +711,7 @@ public class Document {
      * @return true if the cursor position changed
      */
     public boolean home() {
-        return lines.get(lineNumber).home();
+        return getCurrentLine().home();
     }
 
     /**
@@ -590,7 +720,7 @@ public class Document {
      * @return true if the cursor position changed
      */
     public boolean end() {
-        return lines.get(lineNumber).end();
+        return getCurrentLine().end();
     }
 
     /**
@@ -598,18 +728,17 @@ public class Document {
      */
     public void del() {
         dirty = true;
-        int cursor = lines.get(lineNumber).getCursor();
-        if (cursor < lines.get(lineNumber).getDisplayLength() - 1) {
-            lines.get(lineNumber).del();
-        } else if (lineNumber < lines.size() - 2) {
+        int cursor = getCurrentLine().getCursor();
+        if (cursor < getCurrentLine().getDisplayLength() - 1) {
+            int position = getCurrentLine().getRawCursor();
+            int length = getCurrentLine().length();
+            getCurrentLine().del();
+            commitLine(position, length - getCurrentLine().length(), 0);
+        } else if (lineNumber < getLineCount() - 2) {
             // Join two lines
-            StringBuilder newLine = new StringBuilder(lines.
-                get(lineNumber).getRawString());
-            newLine.append(lines.get(lineNumber + 1).getRawString());
-            lines.set(lineNumber, new Line(newLine.toString(),
-                    defaultColor, highlighter));
-            lines.get(lineNumber).setCursor(cursor);
-            lines.remove(lineNumber + 1);
+            replace(text.getLineEnd(lineNumber), 1, "");
+            dropLines(lineNumber);
+            getCurrentLine().setCursor(cursor);
         }
     }
 
@@ -618,26 +747,20 @@ public class Document {
      */
     public void backspace() {
         dirty = true;
-        int cursor = lines.get(lineNumber).getCursor();
+        int cursor = getCurrentLine().getCursor();
         if (cursor > 0) {
-            lines.get(lineNumber).backspace(tabSize, backspaceUnindents);
+            int position = getCurrentLine().getRawCursor();
+            getCurrentLine().backspace(tabSize, backspaceUnindents);
+            int newPosition = getCurrentLine().getRawCursor();
+            commitLine(newPosition, position - newPosition, 0);
         } else if (lineNumber > 0) {
             // Join two lines
             lineNumber--;
-            String firstLine = lines.get(lineNumber).getRawString();
-            if (firstLine.length() > 0) {
-                // Backspacing combining two lines
-                StringBuilder newLine = new StringBuilder(firstLine);
-                newLine.append(lines.get(lineNumber + 1).getRawString());
-                lines.set(lineNumber, new Line(newLine.toString(),
-                        defaultColor, highlighter));
-                lines.get(lineNumber).setCursor(firstLine.length());
-                lines.remove(lineNumber + 1);
-            } else {
-                // Backspacing an empty line
-                lines.remove(lineNumber);
-                lines.get(lineNumber).setCursor(0);
-            }
+            int firstLineLength = text.getLineEnd(lineNumber)
+                - text.getLineStart(lineNumber);
+            replace(text.getLineEnd(lineNumber), 1, "");
+            dropLines(lineNumber);
+            getCurrentLine().setCursor(firstLineLength);
         }
     }
 
@@ -646,15 +769,11 @@ public class Document {
      */
     public void enter() {
         dirty = true;
-        int cursor = lines.get(lineNumber).getRawCursor();
-        String original = lines.get(lineNumber).getRawString();
-        String firstLine = original.substring(0, cursor);
-        String secondLine = original.substring(cursor);
-        lines.add(lineNumber + 1, new Line(secondLine, defaultColor,
-                highlighter));
-        lines.set(lineNumber, new Line(firstLine, defaultColor, highlighter));
+        int cursor = getCurrentLine().getRawCursor();
+        replace(text.getLineStart(lineNumber) + cursor, 0, "\n");
+        dropLines(lineNumber);
         lineNumber++;
-        lines.get(lineNumber).home();
+        getCurrentLine().home();
     }
 
     /**
@@ -665,11 +784,16 @@ public class Document {
      */
     public void addChar(final int ch) {
         dirty = true;
+        int position = getCurrentLine().getRawCursor();
+        int length = getCurrentLine().length();
         if (overwrite) {
-            lines.get(lineNumber).replaceChar(ch);
+            getCurrentLine().replaceChar(ch);
         } else {
-            lines.get(lineNumber).addChar(ch);
+            getCurrentLine().addChar(ch);
         }
+        int inserted = Character.charCount(ch);
+        commitLine(position, length + inserted - getCurrentLine().length(),
+            inserted);
     }
 
     /**
@@ -711,6 +835,15 @@ public class Document {
         this.saveWithTabs = saveWithTabs;
     }
 
+    /**
+     * Set the journal that records edits for undo and redo.
+     *
+     * @param undoJournal the journal, or null to not record edits
+     */
+    public void setUndoJournal(final UndoJournal undoJournal) {
+        this.undoJournal = undoJournal;
+    }
+
     /**
      * Handle the tab character.
      */
@@ -718,23 +851,52 @@ public class Document {
         if (overwrite) {
             del();
         }
-        lines.get(lineNumber).tab(tabSize);
+        int position = getCurrentLine().getRawCursor();
+        int length = getCurrentLine().length();
+        getCurrentLine().tab(tabSize);
+        commitLine(position, 0, getCurrentLine().length() - length);
     }
 
     /**
      * Handle the backtab (shift-tab) character.
      */
     public void backTab() {
-        lines.get(lineNumber).backTab(tabSize);
+        int position = getCurrentLine().getRawCursor();
+        getCurrentLine().backTab(tabSize);
+        int newPosition = getCurrentLine().getRawCursor();
+        commitLine(newPosition, position - newPosition, 0);
     }
 
     /**
-     * Get a (shallow) copy of the list of lines.
+     * Get a read-only view of the list of lines.  Lines are made as they
+     * are retrieved.
      *
      * @return the list of lines
      */
     public List<Line> getLines() {
-        return new ArrayList<Line>(lines);
+        return new AbstractList<Line>() {
+
+            /**
+             * Get a line.
+             *
+             * @param index the line number
+             * @return the line
+             */
+            @Override
+            public Line get(final int index) {
+                return getLine(index);
+            }
+
+            /**
+             * Get the number of lines.
+             *
+             * @return the number of lines
+             */
+            @Override
+            public int size() {
+                return getLineCount();
+            }
+        };
     }
 
     /**
@@ -743,7 +905,7 @@ public class Document {
      * @return the number of lines
      */
     public int getLineCount() {
-        return lines.size();
+        return text.getLineCount();
     }
 
     /**
@@ -752,13 +914,14 @@ public class Document {
      * @return the number of cells needed to display the longest line
      */
     public int getLineLengthMax() {
-        int n = 0;
-        for (Line line : lines) {
-            if (line.getDisplayLength() > n) {
-                n = line.getDisplayLength();
+        if (lineLengthMax < 0) {
+            int n = 0;
+            for (int i = 0; i < getLineCount(); i++) {
+                n = Math.max(n, getDisplayLength(text.getLine(i)));
             }
+            lineLengthMax = n;
         }
-        return n;
+        return lineLengthMax;
     }
 
     /**
@@ -767,7 +930,7 @@ public class Document {
      * @return the number of cells needed to display the current line
      */
     public int getLineLength() {
-        return lines.get(lineNumber).getDisplayLength();
+        return getCurrentLine().getDisplayLength();
     }
 
     /**
@@ -776,11 +939,9 @@ public class Document {
      * @return the document contents
      */
     public String getText() {
-        StringBuilder sb = new StringBuilder();
-        for (Line line: getLines()) {
-            sb.append(line.getRawString());
-            sb.append("\n");
-        }
+        StringBuilder sb = new StringBuilder(text.length() + 1);
+        sb.append(text.toString());
+        sb.append("\n");
         return sb.toString();
     }
 
@@ -789,18 +950,30 @@ public class Document {
      * lines from the document.
      */
     public void cleanWhitespace() {
-        for (Line line: getLines()) {
-            line.trimRight();
-        }
-        if (lines.size() == 0) {
-            return;
+        int cursor = getCursor();
+        for (int i = 0; i < getLineCount(); i++) {
+            int start = text.getLineStart(i);
+            int end = text.getLineEnd(i);
+            int trimmed = end;
+            while ((trimmed > start)
+                && Character.isWhitespace(text.charAt(trimmed - 1))
+            ) {
+                trimmed--;
+            }
+            if (trimmed < end) {
+                replace(trimmed, end - trimmed, "");
+            }
         }
-        while (lines.get(lines.size() - 1).length() == 0) {
-            lines.remove(lines.size() - 1);
+        while ((getLineCount() > 1)
+            && (text.getLineStart(getLineCount() - 1) == text.length())
+        ) {
+            replace(text.length() - 1, 1, "");
         }
-        if (lineNumber > lines.size() - 1) {
-            lineNumber = lines.size() - 1;
+        lines.clear();
+        if (lineNumber > getLineCount() - 1) {
+            lineNumber = getLineCount() - 1;
         }
+        setCursor(cursor);
     }
 
     /**
@@ -810,7 +983,7 @@ public class Document {
      */
     public void setHighlighting(final boolean enabled) {
         highlighter.setEnabled(enabled);
-        for (Line line: getLines()) {
+        for (Line line: lines.values()) {
             line.scanLine();
         }
     }
@@ -844,51 +1017,395 @@ public class Document {
     }
 
     /**
-     * Wrap the document text to fit in a new width.
+     * Wrap the document text to fit in a new width.  Each paragraph (run of
+     * non-blank lines) is joined and left-justified again, and only the
+     * paragraphs that come out different are replaced.  The cursor stays at
+     * the same character position in the text.
      *
      * @param width the width to fit to
      */
     public void wrapText(final int width) {
-        /*
-         * Procedure:
-         *
-         * 1. Record the position in the string where the cursor is at as N.
-         *
-         * 2. Reflow the text same as TText with LEFT justification.
-         *
-         * 3. setLineNumber(0), home(), right() by N times.
-         *
-         * This is hideously inefficient, but it works.
-         */
-
-        int N = 0;
-        while (left()) {
-            N++;
-        }
-
-        String text = getText();
-        String parBreakToken = "$$$PARAGRAPH$BREAK$$$";
-        text = text.replace("\n\n", parBreakToken);
-        text = text.replace("\n", " ");
-        text = text.replace(parBreakToken, "\n\n");
-
-        String [] paragraphs = text.split("\n\n");
-        List<String> newLines = new ArrayList<String>();
-        for (String p : paragraphs) {
-            newLines.addAll(jexer.bits.StringUtils.left(p, width - 1));
-            newLines.add("");
-        }
-        StringBuilder newText = new StringBuilder();
-        for (String line: newLines) {
-            newText.append(line);
-            newText.append("\n");
-        }
-        setText(newText.toString());
-
-        setLineNumber(0);
-        home();
-        for (int i = 0; i < N; i++) {
-            right();
+        int cursor = text.getLineStart(lineNumber)
+            + getCurrentLine().getRawCursor();
+
+        int line = 0;
+        while (line < getLineCount()) {
+            if (text.getLineStart(line) == text.getLineEnd(line)) {
+                // Blank line, paragraph separator.
+                line++;
+                continue;
+            }
+            int end = line + 1;
+            while ((end < getLineCount())
+                && (text.getLineStart(end) != text.getLineEnd(end))
+            ) {
+                end++;
+            }
+
+            int start = text.getLineStart(line);
+            int length = text.getLineEnd(end - 1) - start;
+            String paragraph = text.getText(start, start + length);
+            List<String> newLines = StringUtils.left(paragraph.replace('\n',
+                    ' '), width - 1);
+            StringBuilder sb = new StringBuilder(length);
+            for (String newLine: newLines) {
+                if (sb.length() > 0) {
+                    sb.append('\n');
+                }
+                sb.append(newLine);
+            }
+            String newText = sb.toString();
+            if (!newText.equals(paragraph)) {
+                replace(start, length, newText);
+                if (cursor >= start + length) {
+                    cursor += newText.length() - length;
+                } else if (cursor > start + newText.length()) {
+                    cursor = start + newText.length();
+                }
+            }
+            line += Math.max(newLines.size(), 1);
+        }
+
+        lines.clear();
+        lineLengthMax = -1;
+        lineNumber = text.getLineNumber(cursor);
+        int rawCursor = cursor - text.getLineStart(lineNumber);
+        Line current = getCurrentLine();
+        current.home();
+        for (int i = 0; i < rawCursor; i++) {
+            current.right();
+        }
+    }
+
+    /**
+     * Replace every match of a search.  The replacements are recorded in
+     * the undo journal's current unit, so a caller that begins a unit
+     * first can undo them all at once.  The cursor stays at the same
+     * character position in the text, or moves to the start of a match
+     * it was inside.
+     *
+     * @param search the search
+     * @param replacement the replacement text.  For a regular expression,
+     * $n and ${name} stand for groups of the match.
+     * @return the number of matches replaced
+     * @throws IllegalArgumentException if the replacement names a group
+     * that does not exist
+     */
+    public int replaceAll(final Search search, final String replacement) {
+        if (search.isEmpty()) {
+            return 0;
+        }
+
+        // Find every match before changing anything, so that the search
+        // never reads its own replacements.
+        int [] bounds = new int[16];
+        List<String> newTexts = new ArrayList<String>();
+        search.rewind(text, 0);
+        while (search.nextMatch(text)) {
+            int n = newTexts.size() * 2;
+            if (n == bounds.length) {
+                bounds = Arrays.copyOf(bounds, n * 2);
+            }
+            bounds[n] = search.getFoundStart();
+            bounds[n + 1] = search.getFoundEnd();
+            newTexts.add(search.getReplacement(replacement));
+        }
+        int count = newTexts.size();
+        if (count == 0) {
+            return 0;
+        }
+
+        // Matches close together are replaced as one edit, so that a
+        // document full of matches is not a million edits to make and
+        // undo, but only up to REPLACE_SPAN characters so that the text
+        // between them is not copied into the undo journal wholesale.
+        // Replace from the end, so that the positions found stay right.
+        int cursor = getPosition();
+        int newCursor = cursor;
+        int last = count - 1;
+        while (last >= 0) {
+            int end = bounds[last * 2 + 1];
+            int first = last;
+            while ((first > 0) && (bounds[first * 2] - bounds[first * 2 - 1]
+                    < REPLACE_GAP)
+                && (end - bounds[first * 2 - 2] <= REPLACE_SPAN)
+            ) {
+                first--;
+            }
+            int start = bounds[first * 2];
+            String oldText = text.getText(start, end);
+            StringBuilder sb = new StringBuilder(oldText.length());
+            for (int i = first; i <= last; i++) {
+                if (i > first) {
+                    sb.append(oldText, bounds[i * 2 - 1] - start,
+                        bounds[i * 2] - start);
+                }
+                sb.append(newTexts.get(i));
+            }
+            String newText = sb.toString();
+            replace(start, end - start, newText);
+
+            if (cursor >= end) {
+                newCursor += newText.length() - (end - start);
+            } else if (cursor > start) {
+                // Nothing before this edit has been replaced yet.
+                for (int i = first; i <= last; i++) {
+                    if (cursor <= bounds[i * 2]) {
+                        break;
+                    }
+                    if (cursor < bounds[i * 2 + 1]) {
+                        newCursor -= cursor - bounds[i * 2];
+                        break;
+                    }
+                    newCursor += newTexts.get(i).length()
+                        - (bounds[i * 2 + 1] - bounds[i * 2]);
+                }
+            }
+            if ((lineLengthMax >= 0)
+                && (StringUtils.width(newText) > StringUtils.width(oldText))
+            ) {
+                // Only the lines that were replaced in can have grown.
+                int lastLine = text.getLineNumber(start + newText.length());
+                for (int i = text.getLineNumber(start); i <= lastLine; i++) {
+                    lineLengthMax = Math.max(lineLengthMax,
+                        getDisplayLength(text.getLine(i)));
+                }
+            }
+            last = first - 1;
+        }
+        dirty = true;
+        dropLines(0);
+        setPosition(newCursor);
+        return count;
+    }
+
+    /**
+     * Get the on-screen length of a line as Line.getDisplayLength() would.
+     *
+     * @param str the text of the line
+     * @return the number of cells needed to display the line
+     */
+    private static int getDisplayLength(final String str) {
+        int n = StringUtils.width(str);
+        if (n > 0) {
+            return n + 1;
+        }
+        return n;
+    }
+
+    /**
+     * Replace part of the text.  All changes to the text go through here.
+     *
+     * @param pos the position of the first character to replace
+     * @param length the number of characters to replace
+     * @param newText the new text
+     */
+    private void replace(final int pos, final int length,
+        final String newText) {
+
+        if (undoJournal != null) {
+            undoJournal.record(this, pos, text.getText(pos, pos + length),
+                newText);
+        }
+        updateLineStates(pos, length, newText);
+        text.delete(pos, length);
+        text.insert(pos, newText);
+        modifications++;
+    }
+
+    /**
+     * Replace part of the text on behalf of the undo journal, without
+     * recording it.  Note package private access.
+     *
+     * @param pos the position of the first character to replace
+     * @param length the number of characters to replace
+     * @param newText the new text
+     */
+    void applyEdit(final int pos, final int length, final String newText) {
+        int firstLine = text.getLineNumber(pos);
+        updateLineStates(pos, length, newText);
+        text.delete(pos, length);
+        text.insert(pos, newText);
+        modifications++;
+        dirty = true;
+
+        Iterator<Integer> iterator = lines.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() >= firstLine) {
+                iterator.remove();
+            }
+        }
+        int lastLine = text.getLineNumber(pos + newText.length());
+        if (lineLengthMax >= 0) {
+            for (int i = firstLine; i <= lastLine; i++) {
+                lineLengthMax = Math.max(lineLengthMax,
+                    getDisplayLength(text.getLine(i)));
+            }
+        }
+        if (lineNumber >= getLineCount()) {
+            lineNumber = getLineCount() - 1;
+        }
+    }
+
+    /**
+     * Get the position of the cursor in the text.
+     *
+     * @return the number of characters before the cursor
+     */
+    public int getPosition() {
+        if (lineNumber >= getLineCount()) {
+            return text.length();
+        }
+        return text.getLineStart(lineNumber)
+            + getCurrentLine().getRawCursor();
+    }
+
+    /**
+     * Get the number of times the text has been changed.  Note package
+     * private access.
+     *
+     * @return the number of changes
+     */
+    long getModifications() {
+        return modifications;
+    }
+
+    /**
+     * Get the text itself, for searching it in place.  Note package
+     * private access.
+     *
+     * @return the piece table holding the text
+     */
+    PieceTable getPieceTable() {
+        return text;
+    }
+
+    /**
+     * Move the cursor to a position in the text.  Note package private
+     * access.
+     *
+     * @param pos the number of characters before the cursor
+     */
+    void setPosition(final int pos) {
+        lineNumber = text.getLineNumber(pos);
+        String before = text.getText(text.getLineStart(lineNumber), pos);
+        setCursor(StringUtils.width(before));
+    }
+
+    /**
+     * Write an edit of the current line back to the text.  Only the
+     * characters that changed are replaced.
+     *
+     * @param from the position in the line where the edit was made
+     * @param removed the number of characters the edit removed
+     * @param inserted the number of characters the edit inserted
+     */
+    private void commitLine(final int from, final int removed,
+        final int inserted) {
+
+        if ((removed > 0) || (inserted > 0)) {
+            replace(text.getLineStart(lineNumber) + from, removed,
+                getCurrentLine().getRawText(from, from + inserted));
+        }
+        if (lineLengthMax >= 0) {
+            lineLengthMax = Math.max(lineLengthMax,
+                getCurrentLine().getDisplayLength());
+        }
+    }
+
+    /**
+     * Get the highlighter's lexer state at the start of a line, lexing the
+     * lines above it as needed.
+     *
+     * @param line the line number
+     * @return the lexer state
+     */
+    private int getLineState(final int line) {
+        while (statesValid <= line) {
+            int state = highlighter.nextState(text.getLine(statesValid - 1),
+                lineStates[statesValid - 1]);
+            if ((statesValid >= hintsFrom)
+                && (statesValid < statesKnown)
+                && (lineStates[statesValid] == state)
+            ) {
+                // The edit did not change anything from here on.
+                statesValid = statesKnown;
+                continue;
+            }
+            if (statesValid == lineStates.length) {
+                lineStates = Arrays.copyOf(lineStates, statesValid * 2);
+            }
+            lineStates[statesValid] = state;
+            statesValid++;
+        }
+        statesKnown = Math.max(statesKnown, statesValid);
+        return lineStates[line];
+    }
+
+    /**
+     * Account for an edit in lineStates, before it is made to the text.
+     * The states of the lines after the edit are kept as hints, moved to
+     * their new line numbers.
+     *
+     * @param pos the position of the first character to replace
+     * @param length the number of characters to replace
+     * @param newText the new text
+     */
+    private void updateLineStates(final int pos, final int length,
+        final String newText) {
+
+        int firstLine = text.getLineNumber(pos);
+        int removed = text.getLineNumber(pos + length) - firstLine;
+        int inserted = 0;
+        for (int i = newText.indexOf('\n'); i != -1;
+             i = newText.indexOf('\n', i + 1)) {
+            inserted++;
+        }
+
+        if (statesValid <= firstLine + 1) {
+            // Nothing past the edit was lexed yet.
+            statesKnown = Math.max(Math.min(statesKnown, firstLine + 1),
+                statesValid);
+            return;
+        }
+
+        // Hints from an earlier edit are dropped, only the valid states
+        // are kept.
+        int oldFrom = firstLine + removed + 1;
+        int newFrom = firstLine + inserted + 1;
+        if (statesValid > oldFrom) {
+            int count = statesValid - oldFrom;
+            if (newFrom + count > lineStates.length) {
+                lineStates = Arrays.copyOf(lineStates,
+                    Math.max(newFrom + count, lineStates.length * 2));
+            }
+            if (newFrom != oldFrom) {
+                System.arraycopy(lineStates, oldFrom, lineStates, newFrom,
+                    count);
+            }
+            statesKnown = newFrom + count;
+        } else {
+            statesKnown = firstLine + 1;
+        }
+        hintsFrom = newFrom;
+        statesValid = firstLine + 1;
+    }
+
+    /**
+     * Forget the Line objects from a line number on, after lines were
+     * added or removed there.
+     *
+     * @param firstLine the first line number to forget
+     */
+    private void dropLines(final int firstLine) {
+        Iterator<Integer> iterator = lines.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() >= firstLine) {
+                iterator.remove();
+            }
+        }
+        if (lineLengthMax >= 0) {
+            lineLengthMax = Math.max(lineLengthMax, getLineLength());
         }
     }
 
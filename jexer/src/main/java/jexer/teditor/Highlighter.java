@@ -28,17 +28,61 @@
  */
 package jexer.teditor;
 
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import jexer.bits.CellAttributes;
 import jexer.bits.Color;
 
 /**
  * Highlighter provides color choices for certain text strings.
+ *
+ * It splits a line into words with a small lexer that knows about
+ * comments and string literals.  Block comments and text blocks can span
+ * lines, so the lexer has a state that is carried from the end of one line
+ * to the start of the next.  Document keeps that state for each line, so a
+ * line can be highlighted without looking at the lines before it.
  */
 public class Highlighter {
 
+    // ------------------------------------------------------------------------
+    // Constants --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Lexer state: ordinary text.  Note package private access.
+     */
+    static final int STATE_NORMAL = 0;
+
+    /**
+     * Lexer state: inside a block comment.  Note package private access.
+     */
+    static final int STATE_COMMENT = 1;
+
+    /**
+     * Lexer state: inside a text block.  Note package private access.
+     */
+    static final int STATE_TEXT_BLOCK = 2;
+
+    /**
+     * Characters that make up operators.  Each one is a word of its own,
+     * or part of a longer operator from the colors map.
+     */
+    private static final String OPERATOR_CHARS = "[](){}*-+/=%^&!<>|,;.?:~@#\\";
+
+    /**
+     * The longest character literal: quote, backslash, 'u', four hex
+     * digits, quote.
+     */
+    private static final int CHAR_MAX = 8;
+
+    /**
+     * The longest operator in the colors map.
+     */
+    private static final int OPERATOR_MAX = 4;
+
     // ------------------------------------------------------------------------
     // Variables --------------------------------------------------------------
     // ------------------------------------------------------------------------
@@ -46,7 +90,17 @@ public class Highlighter {
     /**
      * The highlighter colors.
      */
-    private SortedMap<String, CellAttributes> colors;
+    private Map<String, CellAttributes> colors;
+
+    /**
+     * The color for comments.
+     */
+    private CellAttributes commentColor;
+
+    /**
+     * The color for string and character literals.
+     */
+    private CellAttributes stringColor;
 
     // ------------------------------------------------------------------------
     // Constructors -----------------------------------------------------------
@@ -73,9 +127,20 @@ public class Highlighter {
             setJavaColors();
         } else {
             colors = null;
+            commentColor = null;
+            stringColor = null;
         }
     }
 
+    /**
+     * See if highlighting is enabled.
+     *
+     * @return true if words are highlighted
+     */
+    public boolean isEnabled() {
+        return (colors != null);
+    }
+
     /**
      * Set my field values to that's field.
      *
@@ -83,11 +148,12 @@ public class Highlighter {
      */
     public void setTo(final Highlighter rhs) {
         if (rhs.colors != null) {
-            colors = new TreeMap<String, CellAttributes>();
-            colors.putAll(rhs.colors);
+            colors = new HashMap<String, CellAttributes>(rhs.colors);
         } else {
             colors = null;
         }
+        commentColor = rhs.commentColor;
+        stringColor = rhs.stringColor;
     }
 
     /**
@@ -125,7 +191,7 @@ public class Highlighter {
      * Sets to defaults that resemble the Borland IDE colors.
      */
     public void setJavaColors() {
-        colors = new TreeMap<String, CellAttributes>();
+        colors = new HashMap<String, CellAttributes>();
 
         CellAttributes color;
 
@@ -193,6 +259,204 @@ public class Highlighter {
             colors.put(str, color);
         }
 
+        commentColor = new CellAttributes();
+        commentColor.setForeColor(Color.WHITE);
+        commentColor.setBackColor(Color.BLUE);
+
+        stringColor = new CellAttributes();
+        stringColor.setForeColor(Color.MAGENTA);
+        stringColor.setBackColor(Color.BLUE);
+        stringColor.setBold(true);
+    }
+
+    /**
+     * Find the lexer state at the end of a line, without making words.
+     * Note package private access.
+     *
+     * @param text the line
+     * @param state the lexer state at the start of the line
+     * @return the lexer state at the end of the line
+     */
+    int nextState(final String text, final int state) {
+        return scan(text, state, null, null);
+    }
+
+    /**
+     * Split a line into highlighted words.  Note package private access.
+     *
+     * @param text the line
+     * @param state the lexer state at the start of the line
+     * @param defaultColor the color for text that is not highlighted
+     * @return the words
+     */
+    ArrayList<Word> getWords(final String text, final int state,
+        final CellAttributes defaultColor) {
+
+        ArrayList<Word> words = new ArrayList<Word>();
+        scan(text, state, defaultColor, words);
+        if (words.size() == 0) {
+            words.add(new Word("", defaultColor));
+        }
+        return words;
+    }
+
+    /**
+     * Lex one line.  The words are only made if asked for, because most
+     * lines are only lexed to find the state at their end.
+     *
+     * @param text the line
+     * @param startState the lexer state at the start of the line
+     * @param defaultColor the color for text that is not highlighted
+     * @param words if not null, the words are added here
+     * @return the lexer state at the end of the line
+     */
+    private int scan(final String text, final int startState,
+        final CellAttributes defaultColor, final List<Word> words) {
+
+        int state = startState;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            int start = i;
+            char ch = text.charAt(i);
+            CellAttributes color = defaultColor;
+
+            if (state == STATE_COMMENT) {
+                int end = text.indexOf("*/", i);
+                if (end == -1) {
+                    i = length;
+                } else {
+                    i = end + 2;
+                    state = STATE_NORMAL;
+                }
+                color = commentColor;
+            } else if (state == STATE_TEXT_BLOCK) {
+                int end = endOfTextBlock(text, i);
+                if (end == -1) {
+                    i = length;
+                } else {
+                    i = end;
+                    state = STATE_NORMAL;
+                }
+                color = stringColor;
+            } else if (Character.isWhitespace(ch)) {
+                do {
+                    i++;
+                } while ((i < length) && Character.isWhitespace(text.charAt(i)));
+            } else if (text.startsWith("//", i)) {
+                i = length;
+                color = commentColor;
+            } else if (text.startsWith("/*", i)) {
+                int end = text.indexOf("*/", i + 2);
+                if (end == -1) {
+                    i = length;
+                    state = STATE_COMMENT;
+                } else {
+                    i = end + 2;
+                }
+                color = commentColor;
+            } else if (text.startsWith("\"\"\"", i)) {
+                int end = endOfTextBlock(text, i + 3);
+                if (end == -1) {
+                    i = length;
+                    state = STATE_TEXT_BLOCK;
+                } else {
+                    i = end;
+                }
+                color = stringColor;
+            } else if (ch == '"') {
+                i = endOfQuote(text, i, length);
+                if (i == -1) {
+                    i = length;
+                }
+                color = stringColor;
+            } else if ((ch == '\'')
+                && (endOfQuote(text, i, Math.min(length, i + CHAR_MAX)) != -1)
+            ) {
+                // A character literal.  Apostrophes in prose are left
+                // alone.
+                i = endOfQuote(text, i, length);
+                color = stringColor;
+            } else if (Character.isJavaIdentifierPart(ch)) {
+                do {
+                    i++;
+                } while ((i < length)
+                    && Character.isJavaIdentifierPart(text.charAt(i)));
+                if (words != null) {
+                    CellAttributes keyword = colors.get(text.substring(start,
+                            i));
+                    if (keyword != null) {
+                        color = keyword;
+                    }
+                }
+            } else if ((OPERATOR_CHARS.indexOf(ch) != -1) && (words != null)) {
+                // Take the longest operator there is a color for.  No
+                // operator contains a quote or starts a comment, so this
+                // does not change the state.
+                i++;
+                for (int n = Math.min(OPERATOR_MAX, length - start); n > 0;
+                     n--) {
+                    CellAttributes operator = colors.get(text.substring(start,
+                            start + n));
+                    if (operator != null) {
+                        color = operator;
+                        i = start + n;
+                        break;
+                    }
+                }
+            } else {
+                i++;
+            }
+
+            if (words != null) {
+                words.add(new Word(text.substring(start, i), color));
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Find the end of a quoted string or character literal.
+     *
+     * @param text the line
+     * @param from the position of the opening quote
+     * @param limit the position to stop looking at
+     * @return the position just after the closing quote, or -1 if it does
+     * not close before limit
+     */
+    private int endOfQuote(final String text, final int from,
+        final int limit) {
+
+        char quote = text.charAt(from);
+        for (int i = from + 1; i < limit; i++) {
+            char ch = text.charAt(i);
+            if (ch == '\\') {
+                i++;
+            } else if (ch == quote) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the end of a text block.
+     *
+     * @param text the line
+     * @param from the position to look from
+     * @return the position just after the closing quotes, or -1 if the text
+     * block does not end on this line
+     */
+    private int endOfTextBlock(final String text, final int from) {
+        for (int i = from; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch == '\\') {
+                i++;
+            } else if (text.startsWith("\"\"\"", i)) {
+                return i + 3;
+            }
+        }
+        return -1;
     }
 
 }
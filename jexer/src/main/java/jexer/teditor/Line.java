@@ -46,9 +46,21 @@ public class Line {
     // ------------------------------------------------------------------------
 
     /**
-     * The list of words.
+     * The list of words, or null if they have not been made since rawText
+     * last changed.
      */
-    private ArrayList<Word> words = new ArrayList<Word>();
+    private ArrayList<Word> words = null;
+
+    /**
+     * The highlighter's lexer state at the start of this line.
+     */
+    private int state = Highlighter.STATE_NORMAL;
+
+    /**
+     * The number of cells needed to display rawText, or -1 if it has not
+     * been computed.
+     */
+    private int width = -1;
 
     /**
      * The default color for the TEditor class.
@@ -95,20 +107,75 @@ public class Line {
         this.defaultColor = defaultColor;
         this.highlighter = highlighter;
 
-        this.rawText = new StringBuilder();
+        this.rawText = new StringBuilder(normalize(str, false));
+    }
+
+    /**
+     * Construct a new Line from an existing text string.
+     *
+     * @param str the text string
+     * @param defaultColor the color for unhighlighted text
+     */
+    public Line(final String str, final CellAttributes defaultColor) {
+        this(str, defaultColor, null);
+    }
+
+    /**
+     * Private constructor used by dup().
+     */
+    private Line() {
+        // NOP
+    }
+
+    // ------------------------------------------------------------------------
+    // Line -------------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Convert text to the form stored in a Line: carriage returns are
+     * stripped, tabs are expanded to spaces, and other C0 bytes are
+     * replaced with CP437 glyphs.  Note package private access.
+     *
+     * @param str the text
+     * @param keepNewlines if true, keep '\n' as a line break and restart
+     * the tab stops after it
+     * @return the converted text, which is str itself if nothing changed
+     */
+    static String normalize(final String str, final boolean keepNewlines) {
+        int i = 0;
+        for (; i < str.length(); i++) {
+            char ch = str.charAt(i);
+            if (((ch <= 0x20) && (ch != ' ')
+                    && !(keepNewlines && (ch == '\n')))
+                || (ch == 0x7F)
+            ) {
+                break;
+            }
+        }
+        if (i == str.length()) {
+            return str;
+        }
+
+        StringBuilder sb = new StringBuilder(str.length());
         int col = 0;
-        for (int i = 0; i < str.length(); i++) {
+        for (i = 0; i < str.length(); i++) {
             char ch = str.charAt(i);
             if (ch == '\r') {
                 // Strip carriage returns
                 continue;
             }
 
+            if (keepNewlines && (ch == '\n')) {
+                sb.append(ch);
+                col = 0;
+                continue;
+            }
+
             if (ch == '\t') {
                 // Expand tabs
                 int j = col % 8;
                 do {
-                    rawText.append(' ');
+                    sb.append(' ');
                     j++;
                     col++;
                 } while ((j % 8) != 0);
@@ -116,39 +183,17 @@ public class Line {
             }
             if ((ch <= 0x20) || (ch == 0x7F)) {
                 // Replace all other C0 bytes with CP437 glyphs.
-                rawText.append(GraphicsChars.CP437[(int) ch]);
+                sb.append(GraphicsChars.CP437[(int) ch]);
                 col++;
                 continue;
             }
 
-            rawText.append(ch);
+            sb.append(ch);
             col++;
         }
-
-        scanLine();
-    }
-
-    /**
-     * Construct a new Line from an existing text string.
-     *
-     * @param str the text string
-     * @param defaultColor the color for unhighlighted text
-     */
-    public Line(final String str, final CellAttributes defaultColor) {
-        this(str, defaultColor, null);
-    }
-
-    /**
-     * Private constructor used by dup().
-     */
-    private Line() {
-        // NOP
+        return sb.toString();
     }
 
-    // ------------------------------------------------------------------------
-    // Line -------------------------------------------------------------------
-    // ------------------------------------------------------------------------
-
     /**
      * Create a duplicate instance.
      *
@@ -161,7 +206,8 @@ public class Line {
         other.position = position;
         other.screenPosition = screenPosition;
         other.rawText = new StringBuilder(rawText);
-        other.scanLine();
+        other.state = state;
+        other.width = width;
         return other;
     }
 
@@ -171,9 +217,36 @@ public class Line {
      * @return a copy of the word list
      */
     public List<Word> getWords() {
+        if (words == null) {
+            scanLine();
+        }
         return new ArrayList<Word>(words);
     }
 
+    /**
+     * Set the highlighter's lexer state at the start of this line.  Note
+     * package private access.
+     *
+     * @param state the lexer state
+     */
+    void setState(final int state) {
+        if (this.state != state) {
+            this.state = state;
+            words = null;
+        }
+    }
+
+    /**
+     * Get part of the raw text.  Note package private access.
+     *
+     * @param start the first character
+     * @param end one past the last character
+     * @return the text
+     */
+    String getRawText(final int start, final int end) {
+        return rawText.substring(start, end);
+    }
+
     /**
      * Get the current cursor position in the text.
      *
@@ -227,7 +300,10 @@ public class Line {
      * @return the number of cells needed to display this line
      */
     public int getDisplayLength() {
-        int n = StringUtils.width(rawText.toString());
+        if (width < 0) {
+            width = StringUtils.width(rawText.toString());
+        }
+        int n = width;
 
         if (n > 0) {
             // If we have any visible characters, add one to the display so
@@ -260,7 +336,13 @@ public class Line {
      * Scan rawText and make words out of it.  Note package private access.
      */
     void scanLine() {
-        words.clear();
+        if ((highlighter != null) && highlighter.isEnabled()) {
+            words = highlighter.getWords(rawText.toString(), state,
+                defaultColor);
+            return;
+        }
+
+        words = new ArrayList<Word>();
         Word word = new Word(this.defaultColor, this.highlighter);
         words.add(word);
         for (int i = 0; i < rawText.length();) {
@@ -333,7 +415,7 @@ public class Line {
     public boolean end() {
         if (screenPosition != getDisplayLength() - 1) {
             position = rawText.length();
-            screenPosition = StringUtils.width(rawText.toString());
+            screenPosition = Math.max(getDisplayLength() - 1, 0);
             return true;
         }
         return false;
@@ -343,17 +425,14 @@ public class Line {
      * Delete the character under the cursor.
      */
     public void del() {
-        assert (words.size() > 0);
-
         if (screenPosition < getDisplayLength()) {
-            int n = Character.charCount(rawText.codePointAt(position));
-            for (int i = 0; i < n; i++) {
-                rawText.deleteCharAt(position);
-            }
+            int ch = rawText.codePointAt(position);
+            rawText.delete(position, position + Character.charCount(ch));
+            width -= StringUtils.width(ch);
         }
 
-        // Re-scan the line to determine the new word boundaries.
-        scanLine();
+        // The word boundaries are found again when next drawn.
+        words = null;
     }
 
     /**
@@ -402,7 +481,8 @@ public class Line {
         }
         position += Character.charCount(ch);
         screenPosition += StringUtils.width(ch);
-        scanLine();
+        width += StringUtils.width(ch);
+        words = null;
     }
 
     /**
@@ -424,7 +504,8 @@ public class Line {
             position += Character.charCount(ch);
             screenPosition += StringUtils.width(ch);
         }
-        scanLine();
+        width = -1;
+        words = null;
     }
 
     /**
@@ -465,10 +546,11 @@ public class Line {
         ) {
             rawText.deleteCharAt(rawText.length() - 1);
         }
+        width = -1;
         if (position >= rawText.length()) {
             end();
         }
-        scanLine();
+        words = null;
     }
 
     /**
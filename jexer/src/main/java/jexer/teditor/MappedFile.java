@@ -0,0 +1,382 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2025 Autumn Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Autumn Lamonte ♥
+ * @version 1
+ */
+package jexer.teditor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import jexer.bits.ThreadUtils;
+
+/**
+ * MappedFile is a read-only view of a text file that may be far larger
+ * than the heap.  The file is memory-mapped rather than read, and a
+ * background thread finds the start of every line.  Lines are decoded
+ * from UTF-8 only when asked for, so the cost of showing a screenful of
+ * text does not depend on the size of the file.
+ */
+public class MappedFile {
+
+    // ------------------------------------------------------------------------
+    // Constants --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Bits in the size of one mapped region.  A single mapping is limited
+     * to Integer.MAX_VALUE bytes, so larger files are mapped as several
+     * regions of 1 GB.
+     */
+    private static final int REGION_BITS = 30;
+
+    /**
+     * Bits in the number of line offsets held in one block.
+     */
+    private static final int BLOCK_BITS = 16;
+
+    /**
+     * Bytes the indexer scans between publishing the lines it has found.
+     */
+    private static final int SCAN_SIZE = 64 * 1024;
+
+    /**
+     * The most bytes of one line that will be decoded.  Anything past that
+     * is not shown.
+     */
+    public static final int MAX_LINE_BYTES = 64 * 1024;
+
+    // ------------------------------------------------------------------------
+    // Variables --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The file.
+     */
+    private final File file;
+
+    /**
+     * The size of the file in bytes when it was mapped.
+     */
+    private final long size;
+
+    /**
+     * The mapped regions of the file.
+     */
+    private MappedByteBuffer [] regions;
+
+    /**
+     * The byte offsets of the starts of lines, in blocks of 2^BLOCK_BITS.
+     * Blocks are allocated as the indexer needs them.
+     */
+    private final long [][] starts;
+
+    /**
+     * The number of line starts found so far.  Every offset below this
+     * count is safe to read from any thread.
+     */
+    private volatile int startCount = 0;
+
+    /**
+     * The number of bytes the indexer has scanned.
+     */
+    private volatile long indexedBytes = 0;
+
+    /**
+     * If true, the indexer has finished, either by reaching the end of the
+     * file or by failing.
+     */
+    private volatile boolean indexed = false;
+
+    /**
+     * If true, the indexer should stop.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * The exception that stopped the indexer, if any.
+     */
+    private volatile RuntimeException error = null;
+
+    /**
+     * The thread finding line starts.
+     */
+    private Thread indexer = null;
+
+    // ------------------------------------------------------------------------
+    // Constructors -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Public constructor maps the file and starts indexing its lines in
+     * the background.
+     *
+     * @param file the file to view
+     * @throws IOException if a java.io operation throws
+     */
+    public MappedFile(final File file) throws IOException {
+        this.file = file;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            size = channel.size();
+            long regionSize = 1L << REGION_BITS;
+            int regionCount = (int) ((size + regionSize - 1) >>> REGION_BITS);
+            regions = new MappedByteBuffer[regionCount];
+            for (int i = 0; i < regionCount; i++) {
+                long offset = (long) i << REGION_BITS;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    offset, Math.min(regionSize, size - offset));
+            }
+        } finally {
+            // The mappings stay valid after the channel is closed.
+            raf.close();
+        }
+
+        // There can be at most one line per byte, plus the first.
+        starts = new long[(int) ((size + 1) >>> BLOCK_BITS) + 1][];
+        addStart(0, 0);
+        startCount = 1;
+
+        indexer = ThreadUtils.newThread(new Runnable() {
+            public void run() {
+                index();
+            }
+        }, "MappedFile indexer " + file.getName());
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    // ------------------------------------------------------------------------
+    // MappedFile -------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Get the file.
+     *
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Get the size of the file.
+     *
+     * @return the number of bytes mapped
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Check if the indexer has finished.
+     *
+     * @return true if every line has been found
+     */
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * Get the exception that stopped the indexer early, for example
+     * because the file was truncated while it was being read.
+     *
+     * @return the exception, or null if there was none
+     */
+    public RuntimeException getError() {
+        return error;
+    }
+
+    /**
+     * Get how much of the file has been indexed.
+     *
+     * @return the percent complete, 0 to 100
+     */
+    public int getIndexedPercent() {
+        if (indexed || (size == 0)) {
+            return 100;
+        }
+        return (int) (indexedBytes * 100 / size);
+    }
+
+    /**
+     * Get the number of lines found so far.  Until the indexer has
+     * finished, this counts only the lines whose ends have been seen.
+     *
+     * @return the number of lines
+     */
+    public int getLineCount() {
+        boolean done = indexed;
+        int count = startCount;
+        if (done && (getStart(count - 1) < size)) {
+            // The last line has no line feed after it.
+            return count;
+        }
+        return count - 1;
+    }
+
+    /**
+     * Get one line of text, decoded from UTF-8 and converted to the form a
+     * Document line uses: tabs are expanded and carriage returns removed.
+     * At most MAX_LINE_BYTES of the line are decoded.
+     *
+     * @param lineNumber the line number.  0-based.
+     * @return the text of the line
+     * @throws IndexOutOfBoundsException if the line has not been indexed
+     */
+    public String getLine(final int lineNumber) {
+        if ((lineNumber < 0) || (lineNumber >= getLineCount())) {
+            throw new IndexOutOfBoundsException("Line " + lineNumber
+                + " of " + getLineCount());
+        }
+        long start = getStart(lineNumber);
+        long end = size;
+        if (lineNumber + 1 < startCount) {
+            // Leave off the line feed.
+            end = getStart(lineNumber + 1) - 1;
+        }
+        int length = (int) Math.min(end - start, MAX_LINE_BYTES);
+        byte [] bytes = new byte[length];
+        read(start, bytes, length);
+        return Line.normalize(new String(bytes, StandardCharsets.UTF_8),
+            false);
+    }
+
+    /**
+     * Get the whole file as text, decoded from UTF-8 the same way as
+     * getLine(), suitable for a Document.
+     *
+     * @return the text of the file
+     * @throws IllegalStateException if the file is too large to hold in
+     * a String
+     */
+    public String getText() {
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("File is too large: " + size);
+        }
+        byte [] bytes = new byte[(int) size];
+        read(0, bytes, bytes.length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Stop the indexer and release the mappings.  The mapped memory is
+     * returned to the system when the buffers are garbage collected.
+     */
+    public void close() {
+        closed = true;
+        if (indexer != null) {
+            indexer.interrupt();
+            indexer = null;
+        }
+        regions = new MappedByteBuffer[0];
+    }
+
+    /**
+     * Find the start of every line, publishing them as the scan goes.
+     */
+    private void index() {
+        byte [] buffer = new byte[SCAN_SIZE];
+        long position = 0;
+        try {
+            while ((position < size) && !closed) {
+                int length = (int) Math.min(SCAN_SIZE, size - position);
+                read(position, buffer, length);
+                int count = startCount;
+                for (int i = 0; i < length; i++) {
+                    if (buffer[i] == '\n') {
+                        addStart(position + i + 1, count);
+                        count++;
+                    }
+                }
+                position += length;
+                // The volatile write publishes the offsets stored above.
+                startCount = count;
+                indexedBytes = position;
+            }
+        } catch (RuntimeException e) {
+            // The file changed underneath the mapping, or was closed.
+            error = e;
+        } finally {
+            indexed = true;
+        }
+    }
+
+    /**
+     * Store a line start.
+     *
+     * @param offset the byte offset
+     * @param index the line number the offset starts
+     */
+    private void addStart(final long offset, final int index) {
+        int block = index >>> BLOCK_BITS;
+        if (starts[block] == null) {
+            starts[block] = new long[1 << BLOCK_BITS];
+        }
+        starts[block][index & ((1 << BLOCK_BITS) - 1)] = offset;
+    }
+
+    /**
+     * Get a line start.
+     *
+     * @param index the line number, which must be below startCount
+     * @return the byte offset
+     */
+    private long getStart(final int index) {
+        return starts[index >>> BLOCK_BITS][index & ((1 << BLOCK_BITS) - 1)];
+    }
+
+    /**
+     * Copy bytes out of the mapped regions.
+     *
+     * @param position the byte offset in the file
+     * @param dst the buffer to fill
+     * @param length the number of bytes to copy
+     */
+    private void read(final long position, final byte [] dst,
+        final int length) {
+
+        MappedByteBuffer [] mapped = regions;
+        long regionMask = (1L << REGION_BITS) - 1;
+        long from = position;
+        int done = 0;
+        while (done < length) {
+            MappedByteBuffer region = mapped[(int) (from >>> REGION_BITS)];
+            int offset = (int) (from & regionMask);
+            int n = Math.min(length - done, region.limit() - offset);
+            region.get(offset, dst, done, n);
+            done += n;
+            from += n;
+        }
+    }
+
+}
@@ -0,0 +1,725 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2025 Autumn Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Autumn Lamonte ♥
+ * @version 1
+ */
+package jexer.teditor;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * PieceTable holds the text of a Document as a sequence of pieces of two
+ * buffers: the original text, which never changes, and an append-only
+ * buffer of everything inserted since.  The pieces are kept in a balanced
+ * tree (a treap) that counts the characters and line breaks under each
+ * node, so inserting, deleting, and finding the start of a line are all
+ * O(log n) in the number of pieces.
+ *
+ * The tree is never modified in place: an edit makes new nodes along one
+ * path and shares the rest.  A copy made by dup() is therefore O(1), and
+ * stays unchanged as the original is edited.
+ */
+public class PieceTable {
+
+    // ------------------------------------------------------------------------
+    // Variables --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Priorities for new tree nodes.
+     */
+    private static Random random = new Random();
+
+    /**
+     * The original text.
+     */
+    private final Buffer original;
+
+    /**
+     * Everything inserted since the original text.  This is shared with
+     * copies made by dup().
+     */
+    private final Buffer added;
+
+    /**
+     * The root of the tree.  Null means the text is empty.
+     */
+    private Node root;
+
+    /**
+     * A text buffer and the positions of the line breaks in it.
+     */
+    private static final class Buffer {
+
+        /**
+         * The characters.  Either a String, or a StringBuilder that is
+         * only ever appended to.
+         */
+        private final CharSequence text;
+
+        /**
+         * The positions of the '\n' characters in text, in order.
+         */
+        private int [] newlines;
+
+        /**
+         * The number of entries used in newlines.
+         */
+        private int newlineCount = 0;
+
+        /**
+         * Public constructor.
+         *
+         * @param text the text
+         */
+        public Buffer(final String text) {
+            this.text = text;
+            int n = 0;
+            for (int i = text.indexOf('\n'); i != -1;
+                 i = text.indexOf('\n', i + 1)) {
+                n++;
+            }
+            newlines = new int[Math.max(n, 16)];
+            for (int i = text.indexOf('\n'); i != -1;
+                 i = text.indexOf('\n', i + 1)) {
+                newlines[newlineCount++] = i;
+            }
+        }
+
+        /**
+         * Public constructor for an empty buffer that can be appended to.
+         */
+        public Buffer() {
+            this.text = new StringBuilder();
+            newlines = new int[16];
+        }
+
+        /**
+         * Append to the buffer.
+         *
+         * @param str the text to append
+         * @return the position of the first appended character
+         */
+        public int append(final CharSequence str) {
+            StringBuilder sb = (StringBuilder) text;
+            int start = sb.length();
+            sb.append(str);
+            for (int i = 0; i < str.length(); i++) {
+                if (str.charAt(i) == '\n') {
+                    if (newlineCount == newlines.length) {
+                        newlines = Arrays.copyOf(newlines, newlineCount * 2);
+                    }
+                    newlines[newlineCount++] = start + i;
+                }
+            }
+            return start;
+        }
+
+        /**
+         * Copy characters into an array.
+         *
+         * @param start the position of the first character
+         * @param end the position one past the last character
+         * @param dst the array to copy into
+         * @param dstBegin the index in dst of the first character copied
+         */
+        public void getChars(final int start, final int end,
+            final char [] dst, final int dstBegin) {
+
+            if (text instanceof String) {
+                ((String) text).getChars(start, end, dst, dstBegin);
+            } else {
+                ((StringBuilder) text).getChars(start, end, dst, dstBegin);
+            }
+        }
+
+        /**
+         * Count the line breaks before a position.
+         *
+         * @param pos the position
+         * @return the number of '\n' characters in [0, pos)
+         */
+        public int newlinesBefore(final int pos) {
+            int lo = 0;
+            int hi = newlineCount;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (newlines[mid] < pos) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+    }
+
+    /**
+     * A tree node: one piece of a buffer, plus the totals for its subtree.
+     */
+    private static final class Node {
+
+        /**
+         * The buffer this piece is in.
+         */
+        public final Buffer buffer;
+
+        /**
+         * The position of the piece in its buffer.
+         */
+        public final int start;
+
+        /**
+         * The number of characters in the piece.
+         */
+        public final int length;
+
+        /**
+         * The number of line breaks in the piece.
+         */
+        public final int newlines;
+
+        /**
+         * The heap priority.
+         */
+        public final int priority;
+
+        /**
+         * The pieces before this one.
+         */
+        public final Node left;
+
+        /**
+         * The pieces after this one.
+         */
+        public final Node right;
+
+        /**
+         * The number of characters in this subtree.
+         */
+        public final int size;
+
+        /**
+         * The number of line breaks in this subtree.
+         */
+        public final int lines;
+
+        /**
+         * Public constructor.
+         *
+         * @param buffer the buffer this piece is in
+         * @param start the position of the piece in its buffer
+         * @param length the number of characters in the piece
+         * @param priority the heap priority
+         * @param left the pieces before this one
+         * @param right the pieces after this one
+         */
+        public Node(final Buffer buffer, final int start, final int length,
+            final int priority, final Node left, final Node right) {
+
+            this.buffer   = buffer;
+            this.start    = start;
+            this.length   = length;
+            this.newlines = buffer.newlinesBefore(start + length)
+                - buffer.newlinesBefore(start);
+            this.priority = priority;
+            this.left     = left;
+            this.right    = right;
+            this.size     = size(left) + length + size(right);
+            this.lines    = lines(left) + newlines + lines(right);
+        }
+
+        /**
+         * Make a copy of this node with different children.
+         *
+         * @param left the pieces before this one
+         * @param right the pieces after this one
+         * @return the new node
+         */
+        public Node with(final Node left, final Node right) {
+            return new Node(buffer, start, length, priority, left, right);
+        }
+
+    }
+
+    // ------------------------------------------------------------------------
+    // Constructors -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Public constructor.
+     *
+     * @param text the initial text
+     */
+    public PieceTable(final String text) {
+        original = new Buffer(text);
+        added = new Buffer();
+        if (text.length() > 0) {
+            root = new Node(original, 0, text.length(), random.nextInt(),
+                null, null);
+        }
+    }
+
+    /**
+     * Private constructor used by dup().
+     *
+     * @param other the table to copy
+     */
+    private PieceTable(final PieceTable other) {
+        original = other.original;
+        added = other.added;
+        root = other.root;
+    }
+
+    // ------------------------------------------------------------------------
+    // PieceTable -------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Create a copy that shares all of its data with this one.
+     *
+     * @return the copy
+     */
+    public PieceTable dup() {
+        return new PieceTable(this);
+    }
+
+    /**
+     * Get the number of characters.
+     *
+     * @return the length
+     */
+    public int length() {
+        return size(root);
+    }
+
+    /**
+     * Get the number of lines, which is one more than the number of line
+     * breaks.
+     *
+     * @return the number of lines
+     */
+    public int getLineCount() {
+        return lines(root) + 1;
+    }
+
+    /**
+     * Get the position of the first character of a line.
+     *
+     * @param line the line number, 0-based
+     * @return the position
+     */
+    public int getLineStart(final int line) {
+        checkLine(line);
+        if (line == 0) {
+            return 0;
+        }
+        return newlinePosition(line - 1) + 1;
+    }
+
+    /**
+     * Get the position one past the last character of a line, not
+     * counting its line break.
+     *
+     * @param line the line number, 0-based
+     * @return the position
+     */
+    public int getLineEnd(final int line) {
+        checkLine(line);
+        if (line == getLineCount() - 1) {
+            return length();
+        }
+        return newlinePosition(line);
+    }
+
+    /**
+     * Get the text of one line, without its line break.
+     *
+     * @param line the line number, 0-based
+     * @return the text
+     */
+    public String getLine(final int line) {
+        return getText(getLineStart(line), getLineEnd(line));
+    }
+
+    /**
+     * Find the line that a position is on.
+     *
+     * @param pos the position
+     * @return the line number, 0-based
+     */
+    public int getLineNumber(final int pos) {
+        checkRange(pos, 0);
+        int result = 0;
+        int offset = pos;
+        Node node = root;
+        while (node != null) {
+            int leftSize = size(node.left);
+            if (offset <= leftSize) {
+                node = node.left;
+                continue;
+            }
+            result += lines(node.left);
+            offset -= leftSize;
+            if (offset <= node.length) {
+                result += node.buffer.newlinesBefore(node.start + offset)
+                    - node.buffer.newlinesBefore(node.start);
+                break;
+            }
+            result += node.newlines;
+            offset -= node.length;
+            node = node.right;
+        }
+        return result;
+    }
+
+    /**
+     * Get one character.
+     *
+     * @param pos the position
+     * @return the character
+     */
+    public char charAt(final int pos) {
+        if ((pos < 0) || (pos >= length())) {
+            throw new IndexOutOfBoundsException("Length is " + length() +
+                ", requested position " + pos);
+        }
+        int offset = pos;
+        Node node = root;
+        for (;;) {
+            int leftSize = size(node.left);
+            if (offset < leftSize) {
+                node = node.left;
+            } else if (offset < leftSize + node.length) {
+                return node.buffer.text.charAt(node.start + offset - leftSize);
+            } else {
+                offset -= leftSize + node.length;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Get a range of the text.
+     *
+     * @param start the position of the first character
+     * @param end the position one past the last character
+     * @return the text
+     */
+    public String getText(final int start, final int end) {
+        checkRange(start, end - start);
+        StringBuilder sb = new StringBuilder(end - start);
+        appendText(root, start, end, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Copy a range of the text into an array, without making a String.
+     *
+     * @param start the position of the first character
+     * @param end the position one past the last character
+     * @param dst the array to copy into
+     * @param dstBegin the index in dst of the first character copied
+     */
+    public void getChars(final int start, final int end, final char [] dst,
+        final int dstBegin) {
+
+        checkRange(start, end - start);
+        copyChars(root, start, end, dst, dstBegin);
+    }
+
+    /**
+     * Get the entire text.
+     *
+     * @return the text
+     */
+    @Override
+    public String toString() {
+        return getText(0, length());
+    }
+
+    /**
+     * Insert text.
+     *
+     * @param pos the position to insert at
+     * @param str the text to insert
+     */
+    public void insert(final int pos, final CharSequence str) {
+        checkRange(pos, 0);
+        if (str.length() == 0) {
+            return;
+        }
+        int start = added.append(str);
+        Node [] parts = split(root, pos);
+        Node left = extendLast(parts[0], start, str.length());
+        if (left == null) {
+            left = merge(parts[0], new Node(added, start, str.length(),
+                    random.nextInt(), null, null));
+        }
+        root = merge(left, parts[1]);
+    }
+
+    /**
+     * Delete text.
+     *
+     * @param pos the position of the first character to delete
+     * @param length the number of characters to delete
+     */
+    public void delete(final int pos, final int length) {
+        checkRange(pos, length);
+        if (length == 0) {
+            return;
+        }
+        Node [] parts = split(root, pos);
+        Node [] rest = split(parts[1], length);
+        root = merge(parts[0], rest[1]);
+    }
+
+    /**
+     * Throw IndexOutOfBoundsException if a range is not in the text.
+     *
+     * @param pos the start of the range
+     * @param length the length of the range
+     */
+    private void checkRange(final int pos, final int length) {
+        if ((pos < 0) || (length < 0) || (pos + length > length())) {
+            throw new IndexOutOfBoundsException("Length is " + length() +
+                ", requested range " + pos + " length " + length);
+        }
+    }
+
+    /**
+     * Throw IndexOutOfBoundsException if a line number is out of range.
+     *
+     * @param line the line number
+     */
+    private void checkLine(final int line) {
+        if ((line < 0) || (line >= getLineCount())) {
+            throw new IndexOutOfBoundsException("Line count is " +
+                getLineCount() + ", requested line " + line);
+        }
+    }
+
+    /**
+     * Find the position of a line break.
+     *
+     * @param n which line break, 0-based
+     * @return the position
+     */
+    private int newlinePosition(final int n) {
+        int result = 0;
+        int k = n;
+        Node node = root;
+        for (;;) {
+            int leftLines = lines(node.left);
+            if (k < leftLines) {
+                node = node.left;
+                continue;
+            }
+            k -= leftLines;
+            result += size(node.left);
+            if (k < node.newlines) {
+                Buffer buffer = node.buffer;
+                int i = buffer.newlinesBefore(node.start) + k;
+                return result + buffer.newlines[i] - node.start;
+            }
+            k -= node.newlines;
+            result += node.length;
+            node = node.right;
+        }
+    }
+
+    /**
+     * Get the number of characters in a subtree.
+     *
+     * @param node the subtree, may be null
+     * @return the number of characters
+     */
+    private static int size(final Node node) {
+        return (node == null ? 0 : node.size);
+    }
+
+    /**
+     * Get the number of line breaks in a subtree.
+     *
+     * @param node the subtree, may be null
+     * @return the number of line breaks
+     */
+    private static int lines(final Node node) {
+        return (node == null ? 0 : node.lines);
+    }
+
+    /**
+     * Append part of a subtree's text to a StringBuilder.
+     *
+     * @param node the subtree
+     * @param start the first position in the subtree to append
+     * @param end one past the last position in the subtree to append
+     * @param sb the StringBuilder
+     */
+    private static void appendText(final Node node, final int start,
+        final int end, final StringBuilder sb) {
+
+        if ((node == null) || (start >= end)) {
+            return;
+        }
+        int leftSize = size(node.left);
+        if (start < leftSize) {
+            appendText(node.left, start, Math.min(end, leftSize), sb);
+        }
+        int pieceStart = Math.max(start, leftSize) - leftSize;
+        int pieceEnd = Math.min(end, leftSize + node.length) - leftSize;
+        if (pieceStart < pieceEnd) {
+            sb.append(node.buffer.text, node.start + pieceStart,
+                node.start + pieceEnd);
+        }
+        int rightStart = leftSize + node.length;
+        if (end > rightStart) {
+            appendText(node.right, Math.max(start - rightStart, 0),
+                end - rightStart, sb);
+        }
+    }
+
+    /**
+     * Copy part of a subtree's text into an array.
+     *
+     * @param node the subtree
+     * @param start the first position in the subtree to copy
+     * @param end one past the last position in the subtree to copy
+     * @param dst the array to copy into
+     * @param dstBegin the index in dst for the character at start
+     */
+    private static void copyChars(final Node node, final int start,
+        final int end, final char [] dst, final int dstBegin) {
+
+        if ((node == null) || (start >= end)) {
+            return;
+        }
+        int leftSize = size(node.left);
+        if (start < leftSize) {
+            copyChars(node.left, start, Math.min(end, leftSize), dst,
+                dstBegin);
+        }
+        int pieceStart = Math.max(start, leftSize) - leftSize;
+        int pieceEnd = Math.min(end, leftSize + node.length) - leftSize;
+        if (pieceStart < pieceEnd) {
+            node.buffer.getChars(node.start + pieceStart,
+                node.start + pieceEnd, dst,
+                dstBegin + leftSize + pieceStart - start);
+        }
+        int rightStart = leftSize + node.length;
+        if (end > rightStart) {
+            copyChars(node.right, Math.max(start - rightStart, 0),
+                end - rightStart, dst,
+                dstBegin + Math.max(rightStart - start, 0));
+        }
+    }
+
+    /**
+     * Split a subtree in two.
+     *
+     * @param node the subtree
+     * @param pos the number of characters to put in the first part
+     * @return the two parts
+     */
+    private static Node [] split(final Node node, final int pos) {
+        if (node == null) {
+            return new Node[] { null, null };
+        }
+        int leftSize = size(node.left);
+        if (pos <= leftSize) {
+            Node [] parts = split(node.left, pos);
+            return new Node[] { parts[0], node.with(parts[1], node.right) };
+        }
+        if (pos >= leftSize + node.length) {
+            Node [] parts = split(node.right, pos - leftSize - node.length);
+            return new Node[] { node.with(node.left, parts[0]), parts[1] };
+        }
+
+        // The split is inside this piece.  Both halves keep the priority,
+        // which is still at least that of everything under them.
+        int n = pos - leftSize;
+        return new Node[] {
+            new Node(node.buffer, node.start, n, node.priority,
+                node.left, null),
+            new Node(node.buffer, node.start + n, node.length - n,
+                node.priority, null, node.right)
+        };
+    }
+
+    /**
+     * Join two subtrees.
+     *
+     * @param first the subtree with the first part of the text
+     * @param second the subtree with the second part of the text
+     * @return the joined tree
+     */
+    private static Node merge(final Node first, final Node second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        if (first.priority >= second.priority) {
+            return first.with(first.left, merge(first.right, second));
+        }
+        return second.with(merge(first, second.left), second.right);
+    }
+
+    /**
+     * Lengthen the last piece of a subtree if the new text was appended
+     * to the added buffer right after it, as happens while typing.
+     *
+     * @param node the subtree
+     * @param start the position of the new text in the added buffer
+     * @param length the length of the new text
+     * @return the new subtree, or null if the last piece is not right
+     * before the new text
+     */
+    private Node extendLast(final Node node, final int start,
+        final int length) {
+
+        if (node == null) {
+            return null;
+        }
+        if (node.right != null) {
+            Node right = extendLast(node.right, start, length);
+            if (right == null) {
+                return null;
+            }
+            return node.with(node.left, right);
+        }
+        if ((node.buffer != added) || (node.start + node.length != start)) {
+            return null;
+        }
+        return new Node(added, node.start, node.length + length,
+            node.priority, node.left, null);
+    }
+
+}
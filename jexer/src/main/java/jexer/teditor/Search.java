@@ -0,0 +1,778 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2025 Autumn Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Autumn Lamonte ♥
+ * @version 1
+ */
+package jexer.teditor;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jexer.bits.StringUtils;
+
+/**
+ * Search finds a literal string or a regular expression in a Document.
+ * Literal strings are found with Boyer-Moore-Horspool.  Matches never
+ * span lines, and empty matches are ignored.
+ *
+ * The text is read in chunks of whole lines copied straight out of the
+ * document's PieceTable, so searching never builds the whole text as one
+ * String.  A search for the next match can be run a step at a time,
+ * each step reading a bounded amount of text, and cancelled between
+ * steps.
+ */
+public class Search {
+
+    // ------------------------------------------------------------------------
+    // Constants --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The number of characters read from the document at a time.  A chunk
+     * is always whole lines, so it is longer if one line is.
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The result of scanning for a match.
+     */
+    private enum Scan {
+        /**
+         * A match was found.
+         */
+        FOUND,
+
+        /**
+         * The end of the text was reached.
+         */
+        END,
+
+        /**
+         * The step ran out of characters to read.
+         */
+        MORE,
+    }
+
+    // ------------------------------------------------------------------------
+    // Variables --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The text to search for.
+     */
+    private final String pattern;
+
+    /**
+     * If true, pattern is a regular expression.
+     */
+    private final boolean regex;
+
+    /**
+     * If true, letter case must match.
+     */
+    private final boolean matchCase;
+
+    /**
+     * The literal pattern, lowercased if case does not matter.  Empty if
+     * the pattern can never match.
+     */
+    private char [] needle;
+
+    /**
+     * How far the Boyer-Moore-Horspool search can skip, by the low byte of
+     * the text character under the end of the needle.
+     */
+    private int [] skips;
+
+    /**
+     * The compiled regular expression.
+     */
+    private Pattern compiled;
+
+    /**
+     * The matcher used on chunks.
+     */
+    private Matcher matcher;
+
+    /**
+     * The matcher used on single lines for highlighting.
+     */
+    private Matcher lineMatcher;
+
+    /**
+     * The chunk of text being searched.
+     */
+    private char [] chunk = new char[CHUNK_SIZE];
+
+    /**
+     * The chunk as a CharSequence for the matcher.
+     */
+    private CharBuffer chunkSequence = CharBuffer.wrap(chunk);
+
+    /**
+     * The position in the text of the chunk.
+     */
+    private int chunkStart = 0;
+
+    /**
+     * The number of characters in the chunk.
+     */
+    private int chunkLength = 0;
+
+    /**
+     * Where in the chunk to look for the next match.
+     */
+    private int chunkFrom = 0;
+
+    /**
+     * The chunk index of the start of the last match.
+     */
+    private int foundStart;
+
+    /**
+     * The chunk index one past the end of the last match.
+     */
+    private int foundEnd;
+
+    /**
+     * The document for the current find.
+     */
+    private Document document;
+
+    /**
+     * The document's modification count when the current find started.
+     */
+    private long modifications;
+
+    /**
+     * The position the current find started from.
+     */
+    private int origin;
+
+    /**
+     * If true, the current find has reached the end of the text and gone
+     * on from the top.
+     */
+    private boolean wrapped;
+
+    /**
+     * If true, the current find has finished.
+     */
+    private boolean done = true;
+
+    /**
+     * If true, the current find was cancelled.
+     */
+    private boolean cancelled = false;
+
+    /**
+     * If true, the last find ended on a match.
+     */
+    private boolean found = false;
+
+    /**
+     * The position of the match in the text.
+     */
+    private int matchStart = -1;
+
+    /**
+     * The position one past the end of the match in the text.
+     */
+    private int matchEnd = -1;
+
+    /**
+     * The line number of the match.  0-based.
+     */
+    private int matchLine = -1;
+
+    /**
+     * The display column of the start of the match.
+     */
+    private int matchColumn = -1;
+
+    /**
+     * The display column one past the end of the match.
+     */
+    private int matchEndColumn = -1;
+
+    // ------------------------------------------------------------------------
+    // Constructors -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Public constructor.
+     *
+     * @param pattern the text to search for
+     * @param regex if true, pattern is a regular expression
+     * @param matchCase if true, letter case must match
+     * @throws java.util.regex.PatternSyntaxException if regex is true and
+     * pattern is not a valid regular expression
+     */
+    public Search(final String pattern, final boolean regex,
+        final boolean matchCase) {
+
+        this.pattern = pattern;
+        this.regex = regex;
+        this.matchCase = matchCase;
+
+        if (regex) {
+            // Matches never span lines, so ^ and $ are line bounds.
+            int flags = Pattern.MULTILINE | Pattern.UNIX_LINES;
+            if (!matchCase) {
+                flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+            }
+            compiled = Pattern.compile(pattern, flags);
+            matcher = compiled.matcher(chunkSequence);
+            matcher.useTransparentBounds(true);
+            matcher.useAnchoringBounds(false);
+            lineMatcher = compiled.matcher("");
+            return;
+        }
+
+        if (pattern.indexOf('\n') != -1) {
+            // Matches never span lines.
+            needle = new char[0];
+        } else {
+            needle = new char[pattern.length()];
+            for (int i = 0; i < needle.length; i++) {
+                needle[i] = fold(pattern.charAt(i));
+            }
+        }
+        skips = new int[256];
+        Arrays.fill(skips, Math.max(needle.length, 1));
+        for (int i = 0; i < needle.length - 1; i++) {
+            // Characters that share a low byte get the smallest skip.
+            skips[needle[i] & 0xFF] = needle.length - 1 - i;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Search -----------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Get the text searched for.
+     *
+     * @return the pattern
+     */
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Check if the pattern is a regular expression.
+     *
+     * @return true if the pattern is a regular expression
+     */
+    public boolean isRegex() {
+        return regex;
+    }
+
+    /**
+     * Check if letter case must match.
+     *
+     * @return true if letter case must match
+     */
+    public boolean isMatchCase() {
+        return matchCase;
+    }
+
+    /**
+     * Check if this search can never match anything.
+     *
+     * @return true if the pattern is empty
+     */
+    public boolean isEmpty() {
+        return (regex ? pattern.isEmpty() : (needle.length == 0));
+    }
+
+    /**
+     * Begin finding the first match at or after a position.  Call step()
+     * until it returns true.  If there is no match after the position, the
+     * find goes on from the top of the document.
+     *
+     * @param document the document to search
+     * @param position the position in the text to start from
+     */
+    public void start(final Document document, final int position) {
+        PieceTable text = document.getPieceTable();
+        this.document = document;
+        modifications = document.getModifications();
+        origin = Math.max(0, Math.min(position, text.length()));
+        wrapped = false;
+        done = isEmpty();
+        cancelled = false;
+        found = false;
+        rewind(text, origin);
+    }
+
+    /**
+     * Run the current find for a while.
+     *
+     * @param maxChars about the most characters of text to read before
+     * returning
+     * @return true if the find has finished, by finding a match, finding
+     * that there is none, or being cancelled.  A find is cancelled if the
+     * document was edited since it started.
+     */
+    public boolean step(final int maxChars) {
+        if (!done && (document.getModifications() != modifications)) {
+            // The text read so far is out of date.
+            cancelled = true;
+        }
+        if (done || cancelled) {
+            return true;
+        }
+        PieceTable text = document.getPieceTable();
+        switch (scan(text, maxChars)) {
+        case FOUND:
+            int start = chunkStart + foundStart;
+            if (!wrapped || (start < origin)) {
+                setMatch(text, start, chunkStart + foundEnd);
+            }
+            done = true;
+            return true;
+        case END:
+            if (!wrapped && (origin > 0)) {
+                wrapped = true;
+                rewind(text, 0);
+                return false;
+            }
+            done = true;
+            return true;
+        case MORE:
+        default:
+            if (wrapped && (chunkStart > origin)) {
+                // Everything has been searched.
+                done = true;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Stop the current find.  step() will return true without finding
+     * anything.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Check if the current find has finished.
+     *
+     * @return true if step() has nothing more to do
+     */
+    public boolean isDone() {
+        return (done || cancelled);
+    }
+
+    /**
+     * Check if the last find ended on a match.
+     *
+     * @return true if there is a match
+     */
+    public boolean isFound() {
+        return found;
+    }
+
+    /**
+     * Get the position of the match in the text.
+     *
+     * @return the position of the first matching character
+     */
+    public int getMatchStart() {
+        return matchStart;
+    }
+
+    /**
+     * Get the position of the end of the match in the text.
+     *
+     * @return the position one past the last matching character
+     */
+    public int getMatchEnd() {
+        return matchEnd;
+    }
+
+    /**
+     * Get the line the match is on.
+     *
+     * @return the line number.  0-based.
+     */
+    public int getMatchLine() {
+        return matchLine;
+    }
+
+    /**
+     * Get the display column where the match starts.
+     *
+     * @return the column.  0-based.
+     */
+    public int getMatchColumn() {
+        return matchColumn;
+    }
+
+    /**
+     * Get the display column just past the end of the match.
+     *
+     * @return the column.  0-based.
+     */
+    public int getMatchEndColumn() {
+        return matchEndColumn;
+    }
+
+    /**
+     * Find the matches in one line, for highlighting.
+     *
+     * @param line the text of the line
+     * @return the display columns where each match starts and ends, in
+     * pairs: start, one past the end
+     */
+    public int [] findColumns(final String line) {
+        int [] bounds = new int[0];
+        int count = 0;
+        if (isEmpty()) {
+            return bounds;
+        }
+        if (regex) {
+            lineMatcher.reset(line);
+            while (lineMatcher.find()) {
+                if (lineMatcher.end() > lineMatcher.start()) {
+                    if (count + 2 > bounds.length) {
+                        bounds = Arrays.copyOf(bounds, count * 2 + 8);
+                    }
+                    bounds[count++] = lineMatcher.start();
+                    bounds[count++] = lineMatcher.end();
+                }
+            }
+            lineMatcher.reset("");
+        } else {
+            char [] chars = line.toCharArray();
+            int from = 0;
+            int start;
+            while ((start = indexOf(chars, from, chars.length)) != -1) {
+                if (count + 2 > bounds.length) {
+                    bounds = Arrays.copyOf(bounds, count * 2 + 8);
+                }
+                bounds[count++] = start;
+                bounds[count++] = start + needle.length;
+                from = start + needle.length;
+            }
+        }
+
+        // Turn character indexes into display columns.
+        int [] columns = new int[count];
+        int x = 0;
+        int i = 0;
+        for (int j = 0; j < count; j++) {
+            while (i < bounds[j]) {
+                int ch = line.codePointAt(i);
+                x += StringUtils.width(ch);
+                i += Character.charCount(ch);
+            }
+            columns[j] = x;
+        }
+        return columns;
+    }
+
+    /**
+     * Move the scan to a position in the text.  Note package private
+     * access.
+     *
+     * @param text the text
+     * @param pos the position to scan from
+     */
+    void rewind(final PieceTable text, final int pos) {
+        loadChunk(text, text.getLineStart(text.getLineNumber(pos)));
+        chunkFrom = pos - chunkStart;
+    }
+
+    /**
+     * Scan on to the next match, reading as much text as it takes.  Note
+     * package private access.
+     *
+     * @param text the text
+     * @return true if a match was found, false if the end of the text was
+     * reached
+     */
+    boolean nextMatch(final PieceTable text) {
+        return (scan(text, Integer.MAX_VALUE) == Scan.FOUND);
+    }
+
+    /**
+     * Get the position of the match found by nextMatch().  Note package
+     * private access.
+     *
+     * @return the position in the text
+     */
+    int getFoundStart() {
+        return chunkStart + foundStart;
+    }
+
+    /**
+     * Get the end of the match found by nextMatch().  Note package private
+     * access.
+     *
+     * @return the position in the text one past the match
+     */
+    int getFoundEnd() {
+        return chunkStart + foundEnd;
+    }
+
+    /**
+     * Get the text to replace the match found by nextMatch() with.  For a
+     * regular expression, $n and ${name} are replaced by groups of the
+     * match and a backslash quotes the next character, as in
+     * Matcher.appendReplacement().  Note package private access.
+     *
+     * @param replacement the replacement pattern
+     * @return the replacement text
+     * @throws IllegalArgumentException if the replacement names a group
+     * that does not exist
+     */
+    String getReplacement(final String replacement) {
+        if (!regex) {
+            return replacement;
+        }
+        StringBuilder sb = new StringBuilder(replacement.length());
+        for (int i = 0; i < replacement.length(); i++) {
+            char ch = replacement.charAt(i);
+            if ((ch == '\\') && (i + 1 < replacement.length())) {
+                i++;
+                sb.append(replacement.charAt(i));
+                continue;
+            }
+            if ((ch != '$') || (i + 1 == replacement.length())) {
+                sb.append(ch);
+                continue;
+            }
+            String group = null;
+            char next = replacement.charAt(i + 1);
+            if (next == '{') {
+                int close = replacement.indexOf('}', i + 2);
+                if (close == -1) {
+                    throw new IllegalArgumentException("Missing } in "
+                        + replacement);
+                }
+                group = matcher.group(replacement.substring(i + 2, close));
+                i = close;
+            } else if (Character.isDigit(next)) {
+                // Take as many digits as still name a group.
+                int number = next - '0';
+                i++;
+                while ((i + 1 < replacement.length())
+                    && Character.isDigit(replacement.charAt(i + 1))
+                    && (number * 10 + replacement.charAt(i + 1) - '0'
+                        <= matcher.groupCount())
+                ) {
+                    number = number * 10 + replacement.charAt(i + 1) - '0';
+                    i++;
+                }
+                if (number > matcher.groupCount()) {
+                    throw new IllegalArgumentException("No group " + number);
+                }
+                group = matcher.group(number);
+            } else {
+                sb.append(ch);
+                continue;
+            }
+            if (group != null) {
+                sb.append(group);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Scan for the next match from the scan position.
+     *
+     * @param text the text
+     * @param maxChars about the most characters to read before returning
+     * @return FOUND, END, or MORE
+     */
+    private Scan scan(final PieceTable text, final int maxChars) {
+        int scanned = 0;
+        for (;;) {
+            if (find(chunkFrom)) {
+                chunkFrom = foundEnd;
+                return Scan.FOUND;
+            }
+            chunkFrom = chunkLength;
+            int next = chunkStart + chunkLength + 1;
+            if (next > text.length()) {
+                return Scan.END;
+            }
+            loadChunk(text, next);
+            chunkFrom = 0;
+            scanned += chunkLength + 1;
+            if (scanned >= maxChars) {
+                return Scan.MORE;
+            }
+        }
+    }
+
+    /**
+     * Read whole lines of text into the chunk.
+     *
+     * @param text the text
+     * @param pos the position of the start of the first line
+     */
+    private void loadChunk(final PieceTable text, final int pos) {
+        int end = Math.min(pos + CHUNK_SIZE, text.length());
+        end = text.getLineEnd(text.getLineNumber(end));
+        if (end - pos > chunk.length) {
+            chunk = new char[end - pos];
+            chunkSequence = CharBuffer.wrap(chunk);
+        }
+        text.getChars(pos, end, chunk, 0);
+        chunkStart = pos;
+        chunkLength = end - pos;
+        if (regex) {
+            matcher.reset(chunkSequence);
+        }
+    }
+
+    /**
+     * Find the first match in the chunk that starts at or after an index.
+     *
+     * @param from the chunk index
+     * @return true if a match was found, in which case foundStart and
+     * foundEnd are set
+     */
+    private boolean find(final int from) {
+        if (!regex) {
+            foundStart = indexOf(chunk, from, chunkLength);
+            foundEnd = foundStart + needle.length;
+            return (foundStart != -1);
+        }
+
+        // Match against the rest of the chunk, and only look again within
+        // one line if the match ran past the end of it.  The bounds are
+        // transparent and not anchoring, so both see the same text around
+        // them, and a match found within the line is the first there is.
+        int pos = from;
+        while (pos <= chunkLength) {
+            matcher.region(pos, chunkLength);
+            if (!findNonEmpty()) {
+                return false;
+            }
+            // Look for a line break inside the match only, a long line
+            // with many matches must not be scanned to its end each time.
+            int lineEnd = matcher.start();
+            while ((lineEnd < matcher.end()) && (chunk[lineEnd] != '\n')) {
+                lineEnd++;
+            }
+            if (lineEnd == matcher.end()) {
+                foundStart = matcher.start();
+                foundEnd = matcher.end();
+                return true;
+            }
+            matcher.region(matcher.start(), lineEnd);
+            if (findNonEmpty()) {
+                foundStart = matcher.start();
+                foundEnd = matcher.end();
+                return true;
+            }
+            pos = lineEnd + 1;
+        }
+        return false;
+    }
+
+    /**
+     * Find the next match in the matcher's region that is not empty.
+     *
+     * @return true if there was one
+     */
+    private boolean findNonEmpty() {
+        while (matcher.find()) {
+            if (matcher.end() > matcher.start()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the literal pattern with Boyer-Moore-Horspool.
+     *
+     * @param text the characters to search
+     * @param from the index to start at
+     * @param to the index to stop at
+     * @return the index of the first match, or -1
+     */
+    private int indexOf(final char [] text, final int from, final int to) {
+        int last = needle.length - 1;
+        if (last < 0) {
+            return -1;
+        }
+        int i = from;
+        while (i + last < to) {
+            int j = last;
+            while (fold(text[i + j]) == needle[j]) {
+                if (j == 0) {
+                    return i;
+                }
+                j--;
+            }
+            i += skips[fold(text[i + last]) & 0xFF];
+        }
+        return -1;
+    }
+
+    /**
+     * Fold a character for comparing.
+     *
+     * @param ch the character
+     * @return the character, lowercased if case does not matter
+     */
+    private char fold(final char ch) {
+        return (matchCase ? ch : Character.toLowerCase(ch));
+    }
+
+    /**
+     * Record a match found by the current find.
+     *
+     * @param text the text
+     * @param start the position of the match
+     * @param end the position one past the match
+     */
+    private void setMatch(final PieceTable text, final int start,
+        final int end) {
+
+        found = true;
+        matchStart = start;
+        matchEnd = end;
+        matchLine = text.getLineNumber(start);
+        matchColumn = StringUtils.width(text.getText(
+            text.getLineStart(matchLine), start));
+        matchEndColumn = matchColumn + StringUtils.width(text.getText(start,
+                end));
+    }
+
+}
@@ -0,0 +1,463 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2025 Autumn Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Autumn Lamonte ♥
+ * @version 1
+ */
+package jexer.teditor;
+
+import java.util.ArrayList;
+
+/**
+ * UndoJournal records the edits made to a Document as the text each one
+ * removed and inserted, rather than as copies of the document.  Edits are
+ * grouped into units, one per user action, that are undone and redone
+ * together; consecutive typing is grouped into one unit per word.
+ *
+ * The journal is bounded both by a number of units and by the number of
+ * characters it holds, whichever is reached first.  The oldest units are
+ * forgotten to stay within the limits.
+ */
+public class UndoJournal {
+
+    // ------------------------------------------------------------------------
+    // Constants --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The default maximum number of characters held by the journal.
+     */
+    public static final int DEFAULT_MAX_CHARS = 4 * 1024 * 1024;
+
+    /**
+     * The number of characters each edit is charged on top of its text,
+     * for the objects that hold it.
+     */
+    private static final int EDIT_OVERHEAD = 32;
+
+    /**
+     * Deletions by backspace are merged by prepending, so stop merging
+     * them past this length to keep that cheap.
+     */
+    private static final int MAX_PREPEND = 256;
+
+    // ------------------------------------------------------------------------
+    // Variables --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The units, oldest first.  Units from index applied on were undone and
+     * can be redone.
+     */
+    private ArrayList<Unit> units = new ArrayList<Unit>();
+
+    /**
+     * The number of units that are currently applied to the document.
+     */
+    private int applied = 0;
+
+    /**
+     * The maximum number of units, or 0 for no limit.
+     */
+    private int maxUnits;
+
+    /**
+     * The maximum number of characters held.
+     */
+    private int maxChars;
+
+    /**
+     * The number of characters held, including the per-edit overhead.
+     */
+    private long chars = 0;
+
+    /**
+     * One change to the text: at position, removed was replaced by
+     * inserted.
+     */
+    private static class Edit {
+
+        /**
+         * The position of the change in the text.
+         */
+        public int position;
+
+        /**
+         * The text that was removed.
+         */
+        public StringBuilder removed;
+
+        /**
+         * The text that was inserted.
+         */
+        public StringBuilder inserted;
+
+        /**
+         * Public constructor.
+         *
+         * @param position the position of the change
+         * @param removed the text that was removed
+         * @param inserted the text that was inserted
+         */
+        public Edit(final int position, final String removed,
+            final String inserted) {
+
+            this.position = position;
+            this.removed = new StringBuilder(removed);
+            this.inserted = new StringBuilder(inserted);
+        }
+
+    }
+
+    /**
+     * The edits of one user action, and where the cursor and view were
+     * before it.
+     */
+    public static class Unit {
+
+        /**
+         * The edits, in the order they were made.
+         */
+        private ArrayList<Edit> edits = new ArrayList<Edit>(1);
+
+        /**
+         * The document line number before the action.
+         */
+        private int lineNumber;
+
+        /**
+         * The cursor column before the action.
+         */
+        private int cursor;
+
+        /**
+         * The topmost visible line before the action.
+         */
+        private int topLine;
+
+        /**
+         * The leftmost visible column before the action.
+         */
+        private int leftColumn;
+
+        /**
+         * If true, this unit is typing that later keystrokes can add to.
+         */
+        private boolean typing;
+
+        /**
+         * The last character typed into this unit.
+         */
+        private int lastTyped = -1;
+
+        /**
+         * The number of characters held by this unit.
+         */
+        private long chars = 0;
+
+        /**
+         * Private constructor, only UndoJournal makes units.
+         */
+        private Unit() {
+        }
+
+        /**
+         * Get the topmost visible line from before the action.
+         *
+         * @return the line number.  0-based.
+         */
+        public int getTopLine() {
+            return topLine;
+        }
+
+        /**
+         * Get the leftmost visible column from before the action.
+         *
+         * @return the column number.  0-based.
+         */
+        public int getLeftColumn() {
+            return leftColumn;
+        }
+
+        /**
+         * Get the text position just after the last edit.
+         *
+         * @return the position, or -1 if there are no edits
+         */
+        private int getEnd() {
+            if (edits.size() == 0) {
+                return -1;
+            }
+            Edit edit = edits.get(edits.size() - 1);
+            return edit.position + edit.inserted.length();
+        }
+
+    }
+
+    // ------------------------------------------------------------------------
+    // Constructors -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Public constructor.
+     *
+     * @param maxUnits the maximum number of units, or 0 for no limit
+     * @param maxChars the maximum number of characters to hold
+     */
+    public UndoJournal(final int maxUnits, final int maxChars) {
+        this.maxUnits = maxUnits;
+        this.maxChars = maxChars;
+    }
+
+    // ------------------------------------------------------------------------
+    // UndoJournal ------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Set the maximum number of units.
+     *
+     * @param maxUnits the maximum number of units, or 0 for no limit
+     */
+    public void setMaxUnits(final int maxUnits) {
+        this.maxUnits = maxUnits;
+        trim();
+    }
+
+    /**
+     * Forget everything.
+     */
+    public void clear() {
+        units.clear();
+        applied = 0;
+        chars = 0;
+    }
+
+    /**
+     * Begin a new unit for an action that is about to edit the document.
+     *
+     * @param document the document
+     * @param topLine the topmost visible line
+     * @param leftColumn the leftmost visible column
+     */
+    public void begin(final Document document, final int topLine,
+        final int leftColumn) {
+
+        beginUnit(document, topLine, leftColumn, false);
+    }
+
+    /**
+     * Begin a unit for typing one character.  If the previous unit was
+     * typing that ended at the cursor, the character is added to it
+     * instead, unless it starts a new word.
+     *
+     * @param document the document
+     * @param topLine the topmost visible line
+     * @param leftColumn the leftmost visible column
+     * @param ch the character about to be typed
+     */
+    public void beginTyping(final Document document, final int topLine,
+        final int leftColumn, final int ch) {
+
+        dropRedo();
+        if (applied > 0) {
+            Unit last = units.get(applied - 1);
+            if (last.typing
+                && (last.getEnd() == document.getPosition())
+                && !(Character.isWhitespace(last.lastTyped)
+                    && !Character.isWhitespace(ch))
+            ) {
+                last.lastTyped = ch;
+                return;
+            }
+        }
+        beginUnit(document, topLine, leftColumn, true);
+        units.get(applied - 1).lastTyped = ch;
+    }
+
+    /**
+     * Record an edit.  Called by Document before it changes the text.
+     *
+     * @param document the document
+     * @param position the position of the change in the text
+     * @param removed the text about to be removed
+     * @param inserted the text about to be inserted
+     */
+    void record(final Document document, final int position,
+        final String removed, final String inserted) {
+
+        if ((applied == 0) || (applied < units.size())) {
+            // Nobody began a unit for this edit.
+            beginUnit(document, 0, 0, false);
+        }
+        Unit unit = units.get(applied - 1);
+        long before = unit.chars;
+        boolean merged = false;
+        if (unit.edits.size() > 0) {
+            Edit last = unit.edits.get(unit.edits.size() - 1);
+            if ((last.removed.length() == 0) && (removed.length() == 0)
+                && (position == last.position + last.inserted.length())
+            ) {
+                // Typing forwards.
+                last.inserted.append(inserted);
+                unit.chars += inserted.length();
+                merged = true;
+            } else if ((last.inserted.length() == 0)
+                && (inserted.length() == 0)
+                && (position == last.position)
+            ) {
+                // Deleting forwards.
+                last.removed.append(removed);
+                unit.chars += removed.length();
+                merged = true;
+            } else if ((last.inserted.length() == 0)
+                && (inserted.length() == 0)
+                && (position + removed.length() == last.position)
+                && (last.removed.length() < MAX_PREPEND)
+            ) {
+                // Deleting backwards.
+                last.removed.insert(0, removed);
+                last.position = position;
+                unit.chars += removed.length();
+                merged = true;
+            }
+        }
+        if (!merged) {
+            unit.edits.add(new Edit(position, removed, inserted));
+            unit.chars += removed.length() + inserted.length() + EDIT_OVERHEAD;
+        }
+        chars += unit.chars - before;
+        trim();
+    }
+
+    /**
+     * Undo the most recent unit that is applied.
+     *
+     * @param document the document
+     * @return the unit that was undone, or null if there was nothing to
+     * undo
+     */
+    public Unit undo(final Document document) {
+        while ((applied > 0) && (units.get(applied - 1).edits.size() == 0)) {
+            // An action that did not change anything.
+            applied--;
+            chars -= units.remove(applied).chars;
+        }
+        if (applied == 0) {
+            return null;
+        }
+        Unit unit = units.get(--applied);
+        for (int i = unit.edits.size() - 1; i >= 0; i--) {
+            Edit edit = unit.edits.get(i);
+            document.applyEdit(edit.position, edit.inserted.length(),
+                edit.removed.toString());
+        }
+        document.setLineNumber(Math.min(unit.lineNumber,
+                document.getLineCount() - 1));
+        document.setCursor(Math.max(unit.cursor, 0));
+        return unit;
+    }
+
+    /**
+     * Redo the most recent unit that was undone.
+     *
+     * @param document the document
+     * @return the unit that was redone, or null if there was nothing to
+     * redo
+     */
+    public Unit redo(final Document document) {
+        if (applied == units.size()) {
+            return null;
+        }
+        Unit unit = units.get(applied++);
+        for (Edit edit: unit.edits) {
+            document.applyEdit(edit.position, edit.removed.length(),
+                edit.inserted.toString());
+        }
+        document.setPosition(unit.getEnd());
+        return unit;
+    }
+
+    /**
+     * Begin a new unit.
+     *
+     * @param document the document
+     * @param topLine the topmost visible line
+     * @param leftColumn the leftmost visible column
+     * @param typing if true, this unit is typing
+     */
+    private void beginUnit(final Document document, final int topLine,
+        final int leftColumn, final boolean typing) {
+
+        dropRedo();
+        Unit unit = null;
+        if (applied > 0) {
+            unit = units.get(applied - 1);
+            if (unit.edits.size() > 0) {
+                // The previous unit is finished, let go of its slack.
+                for (Edit edit: unit.edits) {
+                    edit.removed.trimToSize();
+                    edit.inserted.trimToSize();
+                }
+                unit = null;
+            }
+        }
+        if (unit == null) {
+            unit = new Unit();
+            units.add(unit);
+            applied++;
+        }
+        unit.lineNumber = document.getLineNumber();
+        unit.cursor = document.getCursor();
+        unit.topLine = topLine;
+        unit.leftColumn = leftColumn;
+        unit.typing = typing;
+        trim();
+    }
+
+    /**
+     * Forget the units that were undone, because the document is about to
+     * be edited differently.
+     */
+    private void dropRedo() {
+        while (units.size() > applied) {
+            chars -= units.remove(units.size() - 1).chars;
+        }
+    }
+
+    /**
+     * Forget the oldest units until the journal is within its limits.  The
+     * newest unit is always kept.
+     */
+    private void trim() {
+        while ((applied > 1)
+            && (((maxUnits > 0) && (units.size() > maxUnits))
+                || (chars > maxChars))
+        ) {
+            chars -= units.remove(0).chars;
+            applied--;
+        }
+    }
+
+}
@@ -35,9 +35,9 @@ import jexer.bits.StringUtils;
  * A Word represents text that was entered by the user.  It can be either
  * whitespace or non-whitespace.
  *
- * Very dumb highlighting is supported, it has no sense of parsing (not even
- * comments).  For now this only highlights some Java keywords and
- * puctuation.
+ * Highlighted words are made by Highlighter, which knows about comments
+ * and strings.  Words made one character at a time only split at
+ * whitespace and punctuation.
  */
 public class Word {
 
@@ -46,7 +46,8 @@ public class Word {
     // ------------------------------------------------------------------------
 
     /**
-     * The color to render this word as on screen.
+     * The color to render this word as on screen.  This may be shared with
+     * other words, so it is never changed.
      */
     private CellAttributes color = new CellAttributes();
 
@@ -98,6 +99,19 @@ public class Word {
         this.highlighter = highlighter;
     }
 
+    /**
+     * Construct a word that has already been highlighted.  Note package
+     * private access.
+     *
+     * @param text the text of the word
+     * @param color the color of the word
+     */
+    Word(final String text, final CellAttributes color) {
+        this.text.append(text);
+        this.color = color;
+        this.defaultColor = color;
+    }
+
     // ------------------------------------------------------------------------
     // Word -------------------------------------------------------------------
     // ------------------------------------------------------------------------
@@ -158,14 +172,14 @@ public class Word {
      * Perform highlighting.
      */
     public void applyHighlight() {
-        color.setTo(defaultColor);
+        color = defaultColor;
         if (highlighter == null) {
             return;
         }
         String key = text.toString();
         CellAttributes newColor = highlighter.getColor(key);
         if (newColor != null) {
-            color.setTo(newColor);
+            color = newColor;
         }
     }
 
@@ -29,6 +29,7 @@
 package jexer.tterminal;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import jexer.bits.Cell;
 import jexer.bits.CellAttributes;
@@ -42,15 +43,61 @@ public class DisplayLine {
     // Constants --------------------------------------------------------------
     // ------------------------------------------------------------------------
 
+    /**
+     * Packed run bits 40-41: the Cell.Width ordinal.
+     */
+    private static final int WIDTH_SHIFT        = 40;
+
+    /**
+     * Packed run bits 48-63: the index one past the last cell of the run.
+     */
+    private static final int END_SHIFT          = 48;
+
+    /**
+     * The longest line that can be packed.
+     */
+    private static final int MAX_PACKED_LENGTH  = 0xFFFF;
+
+    /**
+     * The Cell.Width values, indexed by ordinal.
+     */
+    private static final Cell.Width [] WIDTHS   = Cell.Width.values();
+
     // ------------------------------------------------------------------------
     // Variables --------------------------------------------------------------
     // ------------------------------------------------------------------------
 
     /**
-     * The characters/attributes of the line.
+     * The characters/attributes of the line.  Null if the line is packed.
      */
     private ArrayList<Cell> chars = new ArrayList<Cell>();
 
+    /**
+     * The characters of a packed line, one char per cell, if they are all
+     * in the Basic Multilingual Plane.  Strings of Latin-1 characters use
+     * one byte per char.
+     */
+    private String packedText;
+
+    /**
+     * The characters of a packed line, one code point per cell, if any of
+     * them are outside the Basic Multilingual Plane.
+     */
+    private int [] packedCodePoints;
+
+    /**
+     * The attributes of a packed line as runs of identical cells, two
+     * longs per run: the packed flags/colors, width, and end of the run;
+     * then the foreground RGB in the high 32 bits and the background RGB in
+     * the low 32 bits.
+     */
+    private long [] packedRuns;
+
+    /**
+     * The number of cells in a packed line.
+     */
+    private int packedLength;
+
     /**
      * Double-width line flag.
      */
@@ -78,6 +125,12 @@ public class DisplayLine {
      */
     private CellAttributes attr;
 
+    /**
+     * Incremented on every change, so that a copy can tell if it is still
+     * the same as the line it was made from.
+     */
+    private long version = 0;
+
     // ------------------------------------------------------------------------
     // Constructors -----------------------------------------------------------
     // ------------------------------------------------------------------------
@@ -88,13 +141,25 @@ public class DisplayLine {
      * @param line the line to duplicate
      */
     public DisplayLine(final DisplayLine line) {
-        for (Cell cell: line.chars) {
-            chars.add(new Cell(cell));
+        if (line.chars == null) {
+            // Packed lines are never modified, only replaced by unpack(),
+            // so they can be shared.
+            chars = null;
+            packedText = line.packedText;
+            packedCodePoints = line.packedCodePoints;
+            packedRuns = line.packedRuns;
+            packedLength = line.packedLength;
+        } else {
+            chars.ensureCapacity(line.chars.size());
+            for (Cell cell: line.chars) {
+                chars.add(new Cell(cell));
+            }
         }
         attr = new CellAttributes(line.attr);
         doubleWidth = line.doubleWidth;
         doubleHeight = line.doubleHeight;
         reverseColor = line.reverseColor;
+        version = line.version;
     }
 
     /**
@@ -117,6 +182,12 @@ public class DisplayLine {
      * @return the Cell
      */
     public Cell charAt(final int idx) {
+        if (chars == null) {
+            if ((idx >= 0) && (idx < packedLength)) {
+                return unpackCell(idx);
+            }
+            unpack();
+        }
         while (idx >= chars.size()) {
             chars.add(new Cell(attr));
         }
@@ -129,6 +200,9 @@ public class DisplayLine {
      * @return line length
      */
     public int length() {
+        if (chars == null) {
+            return packedLength;
+        }
         return chars.size();
     }
 
@@ -147,6 +221,7 @@ public class DisplayLine {
      * @param doubleWidth new value for double width flag
      */
     public void setDoubleWidth(final boolean doubleWidth) {
+        version++;
         this.doubleWidth = doubleWidth;
     }
 
@@ -165,6 +240,7 @@ public class DisplayLine {
      * @param doubleHeight new value for double height flag
      */
     public void setDoubleHeight(final int doubleHeight) {
+        version++;
         this.doubleHeight = doubleHeight;
     }
 
@@ -183,6 +259,7 @@ public class DisplayLine {
      * @param reverseColor new value for reverse video flag
      */
     public void setReverseColor(final boolean reverseColor) {
+        version++;
         this.reverseColor = reverseColor;
     }
 
@@ -193,6 +270,8 @@ public class DisplayLine {
      * @param newCell the new Cell
      */
     public void insert(final int idx, final Cell newCell) {
+        version++;
+        unpack();
         while (idx >= chars.size()) {
             chars.add(new Cell(attr));
         }
@@ -206,6 +285,8 @@ public class DisplayLine {
      * @param newCell the new Cell
      */
     public void replace(final int idx, final Cell newCell) {
+        version++;
+        unpack();
         while (idx >= chars.size()) {
             chars.add(new Cell(attr));
         }
@@ -218,6 +299,8 @@ public class DisplayLine {
      * @param idx the character index
      */
     public void setBlank(final int idx) {
+        version++;
+        unpack();
         while (idx >= chars.size()) {
             chars.add(new Cell(attr));
         }
@@ -232,6 +315,8 @@ public class DisplayLine {
      * @param ch the new char
      */
     public void setChar(final int idx, final int ch) {
+        version++;
+        unpack();
         while (idx >= chars.size()) {
             chars.add(new Cell(attr));
         }
@@ -246,6 +331,8 @@ public class DisplayLine {
      * @param attr the new attributes
      */
     public void setAttr(final int idx, final CellAttributes attr) {
+        version++;
+        unpack();
         while (idx >= chars.size()) {
             chars.add(new Cell(attr));
         }
@@ -260,6 +347,8 @@ public class DisplayLine {
      * @param newCell the new Cell
      */
     public void delete(final int idx, final Cell newCell) {
+        version++;
+        unpack();
         while (idx >= chars.size()) {
             chars.add(new Cell(attr));
         }
@@ -272,6 +361,9 @@ public class DisplayLine {
      * @return true if the line has image data
      */
     public boolean isImage() {
+        if (chars == null) {
+            return false;
+        }
         for (Cell cell: chars) {
             if (cell.isImage()) {
                 return true;
@@ -284,6 +376,10 @@ public class DisplayLine {
      * Clear image data from line.
      */
     public void clearImages() {
+        version++;
+        if (chars == null) {
+            return;
+        }
         for (Cell cell: chars) {
             if (cell.isImage()) {
                 cell.reset();
@@ -291,4 +387,153 @@ public class DisplayLine {
         }
     }
 
+    /**
+     * Get the number of changes made to this line.  A copy has the version
+     * of the line it was made from.  Note package private access.
+     *
+     * @return the version
+     */
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * See if this line is packed.
+     *
+     * @return true if the line is packed
+     */
+    public boolean isPacked() {
+        return (chars == null);
+    }
+
+    /**
+     * Convert this line to a compact form: the characters in a string, and
+     * the attributes as runs of identical cells.  A packed line costs a
+     * few bytes per cell instead of a Cell object per cell.  Reading a
+     * packed line decodes cells as needed; modifying it unpacks it first.
+     * Lines with images or unset cells are left alone.
+     */
+    public void pack() {
+        if (chars == null) {
+            return;
+        }
+        int n = chars.size();
+        if (n > MAX_PACKED_LENGTH) {
+            return;
+        }
+        boolean bmp = true;
+        long [] runs = new long[8];
+        int [] codePoints = new int[n];
+        int run = -2;
+        long lastAttr = 0;
+        long lastRGB = 0;
+        for (int i = 0; i < n; i++) {
+            Cell cell = chars.get(i);
+            if (cell.isImage() || cell.isUnset()) {
+                return;
+            }
+            int ch = cell.getChar();
+            if (Character.isSupplementaryCodePoint(ch)) {
+                bmp = false;
+            }
+            codePoints[i] = ch;
+            long attr = runAttr(cell);
+            long rgb = runRGB(cell);
+            if ((run < 0) || (attr != lastAttr) || (rgb != lastRGB)) {
+                run += 2;
+                if (run == runs.length) {
+                    runs = Arrays.copyOf(runs, runs.length * 2);
+                }
+                runs[run + 1] = rgb;
+                lastAttr = attr;
+                lastRGB = rgb;
+            }
+            runs[run] = attr | ((long) (i + 1) << END_SHIFT);
+        }
+        runs = Arrays.copyOf(runs, run + 2);
+
+        if (bmp) {
+            packedText = new String(codePoints, 0, n);
+        } else {
+            packedCodePoints = codePoints;
+        }
+        packedRuns = runs;
+        packedLength = n;
+        chars = null;
+    }
+
+    /**
+     * Convert a packed line back to Cells.
+     */
+    private void unpack() {
+        if (chars != null) {
+            return;
+        }
+        ArrayList<Cell> newChars = new ArrayList<Cell>(packedLength);
+        for (int i = 0; i < packedLength; i++) {
+            newChars.add(unpackCell(i));
+        }
+        chars = newChars;
+        packedText = null;
+        packedCodePoints = null;
+        packedRuns = null;
+        packedLength = 0;
+    }
+
+    /**
+     * Decode one cell of a packed line.
+     *
+     * @param idx the character index
+     * @return a new Cell
+     */
+    private Cell unpackCell(final int idx) {
+        // Binary search for the first run that ends after idx.
+        int lo = 0;
+        int hi = (packedRuns.length / 2) - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if ((int) (packedRuns[mid * 2] >>> END_SHIFT) <= idx) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        long attr = packedRuns[lo * 2];
+        long rgb = packedRuns[lo * 2 + 1];
+
+        Cell cell = new Cell();
+        cell.setPackedAttributes(attr, (int) (rgb >> 32), (int) rgb);
+        if (packedText != null) {
+            cell.setChar(packedText.charAt(idx));
+        } else {
+            cell.setChar(packedCodePoints[idx]);
+        }
+        cell.setWidth(WIDTHS[(int) (attr >>> WIDTH_SHIFT) & 0x03]);
+        return cell;
+    }
+
+    /**
+     * Get the flags, ANSI colors, and width of a cell as stored in a
+     * packed run.
+     *
+     * @param cell the cell
+     * @return the packed value, with the run end bits clear
+     */
+    private static long runAttr(final Cell cell) {
+        return (cell.getPackedAttributes()
+            | ((long) cell.getWidth().ordinal() << WIDTH_SHIFT));
+    }
+
+    /**
+     * Get the RGB colors of a cell as stored in a packed run.
+     *
+     * @param cell the cell
+     * @return the foreground RGB in the high 32 bits and the background RGB
+     * in the low 32 bits
+     */
+    private static long runRGB(final Cell cell) {
+        return (((long) cell.getForeColorRGB() << 32)
+            | (cell.getBackColorRGB() & 0xFFFFFFFFL));
+    }
+
 }
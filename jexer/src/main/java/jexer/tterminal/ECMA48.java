@@ -47,6 +47,7 @@ import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import javax.imageio.ImageIO;
 
@@ -58,6 +59,7 @@ import jexer.bits.Cell;
 import jexer.bits.CellAttributes;
 import jexer.bits.ImageUtils;
 import jexer.bits.StringUtils;
+import jexer.bits.ThreadUtils;
 import jexer.event.TInputEvent;
 import jexer.event.TKeypressEvent;
 import jexer.event.TMouseEvent;
@@ -301,6 +303,24 @@ public class ECMA48 implements Runnable {
      */
     private Thread readerThread = null;
 
+    /**
+     * The thread that sends user events to the remote side when the
+     * reader thread blocks in read().  Null if the reader thread does it.
+     */
+    private Thread writerThread = null;
+
+    /**
+     * Lock held while writing to the remote side, so that the reader's
+     * responses and the writer's keystrokes do not interleave.
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * If true, the reader thread blocks in read() until the remote side
+     * sends something, rather than polling available() every 10 millis.
+     */
+    private boolean blockingRead = true;
+
     /**
      * The type of emulator to be.
      */
@@ -309,18 +329,24 @@ public class ECMA48 implements Runnable {
     /**
      * The scrollback buffer characters + attributes.
      */
-    private volatile ArrayList<DisplayLine> scrollback;
+    private volatile LineBuffer scrollback;
 
     /**
      * The raw display buffer characters + attributes.
      */
-    private volatile ArrayList<DisplayLine> display;
+    private volatile LineBuffer display;
 
     /**
      * The maximum number of lines in the scrollback buffer.
      */
     private int scrollbackMax = 2000;
 
+    /**
+     * If true, pack scrollback lines once they are far enough off the
+     * screen that they are unlikely to change.
+     */
+    private boolean compactScrollback = true;
+
     /**
      * The terminal's input.  For type == XTERM, this is an InputStreamReader
      * with UTF-8 encoding.
@@ -378,6 +404,14 @@ public class ECMA48 implements Runnable {
      */
     private volatile long lastVisibleUpdateTime;
 
+    /**
+     * The copies handed out by the last getVisibleDisplay(), keyed by the
+     * scrollback or display line each was copied from.  A line that has
+     * not changed since is handed out again instead of being copied.
+     */
+    private IdentityHashMap<DisplayLine, DisplayLine> visibleCopies =
+        new IdentityHashMap<DisplayLine, DisplayLine>();
+
     /**
      * A terminal may request that the mouse pointer be hidden using a
      * Privacy Message containing either "hideMousePointer" or
@@ -420,6 +454,12 @@ public class ECMA48 implements Runnable {
      */
     private int repCh;
 
+    /**
+     * The cell printCharacter() copies into the display, reused to avoid
+     * allocating one per character.
+     */
+    private final Cell printCell = new Cell();
+
     /**
      * VT100-style line wrapping: a character is placed in column 80 (or
      * 132), but the line does NOT wrap until another character is written to
@@ -577,7 +617,8 @@ public class ECMA48 implements Runnable {
 
     /**
      * Input queue for keystrokes and mouse events to send to the remote
-     * side.
+     * side.  It is drained by the writer thread if there is one, else by
+     * the reader thread.
      */
     private ArrayList<TInputEvent> userQueue = new ArrayList<TInputEvent>();
 
@@ -732,15 +773,24 @@ public class ECMA48 implements Runnable {
 
         csiParams         = new ArrayList<Integer>();
         tabStops          = new ArrayList<Integer>();
-        scrollback        = new ArrayList<DisplayLine>();
-        display           = new ArrayList<DisplayLine>();
+        scrollback        = new LineBuffer();
+        display           = new LineBuffer();
 
         this.type         = type;
+        if (System.getProperty("jexer.TTerminal.blockingRead",
+                "true").equals("false")) {
+            blockingRead = false;
+        }
+        if (System.getProperty("jexer.TTerminal.compactScrollback",
+                "true").equals("false")) {
+            compactScrollback = false;
+        }
         if (inputStream instanceof TimeoutInputStream) {
             this.inputStream  = (TimeoutInputStream) inputStream;
         } else {
             this.inputStream  = new TimeoutInputStream(inputStream,
-                ((inputStream instanceof FileInputStream) ? 0 : 2000));
+                ((blockingRead || (inputStream instanceof FileInputStream))
+                    ? 0 : 2000));
         }
         if (type == DeviceType.XTERM) {
             this.input    = new InputStreamReader(new BufferedInputStream(
@@ -762,9 +812,26 @@ public class ECMA48 implements Runnable {
         assert (currentState.cursorY < height);
         assert (currentState.cursorX < width);
 
-        // Spin up the input reader
-        readerThread = new Thread(this);
+        // Spin up the input reader.  A blocking reader may wait on the
+        // remote side for a long time, so it must not keep the JVM alive.
+        readerThread = ThreadUtils.newThread(this, "ECMA48 reader");
+        if (blockingRead) {
+            readerThread.setDaemon(true);
+        }
         readerThread.start();
+
+        // The reader thread will be blocked in read(), so user events go
+        // out on a thread of their own.  The UI thread only queues them,
+        // and never waits on a slow remote side.
+        if (blockingRead) {
+            writerThread = ThreadUtils.newThread(new Runnable() {
+                public void run() {
+                    writeUserEvents();
+                }
+            }, "ECMA48 writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -793,9 +860,12 @@ public class ECMA48 implements Runnable {
         }
 
         while (!done && !stopReaderThread) {
-            synchronized (userQueue) {
-                while (userQueue.size() > 0) {
-                    handleUserEvent(userQueue.remove(0));
+            if (!blockingRead) {
+                // Otherwise the writer thread sends these.
+                synchronized (userQueue) {
+                    while (userQueue.size() > 0) {
+                        handleUserEvent(userQueue.remove(0));
+                    }
                 }
             }
 
@@ -816,7 +886,7 @@ public class ECMA48 implements Runnable {
                         readBuffer = new byte[newSizeHalf * 2];
                     }
                 }
-                if (n == 0) {
+                if ((n == 0) && !blockingRead) {
                     try {
                         Thread.sleep(10);
                     } catch (InterruptedException e) {
@@ -851,13 +921,19 @@ public class ECMA48 implements Runnable {
                     // This is EOF
                     done = true;
                 } else {
+                    // Don't step on UI events.  The lock is taken once
+                    // per read rather than once per character.
                     if (utf8) {
-                        for (int i = 0; i < rc;) {
-                            int ch = Character.codePointAt(readBufferUTF8, i);
-                            i += Character.charCount(ch);
+                        synchronized (this) {
+                            for (int i = 0; i < rc;) {
+                                if (isPrintableRun(readBufferUTF8[i])) {
+                                    i = printRun(readBufferUTF8, i, rc);
+                                    continue;
+                                }
+                                int ch = Character.codePointAt(readBufferUTF8,
+                                    i);
+                                i += Character.charCount(ch);
 
-                            // Don't step on UI events
-                            synchronized (this) {
                                 // Special case for VT10x: 7-bit characters
                                 // only.
                                 if ((type == DeviceType.VT100)
@@ -870,9 +946,8 @@ public class ECMA48 implements Runnable {
                             }
                         }
                     } else {
-                        for (int i = 0; i < rc; i++) {
-                            // Don't step on UI events
-                            synchronized (this) {
+                        synchronized (this) {
+                            for (int i = 0; i < rc; i++) {
                                 // Special case for VT10x: 7-bit characters
                                 // only.
                                 if ((type == DeviceType.VT100)
@@ -930,6 +1005,9 @@ public class ECMA48 implements Runnable {
 
         // Let the rest of the world know that I am done.
         stopReaderThread = true;
+        synchronized (userQueue) {
+            userQueue.notifyAll();
+        }
 
         try {
             inputStream.cancelRead();
@@ -1007,6 +1085,31 @@ public class ECMA48 implements Runnable {
     public void addUserEvent(final TInputEvent event) {
         synchronized (userQueue) {
             userQueue.add(event);
+            userQueue.notifyAll();
+        }
+    }
+
+    /**
+     * Send queued user events to the remote side until the reader thread
+     * stops.  This runs on the writer thread.
+     */
+    private void writeUserEvents() {
+        while (!stopReaderThread) {
+            TInputEvent event = null;
+            synchronized (userQueue) {
+                while (userQueue.isEmpty() && !stopReaderThread) {
+                    try {
+                        userQueue.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (stopReaderThread) {
+                    return;
+                }
+                event = userQueue.remove(0);
+            }
+            handleUserEvent(event);
         }
     }
 
@@ -1110,39 +1213,46 @@ public class ECMA48 implements Runnable {
 
         // System.err.printf("writeRemote() '%s'\n", str);
 
-        switch (type) {
-        case VT100:
-        case VT102:
-        case VT220:
-            if (outputStream == null) {
-                return;
-            }
-            try {
-                outputStream.flush();
-                for (int i = 0; i < str.length(); i++) {
-                    outputStream.write(str.charAt(i));
+        // Both the reader and writer threads may get here.  close() can
+        // null out the streams at any time, so work on local copies.
+        synchronized (writeLock) {
+            switch (type) {
+            case VT100:
+            case VT102:
+            case VT220:
+                OutputStream bytesOut = outputStream;
+                if (bytesOut == null) {
+                    return;
                 }
-                outputStream.flush();
-            } catch (IOException e) {
-                // Assume EOF
-                close();
-            }
-            break;
-        case XTERM:
-            if (output == null) {
-                return;
-            }
-            try {
-                output.flush();
-                output.write(str);
-                output.flush();
-            } catch (IOException e) {
-                // Assume EOF
-                close();
+                try {
+                    bytesOut.flush();
+                    for (int i = 0; i < str.length(); i++) {
+                        bytesOut.write(str.charAt(i));
+                    }
+                    bytesOut.flush();
+                } catch (IOException e) {
+                    // Assume EOF
+                    close();
+                }
+                break;
+            case XTERM:
+                Writer charsOut = output;
+                if (charsOut == null) {
+                    return;
+                }
+                try {
+                    charsOut.flush();
+                    charsOut.write(str);
+                    charsOut.flush();
+                } catch (IOException e) {
+                    // Assume EOF
+                    close();
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid device type: " +
+                    type);
             }
-            break;
-        default:
-            throw new IllegalArgumentException("Invalid device type: " + type);
         }
     }
 
@@ -1158,6 +1268,11 @@ public class ECMA48 implements Runnable {
             stopReaderThread = true;
         }
 
+        // And the writer thread to stop sending user events.
+        synchronized (userQueue) {
+            userQueue.notifyAll();
+        }
+
         // Now close the output stream.
         switch (type) {
         case VT100:
@@ -1260,49 +1375,38 @@ public class ECMA48 implements Runnable {
             return lastVisibleDisplay;
         }
 
-        int visibleBottom = scrollback.size() + display.size() - scrollBottom;
-
-        List<DisplayLine> preceedingBlankLines = new ArrayList<DisplayLine>();
+        int scrollbackSize = scrollback.size();
+        int totalLines = scrollbackSize + display.size();
+        int visibleBottom = totalLines - scrollBottom;
         int visibleTop = visibleBottom - visibleHeight;
-        if (visibleTop < 0) {
-            for (int i = visibleTop; i < 0; i++) {
-                preceedingBlankLines.add(getBlankDisplayLine());
-            }
-            visibleTop = 0;
-        }
-        assert (visibleTop >= 0);
-
-        List<DisplayLine> displayLines = new ArrayList<DisplayLine>();
-        displayLines.addAll(scrollback);
-        displayLines.addAll(display);
-
-        List<DisplayLine> visibleLines = new ArrayList<DisplayLine>();
-        visibleLines.addAll(preceedingBlankLines);
-        visibleLines.addAll(displayLines.subList(visibleTop,
-                Math.min(visibleBottom, displayLines.size())));
 
-        // Fill in the blank lines on bottom
-        int bottomBlankLines = visibleHeight - visibleLines.size();
-        assert (bottomBlankLines >= 0);
-        for (int i = 0; i < bottomBlankLines; i++) {
-            visibleLines.add(getBlankDisplayLine());
-        }
-
-        return copyBuffer(visibleLines);
-    }
-
-    /**
-     * Copy a display buffer.
-     *
-     * @param buffer the buffer to copy
-     * @return a deep copy of the buffer's data
-     */
-    private List<DisplayLine> copyBuffer(final List<DisplayLine> buffer) {
-        ArrayList<DisplayLine> result = new ArrayList<DisplayLine>(buffer.size());
-        for (DisplayLine line: buffer) {
-            result.add(new DisplayLine(line));
+        // Lines are copied only if they changed since they were last
+        // handed out, so the caller may keep the previous list, but must
+        // not modify any of its lines.
+        IdentityHashMap<DisplayLine, DisplayLine> copies;
+        copies = new IdentityHashMap<DisplayLine, DisplayLine>(visibleHeight);
+        List<DisplayLine> visibleLines;
+        visibleLines = new ArrayList<DisplayLine>(visibleHeight);
+        for (int i = visibleTop; i < visibleBottom; i++) {
+            if ((i < 0) || (i >= totalLines)) {
+                visibleLines.add(getBlankDisplayLine());
+                continue;
+            }
+            DisplayLine line;
+            if (i < scrollbackSize) {
+                line = scrollback.get(i);
+            } else {
+                line = display.get(i - scrollbackSize);
+            }
+            DisplayLine copy = visibleCopies.get(line);
+            if ((copy == null) || (copy.getVersion() != line.getVersion())) {
+                copy = new DisplayLine(line);
+            }
+            copies.put(line, copy);
+            visibleLines.add(copy);
         }
-        return result;
+        visibleCopies = copies;
+        return visibleLines;
     }
 
     /**
@@ -1863,13 +1967,18 @@ public class ECMA48 implements Runnable {
     }
 
     /**
-     * Append a to the scrollback buffer, clearing image data for lines more
-     * than three screenfuls in.
+     * Append a line to the scrollback buffer, clearing image data for lines
+     * more than three screenfuls in and packing them.
      */
     private void appendScrollbackLine(DisplayLine line) {
         scrollback.add(line);
         if (scrollback.size() > height * 3) {
-            scrollback.get(scrollback.size() - (height * 3)).clearImages();
+            DisplayLine oldLine = scrollback.get(scrollback.size()
+                - (height * 3));
+            oldLine.clearImages();
+            if (compactScrollback) {
+                oldLine.pack();
+            }
         }
     }
 
@@ -1879,13 +1988,12 @@ public class ECMA48 implements Runnable {
      */
     private void newDisplayLine() {
         // Scroll the top line off into the scrollback buffer
-        appendScrollbackLine(display.get(0));
-        while (scrollback.size() > scrollbackMax) {
-            scrollback.remove(0);
-            scrollback.trimToSize();
+        appendScrollbackLine(display.remove(0));
+        if (scrollbackMax > 0) {
+            while (scrollback.size() > scrollbackMax) {
+                scrollback.remove(0);
+            }
         }
-        display.remove(0);
-        display.trimToSize();
         DisplayLine line = new DisplayLine(currentState.attr);
         line.setReverseColor(reverseVideo);
         display.add(line);
@@ -1971,7 +2079,12 @@ public class ECMA48 implements Runnable {
 
         int rightMargin = this.rightMargin;
 
-        if (StringUtils.width(ch) == 2) {
+        int chWidth = 1;
+        if ((ch < 0x20) || (ch >= 0x7F)) {
+            chWidth = StringUtils.width(ch);
+        }
+
+        if (chWidth == 2) {
             // This is a full-width character.  Save two spaces, and then
             // draw the character as two image halves.
             int x0 = currentState.cursorX;
@@ -2046,12 +2159,12 @@ public class ECMA48 implements Runnable {
         }
 
         // "Print" the character
-        Cell newCell = new Cell(ch);
-        CellAttributes newCellAttributes = (CellAttributes) newCell;
-        newCellAttributes.setTo(currentState.attr);
+        Cell newCell = printCell;
+        newCell.setTo(currentState.attr);
+        newCell.setChar(ch);
         DisplayLine line = display.get(currentState.cursorY);
 
-        if (StringUtils.width(ch) == 1) {
+        if (chWidth == 1) {
             // Insert mode special case
             if (insertMode == true) {
                 line.insert(currentState.cursorX, newCell);
@@ -3137,14 +3250,16 @@ public class ECMA48 implements Runnable {
             display.size());
         List<DisplayLine> displayMiddle = display.subList(regionBottom + 1
             - remaining, regionBottom + 1);
-        display = new ArrayList<DisplayLine>(displayTop);
-        display.addAll(displayMiddle);
+        LineBuffer newDisplay = new LineBuffer();
+        newDisplay.addAll(displayTop);
+        newDisplay.addAll(displayMiddle);
         for (int i = 0; i < n; i++) {
             DisplayLine line = new DisplayLine(currentState.attr);
             line.setReverseColor(reverseVideo);
-            display.add(line);
+            newDisplay.add(line);
         }
-        display.addAll(displayBottom);
+        newDisplay.addAll(displayBottom);
+        display = newDisplay;
 
         assert (display.size() == height);
     }
@@ -3180,14 +3295,16 @@ public class ECMA48 implements Runnable {
             display.size());
         List<DisplayLine> displayMiddle = display.subList(regionTop,
             regionTop + remaining);
-        display = new ArrayList<DisplayLine>(displayTop);
+        LineBuffer newDisplay = new LineBuffer();
+        newDisplay.addAll(displayTop);
         for (int i = 0; i < n; i++) {
             DisplayLine line = new DisplayLine(currentState.attr);
             line.setReverseColor(reverseVideo);
-            display.add(line);
+            newDisplay.add(line);
         }
-        display.addAll(displayMiddle);
-        display.addAll(displayBottom);
+        newDisplay.addAll(displayMiddle);
+        newDisplay.addAll(displayBottom);
+        display = newDisplay;
 
         assert (display.size() == height);
     }
@@ -5795,6 +5912,47 @@ public class ECMA48 implements Runnable {
 
     }
 
+    /**
+     * See if a character starts a run that printRun() can handle: a
+     * printable ASCII character in the ground state, with the printer
+     * controller not swallowing it.
+     *
+     * @param ch character from the remote side
+     * @return true if printRun() can print it
+     */
+    private boolean isPrintableRun(final char ch) {
+        return ((ch >= 0x20) && (ch < 0x7F)
+            && (scanState == ScanState.GROUND)
+            && (printerControllerMode == false));
+    }
+
+    /**
+     * Print a run of printable ASCII characters.  This is the same as
+     * passing each one through consume(), without the trip through the
+     * state machine: none of them can change its state.
+     *
+     * @param buffer characters from the remote side
+     * @param start index of the first character, for which
+     * isPrintableRun() is true
+     * @param end index one past the last character available
+     * @return index of the first character not printed
+     */
+    private int printRun(final char [] buffer, final int start,
+        final int end) {
+
+        int i = start;
+        for (; i < end; i++) {
+            char ch = buffer[i];
+            if ((ch < 0x20) || (ch >= 0x7F)) {
+                break;
+            }
+            readCount++;
+            repCh = mapCharacter(ch);
+            printCharacter(repCh);
+        }
+        return i;
+    }
+
     /**
      * Run this input character through the ECMA48 state machine.
      *
@@ -0,0 +1,225 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2025 Autumn Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Autumn Lamonte ♥
+ * @version 1
+ */
+package jexer.tterminal;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * LineBuffer is a list of DisplayLines stored in a circular array.  Adding
+ * or removing a line at either end is O(1) and never reallocates once the
+ * array is big enough, so a terminal can scroll one line at a time through
+ * a very large scrollback buffer without copying it.  Adding or removing in
+ * the middle shifts the lines after that position, as ArrayList does.
+ */
+public class LineBuffer extends AbstractList<DisplayLine>
+                        implements RandomAccess {
+
+    // ------------------------------------------------------------------------
+    // Constants --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The initial size of the array.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    // ------------------------------------------------------------------------
+    // Variables --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The lines.  Always a power of two long.
+     */
+    private DisplayLine [] lines = new DisplayLine[INITIAL_CAPACITY];
+
+    /**
+     * The array index of the first line.
+     */
+    private int head = 0;
+
+    /**
+     * The number of lines.
+     */
+    private int size = 0;
+
+    // ------------------------------------------------------------------------
+    // Constructors -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Public constructor makes an empty buffer.
+     */
+    public LineBuffer() {
+        // NOP
+    }
+
+    // ------------------------------------------------------------------------
+    // AbstractList -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Get the number of lines.
+     *
+     * @return the number of lines
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get a line.
+     *
+     * @param index the line index.  0 is the oldest line.
+     * @return the line
+     */
+    @Override
+    public DisplayLine get(final int index) {
+        checkIndex(index, size);
+        return lines[slot(index)];
+    }
+
+    /**
+     * Replace a line.
+     *
+     * @param index the line index
+     * @param line the new line
+     * @return the line that was replaced
+     */
+    @Override
+    public DisplayLine set(final int index, final DisplayLine line) {
+        checkIndex(index, size);
+        int i = slot(index);
+        DisplayLine old = lines[i];
+        lines[i] = line;
+        return old;
+    }
+
+    /**
+     * Insert a line.
+     *
+     * @param index the line index.  0 inserts before the oldest line,
+     * size() appends after the newest.
+     * @param line the new line
+     */
+    @Override
+    public void add(final int index, final DisplayLine line) {
+        checkIndex(index, size + 1);
+        modCount++;
+        if (size == lines.length) {
+            grow();
+        }
+        if (index == 0) {
+            head = (head - 1) & (lines.length - 1);
+        } else {
+            for (int i = size; i > index; i--) {
+                lines[slot(i)] = lines[slot(i - 1)];
+            }
+        }
+        lines[slot(index)] = line;
+        size++;
+    }
+
+    /**
+     * Remove a line.
+     *
+     * @param index the line index.  0 removes the oldest line.
+     * @return the line that was removed
+     */
+    @Override
+    public DisplayLine remove(final int index) {
+        checkIndex(index, size);
+        modCount++;
+        DisplayLine old = lines[slot(index)];
+        if (index == 0) {
+            lines[head] = null;
+            head = (head + 1) & (lines.length - 1);
+        } else {
+            for (int i = index; i < size - 1; i++) {
+                lines[slot(i)] = lines[slot(i + 1)];
+            }
+            lines[slot(size - 1)] = null;
+        }
+        size--;
+        return old;
+    }
+
+    /**
+     * Remove all lines.
+     */
+    @Override
+    public void clear() {
+        modCount++;
+        Arrays.fill(lines, null);
+        head = 0;
+        size = 0;
+    }
+
+    // ------------------------------------------------------------------------
+    // LineBuffer -------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Get the array index of a line.
+     *
+     * @param index the line index
+     * @return the array index
+     */
+    private int slot(final int index) {
+        return (head + index) & (lines.length - 1);
+    }
+
+    /**
+     * Throw IndexOutOfBoundsException if an index is out of range.
+     *
+     * @param index the index
+     * @param limit one past the largest valid index
+     */
+    private void checkIndex(final int index, final int limit) {
+        if ((index < 0) || (index >= limit)) {
+            throw new IndexOutOfBoundsException("Index: " + index +
+                ", Size: " + size);
+        }
+    }
+
+    /**
+     * Double the size of the array, moving the lines to the start of it.
+     */
+    private void grow() {
+        DisplayLine [] newLines = new DisplayLine[lines.length * 2];
+        for (int i = 0; i < size; i++) {
+            newLines[i] = lines[slot(i)];
+        }
+        lines = newLines;
+        head = 0;
+    }
+
+}
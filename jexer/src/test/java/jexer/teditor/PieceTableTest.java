@@ -0,0 +1,238 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2025 Autumn Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Autumn Lamonte ♥
+ * @version 1
+ */
+package jexer.teditor;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static jexer.teditor.TestText.*;
+
+/**
+ * Check PieceTable against a StringBuilder holding the same text.
+ */
+public class PieceTableTest {
+
+    // ------------------------------------------------------------------------
+    // Tests ------------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * An empty table has one empty line.
+     */
+    @Test
+    public void testEmpty() {
+        PieceTable table = new PieceTable("");
+        assertEquals(0, table.length());
+        assertEquals(1, table.getLineCount());
+        assertEquals(0, table.getLineStart(0));
+        assertEquals(0, table.getLineEnd(0));
+        assertEquals("", table.getLine(0));
+        assertEquals(0, table.getLineNumber(0));
+        assertEquals("", table.toString());
+    }
+
+    /**
+     * Lines are split at line breaks, and a trailing line break starts an
+     * empty last line.
+     */
+    @Test
+    public void testLines() {
+        PieceTable table = new PieceTable("one\ntwo\n\nfour\n");
+        assertEquals(5, table.getLineCount());
+        assertEquals("one", table.getLine(0));
+        assertEquals("two", table.getLine(1));
+        assertEquals("", table.getLine(2));
+        assertEquals("four", table.getLine(3));
+        assertEquals("", table.getLine(4));
+        assertEquals(4, table.getLineStart(1));
+        assertEquals(7, table.getLineEnd(1));
+        assertEquals(0, table.getLineNumber(3));
+        assertEquals(1, table.getLineNumber(4));
+        assertEquals(4, table.getLineNumber(table.length()));
+    }
+
+    /**
+     * Random inserts and deletes give the same text and lines as a
+     * StringBuilder.
+     */
+    @Test
+    public void testRandomEdits() {
+        Random random = new Random(1);
+        StringBuilder model = new StringBuilder(randomText(random,
+                SHORT_LINES, 200));
+        PieceTable table = new PieceTable(model.toString());
+
+        for (int i = 0; i < 5000; i++) {
+            if ((model.length() == 0) || random.nextBoolean()) {
+                int pos = random.nextInt(model.length() + 1);
+                String str = randomText(random, SHORT_LINES,
+                    random.nextInt(20));
+                model.insert(pos, str);
+                table.insert(pos, str);
+            } else {
+                int pos = random.nextInt(model.length());
+                int length = random.nextInt(Math.min(30,
+                        model.length() - pos) + 1);
+                model.delete(pos, pos + length);
+                table.delete(pos, length);
+            }
+            assertEquals(model.length(), table.length());
+            if (i % 100 == 0) {
+                checkTable(random, model, table);
+            }
+        }
+        checkTable(random, model, table);
+    }
+
+    /**
+     * A copy made by dup() does not see later edits to the original, and
+     * the original does not see edits to the copy.
+     */
+    @Test
+    public void testDup() {
+        PieceTable table = new PieceTable("hello\nworld");
+        table.insert(5, ",");
+        PieceTable copy = table.dup();
+
+        table.insert(0, "oh ");
+        table.delete(table.length() - 5, 5);
+        copy.insert(copy.length(), "!\n");
+
+        assertEquals("oh hello,\n", table.toString());
+        assertEquals(2, table.getLineCount());
+        assertEquals("hello,\nworld!\n", copy.toString());
+        assertEquals(3, copy.getLineCount());
+        assertEquals("world!", copy.getLine(1));
+    }
+
+    /**
+     * getChars() copies into the middle of an array.
+     */
+    @Test
+    public void testGetChars() {
+        PieceTable table = new PieceTable("abcdef");
+        table.insert(3, "XYZ");
+        char [] dst = new char[8];
+        Arrays.fill(dst, '.');
+        table.getChars(2, 7, dst, 1);
+        assertEquals(".cXYZd..", new String(dst));
+    }
+
+    /**
+     * Positions and lines outside the text throw
+     * IndexOutOfBoundsException, and leave the text alone.
+     */
+    @Test
+    public void testBounds() {
+        PieceTable table = new PieceTable("ab\ncd");
+        try {
+            table.insert(-1, "x");
+            fail("insert before the start");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+        try {
+            table.insert(6, "x");
+            fail("insert past the end");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+        try {
+            table.delete(4, 2);
+            fail("delete past the end");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+        try {
+            table.charAt(5);
+            fail("charAt past the end");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+        try {
+            table.getLineStart(2);
+            fail("line past the end");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+        try {
+            table.getText(3, 2);
+            fail("negative range");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+        assertEquals("ab\ncd", table.toString());
+    }
+
+    // ------------------------------------------------------------------------
+    // PieceTableTest ---------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Compare every line, and some characters and positions, of a table
+     * with its model.
+     *
+     * @param random the random number generator
+     * @param model the expected text
+     * @param table the table to check
+     */
+    private static void checkTable(final Random random,
+        final StringBuilder model, final PieceTable table) {
+
+        String text = model.toString();
+        assertEquals(text, table.toString());
+
+        String [] lines = text.split("\n", -1);
+        assertEquals(lines.length, table.getLineCount());
+        int start = 0;
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals(start, table.getLineStart(i));
+            assertEquals(start + lines[i].length(), table.getLineEnd(i));
+            assertEquals(lines[i], table.getLine(i));
+            start += lines[i].length() + 1;
+        }
+
+        for (int i = 0; i < 50; i++) {
+            int pos = random.nextInt(text.length() + 1);
+            int line = 0;
+            for (int j = 0; j < pos; j++) {
+                if (text.charAt(j) == '\n') {
+                    line++;
+                }
+            }
+            assertEquals(line, table.getLineNumber(pos));
+            if (pos < text.length()) {
+                assertEquals(text.charAt(pos), table.charAt(pos));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,423 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2025 Autumn Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Autumn Lamonte ♥
+ * @version 1
+ */
+package jexer.teditor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static jexer.teditor.TestText.*;
+
+/**
+ * Find and replace in documents of one line up to several chunks, with
+ * String.indexOf() and java.util.regex as the reference for what should
+ * match.
+ */
+public class SearchTest {
+
+    // ------------------------------------------------------------------------
+    // Constants --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * More characters than Search reads from the document at a time.
+     */
+    private static final int LONGER_THAN_CHUNK = 200 * 1024;
+
+    // ------------------------------------------------------------------------
+    // Tests ------------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * A find goes on from the top of the document when there is no match
+     * after the start, and reports where the match is.
+     */
+    @Test
+    public void testFind() {
+        Document document = newDocument("one two\n日本 Two three\nfour");
+        Search search = new Search("two", false, false);
+
+        find(search, document, 0);
+        assertTrue(search.isFound());
+        assertEquals(4, search.getMatchStart());
+        assertEquals(7, search.getMatchEnd());
+        assertEquals(0, search.getMatchLine());
+
+        find(search, document, search.getMatchEnd());
+        assertTrue(search.isFound());
+        assertEquals(11, search.getMatchStart());
+        assertEquals(1, search.getMatchLine());
+        // The two CJK characters are two cells wide each.
+        assertEquals(5, search.getMatchColumn());
+        assertEquals(8, search.getMatchEndColumn());
+
+        find(search, document, search.getMatchEnd());
+        assertTrue(search.isFound());
+        assertEquals(4, search.getMatchStart());
+
+        search = new Search("two", false, true);
+        find(search, document, 5);
+        assertTrue(search.isFound());
+        assertEquals(4, search.getMatchStart());
+
+        search = new Search("five", false, false);
+        find(search, document, 10);
+        assertTrue(search.isDone());
+        assertFalse(search.isFound());
+    }
+
+    /**
+     * Matches never span lines, and empty patterns never match.
+     */
+    @Test
+    public void testLines() {
+        Document document = newDocument("ab\ncd");
+        Search search = new Search("b\nc", false, true);
+        assertTrue(search.isEmpty());
+        find(search, document, 0);
+        assertFalse(search.isFound());
+
+        search = new Search("b\\nc|b.c", true, true);
+        find(search, document, 0);
+        assertFalse(search.isFound());
+
+        search = new Search("", true, true);
+        assertTrue(search.isEmpty());
+        search = new Search("x*", true, true);
+        find(search, document, 0);
+        assertFalse(search.isFound());
+
+        search = new Search("^c|b$", true, true);
+        find(search, document, 0);
+        assertEquals(1, search.getMatchStart());
+        find(search, document, search.getMatchEnd());
+        assertEquals(3, search.getMatchStart());
+    }
+
+    /**
+     * A cancelled find stops without a match.
+     */
+    @Test
+    public void testCancel() {
+        Document document = newDocument(repeat("abc\n", LONGER_THAN_CHUNK)
+            + "xyz");
+        Search search = new Search("xyz", false, true);
+        search.start(document, 0);
+        assertFalse(search.step(1000));
+        search.cancel();
+        assertTrue(search.isDone());
+        assertTrue(search.step(1000));
+        assertFalse(search.isFound());
+    }
+
+    /**
+     * A find stops without a match if the document is edited while it
+     * runs.
+     */
+    @Test
+    public void testEditCancels() {
+        Document document = newDocument(repeat("abc\n", LONGER_THAN_CHUNK)
+            + "xyz");
+        Search search = new Search("xyz", false, true);
+        search.start(document, 0);
+        assertFalse(search.step(1000));
+        document.setPosition(0);
+        document.addChar('q');
+        assertTrue(search.step(1000));
+        assertTrue(search.isDone());
+        assertFalse(search.isFound());
+    }
+
+    /**
+     * Literal matches in random text, with and without case, are the
+     * same as String.indexOf() finds.
+     */
+    @Test
+    public void testLiteralRandom() {
+        Random random = new Random(1);
+        for (int i = 0; i < 200; i++) {
+            String text = randomText(random, MIXED_CASE, 2000);
+            String pattern = randomText(random, MIXED_CASE,
+                1 + random.nextInt(3));
+            if (pattern.indexOf('\n') != -1) {
+                continue;
+            }
+            boolean matchCase = random.nextBoolean();
+            List<Integer> expected = new ArrayList<Integer>();
+            String haystack = (matchCase ? text : lower(text));
+            String needle = (matchCase ? pattern : lower(pattern));
+            int start = haystack.indexOf(needle);
+            while (start != -1) {
+                expected.add(start);
+                start = haystack.indexOf(needle, start + needle.length());
+            }
+            assertEquals(expected, matches(new Search(pattern, false,
+                        matchCase), newDocument(text)),
+                "pattern \"" + pattern + "\" matchCase " + matchCase);
+        }
+    }
+
+    /**
+     * Regular expression matches over several chunks, one of them a
+     * single line longer than a chunk, are the same as java.util.regex
+     * finds over the whole text.
+     */
+    @Test
+    public void testRegexChunks() {
+        Random random = new Random(2);
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < LONGER_THAN_CHUNK) {
+            sb.append(randomText(random, MIXED_CASE, 1000));
+        }
+        sb.append('\n');
+        // One line longer than a chunk.
+        while (sb.length() < LONGER_THAN_CHUNK * 2) {
+            sb.append("aab ");
+        }
+        sb.append('\n');
+        while (sb.length() < LONGER_THAN_CHUNK * 3) {
+            sb.append(randomText(random, MIXED_CASE, 1000));
+        }
+        String text = trimLineBreaks(sb.toString());
+        Document document = newDocument(text);
+
+        String [] patterns = {
+            "a+b", "^a", "c$", "b[^\\n]*?b", "(?<=a)b", "[Aa]{2}", "š ",
+        };
+        for (String pattern: patterns) {
+            for (int i = 0; i < 2; i++) {
+                boolean matchCase = (i == 0);
+                int flags = Pattern.MULTILINE | Pattern.UNIX_LINES;
+                if (!matchCase) {
+                    flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+                }
+                Matcher matcher = Pattern.compile(pattern, flags).matcher(text);
+                List<Integer> expected = new ArrayList<Integer>();
+                while (matcher.find()) {
+                    expected.add(matcher.start());
+                }
+                assertEquals(expected, matches(new Search(pattern, true,
+                            matchCase), document),
+                    "pattern \"" + pattern + "\" matchCase " + matchCase);
+            }
+        }
+
+        // A find run a step at a time finds the same first match from
+        // anywhere, going on from the top.
+        Search search = new Search("aab a", true, true);
+        int first = text.indexOf("aab a");
+        for (int i = 0; i < 10; i++) {
+            int pos = random.nextInt(text.length());
+            search.start(document, pos);
+            while (!search.step(1000)) {
+                // Keep going
+            }
+            assertTrue(search.isFound());
+            int expected = text.indexOf("aab a", pos);
+            if (expected == -1) {
+                expected = first;
+            }
+            assertEquals(expected, search.getMatchStart());
+        }
+    }
+
+    /**
+     * Replacements for regular expressions fill in groups and quote with
+     * a backslash.
+     */
+    @Test
+    public void testReplacement() {
+        Document document = newDocument("mail bob@example now\nand amy@test");
+        Search search = new Search("(\\w+)@(?<host>\\w+)", true, true);
+        assertEquals(2, document.replaceAll(search,
+                "${host}: $1 \\$2 $12 $"));
+        assertEquals("mail example: bob $2 bob2 $ now\n"
+            + "and test: amy $2 amy2 $\n", document.getText());
+
+        // Literal replacements are taken as they are.
+        document = newDocument("a.b a.b");
+        search = new Search("a.b", false, true);
+        assertEquals(2, document.replaceAll(search, "$1\\"));
+        assertEquals("$1\\ $1\\\n", document.getText());
+    }
+
+    /**
+     * A replacement naming a group that does not exist throws
+     * IllegalArgumentException, and leaves the document alone.
+     */
+    @Test
+    public void testReplacementBadGroup() {
+        String [] replacements = { "$2", "${nope}", "${1", };
+        for (String replacement: replacements) {
+            Document document = newDocument("abc abc");
+            Search search = new Search("(b)", true, true);
+            try {
+                document.replaceAll(search, replacement);
+                fail("replacement " + replacement);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+            assertEquals("abc abc\n", document.getText());
+        }
+    }
+
+    /**
+     * Replacing every match in a large document gives the same text as
+     * java.util.regex, and is undone and redone in one step.
+     */
+    @Test
+    public void testReplaceAll() {
+        Random random = new Random(3);
+        String text = trimLineBreaks(randomText(random, MIXED_CASE,
+                LONGER_THAN_CHUNK * 2));
+        String [][] cases = {
+            { "a+", "<$0>", "true" },
+            { "(b)(c?)", "$2$1", "true" },
+            { "A", "xyz", "false" },
+            { " ", "", "false" },
+        };
+        for (String [] test: cases) {
+            boolean regex = test[2].equals("true");
+            Pattern pattern = Pattern.compile(regex ? test[0]
+                : Pattern.quote(test[0]),
+                Pattern.MULTILINE | Pattern.UNIX_LINES);
+            Matcher matcher = pattern.matcher(text);
+            int count = 0;
+            while (matcher.find()) {
+                count++;
+            }
+            String expected = pattern.matcher(text).replaceAll(regex ?
+                test[1] : Matcher.quoteReplacement(test[1]));
+
+            UndoJournal journal = new UndoJournal(10,
+                UndoJournal.DEFAULT_MAX_CHARS);
+            Document document = newDocument(text, journal);
+            document.setPosition(text.length() / 2);
+            journal.begin(document, 0, 0);
+            assertEquals(count, document.replaceAll(new Search(test[0],
+                        regex, true), test[1]), test[0]);
+            assertEquals(expected + "\n", document.getText(), test[0]);
+            assertTrue(document.getPosition() <= expected.length());
+
+            assertNotNull(journal.undo(document));
+            assertEquals(text + "\n", document.getText(), test[0]);
+            assertNull(journal.undo(document));
+            assertNotNull(journal.redo(document));
+            assertEquals(expected + "\n", document.getText(), test[0]);
+        }
+    }
+
+    /**
+     * findColumns() gives display columns, counting wide characters as
+     * two.
+     */
+    @Test
+    public void testFindColumns() {
+        Search search = new Search("Ab", false, false);
+        assertArrayEquals(new int [] { 0, 2, 6, 8 },
+            search.findColumns("ab日本AB"));
+        search = new Search("b+", true, true);
+        assertArrayEquals(new int [] { 3, 5 },
+            search.findColumns("日abb"));
+        assertArrayEquals(new int [0], search.findColumns("aaa"));
+    }
+
+    // ------------------------------------------------------------------------
+    // SearchTest -------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Run a find to the end.
+     *
+     * @param search the search
+     * @param document the document
+     * @param position the position to start from
+     */
+    private static void find(final Search search, final Document document,
+        final int position) {
+
+        search.start(document, position);
+        while (!search.step(Integer.MAX_VALUE)) {
+            // Keep going
+        }
+    }
+
+    /**
+     * Find every match in a document the way replaceAll() does.
+     *
+     * @param search the search
+     * @param document the document
+     * @return the positions of the matches
+     */
+    private static List<Integer> matches(final Search search,
+        final Document document) {
+
+        PieceTable text = document.getPieceTable();
+        List<Integer> found = new ArrayList<Integer>();
+        search.rewind(text, 0);
+        while (search.nextMatch(text)) {
+            found.add(search.getFoundStart());
+        }
+        return found;
+    }
+
+    /**
+     * Lowercase a string one char at a time, the way Search folds case.
+     *
+     * @param str the string
+     * @return the lowercased string
+     */
+    private static String lower(final String str) {
+        char [] chars = str.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Repeat a string.
+     *
+     * @param str the string
+     * @param length about the number of characters wanted
+     * @return the string repeated to at least length characters
+     */
+    private static String repeat(final String str, final int length) {
+        StringBuilder sb = new StringBuilder(length + str.length());
+        while (sb.length() < length) {
+            sb.append(str);
+        }
+        return sb.toString();
+    }
+
+}
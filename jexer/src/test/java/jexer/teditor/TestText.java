@@ -0,0 +1,129 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2025 Autumn Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Autumn Lamonte ♥
+ * @version 1
+ */
+package jexer.teditor;
+
+import java.util.Random;
+
+import jexer.bits.CellAttributes;
+
+/**
+ * Text and documents for the teditor tests.  Note package private
+ * access.
+ */
+class TestText {
+
+    // ------------------------------------------------------------------------
+    // Constants --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Letters, a space, and line breaks weighted so that there are many
+     * short lines.
+     */
+    static final String SHORT_LINES = "abc \n\n";
+
+    /**
+     * Letters in both cases, a space, and line breaks.  š and Ł have the
+     * same low byte as 'a' and 'A', so they share a Boyer-Moore-Horspool
+     * skip.
+     */
+    static final String MIXED_CASE = "aAbBc šŁ\n";
+
+    // ------------------------------------------------------------------------
+    // Constructors -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Private constructor prevents accidental creation of this class.
+     */
+    private TestText() {}
+
+    // ------------------------------------------------------------------------
+    // TestText ---------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Make random text.
+     *
+     * @param random the random number generator
+     * @param alphabet the characters to pick from
+     * @param length the number of characters
+     * @return the text
+     */
+    static String randomText(final Random random, final String alphabet,
+        final int length) {
+
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Drop the line breaks at the end of a text, as Document.setText()
+     * does.
+     *
+     * @param text the text
+     * @return the text without trailing line breaks
+     */
+    static String trimLineBreaks(final String text) {
+        int end = text.length();
+        while ((end > 0) && (text.charAt(end - 1) == '\n')) {
+            end--;
+        }
+        return text.substring(0, end);
+    }
+
+    /**
+     * Make a document.
+     *
+     * @param text the initial text
+     * @return the document
+     */
+    static Document newDocument(final String text) {
+        return new Document(text, new CellAttributes());
+    }
+
+    /**
+     * Make a document that records its edits in a journal.
+     *
+     * @param text the initial text
+     * @param journal the journal
+     * @return the document
+     */
+    static Document newDocument(final String text,
+        final UndoJournal journal) {
+
+        Document document = newDocument(text);
+        document.setUndoJournal(journal);
+        return document;
+    }
+
+}
@@ -0,0 +1,380 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2025 Autumn Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Autumn Lamonte ♥
+ * @version 1
+ */
+package jexer.teditor;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static jexer.teditor.TestText.*;
+
+/**
+ * Edit a Document through an UndoJournal the way TEditorWidget does, and
+ * check how the edits are grouped, undone, redone, and forgotten.
+ */
+public class UndoJournalTest {
+
+    // ------------------------------------------------------------------------
+    // Tests ------------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Typing is one unit per word, and each word is undone and redone
+     * together.
+     */
+    @Test
+    public void testTyping() {
+        UndoJournal journal = new UndoJournal(100,
+            UndoJournal.DEFAULT_MAX_CHARS);
+        Document document = newDocument("", journal);
+
+        type(journal, document, "hello world");
+        assertEquals("hello world\n", document.getText());
+
+        assertNotNull(journal.undo(document));
+        assertEquals("hello \n", document.getText());
+        assertEquals(6, document.getPosition());
+        assertNotNull(journal.undo(document));
+        assertEquals("\n", document.getText());
+        assertNull(journal.undo(document));
+
+        assertNotNull(journal.redo(document));
+        assertEquals("hello \n", document.getText());
+        assertNotNull(journal.redo(document));
+        assertEquals("hello world\n", document.getText());
+        assertEquals(11, document.getPosition());
+        assertNull(journal.redo(document));
+    }
+
+    /**
+     * Typing somewhere else than where the last word ended starts a new
+     * unit, even in the middle of a word.
+     */
+    @Test
+    public void testTypingMoved() {
+        UndoJournal journal = new UndoJournal(100,
+            UndoJournal.DEFAULT_MAX_CHARS);
+        Document document = newDocument("", journal);
+
+        type(journal, document, "abc");
+        document.setPosition(1);
+        type(journal, document, "xy");
+        assertEquals("axybc\n", document.getText());
+
+        assertNotNull(journal.undo(document));
+        assertEquals("abc\n", document.getText());
+        assertNotNull(journal.undo(document));
+        assertEquals("\n", document.getText());
+    }
+
+    /**
+     * Backspaces and forward deletes in one unit are undone together,
+     * including past the length where backspaces stop being merged into
+     * one edit.
+     */
+    @Test
+    public void testDeleteMerge() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append((char) ('a' + (i % 26)));
+        }
+        String text = sb.toString();
+        UndoJournal journal = new UndoJournal(100,
+            UndoJournal.DEFAULT_MAX_CHARS);
+        Document document = newDocument(text, journal);
+
+        document.setPosition(600);
+        journal.begin(document, 0, 0);
+        for (int i = 0; i < 500; i++) {
+            document.backspace();
+        }
+        assertEquals(text.substring(0, 100) + text.substring(600) + "\n",
+            document.getText());
+
+        journal.begin(document, 0, 0);
+        for (int i = 0; i < 300; i++) {
+            document.del();
+        }
+        assertEquals(text.substring(0, 100) + text.substring(900) + "\n",
+            document.getText());
+
+        assertNotNull(journal.undo(document));
+        assertEquals(text.substring(0, 100) + text.substring(600) + "\n",
+            document.getText());
+        assertEquals(100, document.getPosition());
+        assertNotNull(journal.undo(document));
+        assertEquals(text + "\n", document.getText());
+        assertEquals(600, document.getPosition());
+        assertNull(journal.undo(document));
+
+        assertNotNull(journal.redo(document));
+        assertNotNull(journal.redo(document));
+        assertEquals(text.substring(0, 100) + text.substring(900) + "\n",
+            document.getText());
+    }
+
+    /**
+     * Random edits, alone or grouped, are undone and redone back to the
+     * text after each unit.
+     */
+    @Test
+    public void testRandomEdits() {
+        Random random = new Random(1);
+        UndoJournal journal = new UndoJournal(1000,
+            UndoJournal.DEFAULT_MAX_CHARS);
+        Document document = newDocument("start\nof the\ntext", journal);
+        StringBuilder model = new StringBuilder("start\nof the\ntext");
+        ArrayList<String> history = new ArrayList<String>();
+        history.add(model.toString());
+
+        for (int i = 0; i < 300; i++) {
+            journal.begin(document, 0, 0);
+            int count = 1 + random.nextInt(3);
+            boolean edited = false;
+            for (int j = 0; j < count; j++) {
+                edited |= randomEdit(random, document, model);
+            }
+            assertEquals(model + "\n", document.getText());
+            if (!edited) {
+                // Nothing changed, so there is nothing to undo either.
+                continue;
+            }
+            history.add(model.toString());
+
+            if (random.nextInt(10) == 0) {
+                // Undo a few units, check the text, and then either redo
+                // them or carry on from there.
+                int undos = random.nextInt(Math.min(5, history.size() - 1))
+                    + 1;
+                for (int j = 1; j <= undos; j++) {
+                    assertNotNull(journal.undo(document));
+                    assertEquals(history.get(history.size() - 1 - j) + "\n",
+                        document.getText());
+                }
+                if (random.nextBoolean()) {
+                    for (int j = undos - 1; j >= 0; j--) {
+                        assertNotNull(journal.redo(document));
+                        assertEquals(history.get(history.size() - 1 - j)
+                            + "\n", document.getText());
+                    }
+                    assertNull(journal.redo(document));
+                } else {
+                    for (int j = 0; j < undos; j++) {
+                        history.remove(history.size() - 1);
+                    }
+                    model.setLength(0);
+                    model.append(history.get(history.size() - 1));
+                }
+            }
+        }
+
+        for (int i = history.size() - 2; i >= 0; i--) {
+            assertNotNull(journal.undo(document));
+            assertEquals(history.get(i) + "\n", document.getText());
+        }
+        assertNull(journal.undo(document));
+        for (int i = 1; i < history.size(); i++) {
+            assertNotNull(journal.redo(document));
+            assertEquals(history.get(i) + "\n", document.getText());
+        }
+    }
+
+    /**
+     * A new edit after an undo forgets the units that could be redone.
+     */
+    @Test
+    public void testRedoDropped() {
+        UndoJournal journal = new UndoJournal(100,
+            UndoJournal.DEFAULT_MAX_CHARS);
+        Document document = newDocument("", journal);
+
+        type(journal, document, "one two");
+        assertNotNull(journal.undo(document));
+        type(journal, document, "three");
+        assertNull(journal.redo(document));
+        assertEquals("one three\n", document.getText());
+        assertNotNull(journal.undo(document));
+        assertEquals("one \n", document.getText());
+    }
+
+    /**
+     * Only the newest maxUnits units can be undone.
+     */
+    @Test
+    public void testMaxUnits() {
+        UndoJournal journal = new UndoJournal(3,
+            UndoJournal.DEFAULT_MAX_CHARS);
+        Document document = newDocument("", journal);
+
+        for (int i = 0; i < 5; i++) {
+            journal.begin(document, 0, 0);
+            document.addChar('0' + i);
+        }
+        assertEquals("01234\n", document.getText());
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(journal.undo(document));
+        }
+        assertNull(journal.undo(document));
+        assertEquals("01\n", document.getText());
+
+        // Lowering the limit forgets the oldest units that are applied.
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(journal.redo(document));
+        }
+        journal.setMaxUnits(1);
+        journal.begin(document, 0, 0);
+        document.addChar('5');
+        assertNotNull(journal.undo(document));
+        assertNull(journal.undo(document));
+        assertEquals("01234\n", document.getText());
+    }
+
+    /**
+     * The oldest units are forgotten to stay under maxChars, but the
+     * newest unit is always kept however large it is.
+     */
+    @Test
+    public void testMaxChars() {
+        UndoJournal journal = new UndoJournal(100, 500);
+        Document document = newDocument("", journal);
+        StringBuilder model = new StringBuilder();
+
+        for (int i = 0; i < 20; i++) {
+            journal.begin(document, 0, 0);
+            for (int j = 0; j < 50; j++) {
+                document.addChar('a' + i);
+                model.append((char) ('a' + i));
+            }
+        }
+        assertEquals(model + "\n", document.getText());
+        int undone = 0;
+        while (journal.undo(document) != null) {
+            undone++;
+            model.setLength(model.length() - 50);
+            assertEquals(model + "\n", document.getText());
+        }
+        assertTrue(undone > 0);
+        assertTrue(undone < 20);
+        assertTrue(undone * 50 <= 500);
+
+        journal.begin(document, 0, 0);
+        for (int i = 0; i < 2000; i++) {
+            document.addChar('z');
+        }
+        assertNotNull(journal.undo(document));
+        assertEquals(model + "\n", document.getText());
+        assertNull(journal.undo(document));
+        assertNotNull(journal.redo(document));
+        assertEquals(2000 + model.length() + 1, document.getText().length());
+    }
+
+    /**
+     * Setting the text forgets everything.
+     */
+    @Test
+    public void testSetText() {
+        UndoJournal journal = new UndoJournal(100,
+            UndoJournal.DEFAULT_MAX_CHARS);
+        Document document = newDocument("", journal);
+
+        type(journal, document, "some words");
+        document.setText("new");
+        assertNull(journal.undo(document));
+        assertNull(journal.redo(document));
+        assertEquals("new\n", document.getText());
+    }
+
+    // ------------------------------------------------------------------------
+    // UndoJournalTest --------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Type a string at the cursor the way TEditorWidget does.
+     *
+     * @param journal the journal
+     * @param document the document
+     * @param str the characters to type
+     */
+    private static void type(final UndoJournal journal,
+        final Document document, final String str) {
+
+        for (int i = 0; i < str.length(); i++) {
+            journal.beginTyping(document, 0, 0, str.charAt(i));
+            document.addChar(str.charAt(i));
+        }
+    }
+
+    /**
+     * Make one random edit at a random position, and the same edit to the
+     * model.
+     *
+     * @param random the random number generator
+     * @param document the document
+     * @param model the expected text
+     * @return true if the text was edited
+     */
+    private static boolean randomEdit(final Random random,
+        final Document document, final StringBuilder model) {
+
+        int pos = random.nextInt(model.length() + 1);
+        document.setPosition(pos);
+        switch (random.nextInt(4)) {
+        case 0:
+            char ch = randomText(random, SHORT_LINES, 1).charAt(0);
+            if (ch == '\n') {
+                document.enter();
+            } else {
+                document.addChar(ch);
+            }
+            model.insert(pos, ch);
+            return true;
+        case 1:
+            if (pos > 0) {
+                document.backspace();
+                model.deleteCharAt(pos - 1);
+                return true;
+            }
+            return false;
+        case 2:
+            // Forward delete within a line.
+            if ((pos < model.length()) && (model.charAt(pos) != '\n')) {
+                document.del();
+                model.deleteCharAt(pos);
+                return true;
+            }
+            return false;
+        default:
+            document.enter();
+            model.insert(pos, '\n');
+            return true;
+        }
+    }
+
+}